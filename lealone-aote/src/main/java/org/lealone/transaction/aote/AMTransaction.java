@@ -50,7 +50,7 @@ public class AMTransaction implements Transaction {
     final String transactionName;
     final LogSyncService logSyncService;
 
-    UndoLog undoLog = new UndoLog();
+    UndoLog undoLog;
     RunMode runMode;
     String globalReplicationName;
 
@@ -60,6 +60,8 @@ public class AMTransaction implements Transaction {
     private int isolationLevel = Connection.TRANSACTION_READ_COMMITTED; // 默认是读已提交级别
     private boolean autoCommit;
     private Runnable asyncTask;
+    // 只读事务不登记到currentTransactions，也不创建UndoLog，第一次写时才升级为普通事务
+    private boolean readOnly;
 
     // 被哪个事务锁住记录了
     private volatile AMTransaction lockedBy;
@@ -73,17 +75,41 @@ public class AMTransaction implements Transaction {
     }
 
     public AMTransaction(AMTransactionEngine engine, long tid, String hostAndPort) {
+        this(engine, tid, hostAndPort, false);
+    }
+
+    AMTransaction(AMTransactionEngine engine, long tid, String hostAndPort, boolean readOnly) {
         transactionEngine = engine;
         transactionId = tid;
         transactionName = getTransactionName(hostAndPort, tid);
         logSyncService = engine.getLogSyncService();
         status = Transaction.STATUS_OPEN;
+        this.readOnly = readOnly;
+        if (!readOnly)
+            undoLog = new UndoLog();
     }
 
     public UndoLog getUndoLog() {
         return undoLog;
     }
 
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    // 只读事务要执行写操作时升级为普通事务，在任何写操作创建新值之前调用
+    void checkWritable() {
+        checkNotClosed();
+        if (readOnly)
+            upgrade();
+    }
+
+    private void upgrade() {
+        readOnly = false;
+        undoLog = new UndoLog();
+        transactionEngine.addTransaction(this);
+    }
+
     @Override
     public String getGlobalReplicationName() {
         return globalReplicationName;
@@ -133,6 +159,13 @@ public class AMTransaction implements Transaction {
     @Override
     public void setIsolationLevel(int level) {
         isolationLevel = level;
+        // 可重复读的只读事务也要登记到currentTransactions，否则它还要读的旧版本会被清除
+        if (readOnly) {
+            if (level >= Transaction.IL_REPEATABLE_READ)
+                upgrade();
+        } else {
+            transactionEngine.updateIsolationLevel(this);
+        }
     }
 
     @Override
@@ -228,11 +261,11 @@ public class AMTransaction implements Transaction {
 
     @Override
     public int getSavepointId() {
-        return undoLog.getLogId();
+        return undoLog == null ? 0 : undoLog.getLogId();
     }
 
     private RedoLogRecord createLocalTransactionRedoLogRecord() {
-        ByteBuffer operations = undoLog.toRedoLogRecordBuffer(transactionEngine);
+        ByteBuffer operations = undoLog.toRedoLogRecordBuffer();
         if (operations == null || operations.limit() == 0)
             return null;
         return RedoLogRecord.createLocalTransactionRedoLogRecord(transactionId, operations);
@@ -250,7 +283,7 @@ public class AMTransaction implements Transaction {
     // 如果不需要事务日志同步或者不需要立即做事务日志同步那么返回true，这时可以直接提交事务了。
     // 如果需要立即做事务日志，当需要异步提交事务时返回false，当需要同步提交时需要等待
     private boolean writeRedoLog(boolean asyncCommit) {
-        if (logSyncService.needSync() && undoLog.isNotEmpty()) {
+        if (!readOnly && logSyncService.needSync() && undoLog.isNotEmpty()) {
             // 如果需要立即做事务日志同步，那么把redo log的生成工作放在当前线程，减轻日志同步线程的工作量
             if (logSyncService.isInstantSync()) {
                 RedoLogRecord r = createLocalTransactionRedoLogRecord();
@@ -265,8 +298,7 @@ public class AMTransaction implements Transaction {
             } else {
                 // 对于其他日志同步场景，当前线程不需要等待，只需要把事务日志移交到后台日志同步线程的队列中即可
                 // 此时当前线程也不需要自己去做redo log的生成工作，也由后台处理，能尽快结束事务
-                RedoLogRecord r = RedoLogRecord.createLazyTransactionRedoLogRecord(transactionEngine, transactionId,
-                        undoLog);
+                RedoLogRecord r = RedoLogRecord.createLazyTransactionRedoLogRecord(transactionId, undoLog);
                 logSyncService.addRedoLogRecord(r);
                 return true;
             }
@@ -311,7 +343,11 @@ public class AMTransaction implements Transaction {
     }
 
     protected void commitFinal() {
-        commitFinal(transactionId);
+        // 只读事务没有登记到currentTransactions，也没有需要提交的记录
+        if (readOnly)
+            endTransaction(false);
+        else
+            commitFinal(transactionId);
     }
 
     // tid在分布式场景下可能是其他事务的tid
@@ -485,7 +521,8 @@ public class AMTransaction implements Transaction {
     }
 
     private void rollbackTo(long toLogId) {
-        undoLog.rollbackTo(transactionEngine, toLogId);
+        if (undoLog != null)
+            undoLog.rollbackTo(toLogId);
     }
 
     protected void checkNotClosed() {
@@ -496,7 +533,7 @@ public class AMTransaction implements Transaction {
 
     @Override
     public String toString() {
-        return "t[" + transactionName + ", " + autoCommit + "]";
+        return "t[" + transactionName + ", " + autoCommit + (readOnly ? ", readOnly" : "") + "]";
     }
 
     public static String getTransactionName(String hostAndPort, long tid) {
@@ -525,8 +562,9 @@ public class AMTransaction implements Transaction {
         }
     }
 
-    void logAppend(StorageMap<Object, TransactionalValue> map, Object key, TransactionalValue newValue) {
-        undoLog.add(map.getName(), key, null, newValue);
+    void logAppend(AMTransactionEngine.MapInfo mapInfo, StorageMap<Object, TransactionalValue> map, Object key,
+            TransactionalValue newValue) {
+        undoLog.add(mapInfo, key, null, newValue);
         lastKey = key;
         lastValue = newValue;
         lastStorageMap = map;
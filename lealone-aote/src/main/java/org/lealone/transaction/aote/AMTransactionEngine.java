@@ -18,9 +18,13 @@
 package org.lealone.transaction.aote;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -48,23 +52,54 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
 
     private static final String NAME = "AMTE";
 
-    private static final class MapInfo {
+    // 版本链长度分布的各个桶
+    public static final String[] HISTOGRAM_BUCKET_NAMES = { "1", "2", "3-4", "5-8", "9-16", ">16" };
+    private static final int HISTOGRAM_BUCKETS = HISTOGRAM_BUCKET_NAMES.length;
+
+    // UndoLogRecord直接引用MapInfo，提交和写redo日志时就不需要每条记录都按mapName查一次maps了
+    public static final class MapInfo {
         final StorageMap<Object, TransactionalValue> map;
         final AtomicInteger estimatedMemory = new AtomicInteger(0);
+        // 提交后还挂着旧版本链的记录，由VacuumService定期修剪
+        final Set<TransactionalValue> vacuumCandidates = ConcurrentHashMap.newKeySet();
+        volatile int[] versionChainHistogram = new int[HISTOGRAM_BUCKETS];
+        private volatile boolean removed;
 
         MapInfo(StorageMap<Object, TransactionalValue> map) {
             this.map = map;
         }
+
+        public String getName() {
+            return map.getName();
+        }
+
+        // map被删除后返回null
+        public StorageMap<Object, TransactionalValue> getMap() {
+            return removed ? null : map;
+        }
+
+        public void incrementEstimatedMemory(int memory) {
+            estimatedMemory.addAndGet(memory);
+        }
+
+        public void addVacuumCandidate(TransactionalValue ref) {
+            if (!removed)
+                vacuumCandidates.add(ref);
+        }
     }
 
     // key: mapName
     private final ConcurrentHashMap<String, MapInfo> maps = new ConcurrentHashMap<>();
     // key: transactionId
     private final ConcurrentSkipListMap<Long, AMTransaction> currentTransactions = new ConcurrentSkipListMap<>();
+    // REPEATABLE_READ和SERIALIZABLE隔离级别的事务id，在事务开始、结束和改变隔离级别时维护，
+    // 这样找最小的事务id时不用遍历所有事务
+    private final ConcurrentSkipListSet<Long> repeatableReadTransactions = new ConcurrentSkipListSet<>();
     private final AtomicLong lastTransactionId = new AtomicLong();
 
     private LogSyncService logSyncService;
     private CheckpointService checkpointService;
+    private VacuumService vacuumService;
 
     public AMTransactionEngine() {
         super(NAME);
@@ -78,8 +113,28 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
         return logSyncService;
     }
 
+    void addTransaction(AMTransaction t) {
+        currentTransactions.put(t.transactionId, t);
+        updateIsolationLevel(t);
+    }
+
     AMTransaction removeTransaction(long tid) {
-        return currentTransactions.remove(tid);
+        AMTransaction t = currentTransactions.remove(tid);
+        repeatableReadTransactions.remove(tid);
+        return t;
+    }
+
+    // 已经登记到currentTransactions的事务改变隔离级别时调用
+    void updateIsolationLevel(AMTransaction t) {
+        long tid = t.transactionId;
+        if (t.getIsolationLevel() >= Transaction.IL_REPEATABLE_READ) {
+            repeatableReadTransactions.add(tid);
+            // 其他线程可能已经结束了这个事务
+            if (!currentTransactions.containsKey(tid))
+                repeatableReadTransactions.remove(tid);
+        } else {
+            repeatableReadTransactions.remove(tid);
+        }
     }
 
     boolean containsTransaction(long tid) {
@@ -103,31 +158,43 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
     }
 
     void removeStorageMap(String mapName) {
-        maps.remove(mapName);
+        removeMapInfo(mapName);
         RedoLogRecord r = RedoLogRecord.createDroppedMapRedoLogRecord(mapName);
         logSyncService.addAndMaybeWaitForSync(r);
     }
 
+    private void removeMapInfo(String mapName) {
+        MapInfo mapInfo = maps.remove(mapName);
+        if (mapInfo != null) {
+            mapInfo.removed = true;
+            mapInfo.vacuumCandidates.clear();
+        }
+    }
+
+    MapInfo getMapInfo(String mapName) {
+        return maps.get(mapName);
+    }
+
     ///////////////////// 以下方法在UndoLogRecord中有用途 /////////////////////
 
-    public StorageMap<Object, TransactionalValue> getStorageMap(String mapName) {
-        MapInfo mapInfo = maps.get(mapName);
-        return mapInfo != null ? mapInfo.map : null;
+    // 返回REPEATABLE_READ和SERIALIZABLE隔离级别的事务中最小的事务id，没有这样的事务时返回Long.MAX_VALUE
+    long getOldestRepeatableReadTransactionId() {
+        Long tid = repeatableReadTransactions.ceiling(Long.MIN_VALUE);
+        return tid == null ? Long.MAX_VALUE : tid;
     }
 
-    public void incrementEstimatedMemory(String mapName, int memory) {
-        MapInfo mapInfo = maps.get(mapName);
-        if (mapInfo != null)
-            mapInfo.estimatedMemory.addAndGet(memory);
+    // 返回每个map最近一次修剪前的版本链长度分布，各个桶的含义见HISTOGRAM_BUCKET_NAMES
+    public Map<String, int[]> getVersionChainHistograms() {
+        Map<String, int[]> histograms = new TreeMap<>();
+        for (MapInfo mapInfo : maps.values()) {
+            histograms.put(mapInfo.getName(), mapInfo.versionChainHistogram.clone());
+        }
+        return histograms;
     }
 
     // 看看是否有REPEATABLE_READ和SERIALIZABLE隔离级别的事务，并且事务id小于给定值tid的
     public boolean containsRepeatableReadTransactions(long lessThanVersion) {
-        for (AMTransaction t : currentTransactions.headMap(lessThanVersion).values()) {
-            if (t.getIsolationLevel() >= Transaction.IL_REPEATABLE_READ)
-                return true;
-        }
-        return false;
+        return getOldestRepeatableReadTransactionId() < lessThanVersion;
     }
 
     ///////////////////// 实现TransactionEngine接口 /////////////////////
@@ -137,6 +204,7 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
         if (logSyncService != null)
             return;
         checkpointService = new CheckpointService(config);
+        vacuumService = new VacuumService(config);
         logSyncService = LogSyncService.create(config);
 
         long lastTransactionId = logSyncService.getRedoLog().init();
@@ -145,6 +213,7 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
         // 调用完initPendingRedoLog后再启动logSyncService
         logSyncService.start();
         checkpointService.start();
+        vacuumService.start();
 
         ShutdownHookUtils.addShutdownHook(this, () -> {
             close();
@@ -157,6 +226,11 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
             return;
         if (logSyncService != null) {
             // logSyncService放在最后关闭，这样还能执行一次checkpoint，下次启动时能减少redo操作的次数
+            try {
+                vacuumService.close();
+                vacuumService.join();
+            } catch (Exception e) {
+            }
             try {
                 checkpointService.close();
                 checkpointService.join();
@@ -169,6 +243,7 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
             }
             this.logSyncService = null;
             this.checkpointService = null;
+            this.vacuumService = null;
         }
     }
 
@@ -181,7 +256,25 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
         AMTransaction t = createTransaction(tid, runMode);
         t.setAutoCommit(autoCommit);
         t.setRunMode(runMode);
-        currentTransactions.put(tid, t);
+        addTransaction(t);
+        return t;
+    }
+
+    // 只读事务只需要一个快照水位线，它小于等于之后提交的事务的版本号，所以看不到这些事务的修改，
+    // 不登记到currentTransactions，也不创建UndoLog，提交时不需要写redo log
+    @Override
+    public AMTransaction beginReadOnlyTransaction(boolean autoCommit, RunMode runMode) {
+        // 复制和分布式事务需要走完整的流程
+        if (runMode == RunMode.REPLICATION || runMode == RunMode.SHARDING)
+            return beginTransaction(autoCommit, runMode);
+        if (logSyncService == null) {
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_TRANSACTION_ILLEGAL_STATE, "Not initialized");
+        }
+        // 仍然分配一个新的事务id作为水位线，这样不会跟其他事务的id冲突，升级为普通事务时也能直接使用
+        long tid = nextEvenTransactionId();
+        AMTransaction t = new AMTransaction(this, tid, null, true);
+        t.setAutoCommit(autoCommit);
+        t.setRunMode(runMode);
         return t;
     }
 
@@ -261,7 +354,7 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
             return;
         checkpoint();
         for (String mapName : storage.getMapNames()) {
-            maps.remove(mapName);
+            removeMapInfo(mapName);
         }
     }
 
@@ -367,4 +460,82 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
             }
         }
     }
+
+    // 热点记录被反复更新时，如果同时有REPEATABLE_READ事务在运行，提交时就不能及时清除旧版本链，
+    // 读的时候需要沿着越来越长的版本链查找，所以在后台定期修剪那些已经没有事务能读到的旧版本
+    private class VacuumService extends Thread {
+
+        private final Semaphore semaphore = new Semaphore(1);
+        private final long loopInterval;
+        private volatile boolean isClosed;
+
+        VacuumService(Map<String, String> config) {
+            setName(getClass().getSimpleName());
+            setDaemon(true);
+            // 默认1秒
+            loopInterval = DateTimeUtils.getLoopInterval(config, "vacuum_service_loop_interval", 1000);
+        }
+
+        void close() {
+            if (!isClosed) {
+                isClosed = true;
+                semaphore.release();
+            }
+        }
+
+        private void vacuum() {
+            long oldestTid = getOldestRepeatableReadTransactionId();
+            for (MapInfo mapInfo : maps.values()) {
+                if (mapInfo.vacuumCandidates.isEmpty())
+                    continue;
+                int[] histogram = new int[HISTOGRAM_BUCKETS];
+                Iterator<TransactionalValue> iterator = mapInfo.vacuumCandidates.iterator();
+                while (iterator.hasNext()) {
+                    TransactionalValue ref = iterator.next();
+                    int length = TransactionalValue.prune(ref, oldestTid);
+                    histogram[getBucket(length)]++;
+                    TransactionalValue head = ref.getRefValue();
+                    if (head == null || head.getOldValue() == null)
+                        iterator.remove();
+                }
+                mapInfo.versionChainHistogram = histogram;
+                if (logger.isDebugEnabled())
+                    logger.debug("Version chain histogram of map {}: {}", mapInfo.getName(), toString(histogram));
+            }
+        }
+
+        private int getBucket(int length) {
+            int bucket = 0;
+            for (int n = length - 1; n > 0 && bucket < HISTOGRAM_BUCKETS - 1; n >>= 1)
+                bucket++;
+            return bucket;
+        }
+
+        private String toString(int[] histogram) {
+            StringBuilder buff = new StringBuilder();
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                if (i > 0)
+                    buff.append(", ");
+                buff.append(HISTOGRAM_BUCKET_NAMES[i]).append('=').append(histogram[i]);
+            }
+            return buff.toString();
+        }
+
+        @Override
+        public void run() {
+            while (!isClosed) {
+                try {
+                    semaphore.tryAcquire(loopInterval, TimeUnit.MILLISECONDS);
+                    semaphore.drainPermits();
+                } catch (InterruptedException e) {
+                    throw new AssertionError();
+                }
+                try {
+                    vacuum();
+                } catch (Exception e) {
+                    logger.error("Failed to execute vacuum", e);
+                }
+            }
+        }
+    }
 }
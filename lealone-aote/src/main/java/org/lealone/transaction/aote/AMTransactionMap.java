@@ -19,7 +19,6 @@ package org.lealone.transaction.aote;
 
 import java.nio.ByteBuffer;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -42,6 +41,7 @@ import org.lealone.storage.type.ObjectDataType;
 import org.lealone.storage.type.StorageDataType;
 import org.lealone.transaction.Transaction;
 import org.lealone.transaction.TransactionMap;
+import org.lealone.transaction.aote.log.UndoLog;
 import org.lealone.transaction.aote.log.UndoLogRecord;
 
 //只支持单机场景
@@ -49,12 +49,20 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
 
     private final AMTransaction transaction;
     protected final StorageMap<K, TransactionalValue> map;
+    private AMTransactionEngine.MapInfo mapInfo;
 
     public AMTransactionMap(AMTransaction transaction, StorageMap<K, TransactionalValue> map) {
         this.transaction = transaction;
         this.map = map;
     }
 
+    // 每个AMTransactionMap实例只查找一次，写undo log时直接引用它，不再保存mapName
+    private AMTransactionEngine.MapInfo getMapInfo() {
+        if (mapInfo == null)
+            mapInfo = transaction.transactionEngine.getMapInfo(getName());
+        return mapInfo;
+    }
+
     ///////////////////////// 以下是StorageMap接口API的实现 ，有一部分是直接委派的，在后面列出 /////////////////////////
 
     @Override
@@ -171,7 +179,7 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         if (oldTransactionalValue == null) {
             addIfAbsent(key, value, listener);
         } else {
-            if (tryUpdateOrRemove(key, value, null, oldTransactionalValue) == Transaction.OPERATION_COMPLETE)
+            if (tryUpdateOrRemove(key, value, null, oldTransactionalValue, null) == Transaction.OPERATION_COMPLETE)
                 listener.operationComplete();
             else
                 listener.operationUndo();
@@ -264,7 +272,9 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         long sizeRaw = map.size();
         long undoLogSize = 0;
         for (AMTransaction t : transaction.transactionEngine.getCurrentTransactions()) {
-            undoLogSize += t.undoLog.size();
+            UndoLog undoLog = t.undoLog;
+            if (undoLog != null)
+                undoLogSize += undoLog.size();
         }
         if (undoLogSize == 0) {
             return sizeRaw;
@@ -295,8 +305,11 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
                 null);
         try {
             for (AMTransaction t : transaction.transactionEngine.getCurrentTransactions()) {
-                LinkedList<UndoLogRecord> records = t.undoLog.getUndoLogRecords();
-                for (UndoLogRecord r : records) {
+                UndoLog undoLog = t.undoLog;
+                if (undoLog == null)
+                    continue;
+                for (int i = 0, logSize = undoLog.size(); i < logSize; i++) {
+                    UndoLogRecord r = undoLog.get(i);
                     String m = r.getMapName();
                     if (!mapName.equals(m)) {
                         // a different map - ignore
@@ -377,6 +390,7 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
     @SuppressWarnings("unchecked")
     @Override
     public K append(V value) { // 追加新记录时不会产生事务冲突
+        transaction.checkWritable();
         TransactionalValue ref = TransactionalValue.createRef(null);
         TransactionalValue newValue = TransactionalValue.createUncommitted(transaction, value, null, map.getValueType(),
                 null, ref);
@@ -384,7 +398,7 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         K key = map.append(ref);
         // 记事务log和append新值都是更新内存中的相应数据结构，所以不必把log调用放在append前面
         // 放在前面的话调用log方法时就不知道key是什么，当事务要rollback时就不知道如何修改map的内存数据
-        transaction.logAppend((StorageMap<Object, TransactionalValue>) map, key, newValue);
+        transaction.logAppend(getMapInfo(), (StorageMap<Object, TransactionalValue>) map, key, newValue);
         return key;
     }
 
@@ -676,13 +690,12 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
     @Override // 比put方法更高效，不需要返回值，所以也不需要事先调用get
     public void addIfAbsent(K key, V value, Transaction.Listener listener) {
         DataUtils.checkArgument(value != null, "The value may not be null");
-        transaction.checkNotClosed();
+        transaction.checkWritable();
         TransactionalValue ref = TransactionalValue.createRef();
         TransactionalValue newValue = TransactionalValue.createUncommitted(transaction, value, null, map.getValueType(),
                 null, ref);
         ref.setRefValue(newValue);
-        String mapName = getName();
-        final UndoLogRecord r = transaction.undoLog.add(mapName, key, null, newValue);
+        final UndoLogRecord r = transaction.undoLog.add(getMapInfo(), key, null, newValue);
         AsyncHandler<AsyncResult<TransactionalValue>> handler = (ar) -> {
             if (ar.isSucceeded()) {
                 TransactionalValue old = ar.getResult();
@@ -720,6 +733,7 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
     @Override
     @SuppressWarnings("unchecked")
     public void append(V value, Transaction.Listener listener, AsyncHandler<AsyncResult<K>> topHandler) {
+        transaction.checkWritable();
         TransactionalValue ref = TransactionalValue.createRef(null);
         TransactionalValue newValue = TransactionalValue.createUncommitted(transaction, value, null, map.getValueType(),
                 null, ref);
@@ -732,36 +746,47 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
             }
         };
         K key = map.append(ref, handler);
-        transaction.logAppend((StorageMap<Object, TransactionalValue>) map, key, newValue);
+        transaction.logAppend(getMapInfo(), (StorageMap<Object, TransactionalValue>) map, key, newValue);
         topHandler.handle(new AsyncResult<>(key));
     }
 
     @Override
     public int tryUpdate(K key, V newValue, int[] columnIndexes, Object oldTransactionalValue) {
         DataUtils.checkArgument(newValue != null, "The newValue may not be null");
-        return tryUpdateOrRemove(key, newValue, columnIndexes, (TransactionalValue) oldTransactionalValue);
+        return tryUpdateOrRemove(key, newValue, columnIndexes, (TransactionalValue) oldTransactionalValue, null);
+    }
+
+    @Override
+    public int tryUpdate(K key, V newValue, int[] columnIndexes, Object oldTransactionalValue, Object[] deltas) {
+        DataUtils.checkArgument(newValue != null, "The newValue may not be null");
+        DataUtils.checkArgument(deltas == null || columnIndexes != null && columnIndexes.length == deltas.length,
+                "The deltas must match the columnIndexes");
+        return tryUpdateOrRemove(key, newValue, columnIndexes, (TransactionalValue) oldTransactionalValue, deltas);
     }
 
     @Override
     public int tryRemove(K key, Object oldTransactionalValue) {
-        return tryUpdateOrRemove(key, null, null, (TransactionalValue) oldTransactionalValue);
+        return tryUpdateOrRemove(key, null, null, (TransactionalValue) oldTransactionalValue, null);
     }
 
     // 在SQL层对应update或delete语句，用于支持行锁和列锁。
     // 如果当前行(或列)已经被其他事务锁住了那么返回一个非Transaction.OPERATION_COMPLETE值表示更新或删除失败了，
     // 当前事务要让出当前线程。
     // 当value为null时代表delete，否则代表update。
-    protected int tryUpdateOrRemove(K key, V value, int[] columnIndexes, TransactionalValue oldTransactionalValue) {
+    // deltas不为null时代表可交换的增量更新，此时value中对应的列会基于最新的值重新计算。
+    protected int tryUpdateOrRemove(K key, V value, int[] columnIndexes, TransactionalValue oldTransactionalValue,
+            Object[] deltas) {
         DataUtils.checkArgument(oldTransactionalValue != null, "The oldTransactionalValue may not be null");
-        transaction.checkNotClosed();
-        String mapName = getName();
+        transaction.checkWritable();
+        AMTransactionEngine.MapInfo mapInfo = getMapInfo();
+        boolean commutative = deltas != null;
         // 进入循环前先取出原来的值
         TransactionalValue refValue = oldTransactionalValue.getRefValue();
         // 不同事务更新不同字段时，在循环里重试是可以的
-        while (!oldTransactionalValue.isLocked(transaction.transactionId, columnIndexes)) {
+        while (!oldTransactionalValue.isLocked(transaction.transactionId, columnIndexes, commutative)) {
             TransactionalValue newValue = TransactionalValue.createUncommitted(transaction, value, refValue,
-                    map.getValueType(), columnIndexes, oldTransactionalValue);
-            transaction.undoLog.add(mapName, key, refValue, newValue);
+                    map.getValueType(), columnIndexes, oldTransactionalValue, deltas);
+            transaction.undoLog.add(mapInfo, key, refValue, newValue);
             if (oldTransactionalValue.compareAndSet(refValue, newValue)) {
                 return Transaction.OPERATION_COMPLETE;
             } else {
@@ -805,7 +830,7 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
     @Override
     public boolean tryLock(K key, Object oldTransactionalValue) {
         DataUtils.checkArgument(oldTransactionalValue != null, "The oldTransactionalValue may not be null");
-        transaction.checkNotClosed();
+        transaction.checkWritable();
         TransactionalValue ref = (TransactionalValue) oldTransactionalValue;
         if (ref.isLocked(transaction.transactionId, null))
             return false;
@@ -813,7 +838,7 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         TransactionalValue refValue = ref.getRefValue();
         TransactionalValue newValue = TransactionalValue.createUncommitted(transaction, refValue.getValue(), refValue,
                 map.getValueType(), null, ref);
-        transaction.undoLog.add(getName(), key, refValue, newValue, true);
+        transaction.undoLog.add(getMapInfo(), key, refValue, newValue, true);
         if (ref.compareAndSet(refValue, newValue)) {
             return true;
         } else {
@@ -824,11 +849,16 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
 
     @Override
     public boolean isLocked(Object oldValue, int[] columnIndexes) {
+        return isLocked(oldValue, columnIndexes, false);
+    }
+
+    @Override
+    public boolean isLocked(Object oldValue, int[] columnIndexes, boolean commutative) {
         TransactionalValue tv = ((TransactionalValue) oldValue);
         if (transaction.globalReplicationName != null
                 && transaction.globalReplicationName.equals(tv.getGlobalReplicationName()))
             return false;
-        return tv.isLocked(transaction.transactionId, columnIndexes);
+        return tv.isLocked(transaction.transactionId, columnIndexes, commutative);
     }
 
     @Override
@@ -163,7 +163,7 @@ public class AOTransaction extends AMTransaction {
     }
 
     private RedoLogRecord createDistributedTransactionRedoLogRecord(String allLocalTransactionNames) {
-        ByteBuffer operations = getUndoLog().toRedoLogRecordBuffer(transactionEngine);
+        ByteBuffer operations = getUndoLog().toRedoLogRecordBuffer();
         if (operations == null)
             return null;
         return RedoLogRecord.createDistributedTransactionRedoLogRecord(transactionId, transactionName,
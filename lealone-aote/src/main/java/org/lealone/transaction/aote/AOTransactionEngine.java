@@ -48,6 +48,12 @@ public class AOTransactionEngine extends AMTransactionEngine {
         return DTRValidator.validateTransaction(NetNode.getLocalTcpHostAndPort(), tid, currentTransaction);
     }
 
+    // 返回null表示还在效验中，效验结束时通过listener唤醒当前事务
+    Boolean validateTransaction(long tid, AOTransaction currentTransaction, Transaction.Listener listener) {
+        return DTRValidator.validateTransaction(NetNode.getLocalTcpHostAndPort(), tid, currentTransaction,
+                listener);
+    }
+
     @Override
     protected TransactionMap<?, ?> getTransactionMap(Transaction transaction,
             StorageMap<Object, TransactionalValue> map) {
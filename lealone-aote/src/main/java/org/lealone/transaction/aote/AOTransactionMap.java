@@ -76,17 +76,29 @@ public class AOTransactionMap<K, V> extends AMTransactionMap<K, V> {
     }
 
     @Override
-    protected int tryUpdateOrRemove(K key, V value, int[] columnIndexes, TransactionalValue oldTransactionalValue) {
+    protected int tryUpdateOrRemove(K key, V value, int[] columnIndexes, TransactionalValue oldTransactionalValue,
+            Object[] deltas) {
         long tid = oldTransactionalValue.getTid();
         if (tid != 0 && tid != transaction.transactionId && tid % 2 == 1) {
-            boolean isValid = transaction.transactionEngine.validateTransaction(tid, transaction);
+            boolean isValid;
+            Object object = Thread.currentThread();
+            if (object instanceof Transaction.Listener) {
+                // 在调度线程中不阻塞，效验结束时再唤醒当前事务重试
+                Boolean v = transaction.transactionEngine.validateTransaction(tid, transaction,
+                        (Transaction.Listener) object);
+                if (v == null)
+                    return Transaction.OPERATION_NEED_WAIT;
+                isValid = v.booleanValue();
+            } else {
+                isValid = transaction.transactionEngine.validateTransaction(tid, transaction);
+            }
             if (isValid) {
                 transaction.commitAfterValidate(tid);
             } else {
                 return Transaction.OPERATION_NEED_WAIT;
             }
         }
-        int ret = super.tryUpdateOrRemove(key, value, columnIndexes, oldTransactionalValue);
+        int ret = super.tryUpdateOrRemove(key, value, columnIndexes, oldTransactionalValue, deltas);
         if (ret == Transaction.OPERATION_COMPLETE) {
             oldTransactionalValue.incrementVersion();
             if (transaction.globalReplicationName != null)
@@ -18,15 +18,20 @@
 package org.lealone.transaction.aote;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.lealone.common.exceptions.DbException;
 import org.lealone.db.Constants;
 import org.lealone.db.async.AsyncCallback;
+import org.lealone.db.async.AsyncHandler;
+import org.lealone.db.async.AsyncResult;
 import org.lealone.db.async.Future;
 import org.lealone.db.session.Session;
 import org.lealone.net.NetNode;
@@ -38,12 +43,20 @@ import org.lealone.server.protocol.replication.ReplicationCheckConflict;
 import org.lealone.server.protocol.replication.ReplicationCheckConflictAck;
 import org.lealone.server.protocol.replication.ReplicationHandleConflict;
 import org.lealone.storage.replication.ConsistencyLevel;
+import org.lealone.transaction.Transaction;
 
 //效验分布式事务和复制是否成功
 //DT表示Distributed Transaction，R表示Replication
 class DTRValidator {
 
-    private static final Map<String, DTStatusCache> hostAndPortMap = new HashMap<>();
+    // key: hostAndPort, value: 对应节点的分布式事务状态缓存
+    private static final ConcurrentHashMap<String, DTStatusCache> hostAndPortMap = new ConcurrentHashMap<>();
+
+    // key: hostAndPort, value: 把发往同一个节点的效验请求合并成一个包
+    private static final ConcurrentHashMap<String, HostValidator> hostValidators = new ConcurrentHashMap<>();
+
+    // key: transactionName, value: 正在效验中的事务，多个读写操作碰到同一个事务时只效验一次
+    private static final ConcurrentHashMap<String, PendingValidation> pendingValidations = new ConcurrentHashMap<>();
 
     // key: transactionName, value: [ allLocalTransactionNames, commitTimestamp ].
     private static final ConcurrentHashMap<String, Object[]> dTransactions = new ConcurrentHashMap<>();
@@ -51,15 +64,23 @@ class DTRValidator {
     // key: replicationName, value: replicationName.
     private static final ConcurrentHashMap<String, String> replications = new ConcurrentHashMap<>();
 
-    private static DTStatusCache newCache(String hostAndPort) {
-        synchronized (DTRValidator.class) {
-            DTStatusCache cache = hostAndPortMap.get(hostAndPort);
-            if (cache == null) {
-                cache = new DTStatusCache();
-                hostAndPortMap.put(hostAndPort, cache);
-            }
-            return cache;
-        }
+    private static DTStatusCache getCache(String hostAndPort) {
+        DTStatusCache cache = hostAndPortMap.get(hostAndPort);
+        if (cache == null)
+            cache = hostAndPortMap.computeIfAbsent(hostAndPort, k -> new DTStatusCache());
+        return cache;
+    }
+
+    private static HostValidator getHostValidator(String hostAndPort) {
+        HostValidator validator = hostValidators.get(hostAndPort);
+        if (validator == null)
+            validator = hostValidators.computeIfAbsent(hostAndPort, k -> new HostValidator(k));
+        return validator;
+    }
+
+    private static String getHostAndPort(String localTransactionName) {
+        String[] a = localTransactionName.split(":");
+        return a[0] + ":" + a[1];
     }
 
     static void addTransaction(AOTransaction transaction, String allLocalTransactionNames) {
@@ -71,21 +92,18 @@ class DTRValidator {
     private static void validateTransactionAsync(AOTransaction transaction, String[] allLocalTransactionNames) {
         AtomicBoolean isFullSuccessful = new AtomicBoolean(true);
         AtomicInteger size = new AtomicInteger(allLocalTransactionNames.length);
-        AckPacketHandler<Void, DTransactionValidateAck> handler = ack -> {
-            isFullSuccessful.compareAndSet(true, ack.isValid);
+        AsyncHandler<AsyncResult<Boolean>> handler = ar -> {
+            isFullSuccessful.compareAndSet(true, ar.isSucceeded() && ar.getResult());
             int index = size.decrementAndGet();
             if (index == 0 && isFullSuccessful.get()) {
                 transaction.commitAfterValidate(transaction.transactionId);
             }
-            return null;
         };
         String localHostAndPort = NetNode.getLocalTcpHostAndPort();
         for (String localTransactionName : allLocalTransactionNames) {
             if (!localTransactionName.startsWith(localHostAndPort)) {
-                String[] a = localTransactionName.split(":");
-                String hostAndPort = a[0] + ":" + a[1];
-                DTransactionValidate packet = new DTransactionValidate(localTransactionName);
-                transaction.getSession().send(packet, hostAndPort, handler);
+                getHostValidator(getHostAndPort(localTransactionName)).validate(localTransactionName,
+                        transaction.getSession(), handler);
             } else {
                 size.decrementAndGet();
             }
@@ -100,7 +118,7 @@ class DTRValidator {
     }
 
     /**
-     * 检查事务是否有效
+     * 检查事务是否有效，如果需要到其他节点效验，当前线程会等到效验结束
      * 
      * @param hostAndPort 要检查的行所在的主机名和端口号
      * @param oldTid 要检查的行存入数据库的旧事务id
@@ -108,19 +126,41 @@ class DTRValidator {
      * @return true 有效 
      */
     static boolean validateTransaction(String hostAndPort, long oldTid, AOTransaction currentTransaction) {
-        DTStatusCache cache = hostAndPortMap.get(hostAndPort);
-        if (cache == null) {
-            cache = newCache(hostAndPort);
-        }
+        Object v = validateTransaction(hostAndPort, oldTid, currentTransaction, true);
+        if (v instanceof PendingValidation)
+            return ((PendingValidation) v).await();
+        return (Boolean) v;
+    }
+
+    /**
+     * 检查事务是否有效，如果需要到其他节点效验，不会阻塞当前线程，
+     * 而是让当前事务进入等待状态，效验结束时通过listener唤醒
+     * 
+     * @return true 有效; false 无效; null 还在效验中
+     */
+    static Boolean validateTransaction(String hostAndPort, long oldTid, AOTransaction currentTransaction,
+            Transaction.Listener listener) {
+        Object v = validateTransaction(hostAndPort, oldTid, currentTransaction, false);
+        if (v instanceof PendingValidation)
+            return ((PendingValidation) v).addWaitingTransaction(currentTransaction, listener);
+        return (Boolean) v;
+    }
+
+    private static Object validateTransaction(String hostAndPort, long oldTid, AOTransaction currentTransaction,
+            boolean sync) {
+        DTStatusCache cache = getCache(hostAndPort);
         long commitTimestamp = cache.get(oldTid);
         // 1.上一次已经查过了，已确认过是条无效的记录
-        if (commitTimestamp == -2)
+        if (commitTimestamp == DTStatusCache.ABORTED)
             return false;
         // 2. 是有效的事务记录，再进一步判断是否小于等于当前事务的开始时间戳
-        if (commitTimestamp != -1)
+        if (commitTimestamp != DTStatusCache.UNKNOWN)
             return commitTimestamp <= currentTransaction.transactionId;
 
         String oldTransactionName = AOTransaction.getTransactionName(hostAndPort, oldTid);
+        PendingValidation pv = pendingValidations.get(oldTransactionName);
+        if (pv != null)
+            return pv;
 
         Object[] v = dTransactions.get(oldTransactionName);
         if (v == null) // TODO
@@ -128,31 +168,28 @@ class DTRValidator {
 
         commitTimestamp = (long) v[1];
         String[] allLocalTransactionNames = ((String) v[0]).split(",");
-        boolean isFullSuccessful = true;
-
+        ArrayList<String> remoteTransactionNames = new ArrayList<>(allLocalTransactionNames.length);
         for (String localTransactionName : allLocalTransactionNames) {
-            if (!oldTransactionName.equals(localTransactionName)) {
-                if (!validateRemoteTransaction(localTransactionName, currentTransaction.getSession())) {
-                    isFullSuccessful = false;
-                    break;
-                }
-            }
+            if (!oldTransactionName.equals(localTransactionName))
+                remoteTransactionNames.add(localTransactionName);
         }
-
-        // TODO 如果前一个事务没有结束，如何让它结束或是等它结束。
-        if (isFullSuccessful) {
+        if (remoteTransactionNames.isEmpty()) {
             cache.set(oldTid, commitTimestamp);
             return true;
-        } else {
-            cache.set(oldTid, -2);
-            return false;
         }
-    }
 
-    private static boolean validateRemoteTransaction(String localTransactionName, Session session) {
-        String[] a = localTransactionName.split(":");
-        String hostAndPort = a[0] + ":" + a[1];
-        return validateRemoteTransaction(hostAndPort, localTransactionName, session);
+        // TODO 如果前一个事务没有结束，如何让它结束或是等它结束。
+        pv = new PendingValidation(oldTransactionName, cache, oldTid, commitTimestamp,
+                remoteTransactionNames.size());
+        PendingValidation old = pendingValidations.putIfAbsent(oldTransactionName, pv);
+        if (old != null)
+            return old;
+        Session session = currentTransaction.getSession();
+        for (String localTransactionName : remoteTransactionNames) {
+            getHostValidator(getHostAndPort(localTransactionName)).validate(localTransactionName, session,
+                    pv::onRemoteResult);
+        }
+        return pv;
     }
 
     private static boolean validateRemoteTransaction(String hostAndPort, String localTransactionName, Session session) {
@@ -274,4 +311,206 @@ class DTRValidator {
         }
         return asyncCallback;
     }
+
+    private static class PendingValidation {
+
+        private static final int PENDING = 0;
+        private static final int VALID = 1;
+        private static final int INVALID = 2;
+        private static final int FAILED = 3;
+
+        private final String transactionName;
+        private final DTStatusCache cache;
+        private final long tid;
+        private final long commitTimestamp;
+        private final AtomicInteger remaining;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private volatile Throwable cause; // 效验失败的原因，比如网络出错
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final ConcurrentLinkedQueue<Transaction.WaitingTransaction> waitingTransactions = //
+                new ConcurrentLinkedQueue<>();
+
+        PendingValidation(String transactionName, DTStatusCache cache, long tid, long commitTimestamp,
+                int remoteCount) {
+            this.transactionName = transactionName;
+            this.cache = cache;
+            this.tid = tid;
+            this.commitTimestamp = commitTimestamp;
+            this.remaining = new AtomicInteger(remoteCount);
+        }
+
+        void onRemoteResult(AsyncResult<Boolean> ar) {
+            if (ar.isFailed()) {
+                // 网络出错时不知道事务是否有效，不能当成无效的事务，也不缓存，下次重新效验
+                cause = ar.getCause();
+                end(FAILED);
+            } else if (!ar.getResult()) {
+                end(INVALID);
+            } else if (remaining.decrementAndGet() == 0) {
+                end(VALID);
+            }
+        }
+
+        private void end(int newState) {
+            if (!state.compareAndSet(PENDING, newState))
+                return;
+            if (newState == VALID)
+                cache.set(tid, commitTimestamp);
+            else if (newState == INVALID)
+                cache.setAborted(tid);
+            pendingValidations.remove(transactionName, this);
+            latch.countDown();
+            wakeUpWaitingTransactions();
+        }
+
+        private void wakeUpWaitingTransactions() {
+            Transaction.WaitingTransaction wt = waitingTransactions.poll();
+            while (wt != null) {
+                wt.wakeUp();
+                wt = waitingTransactions.poll();
+            }
+        }
+
+        boolean await() {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            }
+            if (state.get() == FAILED)
+                throw DbException.convert(cause);
+            return state.get() == VALID;
+        }
+
+        Boolean addWaitingTransaction(AOTransaction transaction, Transaction.Listener listener) {
+            int s = state.get();
+            if (s == VALID || s == INVALID)
+                return s == VALID;
+            // 效验失败时也让当前事务等待，唤醒后重试时会重新效验
+            transaction.setStatus(Transaction.STATUS_WAITING);
+            waitingTransactions.add(new Transaction.WaitingTransaction(transactionName, transaction, listener));
+            // 有可能在加入前刚好效验结束了，此时自己唤醒，让当前事务重试，
+            // 重试前要确保已经从pendingValidations中删除，否则重试时拿到的还是当前这个
+            if (state.get() != PENDING) {
+                pendingValidations.remove(transactionName, this);
+                wakeUpWaitingTransactions();
+            }
+            return null;
+        }
+    }
+
+    private static class RemoteValidation {
+        final String localTransactionName;
+        final Session session; // 只用来建立到目标节点的连接
+        final AsyncHandler<AsyncResult<Boolean>> handler;
+
+        RemoteValidation(String localTransactionName, Session session,
+                AsyncHandler<AsyncResult<Boolean>> handler) {
+            this.localTransactionName = localTransactionName;
+            this.session = session;
+            this.handler = handler;
+        }
+    }
+
+    // 每个节点同一时间最多只有一个效验包在路上，在途期间新来的请求先攒起来，
+    // 等应答回来后再合并成一个包发出去，这样不会每个事务名都占用一次网络往返。
+    // 合并后的包里有多个事务的效验请求，所以用HostValidator自己的连接发送，不属于其中任何一个事务的session
+    private static class HostValidator {
+
+        private final String hostAndPort;
+        private final ConcurrentLinkedQueue<RemoteValidation> validations = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private volatile Session connection;
+
+        HostValidator(String hostAndPort) {
+            this.hostAndPort = hostAndPort;
+        }
+
+        void validate(String localTransactionName, Session session, AsyncHandler<AsyncResult<Boolean>> handler) {
+            validations.add(new RemoteValidation(localTransactionName, session, handler));
+            sendBatch();
+        }
+
+        private void sendBatch() {
+            while (!validations.isEmpty() && sending.compareAndSet(false, true)) {
+                ArrayList<RemoteValidation> batch = new ArrayList<>();
+                RemoteValidation rv = validations.poll();
+                while (rv != null) {
+                    batch.add(rv);
+                    rv = validations.poll();
+                }
+                if (!batch.isEmpty()) {
+                    send(batch);
+                    return;
+                }
+                sending.set(false);
+            }
+        }
+
+        private void send(ArrayList<RemoteValidation> batch) {
+            Session connection = this.connection;
+            if (connection != null && !connection.isClosed()) {
+                send(batch, connection);
+                return;
+            }
+            // 第一次效验或连接出错后，用当前批次中第一个请求的session的用户信息建立新连接
+            try {
+                batch.get(0).session.createSessionAsync(hostAndPort).onComplete(ar -> {
+                    if (ar.isSucceeded()) {
+                        this.connection = ar.getResult();
+                        send(batch, ar.getResult());
+                    } else {
+                        fail(batch, ar.getCause());
+                    }
+                });
+            } catch (Throwable t) {
+                fail(batch, t);
+            }
+        }
+
+        private void send(ArrayList<RemoteValidation> batch, Session connection) {
+            int size = batch.size();
+            // 对方是老版本时一个包只能效验一个事务
+            int packetSize = connection.getProtocolVersion() >= Constants.TCP_PROTOCOL_VERSION_4 ? size : 1;
+            AtomicInteger packetCount = new AtomicInteger((size + packetSize - 1) / packetSize);
+            for (int start = 0; start < size; start += packetSize) {
+                List<RemoteValidation> list = batch.subList(start, Math.min(start + packetSize, size));
+                String[] names = new String[list.size()];
+                for (int i = 0; i < names.length; i++)
+                    names[i] = list.get(i).localTransactionName;
+                AckPacketHandler<Void, DTransactionValidateAck> ackHandler = ack -> {
+                    for (int i = 0; i < names.length; i++)
+                        list.get(i).handler.handle(new AsyncResult<>(ack.results[i]));
+                    return null;
+                };
+                Future<Void> f = connection.send(new DTransactionValidate(names), hostAndPort, ackHandler);
+                f.onComplete(ar -> {
+                    if (ar.isFailed()) {
+                        closeConnection(connection);
+                        for (RemoteValidation rv : list)
+                            rv.handler.handle(new AsyncResult<>(ar.getCause()));
+                    }
+                    if (packetCount.decrementAndGet() == 0) {
+                        sending.set(false);
+                        sendBatch();
+                    }
+                });
+            }
+        }
+
+        private void fail(ArrayList<RemoteValidation> batch, Throwable cause) {
+            for (RemoteValidation rv : batch)
+                rv.handler.handle(new AsyncResult<>(cause));
+            sending.set(false);
+            sendBatch();
+        }
+
+        // 连接出错后下一批效验请求会重新建立连接
+        private void closeConnection(Session connection) {
+            if (this.connection == connection) {
+                this.connection = null;
+                connection.close();
+            }
+        }
+    }
 }
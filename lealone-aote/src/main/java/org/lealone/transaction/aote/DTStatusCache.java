@@ -17,7 +17,8 @@
  */
 package org.lealone.transaction.aote;
 
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.lealone.db.Constants;
 
@@ -27,9 +28,16 @@ import org.lealone.db.Constants;
  * <ul>-1: 事务状态未知</ul>
  * <ul>-2: 事务未正常提交</ul>
  * <ul>其他值: 事务正常提交</ul>
+ * 
+ * 读写都不加锁，每个桶只缓存一段连续的tid，不同的tid区间落到同一个桶时用新的区间替换旧的，
+ * 这样旧区间的tid不会读到新区间的状态。
  *
  */
 class DTStatusCache {
+
+    static final long UNKNOWN = -1;
+    static final long ABORTED = -2;
+
     // 桶个数
     private static final int BUCKET_NUMBER = Integer.valueOf(System.getProperty(
             Constants.PROJECT_NAME_PREFIX + "transaction.status.cache.bucket.number", Integer.toString(1 << 15)));
@@ -38,16 +46,31 @@ class DTStatusCache {
     private static final int BUCKET_SIZE = Integer.valueOf(System.getProperty(
             Constants.PROJECT_NAME_PREFIX + "transaction.status.cache.bucket.size", Integer.toString(1 << 14)));
 
-    private final Bucket buckets[] = new Bucket[BUCKET_NUMBER];
+    private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(BUCKET_NUMBER);
 
-    public synchronized void set(long tid, long timestamp) {
-        int position = getPosition(tid);
-        Bucket bucket = buckets[position];
-        if (bucket == null) {
-            bucket = new Bucket();
-            buckets[position] = bucket;
+    public void set(long tid, long timestamp) {
+        long base = tid / BUCKET_SIZE;
+        int position = getPosition(base);
+        while (true) {
+            Bucket bucket = buckets.get(position);
+            if (bucket != null) {
+                if (bucket.base == base) {
+                    bucket.set(tid, timestamp);
+                    return;
+                }
+                // 更旧的区间不再缓存
+                if (bucket.base > base)
+                    return;
+            }
+            Bucket newBucket = new Bucket(base);
+            newBucket.set(tid, timestamp);
+            if (buckets.compareAndSet(position, bucket, newBucket))
+                return;
         }
-        bucket.set(tid, timestamp);
+    }
+
+    public void setAborted(long tid) {
+        set(tid, ABORTED);
     }
 
     /**
@@ -56,31 +79,35 @@ class DTStatusCache {
      * @return -1: 事务状态未知; -2: 事务未正常提交; 其他值: 事务正常提交
      */
     public long get(long tid) {
-        Bucket bucket = buckets[getPosition(tid)];
-        if (bucket == null) {
-            return -1;
+        long base = tid / BUCKET_SIZE;
+        Bucket bucket = buckets.get(getPosition(base));
+        if (bucket == null || bucket.base != base) {
+            return UNKNOWN;
         }
         return bucket.get(tid);
     }
 
-    // 算出tid在哪个桶
-    private int getPosition(long tid) {
-        return ((int) (tid / BUCKET_SIZE)) % BUCKET_NUMBER;
+    // 算出tid区间在哪个桶
+    private static int getPosition(long base) {
+        return (int) (base % BUCKET_NUMBER);
     }
 
     private static class Bucket {
-        private final long tids[] = new long[BUCKET_SIZE];
+        private final long base;
+        // 0表示事务状态未知，这样新建桶时不用逐个填充-1
+        private final AtomicLongArray tids = new AtomicLongArray(BUCKET_SIZE);
 
-        Bucket() {
-            Arrays.fill(tids, -1);
+        Bucket(long base) {
+            this.base = base;
         }
 
         long get(long tid) {
-            return tids[(int) (tid % BUCKET_SIZE)];
+            long v = tids.get((int) (tid % BUCKET_SIZE));
+            return v == 0 ? UNKNOWN : v;
         }
 
         void set(long tid, long timestamp) {
-            tids[(int) (tid % BUCKET_SIZE)] = timestamp;
+            tids.set((int) (tid % BUCKET_SIZE), timestamp);
         }
     }
 }
@@ -18,12 +18,14 @@
 package org.lealone.transaction.aote;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.BitSet;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.DataUtils;
 import org.lealone.common.util.UnsafeUtils;
 import org.lealone.db.DataBuffer;
+import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueString;
 import org.lealone.net.NetNode;
 import org.lealone.storage.StorageMap;
@@ -55,6 +57,11 @@ public interface TransactionalValue {
 
     public boolean isLocked(long tid, int[] columnIndexes);
 
+    // commutative为true时代表可交换的增量更新，跟其他事务对同一列的增量更新不冲突
+    public default boolean isLocked(long tid, int[] columnIndexes, boolean commutative) {
+        return isLocked(tid, columnIndexes);
+    }
+
     public String getHostAndPort();
 
     public String getGlobalReplicationName();
@@ -117,6 +124,12 @@ public interface TransactionalValue {
 
     public static TransactionalValue createUncommitted(AMTransaction transaction, Object value,
             TransactionalValue oldValue, StorageDataType oldValueType, int[] columnIndexes, TransactionalValue ref) {
+        return createUncommitted(transaction, value, oldValue, oldValueType, columnIndexes, ref, null);
+    }
+
+    public static TransactionalValue createUncommitted(AMTransaction transaction, Object value,
+            TransactionalValue oldValue, StorageDataType oldValueType, int[] columnIndexes, TransactionalValue ref,
+            Object[] deltas) {
         boolean rowLock = false;
         if (oldValue == null || oldValue instanceof Exclusive) { // insert
             rowLock = true;
@@ -125,7 +138,7 @@ public interface TransactionalValue {
         } else {
             if (columnIndexes == null || columnIndexes.length == 0) {
                 rowLock = true;
-            } else {
+            } else if (deltas == null) { // 增量更新总是只加列锁，否则就无法并发执行了
                 int columnCount = oldValueType.getColumnCount();
                 if (columnIndexes.length >= (columnCount / 2) + 1) {
                     rowLock = true;
@@ -135,7 +148,53 @@ public interface TransactionalValue {
         if (rowLock)
             return new Exclusive(transaction, value, oldValue, oldValueType, columnIndexes, ref);
         else
-            return new Uncommitted(transaction, value, oldValue, oldValueType, columnIndexes, ref);
+            return new Uncommitted(transaction, value, oldValue, oldValueType, columnIndexes, ref, deltas);
+    }
+
+    // 由VacuumService调用，剪掉所有活跃的REPEATABLE_READ和SERIALIZABLE事务都不会再读到的旧版本，
+    // oldestTid是这些事务中最小的事务id，返回剪之前版本链的长度。
+    //
+    // 不修改原来的版本链，而是复制从head到剪切点的版本，再用CAS替换head，
+    // 跟写操作、提交和回滚一样通过ref的CAS互斥，head变了就放弃这一次，
+    // 正在沿着原来的版本链读的事务也不受影响。
+    public static int prune(TransactionalValue ref, long oldestTid) {
+        TransactionalValue head = ref.getRefValue();
+        CommittedWithTid cut = null;
+        int prefix = 0; // head到cut之间(包括cut)的版本数
+        int length = 0;
+        for (TransactionalValue tv = head; tv != null; tv = tv.getOldValue()) {
+            length++;
+            if (cut == null) {
+                // 剪切点之前只能是已经提交的版本，有未提交的版本说明记录正被其他事务修改
+                if (!(tv instanceof CommittedWithTid))
+                    return length;
+                CommittedWithTid c = (CommittedWithTid) tv;
+                if (!c.transaction.isCommitted())
+                    return length;
+                prefix++;
+                // 事务id不小于version的事务都只会读到这个版本，不会再往后找了
+                if (c.version <= oldestTid)
+                    cut = c;
+            } else if (tv instanceof Uncommitted && !tv.isCommitted()) {
+                // 后面还有其他事务未提交的列锁，它们在提交或回滚时还要用到，此时不能剪
+                return length;
+            }
+        }
+        if (cut == null || cut.oldValue == null)
+            return length;
+        CommittedWithTid[] versions = new CommittedWithTid[prefix];
+        TransactionalValue tv = head;
+        for (int i = 0; i < prefix; i++) {
+            versions[i] = (CommittedWithTid) tv;
+            tv = tv.getOldValue();
+        }
+        TransactionalValue newHead = null;
+        for (int i = prefix - 1; i >= 0; i--) {
+            CommittedWithTid c = versions[i];
+            newHead = new CommittedWithTid(c.transaction, c.value, newHead, c.version);
+        }
+        ref.compareAndSet(head, newHead);
+        return length;
     }
 
     public static TransactionalValue createRef(TransactionalValue tv) {
@@ -213,6 +272,11 @@ public interface TransactionalValue {
             return tv.isLocked(tid, columnIndexes);
         }
 
+        @Override
+        public boolean isLocked(long tid, int[] columnIndexes, boolean commutative) {
+            return tv.isLocked(tid, columnIndexes, commutative);
+        }
+
         @Override
         public String getHostAndPort() {
             return tv.getHostAndPort();
@@ -556,11 +620,18 @@ public interface TransactionalValue {
         private boolean rowLock;
         private BitSet lockedColumns;
         private int[] columnIndexes;
+        // 不为null时代表可交换的增量更新，跟columnIndexes一一对应，是当前事务对这些列累计的增量
+        private Object[] deltas;
 
         TransactionalValue ref;
 
         Uncommitted(AMTransaction transaction, Object value, TransactionalValue oldValue, StorageDataType oldValueType,
                 int[] columnIndexes, TransactionalValue ref) {
+            this(transaction, value, oldValue, oldValueType, columnIndexes, ref, null);
+        }
+
+        Uncommitted(AMTransaction transaction, Object value, TransactionalValue oldValue, StorageDataType oldValueType,
+                int[] columnIndexes, TransactionalValue ref, Object[] deltas) {
             super(value);
             // 虽然同一个事务对同一行记录不断更新会导致过长的oldValue链，
             // 但是为了实现保存点的功能还是得这么做，直到事务提交时再取最新值
@@ -576,15 +647,17 @@ public interface TransactionalValue {
             this.globalReplicationName = transaction.globalReplicationName;
             this.columnIndexes = columnIndexes;
             this.ref = ref;
+            if (deltas != null && value != null)
+                initDeltas(deltas);
 
             if (columnIndexes == null || columnIndexes.length == 0) {
                 rowLock = true;
             } else {
                 int columnCount = oldValueType.getColumnCount();
-                if (columnIndexes.length < (columnCount / 2) + 1) {
+                if (this.deltas != null || columnIndexes.length < (columnCount / 2) + 1) {
                     rowLock = false;
                     lockedColumns = new BitSet(columnCount);
-                    for (int i : columnIndexes) {
+                    for (int i : this.columnIndexes) {
                         lockedColumns.set(i);
                     }
                 } else {
@@ -612,10 +685,83 @@ public interface TransactionalValue {
             u.rowLock = rowLock;
             u.lockedColumns = lockedColumns;
             u.columnIndexes = columnIndexes;
+            u.deltas = deltas;
             u.transaction = transaction;
             return u;
         }
 
+        // SQL层是基于之前读到的值计算出新值的，这个值可能已经过期了，
+        // 所以增量更新要基于当前事务最近的值或最新提交的值重新计算，并且要累计当前事务之前对同一行的增量
+        private void initDeltas(Object[] deltas) {
+            Uncommitted last = null;
+            Object base = null;
+            for (TransactionalValue tv = oldValue; tv != null; tv = tv.getOldValue()) {
+                if (tv instanceof Uncommitted) {
+                    if (tv.getTid() != tid)
+                        continue; // 跳过其他事务未提交的值
+                    last = (Uncommitted) tv;
+                }
+                base = tv.getValue();
+                break;
+            }
+            if (base == null) {
+                this.deltas = deltas;
+                return;
+            }
+            if (last != null && last.deltas != null) {
+                // 把当前事务之前的增量合并进来，提交时只有最后一个值会保留下来
+                int[] lastColumnIndexes = last.columnIndexes;
+                int[] indexes = columnIndexes;
+                Object[] sums = deltas;
+                for (int i = 0; i < lastColumnIndexes.length; i++) {
+                    int pos = indexOf(indexes, lastColumnIndexes[i]);
+                    if (pos < 0) {
+                        indexes = Arrays.copyOf(indexes, indexes.length + 1);
+                        indexes[indexes.length - 1] = lastColumnIndexes[i];
+                        sums = Arrays.copyOf(sums, sums.length + 1);
+                        sums[sums.length - 1] = last.deltas[i];
+                    } else {
+                        if (sums == deltas)
+                            sums = deltas.clone();
+                        sums[pos] = ((Value) last.deltas[i]).add((Value) deltas[pos]);
+                    }
+                }
+                oldValueType.setColumns(value, base, lastColumnIndexes);
+                columnIndexes = indexes;
+                this.deltas = sums;
+            } else {
+                this.deltas = deltas;
+            }
+            oldValueType.addColumns(value, base, Arrays.copyOf(columnIndexes, deltas.length), deltas);
+        }
+
+        // 其他事务提交后，把它提交的列合并到当前值中，如果是增量更新的列，要在提交的值上加上当前事务的增量
+        private void mergeCommittedColumns(Object committedValue, int[] committedColumnIndexes) {
+            oldValueType.setColumns(value, committedValue, committedColumnIndexes);
+            if (deltas == null || committedColumnIndexes == null)
+                return;
+            int count = 0;
+            int[] indexes = new int[deltas.length];
+            Object[] ds = new Object[deltas.length];
+            for (int i = 0; i < columnIndexes.length; i++) {
+                if (indexOf(committedColumnIndexes, columnIndexes[i]) >= 0) {
+                    indexes[count] = columnIndexes[i];
+                    ds[count++] = deltas[i];
+                }
+            }
+            if (count > 0)
+                oldValueType.addColumns(value, committedValue, Arrays.copyOf(indexes, count),
+                        Arrays.copyOf(ds, count));
+        }
+
+        private static int indexOf(int[] columnIndexes, int columnIndex) {
+            for (int i = 0; i < columnIndexes.length; i++) {
+                if (columnIndexes[i] == columnIndex)
+                    return i;
+            }
+            return -1;
+        }
+
         @Override
         public TransactionalValue getOldValue() {
             return oldValue;
@@ -633,13 +779,18 @@ public interface TransactionalValue {
 
         @Override
         public boolean isLocked(long tid, int[] columnIndexes) {
+            return isLocked(tid, columnIndexes, false);
+        }
+
+        @Override
+        public boolean isLocked(long tid, int[] columnIndexes, boolean commutative) {
             // 1. 当前事务
             // ----------------------------
             if (this.tid == tid) {
                 if (oldValue == null)
                     return false;
                 else
-                    return oldValue.isLocked(tid, columnIndexes); // 递归检查是否存在锁冲突
+                    return oldValue.isLocked(tid, columnIndexes, commutative); // 递归检查是否存在锁冲突
             }
 
             // 2. 不是当前事务
@@ -647,13 +798,14 @@ public interface TransactionalValue {
             // 之前的事务已经加了行锁或之前的事务没加行锁，但是当前事务想要进行行锁时，都要拒绝当前事务的锁请求
             if (rowLock || columnIndexes == null)
                 return true;
-            // 如果当前事务跟之前的事务存在冲突的列锁，那么拒绝当前事务的锁请求
+            // 如果当前事务跟之前的事务存在冲突的列锁，那么拒绝当前事务的锁请求，
+            // 但是两个事务对同一列都是增量更新时不冲突
             for (int i : columnIndexes) {
-                if (lockedColumns.get(i))
+                if (lockedColumns.get(i) && (!commutative || deltas == null))
                     return true;
             }
             // 递归检查是否存在锁冲突
-            if (oldValue != null && oldValue.isLocked(tid, columnIndexes)) {
+            if (oldValue != null && oldValue.isLocked(tid, columnIndexes, commutative)) {
                 return true;
             }
             return false;
@@ -748,7 +900,7 @@ public interface TransactionalValue {
                         Uncommitted u = (Uncommitted) next;
                         u = u.copy(); // 避免多线程执行时修改原来的链接结构
                         if (u.value != null)
-                            u.oldValueType.setColumns(u.value, value, columnIndexes);
+                            u.mergeCommittedColumns(value, columnIndexes);
                         last.setOldValue(u);
                         last = u;
                         noUncommitted = false;
@@ -892,7 +1044,7 @@ public interface TransactionalValue {
         }
 
         @Override
-        public boolean isLocked(long tid, int[] columnIndexes) {
+        public boolean isLocked(long tid, int[] columnIndexes, boolean commutative) {
             return getTid() != tid;
         }
 
@@ -112,6 +112,11 @@ public class TransactionalValueType implements StorageDataType {
         valueType.setColumns(oldObj, newObj, columnIndexes);
     }
 
+    @Override
+    public void addColumns(Object oldObj, Object newObj, int[] columnIndexes, Object[] deltas) {
+        valueType.addColumns(oldObj, newObj, columnIndexes, deltas);
+    }
+
     @Override
     public int getColumnCount() {
         return valueType.getColumnCount();
@@ -20,9 +20,8 @@ package org.lealone.transaction.aote.log;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
+import org.lealone.common.concurrent.IdleStrategy;
 import org.lealone.common.concurrent.WaitQueue;
 import org.lealone.transaction.aote.AMTransaction;
 
@@ -32,7 +31,7 @@ public abstract class LogSyncService extends Thread {
     public static final String LOG_SYNC_TYPE_INSTANT = "instant";
     public static final String LOG_SYNC_TYPE_NO_SYNC = "no_sync";
 
-    protected final Semaphore haveWork = new Semaphore(1);
+    protected final IdleStrategy idleStrategy;
     protected final WaitQueue syncComplete = new WaitQueue();
 
     // 只要达到一定的阈值就可以立即同步了
@@ -51,6 +50,8 @@ public abstract class LogSyncService extends Thread {
             redoLogRecordSyncThreshold = Integer.parseInt(config.get("redo_log_record_sync_threshold"));
         else
             redoLogRecordSyncThreshold = 100;
+        // 大多数时候是按周期同步的，默认不自旋
+        idleStrategy = IdleStrategy.create(config, "log_sync_service", 0, 0);
     }
 
     public RedoLog getRedoLog() {
@@ -61,12 +62,12 @@ public abstract class LogSyncService extends Thread {
 
     public void asyncCommit(AMTransaction t) {
         transactions.add(t);
-        haveWork.release();
+        idleStrategy.wakeUp();
     }
 
     public void close() {
         running = false;
-        haveWork.release(1);
+        idleStrategy.wakeUp();
     }
 
     @Override
@@ -84,8 +85,7 @@ public abstract class LogSyncService extends Thread {
                 continue;
 
             try {
-                haveWork.tryAcquire(sleep, TimeUnit.MILLISECONDS);
-                haveWork.drainPermits();
+                idleStrategy.idle(sleep);
             } catch (InterruptedException e) {
                 throw new AssertionError();
             }
@@ -116,7 +116,7 @@ public abstract class LogSyncService extends Thread {
         redoLog.addRedoLogRecord(r);
         // 对于需要立即做同步的场景，及时唤醒日志同步线程
         if (isInstantSync())
-            haveWork.release();
+            idleStrategy.wakeUp();
     }
 
     public void addAndMaybeWaitForSync(RedoLogRecord r) {
@@ -40,7 +40,7 @@ class PeriodicLogSyncService extends LogSyncService {
 
     @Override
     public void maybeWaitForSync(RedoLogRecord r) {
-        haveWork.release();
+        idleStrategy.wakeUp();
         if (!r.isSynced()) {
             // 因为Long.MAX_VALUE > Long.MAX_VALUE + 1
             // lastSyncedAt是long类型，当lastSyncedAt为Long.MAX_VALUE时，
@@ -26,7 +26,6 @@ import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.DataUtils;
 import org.lealone.db.DataBuffer;
 import org.lealone.db.value.ValueString;
-import org.lealone.transaction.aote.AMTransactionEngine;
 
 public abstract class RedoLogRecord {
 
@@ -90,9 +89,9 @@ public abstract class RedoLogRecord {
                 commitTimestamp, operations);
     }
 
-    public static LazyTransactionRedoLogRecord createLazyTransactionRedoLogRecord(AMTransactionEngine transactionEngine,
-            long transactionId, UndoLog undoLog) {
-        return new LazyTransactionRedoLogRecord(transactionEngine, transactionId, undoLog);
+    public static LazyTransactionRedoLogRecord createLazyTransactionRedoLogRecord(long transactionId,
+            UndoLog undoLog) {
+        return new LazyTransactionRedoLogRecord(transactionId, undoLog);
     }
 
     static class Checkpoint extends RedoLogRecord {
@@ -270,13 +269,10 @@ public abstract class RedoLogRecord {
 
     static class LazyTransactionRedoLogRecord extends RedoLogRecord {
 
-        final AMTransactionEngine transactionEngine;
         final long transactionId;
         final UndoLog undoLog;
 
-        public LazyTransactionRedoLogRecord(AMTransactionEngine transactionEngine, long transactionId,
-                UndoLog undoLog) {
-            this.transactionEngine = transactionEngine;
+        public LazyTransactionRedoLogRecord(long transactionId, UndoLog undoLog) {
             this.transactionId = transactionId;
             this.undoLog = undoLog;
         }
@@ -289,9 +285,7 @@ public abstract class RedoLogRecord {
             buffer.putVarLong(transactionId);
             int pos = buffer.position();
             buffer.putInt(0);
-            for (UndoLogRecord r : undoLog.getUndoLogRecords()) {
-                r.writeForRedo(buffer, transactionEngine);
-            }
+            undoLog.writeForRedo(buffer);
             int length = buffer.position() - pos - 4;
             buffer.putInt(pos, length);
         }
@@ -18,85 +18,117 @@
 package org.lealone.transaction.aote.log;
 
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import org.lealone.db.DataBuffer;
 import org.lealone.transaction.aote.AMTransactionEngine;
+import org.lealone.transaction.aote.AMTransactionEngine.MapInfo;
 import org.lealone.transaction.aote.TransactionalValue;
 
+// 用数组代替LinkedList，短事务通常只有几条记录，这样每个事务只需要分配一个小数组，
+// 不用为每条记录额外分配一个链表节点，logId同时也是数组中已用元素的个数
 public class UndoLog {
 
+    // 每个事务独立分配，从小数组开始按需倍增，不同事务之间不共享容量状态
+    private static final int INITIAL_RECORDS_CAPACITY = 8;
+
     private int logId;
-    private final LinkedList<UndoLogRecord> undoLogRecords = new LinkedList<>();
+    private UndoLogRecord[] undoLogRecords = new UndoLogRecord[INITIAL_RECORDS_CAPACITY];
 
     public int getLogId() {
         return logId;
     }
 
-    public LinkedList<UndoLogRecord> getUndoLogRecords() {
-        return undoLogRecords;
+    public UndoLogRecord get(int index) {
+        return undoLogRecords[index];
     }
 
     public boolean isEmpty() {
-        return undoLogRecords.isEmpty();
+        return logId == 0;
     }
 
     public boolean isNotEmpty() {
-        return !undoLogRecords.isEmpty();
+        return logId != 0;
     }
 
     public UndoLogRecord getLast() {
-        return undoLogRecords.getLast();
+        return undoLogRecords[logId - 1];
     }
 
     public int size() {
-        return undoLogRecords.size();
+        return logId;
     }
 
-    public UndoLogRecord add(String mapName, Object key, TransactionalValue oldValue, TransactionalValue newValue,
+    public UndoLogRecord add(MapInfo mapInfo, Object key, TransactionalValue oldValue, TransactionalValue newValue,
             boolean isForUpdate) {
-        UndoLogRecord r = new UndoLogRecord(mapName, key, oldValue, newValue, isForUpdate);
-        undoLogRecords.add(r);
-        logId++;
+        UndoLogRecord r = new UndoLogRecord(mapInfo, key, oldValue, newValue, isForUpdate);
+        if (logId == undoLogRecords.length) {
+            undoLogRecords = Arrays.copyOf(undoLogRecords, logId * 2);
+        }
+        undoLogRecords[logId++] = r;
         return r;
     }
 
-    public UndoLogRecord add(String mapName, Object key, TransactionalValue oldValue, TransactionalValue newValue) {
-        return add(mapName, key, oldValue, newValue, false);
+    public UndoLogRecord add(MapInfo mapInfo, Object key, TransactionalValue oldValue, TransactionalValue newValue) {
+        return add(mapInfo, key, oldValue, newValue, false);
     }
 
     public void undo() {
-        undoLogRecords.removeLast();
-        --logId;
+        undoLogRecords[--logId] = null;
     }
 
     public void commit(AMTransactionEngine transactionEngine, long tid) {
-        for (UndoLogRecord r : undoLogRecords) {
-            r.commit(transactionEngine, tid);
+        // 只有delete才需要知道是否存在更早的REPEATABLE_READ事务，整个事务只需要判断一次
+        int containsRepeatableReadTransactions = -1;
+        for (int i = 0; i < logId; i++) {
+            UndoLogRecord r = undoLogRecords[i];
+            if (containsRepeatableReadTransactions == -1 && r.isDelete()) {
+                containsRepeatableReadTransactions = transactionEngine.containsRepeatableReadTransactions(tid) ? 1
+                        : 0;
+            }
+            r.commit(tid, containsRepeatableReadTransactions == 1);
         }
     }
 
-    public void rollbackTo(AMTransactionEngine transactionEngine, long toLogId) {
+    public void rollbackTo(long toLogId) {
         while (logId > toLogId) {
-            UndoLogRecord r = undoLogRecords.removeLast();
-            r.rollback(transactionEngine);
-            --logId;
+            UndoLogRecord r = undoLogRecords[--logId];
+            undoLogRecords[logId] = null;
+            r.rollback();
         }
     }
 
     private static int lastCapacity = 1024;
 
     // 将当前一系列的事务操作日志转换成单条RedoLogRecord
-    public ByteBuffer toRedoLogRecordBuffer(AMTransactionEngine transactionEngine) {
-        if (undoLogRecords.isEmpty())
+    public ByteBuffer toRedoLogRecordBuffer() {
+        if (logId == 0)
             return null;
         DataBuffer writeBuffer = DataBuffer.create(lastCapacity);
-        for (UndoLogRecord r : undoLogRecords) {
-            r.writeForRedo(writeBuffer, transactionEngine);
-        }
+        writeForRedo(writeBuffer);
         lastCapacity = writeBuffer.position();
         if (lastCapacity > 1024)
             lastCapacity = 1024;
         return writeBuffer.getAndFlipBuffer();
     }
+
+    void writeForRedo(DataBuffer writeBuffer) {
+        // 连续修改同一个map时合并起来只更新一次预估内存，减少对AtomicInteger的竞争
+        MapInfo lastMapInfo = null;
+        int memory = 0;
+        for (int i = 0; i < logId; i++) {
+            UndoLogRecord r = undoLogRecords[i];
+            MapInfo mapInfo = r.getMapInfo();
+            if (mapInfo != lastMapInfo) {
+                if (memory > 0)
+                    lastMapInfo.incrementEstimatedMemory(memory);
+                lastMapInfo = mapInfo;
+                memory = 0;
+            }
+            // 预估一下内存占用大小，当到达一个阈值时方便其他服务线程刷数据到硬盘
+            memory += r.writeForRedo(writeBuffer);
+        }
+        if (memory > 0)
+            lastMapInfo.incrementEstimatedMemory(memory);
+    }
 }
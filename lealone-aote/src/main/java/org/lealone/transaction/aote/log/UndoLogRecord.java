@@ -20,22 +20,22 @@ package org.lealone.transaction.aote.log;
 import org.lealone.db.DataBuffer;
 import org.lealone.db.value.ValueString;
 import org.lealone.storage.StorageMap;
-import org.lealone.transaction.aote.AMTransactionEngine;
+import org.lealone.transaction.aote.AMTransactionEngine.MapInfo;
 import org.lealone.transaction.aote.TransactionalValue;
 import org.lealone.transaction.aote.TransactionalValueType;
 
 public class UndoLogRecord {
 
-    private final String mapName;
+    private final MapInfo mapInfo; // 为null时说明map没有在事务引擎中注册
     private Object key; // 没有用final，在AMTransaction.replicationPrepareCommit方法那里有特殊用途
     private final TransactionalValue oldValue;
     private final TransactionalValue newValue;
     private final boolean isForUpdate;
     private volatile boolean undone;
 
-    public UndoLogRecord(String mapName, Object key, TransactionalValue oldValue, TransactionalValue newValue,
+    public UndoLogRecord(MapInfo mapInfo, Object key, TransactionalValue oldValue, TransactionalValue newValue,
             boolean isForUpdate) {
-        this.mapName = mapName;
+        this.mapInfo = mapInfo;
         this.key = key;
         this.oldValue = oldValue;
         this.newValue = newValue;
@@ -43,7 +43,15 @@ public class UndoLogRecord {
     }
 
     public String getMapName() {
-        return mapName;
+        return mapInfo != null ? mapInfo.getName() : null;
+    }
+
+    public MapInfo getMapInfo() {
+        return mapInfo;
+    }
+
+    private StorageMap<Object, TransactionalValue> getMap() {
+        return mapInfo != null ? mapInfo.getMap() : null;
     }
 
     public Object getKey() {
@@ -58,25 +66,30 @@ public class UndoLogRecord {
         this.undone = undone;
     }
 
+    boolean isDelete() {
+        return !isForUpdate && oldValue != null && newValue != null && newValue.getValue() == null;
+    }
+
     // 调用这个方法时事务已经提交，redo日志已经写完，这里只是在内存中更新到最新值
-    public void commit(AMTransactionEngine transactionEngine, long tid) {
+    // containsRepeatableReadTransactions只对delete有用，由UndoLog在整个事务范围内计算一次
+    void commit(long tid, boolean containsRepeatableReadTransactions) {
         if (undone)
             return;
         if (isForUpdate) {
             newValue.rollback(); // 解锁而已，不用提交的
             return;
         }
-        StorageMap<Object, TransactionalValue> map = transactionEngine.getStorageMap(mapName);
+        StorageMap<Object, TransactionalValue> map = getMap();
         if (map == null) {
             return; // map was later removed
         }
         if (oldValue == null) { // insert
             newValue.commit(tid);
         } else if (newValue != null && newValue.getValue() == null) { // delete
-            if (!transactionEngine.containsRepeatableReadTransactions(tid)) {
+            if (!containsRepeatableReadTransactions) {
                 map.remove(key);
             } else {
-                newValue.commit(tid);
+                addVacuumCandidate(newValue.commit(tid));
             }
             // newValue.commit(tid);
         } else { // update
@@ -85,18 +98,26 @@ public class UndoLogRecord {
             if (newValue.getOldValue() != null && newValue.getOldValue().getValue() == null) {
                 map.put(key, ref);
             }
+            addVacuumCandidate(ref);
         }
     }
 
+    // 提交后还保留着旧版本链的记录交给VacuumService修剪
+    private void addVacuumCandidate(TransactionalValue ref) {
+        TransactionalValue head = ref.getRefValue();
+        if (head != null && head.getOldValue() != null)
+            mapInfo.addVacuumCandidate(ref);
+    }
+
     // 当前事务开始rollback了，调用这个方法在内存中撤销之前的更新
-    public void rollback(AMTransactionEngine transactionEngine) {
+    void rollback() {
         if (undone)
             return;
         if (isForUpdate) {
             newValue.rollback();
             return;
         }
-        StorageMap<Object, TransactionalValue> map = transactionEngine.getStorageMap(mapName);
+        StorageMap<Object, TransactionalValue> map = getMap();
         // 有可能在执行DROP DATABASE时删除了
         if (map != null) {
             if (oldValue == null) {
@@ -107,19 +128,19 @@ public class UndoLogRecord {
         }
     }
 
-    // 用于redo时，不关心oldValue
-    public void writeForRedo(DataBuffer writeBuffer, AMTransactionEngine transactionEngine) {
+    // 用于redo时，不关心oldValue，返回写入的字节数
+    int writeForRedo(DataBuffer writeBuffer) {
         if (isForUpdate || undone) {
-            return;
+            return 0;
         }
-        StorageMap<?, ?> map = transactionEngine.getStorageMap(mapName);
+        StorageMap<?, ?> map = getMap();
         // 有可能在执行DROP DATABASE时删除了
         if (map == null) {
-            return;
+            return 0;
         }
         int lastPosition = writeBuffer.position();
 
-        ValueString.type.write(writeBuffer, mapName);
+        ValueString.type.write(writeBuffer, mapInfo.getName());
         int keyValueLengthStartPos = writeBuffer.position();
         writeBuffer.putInt(0);
 
@@ -132,9 +153,6 @@ public class UndoLogRecord {
             ((TransactionalValueType) map.getValueType()).valueType.write(writeBuffer, newValue.getValue());
         }
         writeBuffer.putInt(keyValueLengthStartPos, writeBuffer.position() - keyValueLengthStartPos - 4);
-
-        // 预估一下内存占用大小，当到达一个阈值时方便其他服务线程刷数据到硬盘
-        int memory = writeBuffer.position() - lastPosition;
-        transactionEngine.incrementEstimatedMemory(mapName, memory);
+        return writeBuffer.position() - lastPosition;
     }
 }
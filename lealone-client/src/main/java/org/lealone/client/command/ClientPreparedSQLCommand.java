@@ -7,6 +7,7 @@ package org.lealone.client.command;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import org.lealone.client.result.ClientResult;
@@ -17,6 +18,8 @@ import org.lealone.common.trace.Trace;
 import org.lealone.common.util.Utils;
 import org.lealone.db.CommandParameter;
 import org.lealone.db.SysProperties;
+import org.lealone.db.api.ErrorCode;
+import org.lealone.db.async.AsyncCallback;
 import org.lealone.db.async.Future;
 import org.lealone.db.result.Result;
 import org.lealone.db.value.Value;
@@ -35,11 +38,13 @@ import org.lealone.server.protocol.ps.PreparedStatementPrepare;
 import org.lealone.server.protocol.ps.PreparedStatementPrepareAck;
 import org.lealone.server.protocol.ps.PreparedStatementPrepareReadParams;
 import org.lealone.server.protocol.ps.PreparedStatementPrepareReadParamsAck;
+import org.lealone.server.protocol.ps.PreparedStatementPrepareReadParamsAck.ClientCommandParameter;
 import org.lealone.server.protocol.ps.PreparedStatementQuery;
 import org.lealone.server.protocol.ps.PreparedStatementUpdate;
 import org.lealone.server.protocol.replication.ReplicationPreparedUpdate;
 import org.lealone.server.protocol.statement.StatementQueryAck;
 import org.lealone.server.protocol.statement.StatementUpdateAck;
+import org.lealone.sql.ShardingKey;
 import org.lealone.storage.PageKey;
 
 /**
@@ -53,11 +58,29 @@ public class ClientPreparedSQLCommand extends ClientSQLCommand {
 
     private ArrayList<CommandParameter> parameters;
 
+    // 延迟prepare和重新prepare时不等prepare的响应，跟后面的执行请求一起发出去，
+    // 服务器端按顺序处理同一个session的请求，执行请求的响应回来时prepare的响应肯定已经回来了
+    private volatile Future<? extends Packet> prepareFuture;
+    private volatile boolean prepareFailed;
+
+    // sharding模式下根据主键值把语句直接发给数据所在的节点，每个节点上prepare一个对应的命令
+    private ShardingKey shardingKey;
+    private HashMap<ClientSession, ClientPreparedSQLCommand> routedCommands;
+    private boolean routed;
+
     public ClientPreparedSQLCommand(ClientSession session, String sql, int fetchSize) {
+        this(session, sql, fetchSize, false);
+    }
+
+    public ClientPreparedSQLCommand(ClientSession session, String sql, int fetchSize, boolean deferPrepare) {
         super(session, sql, fetchSize);
         // commandId重新prepare时会变，但是parameters不会变
         parameters = Utils.newSmallArrayList();
-        prepare(true);
+        int paramCount = deferPrepare ? getParameterCount(sql) : -1;
+        if (paramCount >= 0)
+            prepareDeferred(paramCount);
+        else
+            prepare();
     }
 
     @Override
@@ -65,28 +88,195 @@ public class ClientPreparedSQLCommand extends ClientSQLCommand {
         return CLIENT_PREPARED_SQL_COMMAND;
     }
 
-    private void prepare(boolean readParams) {
+    @Override
+    public boolean isQuery() {
+        waitPrepare();
+        return isQuery;
+    }
+
+    private void prepare() {
         // Prepared SQL的ID，每次执行时都发给后端
         commandId = session.getNextId();
-        if (readParams) {
-            PreparedStatementPrepareReadParams packet = new PreparedStatementPrepareReadParams(commandId, sql);
-            Future<PreparedStatementPrepareReadParamsAck> f = session.send(packet);
-            PreparedStatementPrepareReadParamsAck ack = f.get();
-            isQuery = ack.isQuery;
-            parameters = new ArrayList<>(ack.params);
-        } else {
-            PreparedStatementPrepare packet = new PreparedStatementPrepare(commandId, sql);
-            Future<PreparedStatementPrepareAck> f = session.send(packet);
-            PreparedStatementPrepareAck ack = f.get();
-            isQuery = ack.isQuery;
+        PreparedStatementPrepareReadParams packet = new PreparedStatementPrepareReadParams(commandId, sql);
+        Future<PreparedStatementPrepareReadParamsAck> f = session.send(packet);
+        PreparedStatementPrepareReadParamsAck ack = f.get();
+        isQuery = ack.isQuery;
+        parameters = new ArrayList<>(ack.params);
+        shardingKey = ack.shardingKey;
+    }
+
+    // 参数先在客户端创建，第一次执行时再检查参数个数跟服务器端是否一样
+    private void prepareDeferred(int paramCount) {
+        commandId = session.getNextId();
+        parameters = new ArrayList<>(paramCount);
+        for (int i = 0; i < paramCount; i++) {
+            parameters.add(new ClientCommandParameter(i));
         }
+        prepareFuture = session.send(new PreparedStatementPrepareReadParams(commandId, sql));
     }
 
     private void prepareIfRequired() {
         session.checkClosed();
-        if (commandId <= session.getCurrentId() - SysProperties.SERVER_CACHED_OBJECTS) {
+        if (prepareFuture == null && commandId <= session.getCurrentId() - SysProperties.SERVER_CACHED_OBJECTS) {
             // object is too old - we need to prepare again
-            prepare(false);
+            commandId = session.getNextId();
+            Future<PreparedStatementPrepareAck> f = session.send(new PreparedStatementPrepare(commandId, sql));
+            prepareFuture = f;
+        }
+    }
+
+    /**
+     * 等待还没有返回的prepare请求，prepare失败时抛出它的异常
+     */
+    public void waitPrepare() {
+        Future<? extends Packet> f = prepareFuture;
+        if (f != null) {
+            prepareFuture = null;
+            handlePrepareResult(f);
+        }
+    }
+
+    private void handlePrepareResult(Future<? extends Packet> f) {
+        Packet ack;
+        try {
+            ack = f.get();
+        } catch (Throwable t) {
+            prepareFailed = true;
+            throw DbException.convert(t);
+        }
+        if (ack instanceof PreparedStatementPrepareReadParamsAck) {
+            PreparedStatementPrepareReadParamsAck readParamsAck = (PreparedStatementPrepareReadParamsAck) ack;
+            isQuery = readParamsAck.isQuery;
+            shardingKey = readParamsAck.shardingKey;
+            List<? extends CommandParameter> params = readParamsAck.params;
+            if (params.size() != parameters.size()) {
+                // 客户端算错了参数个数，改用服务器端的参数，已经设置的值丢弃
+                parameters = new ArrayList<>(params);
+                throw DbException.get(ErrorCode.INVALID_PARAMETER_COUNT_2, sql, "" + params.size());
+            }
+            for (int i = 0, size = params.size(); i < size; i++) {
+                ((ClientCommandParameter) parameters.get(i)).setMetaData(params.get(i));
+            }
+        } else {
+            PreparedStatementPrepareAck prepareAck = (PreparedStatementPrepareAck) ack;
+            isQuery = prepareAck.isQuery;
+            shardingKey = prepareAck.shardingKey;
+        }
+    }
+
+    // 执行请求的响应回来后先检查prepare的结果，prepare失败时返回prepare的异常
+    private <R> Future<R> checkPrepare(Future<R> future) {
+        Future<? extends Packet> f = prepareFuture;
+        if (f == null)
+            return future;
+        prepareFuture = null;
+        AsyncCallback<R> ac = new AsyncCallback<>();
+        future.onComplete(ar -> {
+            try {
+                handlePrepareResult(f);
+            } catch (Throwable t) {
+                ac.setAsyncResult(t);
+                return;
+            }
+            ac.setAsyncResult(ar);
+        });
+        return ac;
+    }
+
+    /**
+     * 在客户端计算SQL中的参数个数，碰到不能确定的情况返回-1，此时不使用延迟prepare
+     */
+    static int getParameterCount(String sql) {
+        int count = 0;
+        int len = sql.length();
+        for (int i = 0; i < len; i++) {
+            char c = sql.charAt(i);
+            switch (c) {
+            case '\'':
+            case '"': {
+                i = sql.indexOf(c, i + 1);
+                if (i < 0)
+                    return -1;
+                break;
+            }
+            case '-':
+            case '/':
+                if (i + 1 < len && sql.charAt(i + 1) == c) {
+                    // 单行注释
+                    while (i < len && sql.charAt(i) != '\n' && sql.charAt(i) != '\r')
+                        i++;
+                } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                    i = sql.indexOf("*/", i + 2);
+                    if (i < 0)
+                        return -1;
+                    i++;
+                }
+                break;
+            case '?':
+                // ?1这样的带下标的参数
+                if (i + 1 < len && Character.isDigit(sql.charAt(i + 1)))
+                    return -1;
+                count++;
+                break;
+            case '$': // $$字符串和$1这样的参数
+            case '[': // 跟数据库模式有关
+            case '`':
+            case ';': // 多条语句
+                return -1;
+            default:
+            }
+        }
+        return count;
+    }
+
+    private ClientPreparedSQLCommand getRoutedCommand(List<PageKey> pageKeys) {
+        if (shardingKey == null || routed || pageKeys != null || isDistributed())
+            return null;
+        ClientSession s = session.getShardingSession(shardingKey, parameters);
+        if (s == null)
+            return null;
+        if (routedCommands == null)
+            routedCommands = new HashMap<>();
+        ClientPreparedSQLCommand c = routedCommands.get(s);
+        if (c == null || c.session == null) {
+            c = (ClientPreparedSQLCommand) s.prepareSQLCommand(sql, fetchSize);
+            c.routed = true;
+            routedCommands.put(s, c);
+        }
+        c.fetchSize = fetchSize;
+        int size = parameters.size();
+        if (c.parameters.size() != size)
+            return null;
+        for (int i = 0; i < size; i++) {
+            c.parameters.get(i).setValue(parameters.get(i).getValue());
+        }
+        return c;
+    }
+
+    // 在其他节点上因为连接或路由错误执行失败时重新获取路由表
+    private <R> Future<R> checkRouted(Future<R> future) {
+        AsyncCallback<R> ac = new AsyncCallback<>();
+        future.onComplete(ar -> {
+            if (ar.isFailed() && isRoutingError(ar.getCause()))
+                session.invalidateRouteTable(shardingKey);
+            ac.setAsyncResult(ar);
+        });
+        return ac;
+    }
+
+    // 像违反唯一约束这类普通的执行错误跟路由无关，不需要丢掉路由表
+    private static boolean isRoutingError(Throwable cause) {
+        if (!(cause instanceof DbException))
+            return true;
+        switch (((DbException) cause).getErrorCode()) {
+        case ErrorCode.CONNECTION_BROKEN_1:
+        case ErrorCode.OBJECT_CLOSED:
+        case ErrorCode.DATABASE_IS_CLOSED:
+        case ErrorCode.DATABASE_NOT_FOUND_1:
+        case ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1:
+            return true;
+        default:
+            return false;
         }
     }
 
@@ -97,7 +287,7 @@ public class ClientPreparedSQLCommand extends ClientSQLCommand {
 
     @Override
     public Result getMetaData() {
-        if (!isQuery) {
+        if (!isQuery()) {
             return null;
         }
         prepareIfRequired();
@@ -117,6 +307,9 @@ public class ClientPreparedSQLCommand extends ClientSQLCommand {
     protected Future<Result> query(int maxRows, boolean scrollable, List<PageKey> pageKeys) {
         isQuery = true;
         checkParameters();
+        ClientPreparedSQLCommand c = getRoutedCommand(pageKeys);
+        if (c != null)
+            return checkRouted(c.query(maxRows, scrollable, null));
         prepareIfRequired();
         int fetch;
         if (scrollable) {
@@ -136,16 +329,16 @@ public class ClientPreparedSQLCommand extends ClientSQLCommand {
             if (isDistributed()) {
                 packet = new DTransactionPreparedQuery(pageKeys, resultId, maxRows, fetch, scrollable, commandId, size,
                         values);
-                return session.<Result, DTransactionQueryAck> send(packet, ack -> {
+                return checkPrepare(session.<Result, DTransactionQueryAck> send(packet, ack -> {
                     session.getParentTransaction().addLocalTransactionNames(ack.localTransactionNames);
                     return getQueryResult(ack, fetch, resultId);
-                });
+                }));
             } else {
                 packet = new PreparedStatementQuery(pageKeys, resultId, maxRows, fetch, scrollable, commandId, size,
                         values);
-                return session.<Result, StatementQueryAck> send(packet, ack -> {
+                return checkPrepare(session.<Result, StatementQueryAck> send(packet, ack -> {
                     return getQueryResult(ack, fetch, resultId);
-                });
+                }));
             }
         } catch (Exception e) {
             session.handleException(e);
@@ -156,6 +349,11 @@ public class ClientPreparedSQLCommand extends ClientSQLCommand {
     @Override
     protected Future<Integer> update(String replicationName, List<PageKey> pageKeys) {
         checkParameters();
+        if (replicationName == null) {
+            ClientPreparedSQLCommand c = getRoutedCommand(pageKeys);
+            if (c != null)
+                return checkRouted(c.update(null, null));
+        }
         prepareIfRequired();
         int size = parameters.size();
         Value[] values = new Value[size];
@@ -165,18 +363,18 @@ public class ClientPreparedSQLCommand extends ClientSQLCommand {
         Packet packet;
         if (isDistributed()) {
             packet = new DTransactionPreparedUpdate(pageKeys, commandId, size, values);
-            return session.<Integer, DTransactionUpdateAck> send(packet, ack -> {
+            return checkPrepare(session.<Integer, DTransactionUpdateAck> send(packet, ack -> {
                 session.getParentTransaction().addLocalTransactionNames(ack.localTransactionNames);
                 return ack.updateCount;
-            });
+            }));
         } else {
             if (replicationName != null)
                 packet = new ReplicationPreparedUpdate(pageKeys, commandId, size, values, replicationName);
             else
                 packet = new PreparedStatementUpdate(pageKeys, commandId, size, values);
-            return session.<Integer, StatementUpdateAck> send(packet, ack -> {
+            return checkPrepare(session.<Integer, StatementUpdateAck> send(packet, ack -> {
                 return ack.updateCount;
-            });
+            }));
         }
     }
 
@@ -186,34 +384,79 @@ public class ClientPreparedSQLCommand extends ClientSQLCommand {
         }
     }
 
+    // 从缓存中取出来重用
+    public void reuse(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
     @Override
     public void close() {
         if (session == null || session.isClosed()) {
             return;
         }
-        int packetId = session.getNextId();
-        session.traceOperation("COMMAND_CLOSE", packetId);
-        try {
-            session.send(new PreparedStatementClose(commandId));
-        } catch (Exception e) {
-            session.getTrace().error(e, "close session");
-        }
         if (parameters != null) {
             try {
                 for (CommandParameter p : parameters) {
                     Value v = p.getValue();
                     if (v != null) {
                         v.close();
+                        p.setValue(null);
                     }
                 }
             } catch (DbException e) {
                 session.getTrace().error(e, "close command parameters");
             }
-            parameters = null;
         }
+        closeRoutedCommands(false);
+        // prepare失败的不放到缓存中
+        try {
+            waitPrepare();
+        } catch (DbException e) {
+            // 已经在handlePrepareResult中设置了prepareFailed
+        }
+        if (!prepareFailed && session.cachePreparedSQLCommand(sql, this)) {
+            return;
+        }
+        closeCommand();
+    }
+
+    /**
+     * 关闭服务器端对应的命令，不再放回缓存
+     */
+    public void closeCommand() {
+        if (session == null || session.isClosed()) {
+            return;
+        }
+        closeRoutedCommands(true);
+        int packetId = session.getNextId();
+        session.traceOperation("COMMAND_CLOSE", packetId);
+        try {
+            session.send(new PreparedStatementClose(commandId));
+        } catch (Exception e) {
+            session.getTrace().error(e, "close session");
+        }
+        parameters = null;
         session = null;
     }
 
+    // 参数值跟当前命令共用，已经在当前命令中关闭了
+    private void closeRoutedCommands(boolean closeCommand) {
+        if (routedCommands == null)
+            return;
+        for (ClientPreparedSQLCommand c : routedCommands.values()) {
+            if (c.session == null || c.session.isClosed())
+                continue;
+            for (CommandParameter p : c.parameters) {
+                p.setValue(null);
+            }
+            if (closeCommand)
+                c.closeCommand();
+            else
+                c.close();
+        }
+        routedCommands = null;
+    }
+
     @Override
     public String toString() {
         return sql + Trace.formatParams(getParameters());
@@ -221,6 +464,7 @@ public class ClientPreparedSQLCommand extends ClientSQLCommand {
 
     public int[] executeBatchPreparedSQLCommands(List<Value[]> batchParameters) {
         try {
+            waitPrepare();
 
             Future<BatchStatementUpdateAck> f = session
                     .send(new BatchStatementPreparedUpdate(commandId, batchParameters.size(), batchParameters));
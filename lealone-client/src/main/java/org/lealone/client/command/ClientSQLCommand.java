@@ -48,7 +48,7 @@ public class ClientSQLCommand implements ReplicaSQLCommand {
     // 通过设为null来判断是否关闭了当前命令，所以没有加上final
     protected ClientSession session;
     protected final String sql;
-    protected final int fetchSize;
+    protected int fetchSize;
     protected int commandId;
     protected boolean isQuery;
 
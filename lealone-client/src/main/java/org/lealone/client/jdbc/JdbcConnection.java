@@ -79,6 +79,10 @@ public class JdbcConnection extends TraceObject implements Connection {
     private int savepointId;
     private String catalog;
     private Statement executingStatement;
+    // 从连接池中借出的连接，关闭时把session还给连接池
+    private JdbcConnectionPool pool;
+    // 执行过SET之类改变session状态的语句后，session就不能再给其他人用了
+    private boolean sessionStateChanged;
 
     public JdbcConnection(String url, Properties info) throws SQLException {
         this(new ConnectionInfo(url, info));
@@ -121,6 +125,14 @@ public class JdbcConnection extends TraceObject implements Connection {
         trace = getTrace(TraceObjectType.CONNECTION);
     }
 
+    JdbcConnection(Session session, String user, String url, JdbcConnectionPool pool) {
+        this.session = session;
+        this.user = user;
+        this.url = url;
+        this.pool = pool;
+        initTrace();
+    }
+
     Trace getTrace(TraceObjectType traceObjectType) {
         return session.getTrace(TraceModuleType.JDBC, traceObjectType);
     }
@@ -292,6 +304,10 @@ public class JdbcConnection extends TraceObject implements Connection {
             if (session == null) {
                 return;
             }
+            if (pool != null) {
+                recycleSession();
+                return;
+            }
             session.cancel();
             if (executingStatement != null) {
                 try {
@@ -318,6 +334,38 @@ public class JdbcConnection extends TraceObject implements Connection {
         }
     }
 
+    // 回滚未提交的事务并恢复自动提交，然后把session还给连接池，
+    // 关闭的PreparedStatement会留在session的缓存中，下次借出时还能用
+    private void recycleSession() {
+        Session session = this.session;
+        if (executingStatement != null) {
+            try {
+                executingStatement.cancel();
+            } catch (Exception e) {
+                // ignore
+            }
+            executingStatement = null;
+        }
+        boolean ok = false;
+        try {
+            synchronized (session) {
+                if (!session.isClosed()) {
+                    if (!session.isAutoCommit()) {
+                        rollbackInternal();
+                        session.setAutoCommit(true);
+                    }
+                    closePreparedCommands();
+                    ok = true;
+                }
+            }
+        } catch (Exception e) {
+            logAndConvert(e);
+        } finally {
+            this.session = null;
+            pool.recycle(session, ok && !sessionStateChanged);
+        }
+    }
+
     private void closePreparedCommands() {
         commit = closeAndSetNull(commit);
         rollback = closeAndSetNull(rollback);
@@ -1069,6 +1117,7 @@ public class JdbcConnection extends TraceObject implements Connection {
     // =============================================================
 
     SQLCommand createSQLCommand(String sql, int fetchSize) {
+        checkSessionState(sql);
         return session.createSQLCommand(sql, fetchSize);
     }
 
@@ -1080,9 +1129,29 @@ public class JdbcConnection extends TraceObject implements Connection {
      * @return the command
      */
     SQLCommand prepareSQLCommand(String sql, int fetchSize) {
+        checkSessionState(sql);
         return session.prepareSQLCommand(sql, fetchSize);
     }
 
+    /**
+     * 连接池中的连接执行了SET或USE语句后，隔离级别、schema、超时等session级的设置可能变了，
+     * 归还时直接关闭session，不再放回池中
+     *
+     * @param sql the SQL statement
+     */
+    void checkSessionState(String sql) {
+        if (pool == null || sessionStateChanged || sql == null)
+            return;
+        int len = sql.length();
+        int i = 0;
+        while (i < len && Character.isWhitespace(sql.charAt(i)))
+            i++;
+        if (sql.regionMatches(true, i, "SET", 0, 3) || sql.regionMatches(true, i, "USE", 0, 3)) {
+            if (i + 3 == len || !Character.isLetterOrDigit(sql.charAt(i + 3)) && sql.charAt(i + 3) != '_')
+                sessionStateChanged = true;
+        }
+    }
+
     private SQLCommand prepareSQLCommand(String sql, SQLCommand old) {
         return old == null ? prepareSQLCommand(sql, Integer.MAX_VALUE) : old;
     }
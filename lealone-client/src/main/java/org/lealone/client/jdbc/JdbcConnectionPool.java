@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.client.jdbc;
+
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.ConnectionInfo;
+import org.lealone.db.api.ErrorCode;
+import org.lealone.db.session.Session;
+
+/**
+ * JdbcDataSource使用的连接池。
+ *
+ * 池中放的是Session而不是JdbcConnection，每次借出时用Session创建一个新的JdbcConnection，
+ * JdbcConnection关闭时把Session还回来，这样借出去的JdbcConnection关闭后就不能再使用了。
+ *
+ * Session中缓存的PreparedStatement在归还后也还在，下次借出时可以直接重用。
+ *
+ * 空闲的Session放在一个无锁的双端队列中，后进先出，最久没用的Session在队尾，
+ * 借出和归还时顺便关闭空闲太久的Session，不需要单独的线程。
+ */
+class JdbcConnectionPool {
+
+    // 空闲时间超过这个值的Session借出前要先ping一下
+    private static final long VALIDATION_INTERVAL = 1000;
+
+    private static class PooledSession {
+        final Session session;
+        long lastUsed = System.currentTimeMillis();
+
+        PooledSession(Session session) {
+            this.session = session;
+        }
+    }
+
+    private final ConcurrentLinkedDeque<PooledSession> idleSessions = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    // 控制同时借出的连接数
+    private final Semaphore semaphore;
+
+    private final String url;
+    private final Properties info;
+    private final int maxConnections;
+    private final int minConnections;
+    private final long idleTimeout;
+    private final long loginTimeout;
+    private volatile boolean closed;
+
+    JdbcConnectionPool(String url, Properties info, int maxConnections, int minConnections, int idleTimeout,
+            int loginTimeout) {
+        this.url = url;
+        this.info = info;
+        this.maxConnections = maxConnections;
+        this.minConnections = Math.min(minConnections, maxConnections);
+        this.idleTimeout = idleTimeout * 1000L;
+        this.loginTimeout = loginTimeout * 1000L;
+        semaphore = new Semaphore(maxConnections);
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    // 当前已经创建的Session个数，包括借出去的和空闲的
+    int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    int getIdleCount() {
+        return idleSessions.size();
+    }
+
+    // 预先创建minConnections个Session
+    void init() throws SQLException {
+        try {
+            for (int i = sessionCount.get(); i < minConnections; i++)
+                idleSessions.offerLast(new PooledSession(createSession()));
+        } catch (Exception e) {
+            throw DbException.toSQLException(e);
+        }
+    }
+
+    JdbcConnection getConnection() throws SQLException {
+        if (closed)
+            throw DbException.get(ErrorCode.DATABASE_IS_CLOSED).getSQLException();
+        try {
+            if (loginTimeout > 0) {
+                if (!semaphore.tryAcquire(loginTimeout, TimeUnit.MILLISECONDS))
+                    throw new SQLException("Connection pool is exhausted, max connections: " + maxConnections,
+                            "08001", 8001);
+            } else {
+                semaphore.acquire();
+            }
+        } catch (InterruptedException e) {
+            throw DbException.toSQLException(e);
+        }
+        try {
+            Session session = borrow();
+            JdbcConnection conn = new JdbcConnection(session, info.getProperty("user"), url, this);
+            evictIdleSessions();
+            return conn;
+        } catch (Exception e) {
+            semaphore.release();
+            throw DbException.toSQLException(e);
+        }
+    }
+
+    private Session borrow() {
+        long now = System.currentTimeMillis();
+        PooledSession ps;
+        while ((ps = idleSessions.pollFirst()) != null) {
+            Session session = ps.session;
+            if (session.isClosed()) {
+                sessionCount.decrementAndGet();
+                continue;
+            }
+            if (now - ps.lastUsed > VALIDATION_INTERVAL) {
+                try {
+                    session.ping();
+                } catch (Throwable t) {
+                    discard(session);
+                    continue;
+                }
+            }
+            return session;
+        }
+        return createSession();
+    }
+
+    private Session createSession() {
+        ConnectionInfo ci = new ConnectionInfo(url, (Properties) info.clone());
+        Session session = ci.getSessionFactory().createSession(ci).get();
+        sessionCount.incrementAndGet();
+        return session;
+    }
+
+    // JdbcConnection关闭时调用，session已经回滚了未提交的事务，
+    // reusable为false时(session已经不可用或改变了session级的设置)直接关闭，不管哪种情况都要归还许可
+    void recycle(Session session, boolean reusable) {
+        try {
+            if (!reusable || closed || session.isClosed() || session.getPendingRequestCount() > 0) {
+                discard(session);
+            } else {
+                PooledSession ps = new PooledSession(session);
+                idleSessions.offerFirst(ps);
+                // 放入队列后才发现连接池已经关闭了
+                if (closed && idleSessions.remove(ps))
+                    discard(session);
+            }
+        } finally {
+            semaphore.release();
+        }
+        evictIdleSessions();
+    }
+
+    // 连接已经不可用了，不再放回池中，只减少计数，借出时获得的许可由调用者归还
+    private void discard(Session session) {
+        sessionCount.decrementAndGet();
+        try {
+            session.close();
+        } catch (Throwable t) {
+            // ignore
+        }
+    }
+
+    private void evictIdleSessions() {
+        if (idleTimeout <= 0)
+            return;
+        long now = System.currentTimeMillis();
+        while (sessionCount.get() > minConnections) {
+            PooledSession ps = idleSessions.peekLast();
+            if (ps == null || now - ps.lastUsed <= idleTimeout)
+                break;
+            // 可能已经被其他线程取走了
+            if (idleSessions.removeLastOccurrence(ps))
+                discard(ps.session);
+        }
+    }
+
+    void close() {
+        closed = true;
+        PooledSession ps;
+        while ((ps = idleSessions.pollFirst()) != null) {
+            discard(ps.session);
+        }
+    }
+}
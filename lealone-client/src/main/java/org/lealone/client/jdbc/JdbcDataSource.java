@@ -56,6 +56,10 @@ import org.lealone.common.util.StringUtils;
  *
  * In this example the user name and password are serialized as
  * well; this may be a security problem in some cases.
+ *
+ * If maxConnections is set to a value larger than 0, the connections returned
+ * by {@link #getConnection()} are taken from a connection pool and closing
+ * them returns the underlying session to the pool.
  */
 public class JdbcDataSource extends TraceObject implements DataSource, Serializable, Referenceable {
 
@@ -68,6 +72,10 @@ public class JdbcDataSource extends TraceObject implements DataSource, Serializa
     private char[] passwordChars = {};
     private String url = "";
     private String description;
+    private int maxConnections;
+    private int minConnections;
+    private int idleTimeout = 600;
+    private transient volatile JdbcConnectionPool pool;
 
     static {
         JdbcDriver.load();
@@ -151,9 +159,31 @@ public class JdbcDataSource extends TraceObject implements DataSource, Serializa
     @Override
     public Connection getConnection() throws SQLException {
         debugCodeCall("getConnection");
+        if (maxConnections > 0) {
+            return getPool().getConnection();
+        }
         return getJdbcConnection(userName, StringUtils.cloneCharArray(passwordChars));
     }
 
+    private JdbcConnectionPool getPool() throws SQLException {
+        JdbcConnectionPool pool = this.pool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = this.pool;
+                if (pool == null) {
+                    Properties info = new Properties();
+                    info.setProperty("user", userName);
+                    info.put("password", convertToString(passwordChars));
+                    pool = new JdbcConnectionPool(url, info, maxConnections, minConnections, idleTimeout,
+                            loginTimeout);
+                    pool.init();
+                    this.pool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
     /**
      * Open a new connection using the current URL and the specified user name
      * and password.
@@ -204,6 +234,7 @@ public class JdbcDataSource extends TraceObject implements DataSource, Serializa
     public void setURL(String url) {
         debugCodeCall("setURL", url);
         this.url = url;
+        closePool();
     }
 
     /**
@@ -214,6 +245,7 @@ public class JdbcDataSource extends TraceObject implements DataSource, Serializa
     public void setPassword(String password) {
         debugCodeCall("setPassword", "");
         this.passwordChars = convertToCharArray(password);
+        closePool();
     }
 
     /**
@@ -226,6 +258,7 @@ public class JdbcDataSource extends TraceObject implements DataSource, Serializa
             debugCode("setPasswordChars(new char[0]);");
         }
         this.passwordChars = password;
+        closePool();
     }
 
     private static char[] convertToCharArray(String s) {
@@ -264,6 +297,7 @@ public class JdbcDataSource extends TraceObject implements DataSource, Serializa
     public void setUser(String user) {
         debugCodeCall("setUser", user);
         this.userName = user;
+        closePool();
     }
 
     /**
@@ -286,6 +320,90 @@ public class JdbcDataSource extends TraceObject implements DataSource, Serializa
         this.description = description;
     }
 
+    /**
+     * Get the max number of connections in the connection pool.
+     *
+     * @return the max number of connections, 0 meaning no connection pool
+     */
+    public int getMaxConnections() {
+        debugCodeCall("getMaxConnections");
+        return maxConnections;
+    }
+
+    /**
+     * Set the max number of connections in the connection pool.
+     * The default value is 0, that means the connection pool is not used.
+     *
+     * @param max the max number of connections
+     */
+    public void setMaxConnections(int max) {
+        debugCodeCall("setMaxConnections", max);
+        this.maxConnections = max;
+        closePool();
+    }
+
+    /**
+     * Get the min number of connections kept in the connection pool.
+     *
+     * @return the min number of connections
+     */
+    public int getMinConnections() {
+        debugCodeCall("getMinConnections");
+        return minConnections;
+    }
+
+    /**
+     * Set the min number of connections kept in the connection pool.
+     * The default value is 0.
+     *
+     * @param min the min number of connections
+     */
+    public void setMinConnections(int min) {
+        debugCodeCall("setMinConnections", min);
+        this.minConnections = min;
+        closePool();
+    }
+
+    /**
+     * Get the idle timeout in seconds of the pooled connections.
+     *
+     * @return the timeout in seconds, 0 meaning no timeout
+     */
+    public int getIdleTimeout() {
+        debugCodeCall("getIdleTimeout");
+        return idleTimeout;
+    }
+
+    /**
+     * Set the idle timeout in seconds, 0 meaning no timeout.
+     * The pooled connections that are idle longer than this time are closed,
+     * but at least minConnections connections are kept.
+     * The default value is 600.
+     *
+     * @param timeout the timeout in seconds
+     */
+    public void setIdleTimeout(int timeout) {
+        debugCodeCall("setIdleTimeout", timeout);
+        this.idleTimeout = timeout;
+        closePool();
+    }
+
+    /**
+     * Close the connection pool. The idle connections are closed at once,
+     * the borrowed connections are closed when they are returned.
+     */
+    public void close() {
+        debugCodeCall("close");
+        closePool();
+    }
+
+    private synchronized void closePool() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
     /**
      * Get a new reference for this object, using the current settings.
      *
@@ -301,6 +419,9 @@ public class JdbcDataSource extends TraceObject implements DataSource, Serializa
         ref.add(new StringRefAddr("password", convertToString(passwordChars)));
         ref.add(new StringRefAddr("loginTimeout", String.valueOf(loginTimeout)));
         ref.add(new StringRefAddr("description", description));
+        ref.add(new StringRefAddr("maxConnections", String.valueOf(maxConnections)));
+        ref.add(new StringRefAddr("minConnections", String.valueOf(minConnections)));
+        ref.add(new StringRefAddr("idleTimeout", String.valueOf(idleTimeout)));
         return ref;
     }
 
@@ -68,6 +68,15 @@ public class JdbcDataSourceFactory implements ObjectFactory {
                 dataSource.setDescription((String) ref.get("description").getContent());
                 String s = (String) ref.get("loginTimeout").getContent();
                 dataSource.setLoginTimeout(Integer.parseInt(s));
+                // 老版本的Reference中没有连接池相关的参数
+                if (ref.get("maxConnections") != null) {
+                    s = (String) ref.get("maxConnections").getContent();
+                    dataSource.setMaxConnections(Integer.parseInt(s));
+                    s = (String) ref.get("minConnections").getContent();
+                    dataSource.setMinConnections(Integer.parseInt(s));
+                    s = (String) ref.get("idleTimeout").getContent();
+                    dataSource.setIdleTimeout(Integer.parseInt(s));
+                }
                 return dataSource;
             }
         }
@@ -39,6 +39,7 @@ import org.lealone.db.api.ErrorCode;
 import org.lealone.db.async.AsyncCallback;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
+import org.lealone.db.async.Flow;
 import org.lealone.db.async.Future;
 import org.lealone.db.result.Result;
 import org.lealone.db.value.DataType;
@@ -110,6 +111,13 @@ public class JdbcPreparedStatement extends JdbcStatement implements PreparedStat
         return executeQueryAsync().onComplete(handler);
     }
 
+    /**
+     * 返回一个按订阅者的需求一批一批取记录的发布者，订阅时才用当前的参数执行查询，不阻塞任何线程
+     */
+    public Flow.Publisher<List<Value[]>> executeQueryPublisher() {
+        return new JdbcResultPublisher(() -> executeQueryAsync(), fetchSize);
+    }
+
     private Future<ResultSet> executeQueryInternal(boolean sync) {
         try {
             int id = getNextTraceId(TraceObjectType.RESULT_SET);
@@ -1319,6 +1327,9 @@ public class JdbcPreparedStatement extends JdbcStatement implements PreparedStat
                 debugCodeAssign("ParameterMetaData", TraceObjectType.PARAMETER_META_DATA, id, "getParameterMetaData()");
             }
             checkClosed();
+            // 延迟prepare时要等到prepare的响应回来才有参数的元数据
+            if (command instanceof ClientPreparedSQLCommand)
+                ((ClientPreparedSQLCommand) command).waitPrepare();
             JdbcParameterMetaData meta = new JdbcParameterMetaData(this, command, id);
             return meta;
         } catch (Exception e) {
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.client.jdbc;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.lealone.client.result.ClientResult;
+import org.lealone.db.async.AsyncResult;
+import org.lealone.db.async.Flow;
+import org.lealone.db.async.Future;
+import org.lealone.db.result.Result;
+import org.lealone.db.value.Value;
+
+/**
+ * 按订阅者的需求一批一批地发布查询结果，每个元素是最多fetchSize条记录，
+ * 订阅者请求一个元素才向服务器端取一批记录，整个过程不阻塞任何线程。
+ *
+ * 订阅时才开始执行查询，一个发布者只能被订阅一次。
+ */
+public class JdbcResultPublisher implements Flow.Publisher<List<Value[]>> {
+
+    private final Supplier<Future<ResultSet>> query;
+    private final int fetchSize;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    JdbcResultPublisher(Supplier<Future<ResultSet>> query, int fetchSize) {
+        this.query = query;
+        this.fetchSize = fetchSize > 0 ? fetchSize : 1;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<Value[]>> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("JdbcResultPublisher can only be subscribed once"));
+            return;
+        }
+        ResultSubscription subscription = new ResultSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        query.get().onComplete(ar -> {
+            if (ar.isSucceeded())
+                subscription.start((JdbcResultSet) ar.getResult());
+            else
+                subscription.onError(ar.getCause());
+        });
+    }
+
+    private class ResultSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super List<Value[]>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        // 保证同一时间只有一个线程决定是否取下一批，回调可能在request的调用线程中同步执行
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile JdbcResultSet resultSet;
+        private volatile boolean fetching;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+
+        ResultSubscription(Flow.Subscriber<? super List<Value[]>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start(JdbcResultSet resultSet) {
+            this.resultSet = resultSet;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                onError(new IllegalArgumentException("non-positive subscription request: " + n));
+                return;
+            }
+            long d, newDemand;
+            do {
+                d = demand.get();
+                newDemand = d + n;
+                if (newDemand < 0) // 溢出了
+                    newDemand = Long.MAX_VALUE;
+            } while (!demand.compareAndSet(d, newDemand));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            do {
+                JdbcResultSet rs = resultSet;
+                if (rs != null && !fetching) {
+                    if (cancelled || done) {
+                        close();
+                    } else if (demand.get() > 0) {
+                        fetching = true;
+                        fetch(rs.getResult());
+                    }
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        private void fetch(Result result) {
+            if (result == null) {
+                onBatch(new AsyncResult<>(new ArrayList<>(0)));
+            } else if (result instanceof ClientResult) {
+                ((ClientResult) result).fetchRowsAsync(fetchSize, this::onBatch);
+            } else {
+                // 嵌入模式下的结果集已经在内存中了，直接按引用读取，
+                // 只有带了排序或分组用的隐藏字段的记录才需要复制
+                try {
+                    int columnCount = result.getVisibleColumnCount();
+                    ArrayList<Value[]> rows = new ArrayList<>();
+                    result.nextRows(rows, fetchSize);
+                    for (int i = 0, size = rows.size(); i < size; i++) {
+                        Value[] row = rows.get(i);
+                        if (row.length != columnCount) {
+                            Value[] copy = new Value[columnCount];
+                            System.arraycopy(row, 0, copy, 0, columnCount);
+                            rows.set(i, copy);
+                        }
+                    }
+                    onBatch(new AsyncResult<>(rows));
+                } catch (Throwable e) {
+                    onBatch(new AsyncResult<>(e));
+                }
+            }
+        }
+
+        private void onBatch(AsyncResult<List<Value[]>> ar) {
+            fetching = false;
+            if (!cancelled && !done) {
+                if (ar.isFailed()) {
+                    onError(ar.getCause());
+                } else if (ar.getResult().isEmpty()) {
+                    done = true;
+                    subscriber.onComplete();
+                } else {
+                    demand.decrementAndGet();
+                    subscriber.onNext(ar.getResult());
+                }
+            }
+            drain();
+        }
+
+        private void onError(Throwable t) {
+            if (done)
+                return;
+            done = true;
+            subscriber.onError(t);
+            drain();
+        }
+
+        private void close() {
+            JdbcResultSet rs = resultSet;
+            resultSet = null;
+            if (rs != null) {
+                try {
+                    rs.closeInternal();
+                } catch (Throwable e) {
+                    // 已经通知过订阅者了，关闭失败时忽略
+                }
+            }
+        }
+    }
+}
@@ -3659,4 +3659,8 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public void setCommand(Command command) {
         this.command = command;
     }
+
+    Result getResult() {
+        return result;
+    }
 }
@@ -12,6 +12,7 @@ import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.lealone.client.command.ClientSQLCommand;
 import org.lealone.common.exceptions.DbException;
@@ -25,9 +26,11 @@ import org.lealone.db.api.ErrorCode;
 import org.lealone.db.async.AsyncCallback;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
+import org.lealone.db.async.Flow;
 import org.lealone.db.async.Future;
 import org.lealone.db.result.Result;
 import org.lealone.db.session.Session;
+import org.lealone.db.value.Value;
 import org.lealone.sql.SQLCommand;
 
 /**
@@ -83,6 +86,13 @@ public class JdbcStatement extends TraceObject implements Statement {
         return executeQueryAsync(sql).onComplete(handler);
     }
 
+    /**
+     * 返回一个按订阅者的需求一批一批取记录的发布者，订阅时才执行查询，不阻塞任何线程
+     */
+    public Flow.Publisher<List<Value[]>> executeQueryPublisher(String sql) {
+        return new JdbcResultPublisher(() -> executeQueryAsync(sql), fetchSize);
+    }
+
     private Future<ResultSet> executeQueryInternal(String sql, boolean sync) {
         try {
             int id = getNextTraceId(TraceObjectType.RESULT_SET);
@@ -732,6 +742,7 @@ public class JdbcStatement extends TraceObject implements Statement {
             debugCodeCall("addBatch", sql);
             checkClosed();
             sql = JdbcConnection.translateSQL(sql, escapeProcessing);
+            conn.checkSessionState(sql);
             if (batchCommands == null) {
                 batchCommands = Utils.newSmallArrayList();
             }
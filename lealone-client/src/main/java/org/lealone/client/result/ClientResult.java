@@ -6,15 +6,24 @@
 package org.lealone.client.result;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.lealone.client.session.ClientSession;
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.Utils;
+import org.lealone.db.ConnectionInfo;
+import org.lealone.db.ConnectionSetting;
 import org.lealone.db.SysProperties;
+import org.lealone.db.async.AsyncHandler;
+import org.lealone.db.async.AsyncResult;
+import org.lealone.db.async.Future;
 import org.lealone.db.result.Result;
 import org.lealone.db.value.Value;
 import org.lealone.net.TransferInputStream;
+import org.lealone.server.protocol.result.ColumnarRows;
 import org.lealone.server.protocol.result.ResultChangeId;
 import org.lealone.server.protocol.result.ResultClose;
 import org.lealone.server.protocol.result.ResultFetchRows;
@@ -40,6 +49,23 @@ public abstract class ClientResult implements Result {
     protected final int rowCount;
     protected int rowId, rowOffset;
     protected ArrayList<Value[]> result;
+    protected ColumnarRows columnarRows; // 服务器端按列编码时不用result
+
+    // 预取的行数上限，避免fetchSize很大时占用太多内存
+    private static final int MAX_FETCH_AHEAD_ROWS = 64 * 1024;
+
+    private final int fetchAhead; // 最多同时预取几批记录，为0时不预取
+    private ArrayDeque<FetchAhead> fetchAheadQueue; // 按请求的顺序排列
+
+    private static class FetchAhead {
+        final Future<ResultFetchRowsAck> ack;
+        final int count;
+
+        FetchAhead(Future<ResultFetchRowsAck> ack, int count) {
+            this.ack = ack;
+            this.count = count;
+        }
+    }
 
     public ClientResult(ClientSession session, TransferInputStream in, int resultId, int columnCount, int rowCount,
             int fetchSize) throws IOException {
@@ -54,14 +80,63 @@ public abstract class ClientResult implements Result {
         rowId = -1;
         result = Utils.newSmallArrayList();
         this.fetchSize = fetchSize;
+        fetchAhead = getFetchAhead(session, fetchSize);
         fetchRows(false);
     }
 
+    private static int getFetchAhead(ClientSession session, int fetchSize) {
+        ConnectionInfo ci = session.getConnectionInfo();
+        if (ci == null || fetchSize <= 0)
+            return 0;
+        int fetchAhead = ci.getProperty(ConnectionSetting.RESULT_FETCH_AHEAD, 0);
+        if (fetchAhead <= 0)
+            return 0;
+        return Math.min(fetchAhead, Math.max(1, MAX_FETCH_AHEAD_ROWS / fetchSize));
+    }
+
     @Override
     public abstract boolean next();
 
     protected abstract void fetchRows(boolean sendFetch);
 
+    /**
+     * 读取最多maxRows条记录，返回true表示结果集已经没有记录了
+     */
+    protected boolean readRows(int maxRows) throws IOException {
+        result.clear();
+        columnarRows = null;
+        if (maxRows <= 0)
+            return false;
+        // 按行编码时第一个字节是boolean
+        byte first = in.readByte();
+        if (first == ColumnarRows.MARKER) {
+            columnarRows = ColumnarRows.read(in, columns.length);
+            return columnarRows.isEnd();
+        }
+        boolean row = first == 1;
+        for (int r = 0;;) {
+            if (!row)
+                return true;
+            int len = columns.length;
+            Value[] values = new Value[len];
+            for (int i = 0; i < len; i++) {
+                values[i] = in.readValue();
+            }
+            result.add(values);
+            if (++r >= maxRows)
+                return false;
+            row = in.readBoolean();
+        }
+    }
+
+    protected int getFetchedRowCount() {
+        return columnarRows != null ? columnarRows.size() : result.size();
+    }
+
+    protected Value[] getFetchedRow(int index) {
+        return columnarRows != null ? columnarRows.getRow(index) : result.get(index);
+    }
+
     @Override
     public String getAlias(int i) {
         return columns[i].alias;
@@ -116,6 +191,7 @@ public abstract class ClientResult implements Result {
     public void reset() {
         rowId = -1;
         currentRow = null;
+        discardFetchAhead();
         if (session == null) {
             return;
         }
@@ -150,6 +226,7 @@ public abstract class ClientResult implements Result {
     }
 
     protected void sendClose() {
+        discardFetchAhead();
         if (session == null) {
             return;
         }
@@ -164,16 +241,131 @@ public abstract class ClientResult implements Result {
         }
     }
 
-    protected void sendFetch(int fetchSize) throws IOException {
+    // 已经预取但没有用到的记录直接丢弃，预取的响应可能还没有到，到了之后也要释放它占用的buffer
+    private void discardFetchAhead() {
+        if (fetchAheadQueue == null)
+            return;
+        for (FetchAhead f : fetchAheadQueue) {
+            // 响应刚好到达时回调可能在网络线程和当前线程中各执行一次，closeInputStream只能真正执行一次
+            f.ack.onSuccess(ack -> {
+                synchronized (f) {
+                    ((TransferInputStream) ack.in).closeInputStream();
+                }
+            });
+        }
+        fetchAheadQueue = null;
+    }
+
+    /**
+     * 返回这一批记录最多有几行，如果已经预取过了，以预取时请求的行数为准
+     */
+    protected int sendFetch(int fetchSize) throws IOException {
         // 释放buffer
         in.closeInputStream();
-        ResultFetchRowsAck ack = session.<ResultFetchRowsAck> send(new ResultFetchRows(resultId, fetchSize)).get();
+        ResultFetchRowsAck ack;
+        FetchAhead f = fetchAheadQueue != null ? fetchAheadQueue.poll() : null;
+        if (f != null) {
+            ack = f.ack.get();
+            fetchSize = f.count;
+        } else {
+            ack = session.<ResultFetchRowsAck> send(new ResultFetchRows(resultId, fetchSize)).get();
+        }
         in = (TransferInputStream) ack.in;
+        return fetchSize;
+    }
+
+    /**
+     * 收到当前这一批记录后马上异步请求后面的几批，让网络传输和应用程序处理记录同时进行。
+     * 服务器端按顺序处理同一个session的请求，所以响应也是按请求的顺序返回的。
+     * 
+     * @param remainingRows 除了当前这一批，结果集还剩多少行，小于0表示不知道
+     */
+    protected void fetchAhead(int remainingRows) {
+        if (fetchAhead <= 0 || session == null || resultId <= 0)
+            return;
+        if (fetchAheadQueue == null)
+            fetchAheadQueue = new ArrayDeque<>(fetchAhead);
+        int requestedRows = 0;
+        for (FetchAhead f : fetchAheadQueue)
+            requestedRows += f.count;
+        while (fetchAheadQueue.size() < fetchAhead) {
+            int count = fetchSize;
+            if (remainingRows >= 0) {
+                count = Math.min(count, remainingRows - requestedRows);
+                if (count <= 0)
+                    break;
+            }
+            Future<ResultFetchRowsAck> ack = session.send(new ResultFetchRows(resultId, count));
+            fetchAheadQueue.add(new FetchAhead(ack, count));
+            requestedRows += count;
+        }
+    }
+
+    /**
+     * 不阻塞当前线程，异步取下一批最多count条记录，记录从服务器端返回时在网络线程中回调，
+     * 回调的列表为空表示已经没有记录了。不能跟next()混用，上一次回调之前不能再调用。
+     */
+    public void fetchRowsAsync(int count, AsyncHandler<AsyncResult<List<Value[]>>> handler) {
+        // 先返回已经读到但还没有用过的记录
+        int index = rowId - rowOffset + 1;
+        int fetched = result == null ? 0 : getFetchedRowCount();
+        if (index < fetched) {
+            int size = Math.min(count, fetched - index);
+            ArrayList<Value[]> rows = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                rows.add(getFetchedRow(index + i));
+            }
+            rowId += size;
+            handler.handle(new AsyncResult<>(rows));
+            return;
+        }
+        if (session == null || resultId <= 0 || !hasMoreRows()) {
+            handler.handle(new AsyncResult<>(Collections.emptyList()));
+            return;
+        }
+        in.closeInputStream();
+        Future<ResultFetchRowsAck> ack;
+        int fetch;
+        FetchAhead f = fetchAheadQueue != null ? fetchAheadQueue.poll() : null;
+        if (f != null) {
+            ack = f.ack;
+            fetch = f.count;
+        } else {
+            fetch = getFetchCount(count);
+            ack = session.send(new ResultFetchRows(resultId, fetch));
+        }
+        ack.onComplete(ar -> {
+            if (ar.isFailed()) {
+                handler.handle(new AsyncResult<>(ar.getCause()));
+                return;
+            }
+            try {
+                in = (TransferInputStream) ar.getResult().in;
+                rowOffset += getFetchedRowCount();
+                readFetchedRows(fetch);
+            } catch (Throwable e) {
+                handler.handle(new AsyncResult<>(DbException.convert(e)));
+                return;
+            }
+            fetchRowsAsync(count, handler);
+        });
     }
 
+    // 当前这一批记录之后服务器端是否还有记录
+    protected abstract boolean hasMoreRows();
+
+    // 异步取记录时这一批最多取几行
+    protected int getFetchCount(int count) {
+        return count;
+    }
+
+    // 读取异步取到的一批记录，读完所有记录后关闭服务器端的结果集
+    protected abstract void readFetchedRows(int fetch) throws IOException;
+
     @Override
     public void close() {
         result = null;
+        columnarRows = null;
         sendClose();
     }
 
@@ -21,7 +21,6 @@ import java.io.IOException;
 
 import org.lealone.client.session.ClientSession;
 import org.lealone.common.exceptions.DbException;
-import org.lealone.db.value.Value;
 import org.lealone.net.TransferInputStream;
 
 public class RowCountDeterminedClientResult extends ClientResult {
@@ -37,10 +36,10 @@ public class RowCountDeterminedClientResult extends ClientResult {
             rowId++;
             remapIfOld();
             if (rowId < rowCount) {
-                if (rowId - rowOffset >= result.size()) {
+                if (rowId - rowOffset >= getFetchedRowCount()) {
                     fetchRows(true);
                 }
-                currentRow = result.get(rowId - rowOffset);
+                currentRow = getFetchedRow(rowId - rowOffset);
                 return true;
             }
             currentRow = null;
@@ -48,31 +47,37 @@ public class RowCountDeterminedClientResult extends ClientResult {
         return false;
     }
 
+    @Override
+    protected boolean hasMoreRows() {
+        return rowOffset + getFetchedRowCount() < rowCount;
+    }
+
+    @Override
+    protected int getFetchCount(int count) {
+        return Math.min(count, rowCount - rowOffset - getFetchedRowCount());
+    }
+
+    @Override
+    protected void readFetchedRows(int fetch) throws IOException {
+        readRows(fetch);
+        if (rowOffset + getFetchedRowCount() >= rowCount)
+            sendClose();
+    }
+
     @Override
     protected void fetchRows(boolean sendFetch) {
         session.checkClosed();
         try {
-            rowOffset += result.size();
-            result.clear();
+            rowOffset += getFetchedRowCount();
             int fetch = Math.min(fetchSize, rowCount - rowOffset);
             if (sendFetch) {
-                sendFetch(fetch);
-            }
-            for (int r = 0; r < fetch; r++) {
-                boolean row = in.readBoolean();
-                if (!row) {
-                    break;
-                }
-                int len = columns.length;
-                Value[] values = new Value[len];
-                for (int i = 0; i < len; i++) {
-                    Value v = in.readValue();
-                    values[i] = v;
-                }
-                result.add(values);
+                fetch = sendFetch(fetch);
             }
-            if (rowOffset + result.size() >= rowCount) {
+            readRows(fetch);
+            if (rowOffset + getFetchedRowCount() >= rowCount) {
                 sendClose();
+            } else {
+                fetchAhead(rowCount - rowOffset - getFetchedRowCount());
             }
         } catch (IOException e) {
             throw DbException.convertIOException(e, null);
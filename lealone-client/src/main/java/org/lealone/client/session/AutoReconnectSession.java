@@ -17,15 +17,29 @@
  */
 package org.lealone.client.session;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.lealone.db.ConnectionInfo;
+import org.lealone.db.async.AsyncCallback;
 import org.lealone.db.session.DelegatedSession;
 import org.lealone.db.session.Session;
+import org.lealone.server.protocol.session.SessionGetShardingRoutes;
+import org.lealone.server.protocol.session.SessionGetShardingRoutesAck;
+import org.lealone.sql.ShardingKey;
 
 class AutoReconnectSession extends DelegatedSession {
 
     private ConnectionInfo ci;
     private String newTargetNodes;
 
+    // sharding模式下直接连到数据所在的节点，每个节点一个ClientSession，key是节点的hostId
+    private final ConcurrentHashMap<String, ClientSession> nodeSessions = new ConcurrentHashMap<>();
+    private final Set<String> creatingNodeSessions = ConcurrentHashMap.newKeySet();
+    // key是schemaName.tableName
+    private final ConcurrentHashMap<String, ShardingRouteTable> routeTables = new ConcurrentHashMap<>();
+    private final Set<String> loadingRouteTables = ConcurrentHashMap.newKeySet();
+
     AutoReconnectSession(ConnectionInfo ci) {
         this.ci = ci;
     }
@@ -48,6 +62,9 @@ class AutoReconnectSession extends DelegatedSession {
     }
 
     private void reconnect() {
+        // 还有请求没有返回时不能关闭旧的session，等下一次reconnectIfNeeded时再重连
+        if (session.getPendingRequestCount() > 0)
+            return;
         Session oldSession = this.session;
         this.ci = this.ci.copy(newTargetNodes);
 
@@ -55,6 +72,7 @@ class AutoReconnectSession extends DelegatedSession {
             AutoReconnectSession a = (AutoReconnectSession) s;
             session = a.session;
             oldSession.close();
+            closeNodeSessions();
             newTargetNodes = null;
         });
     }
@@ -65,4 +83,69 @@ class AutoReconnectSession extends DelegatedSession {
             reconnect();
         }
     }
+
+    @Override
+    public void close() {
+        closeNodeSessions();
+        super.close();
+    }
+
+    private void closeNodeSessions() {
+        for (ClientSession s : nodeSessions.values()) {
+            s.close();
+        }
+        nodeSessions.clear();
+        routeTables.clear();
+    }
+
+    // 找到主键范围[start, end]所在节点的session，是当前节点、还没有准备好或者涉及多个节点时返回null，
+    // 路由表和session都是异步准备的，准备好之前语句还是发给当前节点
+    ClientSession getShardingSession(ClientSession current, ShardingKey key, long start, long end) {
+        ShardingRouteTable routeTable = getRouteTable(current, key);
+        if (routeTable == null)
+            return null;
+        String hostId = routeTable.getHostId(start, end);
+        if (hostId == null || hostId.equals(current.getServer()))
+            return null;
+        ClientSession s = nodeSessions.get(hostId);
+        if (s == null) {
+            createNodeSession(hostId);
+        } else if (s.isClosed()) {
+            nodeSessions.remove(hostId, s);
+            s = null;
+        }
+        return s;
+    }
+
+    private ShardingRouteTable getRouteTable(ClientSession current, ShardingKey key) {
+        String name = key.getFullTableName();
+        ShardingRouteTable routeTable = routeTables.get(name);
+        // 过期了先继续用旧的，同时异步更新
+        if ((routeTable == null || routeTable.isExpired()) && loadingRouteTables.add(name)) {
+            SessionGetShardingRoutes packet = new SessionGetShardingRoutes(key.schemaName, key.tableName);
+            current.<SessionGetShardingRoutesAck> send(packet).onComplete(ar -> {
+                if (ar.isSucceeded())
+                    routeTables.put(name, new ShardingRouteTable(ar.getResult().nodeToPageKeyMap));
+                loadingRouteTables.remove(name);
+            });
+        }
+        return routeTable;
+    }
+
+    // 在节点上执行失败时路由表可能已经过时了
+    void invalidateRouteTable(ShardingKey key) {
+        routeTables.remove(key.getFullTableName());
+    }
+
+    private void createNodeSession(String hostId) {
+        if (!creatingNodeSessions.add(hostId))
+            return;
+        AsyncCallback<ClientSession> ac = new AsyncCallback<>();
+        ac.onComplete(ar -> {
+            if (ar.isSucceeded())
+                nodeSessions.put(hostId, ar.getResult());
+            creatingNodeSessions.remove(hostId);
+        });
+        ClientSessionFactory.getInstance().createClientSession(this, ci.copy(hostId), hostId, ac);
+    }
 }
@@ -8,6 +8,10 @@ package org.lealone.client.session;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lealone.client.command.ClientPreparedSQLCommand;
 import org.lealone.client.command.ClientSQLCommand;
@@ -18,16 +22,24 @@ import org.lealone.common.exceptions.LealoneException;
 import org.lealone.common.trace.Trace;
 import org.lealone.common.trace.TraceModuleType;
 import org.lealone.common.util.MathUtils;
+import org.lealone.common.util.SmallLRUCache;
 import org.lealone.common.util.TempFileDeleter;
+import org.lealone.db.CommandParameter;
 import org.lealone.db.ConnectionInfo;
+import org.lealone.db.ConnectionSetting;
+import org.lealone.db.Constants;
 import org.lealone.db.DataHandler;
 import org.lealone.db.DbSetting;
+import org.lealone.db.RunMode;
 import org.lealone.db.SysProperties;
 import org.lealone.db.api.ErrorCode;
 import org.lealone.db.async.AsyncCallback;
+import org.lealone.db.async.AsyncResult;
 import org.lealone.db.async.Future;
 import org.lealone.db.session.Session;
 import org.lealone.db.session.SessionBase;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
 import org.lealone.net.NetInputStream;
 import org.lealone.net.TcpClientConnection;
 import org.lealone.net.TransferOutputStream;
@@ -45,10 +57,12 @@ import org.lealone.server.protocol.lob.LobRead;
 import org.lealone.server.protocol.lob.LobReadAck;
 import org.lealone.server.protocol.session.SessionCancelStatement;
 import org.lealone.server.protocol.session.SessionClose;
+import org.lealone.server.protocol.session.SessionPing;
 import org.lealone.server.protocol.session.SessionSetAutoCommit;
 import org.lealone.sql.ParsedSQLStatement;
 import org.lealone.sql.PreparedSQLStatement;
 import org.lealone.sql.SQLCommand;
+import org.lealone.sql.ShardingKey;
 import org.lealone.storage.LobStorage;
 import org.lealone.storage.StorageCommand;
 import org.lealone.storage.fs.FileStorage;
@@ -81,6 +95,14 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
     private final Object lobSyncObject = new Object();
     private LobStorage lobStorage;
 
+    // 按SQL缓存已经关闭的ClientPreparedSQLCommand，再次prepare同样的SQL时直接重用
+    private final SmallLRUCache<String, ClientPreparedSQLCommand> preparedSQLCommandCache;
+    private final int preparedSQLCommandCacheSize;
+    private final boolean deferredPrepare;
+
+    // 发请求时不等前一个请求的响应，响应按请求的顺序返回，收到响应时再减少
+    private final AtomicInteger pendingRequestCount = new AtomicInteger();
+
     ClientSession(TcpClientConnection tcpConnection, ConnectionInfo ci, String server, Session parent, int id) {
         this.tcpConnection = tcpConnection;
         this.ci = ci;
@@ -93,6 +115,13 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
 
         initTraceSystem(ci);
         trace = traceSystem == null ? Trace.NO_TRACE : traceSystem.getTrace(TraceModuleType.JDBC);
+
+        preparedSQLCommandCacheSize = ci.getProperty(ConnectionSetting.PREPARED_STATEMENT_CACHE_SIZE, 0);
+        if (preparedSQLCommandCacheSize > 0)
+            preparedSQLCommandCache = SmallLRUCache.newInstance(preparedSQLCommandCacheSize);
+        else
+            preparedSQLCommandCache = null;
+        deferredPrepare = ci.getProperty(ConnectionSetting.DEFERRED_PREPARE, false);
     }
 
     @Override
@@ -100,6 +129,10 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
         return "ClientSession[" + id + ", " + server + "]";
     }
 
+    public String getServer() {
+        return server;
+    }
+
     @Override
     public int getId() {
         return id;
@@ -197,7 +230,34 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
     @Override
     public SQLCommand prepareSQLCommand(String sql, int fetchSize) {
         checkClosed();
-        return new ClientPreparedSQLCommand(this, sql, fetchSize);
+        if (preparedSQLCommandCache != null) {
+            ClientPreparedSQLCommand command = preparedSQLCommandCache.remove(sql);
+            if (command != null) {
+                command.reuse(fetchSize);
+                return command;
+            }
+        }
+        return new ClientPreparedSQLCommand(this, sql, fetchSize, deferredPrepare);
+    }
+
+    /**
+     * 关闭ClientPreparedSQLCommand时调用，返回true表示已经放到缓存中了
+     */
+    public boolean cachePreparedSQLCommand(String sql, ClientPreparedSQLCommand command) {
+        if (preparedSQLCommandCache == null || closed)
+            return false;
+        // 同样的SQL已经缓存了一个
+        if (preparedSQLCommandCache.containsKey(sql))
+            return false;
+        if (preparedSQLCommandCache.size() >= preparedSQLCommandCacheSize) {
+            // 淘汰最近最少使用的
+            Iterator<ClientPreparedSQLCommand> iterator = preparedSQLCommandCache.values().iterator();
+            ClientPreparedSQLCommand eldest = iterator.next();
+            iterator.remove();
+            eldest.closeCommand();
+        }
+        preparedSQLCommandCache.put(sql, command);
+        return true;
     }
 
     @Override
@@ -210,6 +270,11 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
     public void close() {
         if (closed)
             return;
+        if (preparedSQLCommandCache != null) {
+            for (ClientPreparedSQLCommand command : preparedSQLCommandCache.values())
+                command.closeCommand();
+            preparedSQLCommandCache.clear();
+        }
         try {
             RuntimeException closeError = null;
             synchronized (this) {
@@ -333,6 +398,52 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
         return 1;
     }
 
+    /**
+     * sharding模式下找到参数中的主键值所在节点的session，找不到或者就是当前节点时返回null
+     */
+    public ClientSession getShardingSession(ShardingKey key, List<? extends CommandParameter> parameters) {
+        // 事务中的语句都要发给当前节点
+        if (runMode != RunMode.SHARDING || !autoCommit || !(parent instanceof AutoReconnectSession))
+            return null;
+        Value start = parameters.get(key.startIndex).getValue();
+        Value end = parameters.get(key.endIndex).getValue();
+        if (start == null || start == ValueNull.INSTANCE || end == null || end == ValueNull.INSTANCE)
+            return null;
+        long s, e;
+        try {
+            s = start.getLong();
+            e = end.getLong();
+        } catch (DbException ex) {
+            return null;
+        }
+        return ((AutoReconnectSession) parent).getShardingSession(this, key, s, e);
+    }
+
+    public void invalidateRouteTable(ShardingKey key) {
+        if (parent instanceof AutoReconnectSession)
+            ((AutoReconnectSession) parent).invalidateRouteTable(key);
+    }
+
+    @Override
+    public void ping() {
+        checkClosed();
+        try {
+            if (getProtocolVersion() >= Constants.TCP_PROTOCOL_VERSION_2) {
+                send(new SessionPing()).get();
+            } else {
+                // 老版本的服务器不支持SessionPing，执行一条最简单的语句
+                SQLCommand c = createSQLCommand("SELECT 1", 1);
+                try {
+                    c.executeQuery(1, false).get().close();
+                } finally {
+                    c.close();
+                }
+            }
+        } catch (Exception e) {
+            handleException(e);
+        }
+    }
+
     @Override
     public synchronized void commitTransaction(String allLocalTransactionNames) {
         checkClosed();
@@ -437,6 +548,11 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
         }
     }
 
+    @Override
+    public int getPendingRequestCount() {
+        return pendingRequestCount.get();
+    }
+
     @Override
     public <R, P extends AckPacket> Future<R> send(Packet packet, AckPacketHandler<R, P> ackPacketHandler) {
         int packetId = getNextId();
@@ -449,6 +565,15 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
             AckPacketHandler<R, P> ackPacketHandler) {
         traceOperation(packet.getType().name(), packetId);
         AsyncCallback<R> ac = new AsyncCallback<R>() {
+            // 收到响应、发送失败、连接关闭都算请求结束了，但是只能减一次。
+            // 等待超时不算，此时服务器可能还在执行，session不能给别人用(比如放回连接池)
+            private final AtomicBoolean pending = new AtomicBoolean(packet.getAckType() != PacketType.VOID);
+
+            private void endRequest() {
+                if (pending.compareAndSet(true, false))
+                    pendingRequestCount.decrementAndGet();
+            }
+
             @Override
             public void runInternal(NetInputStream in) throws Exception {
                 PacketDecoder<? extends Packet> decoder = PacketDecoders.getDecoder(packet.getAckType());
@@ -459,10 +584,19 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
                     } catch (Throwable e) {
                         setAsyncResult(e);
                     }
+                } else {
+                    endRequest();
                 }
             }
+
+            @Override
+            public void setAsyncResult(AsyncResult<R> asyncResult) {
+                endRequest();
+                super.setAsyncResult(asyncResult);
+            }
         };
         if (packet.getAckType() != PacketType.VOID) {
+            pendingRequestCount.incrementAndGet();
             tcpConnection.addAsyncCallback(packetId, ac);
         }
         try {
@@ -471,6 +605,9 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
             packet.encode(out, getProtocolVersion());
             out.flush();
         } catch (Throwable e) {
+            // 请求没有发出去，不会再有响应了
+            if (packet.getAckType() != PacketType.VOID)
+                tcpConnection.removeAsyncCallback(packetId);
             ac.setAsyncResult(e);
         }
         return ac;
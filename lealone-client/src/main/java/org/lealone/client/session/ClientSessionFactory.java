@@ -110,7 +110,7 @@ public class ClientSessionFactory implements SessionFactory {
         createClientSession(parent, ci, server, ac);
     }
 
-    private void createClientSession(AutoReconnectSession parent, ConnectionInfo ci, String server,
+    void createClientSession(AutoReconnectSession parent, ConnectionInfo ci, String server,
             AsyncCallback<ClientSession> ac) {
         NetNode node = NetNode.createTCP(server);
         NetFactory factory = NetFactoryManager.getFactory(ci.getNetFactoryName());
@@ -139,6 +139,7 @@ public class ClientSessionFactory implements SessionFactory {
                     clientSession.setTargetNodes(ack.targetNodes);
                     clientSession.setRunMode(ack.runMode);
                     clientSession.setInvalid(ack.invalid);
+                    clientSession.setNetworkCompression(ack.networkCompression);
                     return clientSession;
                 };
                 Future<ClientSession> f = clientSession.send(packet, ackPacketHandler);
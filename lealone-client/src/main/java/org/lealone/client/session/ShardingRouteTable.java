@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.client.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+import org.lealone.storage.PageKey;
+
+/**
+ * sharding模式下一个表的主键值到leaf page所在节点的映射，在客户端缓存一段时间。
+ *
+ * PageKey中的key是leaf page在父节点中对应的key，
+ * first为true的page在key的左边，它的下界在祖先节点中，客户端不知道，
+ * 所以除了最左边的page，其他first为true的page不参与查找，落在这些page中的主键值会找到左边相邻的page，
+ * 此时服务器端还会再转发一次，只是多了一跳，结果不会出错。
+ */
+class ShardingRouteTable {
+
+    // 缓存的映射关系过期后重新从服务器端获取，page分裂或移动后可以及时更新
+    private static final long EXPIRE_TIME = 10 * 1000;
+
+    // 每个page的主键下界，升序排列
+    private final long[] keys;
+    private final String[] hostIds;
+    private final long createTime = System.currentTimeMillis();
+
+    ShardingRouteTable(Map<String, List<PageKey>> nodeToPageKeyMap) {
+        ArrayList<Object[]> pages = new ArrayList<>();
+        for (Entry<String, List<PageKey>> e : nodeToPageKeyMap.entrySet()) {
+            for (PageKey pk : e.getValue()) {
+                Value v = (Value) pk.key;
+                long key = v == null || v == ValueNull.INSTANCE ? Long.MIN_VALUE : v.getLong();
+                pages.add(new Object[] { key, pk.first, e.getKey() });
+            }
+        }
+        // 按key排序，key相同时first为true的在前面
+        pages.sort((a, b) -> {
+            int c = Long.compare((Long) a[0], (Long) b[0]);
+            if (c != 0)
+                return c;
+            return Boolean.compare((Boolean) b[1], (Boolean) a[1]);
+        });
+        ArrayList<Object[]> list = new ArrayList<>(pages.size());
+        for (int i = 0, size = pages.size(); i < size; i++) {
+            Object[] page = pages.get(i);
+            if (i == 0)
+                page[0] = Long.MIN_VALUE;
+            else if ((Boolean) page[1])
+                continue;
+            list.add(page);
+        }
+        int size = list.size();
+        keys = new long[size];
+        hostIds = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = (Long) list.get(i)[0];
+            hostIds[i] = (String) list.get(i)[2];
+        }
+    }
+
+    boolean isExpired() {
+        return System.currentTimeMillis() - createTime > EXPIRE_TIME;
+    }
+
+    // 返回[start, end]中的主键所在的节点，涉及多个节点时返回null
+    String getHostId(long start, long end) {
+        if (keys.length == 0)
+            return null;
+        int from = indexOf(start);
+        int to = start == end ? from : indexOf(end);
+        String hostId = hostIds[from];
+        for (int i = from + 1; i <= to; i++) {
+            if (!hostId.equals(hostIds[i]))
+                return null;
+        }
+        return hostId;
+    }
+
+    // 找到最后一个下界小于等于key的page
+    private int indexOf(long key) {
+        int low = 0;
+        int high = keys.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (keys[mid] <= key)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.common.concurrent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.lealone.common.util.MapUtils;
+
+// 工作线程空闲时先自旋，然后让出CPU，最后才挂起。
+// 只有工作线程真正挂起时生产者才需要调用unpark，线程忙的时候加入任务不会产生系统调用。
+// idle只能由一个工作线程调用，wakeUp可以由任意线程调用。
+public class IdleStrategy {
+
+    // JDK 9才有Thread.onSpinWait，在JDK 8中运行时就是空循环
+    private static final MethodHandle ON_SPIN_WAIT;
+
+    static {
+        MethodHandle mh;
+        try {
+            mh = MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (Exception e) {
+            mh = null;
+        }
+        ON_SPIN_WAIT = mh;
+    }
+
+    private final int spinCount;
+    private final int yieldCount;
+
+    private volatile boolean haveWork;
+    private volatile boolean sleeping;
+    private volatile Thread thread;
+
+    // 以下统计字段，parkCount和parkedNanos只在工作线程中更新
+    private final AtomicLong wakeUpCount = new AtomicLong();
+    private long parkCount;
+    private long parkedNanos;
+
+    public IdleStrategy(int spinCount, int yieldCount) {
+        this.spinCount = Math.max(spinCount, 0);
+        this.yieldCount = Math.max(yieldCount, 0);
+    }
+
+    /**
+     * 按线程类型读取配置，比如scheduler_idle_spin_count和scheduler_idle_yield_count
+     */
+    public static IdleStrategy create(Map<String, String> config, String threadType, int defaultSpinCount,
+            int defaultYieldCount) {
+        int spinCount = MapUtils.getInt(config, threadType + "_idle_spin_count", defaultSpinCount);
+        int yieldCount = MapUtils.getInt(config, threadType + "_idle_yield_count", defaultYieldCount);
+        return new IdleStrategy(spinCount, yieldCount);
+    }
+
+    public void wakeUp() {
+        haveWork = true;
+        // 先写haveWork再读sleeping，跟idle中的顺序相反，两边至少有一边能看到对方的写入
+        if (sleeping) {
+            Thread t = thread;
+            if (t != null) {
+                wakeUpCount.incrementAndGet();
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * 等待新的任务，有新任务或超时后返回，返回时清除唤醒标记
+     */
+    public void idle(long timeoutMillis) throws InterruptedException {
+        try {
+            for (int i = 0; i < spinCount; i++) {
+                if (haveWork)
+                    return;
+                onSpinWait();
+            }
+            for (int i = 0; i < yieldCount; i++) {
+                if (haveWork)
+                    return;
+                Thread.yield();
+            }
+            if (timeoutMillis <= 0)
+                return;
+            thread = Thread.currentThread();
+            sleeping = true;
+            if (haveWork)
+                return;
+            long start = System.nanoTime();
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+            parkedNanos += System.nanoTime() - start;
+            parkCount++;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        } finally {
+            sleeping = false;
+            haveWork = false;
+        }
+    }
+
+    private static void onSpinWait() {
+        if (ON_SPIN_WAIT != null) {
+            try {
+                ON_SPIN_WAIT.invokeExact();
+            } catch (Throwable t) {
+                // 不会发生
+            }
+        }
+    }
+
+    public long getWakeUpCount() {
+        return wakeUpCount.get();
+    }
+
+    public long getParkCount() {
+        return parkCount;
+    }
+
+    public long getParkedNanos() {
+        return parkedNanos;
+    }
+}
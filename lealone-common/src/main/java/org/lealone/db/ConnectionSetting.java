@@ -26,5 +26,11 @@ public enum ConnectionSetting {
     IS_LOCAL,
     NET_FACTORY_NAME,
     NETWORK_TIMEOUT,
+    NETWORK_COMPRESSION,
+    COLUMNAR_RESULT,
+    STREAMING_RESULT,
+    RESULT_FETCH_AHEAD,
+    PREPARED_STATEMENT_CACHE_SIZE,
+    DEFERRED_PREPARE,
     TRACE_ENABLED;
 }
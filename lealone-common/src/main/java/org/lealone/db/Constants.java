@@ -65,6 +65,21 @@ public class Constants {
      */
     public static final int TCP_PROTOCOL_VERSION_1 = 1;
 
+    /**
+     * The TCP protocol version number 2, supports network compression and session ping.
+     */
+    public static final int TCP_PROTOCOL_VERSION_2 = 2;
+
+    /**
+     * The TCP protocol version number 3, supports sharding routing.
+     */
+    public static final int TCP_PROTOCOL_VERSION_3 = 3;
+
+    /**
+     * The TCP protocol version number 4, supports batched distributed transaction validation.
+     */
+    public static final int TCP_PROTOCOL_VERSION_4 = 4;
+
     /**
      * The min TCP protocol version number.
      */
@@ -73,12 +88,12 @@ public class Constants {
     /**
      * The max TCP protocol version number.
      */
-    public static final int TCP_PROTOCOL_VERSION_MAX = TCP_PROTOCOL_VERSION_1;
+    public static final int TCP_PROTOCOL_VERSION_MAX = TCP_PROTOCOL_VERSION_4;
 
     /**
      * The current TCP protocol version number.
      */
-    public static final int TCP_PROTOCOL_VERSION_CURRENT = TCP_PROTOCOL_VERSION_1;
+    public static final int TCP_PROTOCOL_VERSION_CURRENT = TCP_PROTOCOL_VERSION_4;
 
     /**
      * The lock mode that means no locking is used at all.
@@ -46,6 +46,7 @@ public enum DbSetting {
     OPTIMIZE_IS_NULL,
     OPTIMIZE_OR,
     OPTIMIZE_TWO_EQUALS,
+    PLAN_CACHE_SIZE,
     QUERY_CACHE_SIZE,
     RECOMPILE_ALWAYS,
     ROWID,
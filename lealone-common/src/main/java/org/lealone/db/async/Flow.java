@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db.async;
+
+/**
+ * 跟Java 9的java.util.concurrent.Flow一样的接口，在Java 8中也可以用，
+ * 订阅者通过Subscription.request告诉发布者自己还能处理多少个元素，发布者不会发送更多的元素。
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    public static interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public static interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public static interface Subscription {
+
+        /**
+         * 再请求n个元素，n必须大于0
+         */
+        void request(long n);
+
+        /**
+         * 不再需要元素了，已经请求但还没有收到的元素会被丢弃
+         */
+        void cancel();
+    }
+}
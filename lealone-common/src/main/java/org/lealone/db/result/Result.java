@@ -6,6 +6,8 @@
  */
 package org.lealone.db.result;
 
+import java.util.List;
+
 import org.lealone.db.value.Value;
 
 /**
@@ -34,6 +36,23 @@ public interface Result extends AutoCloseable {
      */
     boolean next();
 
+    /**
+     * Go to the next rows and add them to the list by reference, without copying.
+     * A row may contain more values than the visible columns.
+     *
+     * @param rows the list to add the rows to
+     * @param count the maximum number of rows
+     * @return the number of rows added
+     */
+    default int nextRows(List<Value[]> rows, int count) {
+        int n = 0;
+        while (n < count && next()) {
+            rows.add(currentRow());
+            n++;
+        }
+        return n;
+    }
+
     /**
      * Get the current row id, starting with 0.
      * -1 is returned when next() was not called yet.
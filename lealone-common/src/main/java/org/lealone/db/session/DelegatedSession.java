@@ -321,6 +321,16 @@ public class DelegatedSession implements Session {
         session.reconnectIfNeeded();
     }
 
+    @Override
+    public int getPendingRequestCount() {
+        return session.getPendingRequestCount();
+    }
+
+    @Override
+    public void ping() {
+        session.ping();
+    }
+
     @Override
     public IDatabase getDatabase() {
         return session.getDatabase();
@@ -336,6 +346,16 @@ public class DelegatedSession implements Session {
         return session.getNetworkTimeout();
     }
 
+    @Override
+    public void setNetworkCompression(String algorithm) {
+        session.setNetworkCompression(algorithm);
+    }
+
+    @Override
+    public String getNetworkCompression() {
+        return session.getNetworkCompression();
+    }
+
     @Override
     public void cancelStatement(int statementId) {
         session.cancelStatement(statementId);
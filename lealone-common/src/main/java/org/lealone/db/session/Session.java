@@ -8,6 +8,7 @@ package org.lealone.db.session;
 
 import java.io.Closeable;
 
+import org.lealone.common.exceptions.DbException;
 import org.lealone.common.trace.Trace;
 import org.lealone.common.trace.TraceModuleType;
 import org.lealone.common.trace.TraceObjectType;
@@ -195,6 +196,15 @@ public interface Session extends Closeable, Transaction.Participant {
     default void reconnectIfNeeded() {
     }
 
+    // 已经发出但还没有收到响应的请求个数，同一个session可以有多个请求同时在传输
+    default int getPendingRequestCount() {
+        return 0;
+    }
+
+    // 检查session是否还可用，出错时抛出异常，嵌入式的session不需要检查
+    default void ping() {
+    }
+
     default IDatabase getDatabase() {
         return null;
     }
@@ -203,6 +213,11 @@ public interface Session extends Closeable, Transaction.Participant {
         return null;
     }
 
+    // 用当前session的用户连接到另一个节点上的同一个数据库，得到的session不参与当前事务，由调用者负责关闭
+    default Future<Session> createSessionAsync(String hostAndPort) {
+        throw DbException.getUnsupportedException("createSessionAsync");
+    }
+
     default String getUserName() {
         return null;
     }
@@ -217,12 +232,25 @@ public interface Session extends Closeable, Transaction.Participant {
 
     int getNetworkTimeout();
 
+    // 在SessionInit和SessionInitAck中协商好的压缩算法(LZF或DEFLATE)，null表示不压缩
+    default void setNetworkCompression(String algorithm) {
+    }
+
+    default String getNetworkCompression() {
+        return null;
+    }
+
     void cancelStatement(int statementId);
 
     default int getLockTimeout() {
         return Integer.MAX_VALUE;
     }
 
+    // 当前语句的取消时间，0表示没有设置
+    default long getCancel() {
+        return 0;
+    }
+
     String getLocalHostAndPort();
 
     @SuppressWarnings("unchecked")
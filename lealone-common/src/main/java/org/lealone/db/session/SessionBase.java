@@ -45,6 +45,7 @@ public abstract class SessionBase implements Session {
     protected String targetNodes;
     protected RunMode runMode;
     protected boolean invalid;
+    protected String networkCompression;
 
     protected boolean autoCommit = true;
     protected Transaction parentTransaction;
@@ -131,6 +132,16 @@ public abstract class SessionBase implements Session {
         return runMode;
     }
 
+    @Override
+    public void setNetworkCompression(String algorithm) {
+        this.networkCompression = algorithm;
+    }
+
+    @Override
+    public String getNetworkCompression() {
+        return networkCompression;
+    }
+
     @Override
     public long getLastRowKey() {
         return 0;
@@ -923,7 +923,7 @@ public abstract class Value implements Comparable<Value> {
         return (short) x;
     }
 
-    private static int convertToInt(long x) {
+    static int convertToInt(long x) {
         if (x > Integer.MAX_VALUE || x < Integer.MIN_VALUE) {
             throw DbException.get(ErrorCode.NUMERIC_VALUE_OUT_OF_RANGE_1, Long.toString(x));
         }
@@ -106,6 +106,17 @@ public class ValueByte extends Value {
         return value;
     }
 
+    // 直接返回基本类型，不需要先转换成ValueInt或ValueLong
+    @Override
+    public int getInt() {
+        return value;
+    }
+
+    @Override
+    public long getLong() {
+        return value;
+    }
+
     @Override
     protected int compareSecure(Value o, CompareMode mode) {
         ValueByte v = (ValueByte) o;
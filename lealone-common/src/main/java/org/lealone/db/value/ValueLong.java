@@ -172,6 +172,12 @@ public class ValueLong extends Value {
         return value;
     }
 
+    // 跟convertTo(Value.INT)一样，超出int的范围时抛异常，但不需要创建ValueInt
+    @Override
+    public int getInt() {
+        return convertToInt(value);
+    }
+
     @Override
     protected int compareSecure(Value o, CompareMode mode) {
         ValueLong v = (ValueLong) o;
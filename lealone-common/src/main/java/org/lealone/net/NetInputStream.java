@@ -25,6 +25,8 @@ import org.lealone.storage.PageKey;
 
 public interface NetInputStream {
 
+    byte readByte() throws IOException;
+
     int readInt() throws IOException;
 
     long readLong() throws IOException;
@@ -27,6 +27,8 @@ public interface NetOutputStream {
 
     void setSSL(boolean ssl);
 
+    NetOutputStream writeByte(byte x) throws IOException;
+
     NetOutputStream writeInt(int x) throws IOException;
 
     NetOutputStream writeLong(long x) throws IOException;
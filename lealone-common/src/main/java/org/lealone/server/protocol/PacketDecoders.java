@@ -61,8 +61,12 @@ import org.lealone.server.protocol.result.ResultFetchRowsAck;
 import org.lealone.server.protocol.result.ResultReset;
 import org.lealone.server.protocol.session.SessionCancelStatement;
 import org.lealone.server.protocol.session.SessionClose;
+import org.lealone.server.protocol.session.SessionGetShardingRoutes;
+import org.lealone.server.protocol.session.SessionGetShardingRoutesAck;
 import org.lealone.server.protocol.session.SessionInit;
 import org.lealone.server.protocol.session.SessionInitAck;
+import org.lealone.server.protocol.session.SessionPing;
+import org.lealone.server.protocol.session.SessionPingAck;
 import org.lealone.server.protocol.session.SessionSetAutoCommit;
 import org.lealone.server.protocol.statement.StatementQuery;
 import org.lealone.server.protocol.statement.StatementQueryAck;
@@ -109,6 +113,10 @@ public class PacketDecoders {
         register(PacketType.SESSION_CANCEL_STATEMENT, SessionCancelStatement.decoder);
         register(PacketType.SESSION_SET_AUTO_COMMIT, SessionSetAutoCommit.decoder);
         register(PacketType.SESSION_CLOSE, SessionClose.decoder);
+        register(PacketType.SESSION_PING, SessionPing.decoder);
+        register(PacketType.SESSION_PING_ACK, SessionPingAck.decoder);
+        register(PacketType.SESSION_GET_SHARDING_ROUTES, SessionGetShardingRoutes.decoder);
+        register(PacketType.SESSION_GET_SHARDING_ROUTES_ACK, SessionGetShardingRoutesAck.decoder);
 
         register(PacketType.PREPARED_STATEMENT_PREPARE, PreparedStatementPrepare.decoder);
         register(PacketType.PREPARED_STATEMENT_PREPARE_ACK, PreparedStatementPrepareAck.decoder);
@@ -26,6 +26,10 @@ public enum PacketType {
     SESSION_CANCEL_STATEMENT(2),
     SESSION_SET_AUTO_COMMIT(3),
     SESSION_CLOSE(4),
+    SESSION_PING(5),
+    SESSION_PING_ACK(6),
+    SESSION_GET_SHARDING_ROUTES(7),
+    SESSION_GET_SHARDING_ROUTES_ACK(8),
 
     PREPARED_STATEMENT_PREPARE(10),
     PREPARED_STATEMENT_PREPARE_ACK(11),
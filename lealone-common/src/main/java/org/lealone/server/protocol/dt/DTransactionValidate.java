@@ -19,6 +19,7 @@ package org.lealone.server.protocol.dt;
 
 import java.io.IOException;
 
+import org.lealone.db.Constants;
 import org.lealone.net.NetInputStream;
 import org.lealone.net.NetOutputStream;
 import org.lealone.server.protocol.Packet;
@@ -27,10 +28,11 @@ import org.lealone.server.protocol.PacketType;
 
 public class DTransactionValidate implements Packet {
 
-    public final String localTransactionName;
+    // 同一个节点上要效验的多个本地事务合并到一个包中
+    public final String[] localTransactionNames;
 
-    public DTransactionValidate(String localTransactionName) {
-        this.localTransactionName = localTransactionName;
+    public DTransactionValidate(String... localTransactionNames) {
+        this.localTransactionNames = localTransactionNames;
     }
 
     @Override
@@ -45,7 +47,14 @@ public class DTransactionValidate implements Packet {
 
     @Override
     public void encode(NetOutputStream out, int version) throws IOException {
-        out.writeString(localTransactionName);
+        if (version >= Constants.TCP_PROTOCOL_VERSION_4) {
+            out.writeInt(localTransactionNames.length);
+            for (String localTransactionName : localTransactionNames)
+                out.writeString(localTransactionName);
+        } else {
+            // 老版本一个包只能放一个事务名，由发送方拆成多个包
+            out.writeString(localTransactionNames[0]);
+        }
     }
 
     public static final Decoder decoder = new Decoder();
@@ -53,8 +62,13 @@ public class DTransactionValidate implements Packet {
     private static class Decoder implements PacketDecoder<DTransactionValidate> {
         @Override
         public DTransactionValidate decode(NetInputStream in, int version) throws IOException {
-            String localTransactionName = in.readString();
-            return new DTransactionValidate(localTransactionName);
+            if (version < Constants.TCP_PROTOCOL_VERSION_4)
+                return new DTransactionValidate(in.readString());
+            int size = in.readInt();
+            String[] localTransactionNames = new String[size];
+            for (int i = 0; i < size; i++)
+                localTransactionNames[i] = in.readString();
+            return new DTransactionValidate(localTransactionNames);
         }
     }
 }
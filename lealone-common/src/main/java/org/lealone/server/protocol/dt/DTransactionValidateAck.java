@@ -19,6 +19,7 @@ package org.lealone.server.protocol.dt;
 
 import java.io.IOException;
 
+import org.lealone.db.Constants;
 import org.lealone.net.NetInputStream;
 import org.lealone.net.NetOutputStream;
 import org.lealone.server.protocol.AckPacket;
@@ -27,9 +28,22 @@ import org.lealone.server.protocol.PacketType;
 
 public class DTransactionValidateAck implements AckPacket {
 
-    public final boolean isValid;
+    public final boolean isValid; // 所有事务都有效时才为true
+    public final boolean[] results; // 跟DTransactionValidate.localTransactionNames一一对应
 
     public DTransactionValidateAck(boolean isValid) {
+        this(new boolean[] { isValid });
+    }
+
+    public DTransactionValidateAck(boolean[] results) {
+        this.results = results;
+        boolean isValid = true;
+        for (boolean result : results) {
+            if (!result) {
+                isValid = false;
+                break;
+            }
+        }
         this.isValid = isValid;
     }
 
@@ -40,7 +54,13 @@ public class DTransactionValidateAck implements AckPacket {
 
     @Override
     public void encode(NetOutputStream out, int version) throws IOException {
-        out.writeBoolean(isValid);
+        if (version >= Constants.TCP_PROTOCOL_VERSION_4) {
+            out.writeInt(results.length);
+            for (boolean result : results)
+                out.writeBoolean(result);
+        } else {
+            out.writeBoolean(isValid);
+        }
     }
 
     public static final Decoder decoder = new Decoder();
@@ -48,7 +68,13 @@ public class DTransactionValidateAck implements AckPacket {
     private static class Decoder implements PacketDecoder<DTransactionValidateAck> {
         @Override
         public DTransactionValidateAck decode(NetInputStream in, int version) throws IOException {
-            return new DTransactionValidateAck(in.readBoolean());
+            if (version < Constants.TCP_PROTOCOL_VERSION_4)
+                return new DTransactionValidateAck(in.readBoolean());
+            int size = in.readInt();
+            boolean[] results = new boolean[size];
+            for (int i = 0; i < size; i++)
+                results[i] = in.readBoolean();
+            return new DTransactionValidateAck(results);
         }
     }
 }
@@ -19,18 +19,26 @@ package org.lealone.server.protocol.ps;
 
 import java.io.IOException;
 
+import org.lealone.db.Constants;
 import org.lealone.net.NetInputStream;
 import org.lealone.net.NetOutputStream;
 import org.lealone.server.protocol.AckPacket;
 import org.lealone.server.protocol.PacketDecoder;
 import org.lealone.server.protocol.PacketType;
+import org.lealone.sql.ShardingKey;
 
 public class PreparedStatementPrepareAck implements AckPacket {
 
     public final boolean isQuery;
+    public final ShardingKey shardingKey;
 
     public PreparedStatementPrepareAck(boolean isQuery) {
+        this(isQuery, null);
+    }
+
+    public PreparedStatementPrepareAck(boolean isQuery, ShardingKey shardingKey) {
         this.isQuery = isQuery;
+        this.shardingKey = shardingKey;
     }
 
     @Override
@@ -41,6 +49,8 @@ public class PreparedStatementPrepareAck implements AckPacket {
     @Override
     public void encode(NetOutputStream out, int version) throws IOException {
         out.writeBoolean(isQuery);
+        if (version >= Constants.TCP_PROTOCOL_VERSION_3)
+            ShardingKey.write(out, shardingKey);
     }
 
     public static final Decoder decoder = new Decoder();
@@ -48,7 +58,11 @@ public class PreparedStatementPrepareAck implements AckPacket {
     private static class Decoder implements PacketDecoder<PreparedStatementPrepareAck> {
         @Override
         public PreparedStatementPrepareAck decode(NetInputStream in, int version) throws IOException {
-            return new PreparedStatementPrepareAck(in.readBoolean());
+            boolean isQuery = in.readBoolean();
+            ShardingKey shardingKey = null;
+            if (version >= Constants.TCP_PROTOCOL_VERSION_3)
+                shardingKey = ShardingKey.read(in);
+            return new PreparedStatementPrepareAck(isQuery, shardingKey);
         }
     }
 }
@@ -24,6 +24,7 @@ import java.util.List;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.CommandParameter;
+import org.lealone.db.Constants;
 import org.lealone.db.api.ErrorCode;
 import org.lealone.db.value.Value;
 import org.lealone.net.NetInputStream;
@@ -31,15 +32,23 @@ import org.lealone.net.NetOutputStream;
 import org.lealone.server.protocol.AckPacket;
 import org.lealone.server.protocol.PacketDecoder;
 import org.lealone.server.protocol.PacketType;
+import org.lealone.sql.ShardingKey;
 
 public class PreparedStatementPrepareReadParamsAck implements AckPacket {
 
     public final boolean isQuery;
     public final List<? extends CommandParameter> params;
+    public final ShardingKey shardingKey;
 
     public PreparedStatementPrepareReadParamsAck(boolean isQuery, List<? extends CommandParameter> params) {
+        this(isQuery, params, null);
+    }
+
+    public PreparedStatementPrepareReadParamsAck(boolean isQuery, List<? extends CommandParameter> params,
+            ShardingKey shardingKey) {
         this.isQuery = isQuery;
         this.params = params;
+        this.shardingKey = shardingKey;
     }
 
     @Override
@@ -54,6 +63,8 @@ public class PreparedStatementPrepareReadParamsAck implements AckPacket {
         for (CommandParameter p : params) {
             writeParameterMetaData(out, p);
         }
+        if (version >= Constants.TCP_PROTOCOL_VERSION_3)
+            ShardingKey.write(out, shardingKey);
     }
 
     /**
@@ -81,14 +92,17 @@ public class PreparedStatementPrepareReadParamsAck implements AckPacket {
                 p.readMetaData(in);
                 params.add(p);
             }
-            return new PreparedStatementPrepareReadParamsAck(isQuery, params);
+            ShardingKey shardingKey = null;
+            if (version >= Constants.TCP_PROTOCOL_VERSION_3)
+                shardingKey = ShardingKey.read(in);
+            return new PreparedStatementPrepareReadParamsAck(isQuery, params, shardingKey);
         }
     }
 
     /**
      * A client side parameter.
      */
-    private static class ClientCommandParameter implements CommandParameter {
+    public static class ClientCommandParameter implements CommandParameter {
 
         private final int index;
         private Value value;
@@ -156,6 +170,14 @@ public class PreparedStatementPrepareReadParamsAck implements AckPacket {
             return nullable;
         }
 
+        // 延迟prepare时参数由客户端先创建，收到prepare的响应后再补上元数据
+        public void setMetaData(CommandParameter p) {
+            dataType = p.getType();
+            precision = p.getPrecision();
+            scale = p.getScale();
+            nullable = p.getNullable();
+        }
+
         /**
          * Read the parameter meta data from the out object.
          *
@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.server.protocol.result;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.result.Result;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueBoolean;
+import org.lealone.db.value.ValueByte;
+import org.lealone.db.value.ValueDouble;
+import org.lealone.db.value.ValueFloat;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueShort;
+import org.lealone.db.value.ValueString;
+import org.lealone.net.NetInputStream;
+import org.lealone.net.NetOutputStream;
+
+/**
+ * 按列编码的一批记录。
+ *
+ * 按行编码时每一行前面有一个boolean，每个字段前面都有类型，
+ * 按列编码时一列只写一次类型，null值用位图表示，数值类型的列直接写原始值。
+ *
+ * 格式: MARKER | 行数 | 是否已经结束 | 每一列(类型 | 是否有null | null位图 | 非null的值)
+ *
+ * 按行编码时第一个字节只会是0或1，所以客户端可以根据第一个字节区分两种编码。
+ *
+ * 客户端读到的数据先放在原始类型的数组中，取某一行时才创建Value对象。
+ */
+public class ColumnarRows {
+
+    public static final byte MARKER = 2;
+
+    // 一列中的值类型不一样或者不是下面这些基本类型时，每个值都带上类型
+    private static final int MIXED_TYPE = Value.UNKNOWN;
+
+    private final int rowCount;
+    private final boolean end;
+    private final int[] types;
+    private final byte[][] nulls;
+    private final Object[] columns;
+
+    private ColumnarRows(int rowCount, boolean end, int columnCount) {
+        this.rowCount = rowCount;
+        this.end = end;
+        types = new int[columnCount];
+        nulls = new byte[columnCount][];
+        columns = new Object[columnCount];
+    }
+
+    public int size() {
+        return rowCount;
+    }
+
+    // 这一批记录之后结果集是否已经没有记录了
+    public boolean isEnd() {
+        return end;
+    }
+
+    public Value[] getRow(int row) {
+        int columnCount = types.length;
+        Value[] values = new Value[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            if (isNull(nulls[i], row)) {
+                values[i] = ValueNull.INSTANCE;
+                continue;
+            }
+            Object c = columns[i];
+            switch (types[i]) {
+            case Value.BOOLEAN:
+                values[i] = ValueBoolean.get(((boolean[]) c)[row]);
+                break;
+            case Value.BYTE:
+                values[i] = ValueByte.get((byte) ((int[]) c)[row]);
+                break;
+            case Value.SHORT:
+                values[i] = ValueShort.get((short) ((int[]) c)[row]);
+                break;
+            case Value.INT:
+                values[i] = ValueInt.get(((int[]) c)[row]);
+                break;
+            case Value.LONG:
+                values[i] = ValueLong.get(((long[]) c)[row]);
+                break;
+            case Value.FLOAT:
+                values[i] = ValueFloat.get(((float[]) c)[row]);
+                break;
+            case Value.DOUBLE:
+                values[i] = ValueDouble.get(((double[]) c)[row]);
+                break;
+            case Value.STRING:
+                values[i] = ValueString.get(((String[]) c)[row]);
+                break;
+            default:
+                values[i] = ((Value[]) c)[row];
+            }
+        }
+        return values;
+    }
+
+    public static ColumnarRows read(NetInputStream in, int columnCount) throws IOException {
+        int rowCount = in.readInt();
+        boolean end = in.readBoolean();
+        ColumnarRows rows = new ColumnarRows(rowCount, end, columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            int type = in.readInt();
+            byte[] nullBits = in.readBoolean() ? in.readBytes() : null;
+            rows.types[i] = type;
+            rows.nulls[i] = nullBits;
+            rows.columns[i] = readColumn(in, type, nullBits, rowCount);
+        }
+        return rows;
+    }
+
+    private static Object readColumn(NetInputStream in, int type, byte[] nullBits, int rowCount)
+            throws IOException {
+        switch (type) {
+        case Value.BOOLEAN: {
+            boolean[] a = new boolean[rowCount];
+            for (int r = 0; r < rowCount; r++)
+                if (!isNull(nullBits, r))
+                    a[r] = in.readBoolean();
+            return a;
+        }
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT: {
+            int[] a = new int[rowCount];
+            for (int r = 0; r < rowCount; r++)
+                if (!isNull(nullBits, r))
+                    a[r] = in.readInt();
+            return a;
+        }
+        case Value.LONG: {
+            long[] a = new long[rowCount];
+            for (int r = 0; r < rowCount; r++)
+                if (!isNull(nullBits, r))
+                    a[r] = in.readLong();
+            return a;
+        }
+        case Value.FLOAT: {
+            float[] a = new float[rowCount];
+            for (int r = 0; r < rowCount; r++)
+                if (!isNull(nullBits, r))
+                    a[r] = Float.intBitsToFloat(in.readInt());
+            return a;
+        }
+        case Value.DOUBLE: {
+            double[] a = new double[rowCount];
+            for (int r = 0; r < rowCount; r++)
+                if (!isNull(nullBits, r))
+                    a[r] = Double.longBitsToDouble(in.readLong());
+            return a;
+        }
+        case Value.STRING: {
+            String[] a = new String[rowCount];
+            for (int r = 0; r < rowCount; r++)
+                if (!isNull(nullBits, r))
+                    a[r] = in.readString();
+            return a;
+        }
+        default: {
+            Value[] a = new Value[rowCount];
+            for (int r = 0; r < rowCount; r++)
+                if (!isNull(nullBits, r))
+                    a[r] = in.readValue();
+            return a;
+        }
+        }
+    }
+
+    private static boolean isNull(byte[] nullBits, int row) {
+        return nullBits != null && (nullBits[row >>> 3] & (1 << (row & 7))) != 0;
+    }
+
+    /**
+     * 最多写count行，count小于等于0时什么都不写，跟按行编码保持一致
+     */
+    public static void write(NetOutputStream out, Result result, int count) throws IOException {
+        if (count <= 0)
+            return;
+        int columnCount = result.getVisibleColumnCount();
+        // 结果集返回的数组可能会被重用，所以要复制一份
+        ArrayList<Value[]> rows = new ArrayList<>(Math.min(count, 1024));
+        boolean end = false;
+        Throwable error = null;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (result.next()) {
+                    Value[] v = result.currentRow();
+                    Value[] row = new Value[columnCount];
+                    System.arraycopy(v, 0, row, 0, columnCount);
+                    rows.add(row);
+                } else {
+                    end = true;
+                    break;
+                }
+            }
+        } catch (Throwable e) {
+            // 跟按行编码一样，出错时先把已经取到的记录发出去并加上结束标记，后面再跟一个异常包
+            end = true;
+            error = e;
+        }
+        out.writeByte(MARKER);
+        out.writeInt(rows.size());
+        out.writeBoolean(end);
+        for (int i = 0; i < columnCount; i++) {
+            writeColumn(out, rows, i);
+        }
+        if (error != null)
+            throw DbException.convert(error);
+    }
+
+    private static void writeColumn(NetOutputStream out, ArrayList<Value[]> rows, int column) throws IOException {
+        int rowCount = rows.size();
+        int type = Value.UNKNOWN;
+        byte[] nullBits = null;
+        for (int r = 0; r < rowCount; r++) {
+            Value v = rows.get(r)[column];
+            if (v == ValueNull.INSTANCE) {
+                if (nullBits == null)
+                    nullBits = new byte[(rowCount + 7) >>> 3];
+                nullBits[r >>> 3] |= 1 << (r & 7);
+            } else if (type == Value.UNKNOWN) {
+                type = v.getType();
+            } else if (type != v.getType()) {
+                type = MIXED_TYPE;
+            }
+        }
+        switch (type) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.FLOAT:
+        case Value.DOUBLE:
+        case Value.STRING:
+            break;
+        default:
+            type = MIXED_TYPE;
+        }
+        out.writeInt(type);
+        out.writeBoolean(nullBits != null);
+        if (nullBits != null)
+            out.writeBytes(nullBits);
+        for (int r = 0; r < rowCount; r++) {
+            if (isNull(nullBits, r))
+                continue;
+            Value v = rows.get(r)[column];
+            switch (type) {
+            case Value.BOOLEAN:
+                out.writeBoolean(v.getBoolean().booleanValue());
+                break;
+            case Value.BYTE:
+            case Value.SHORT:
+            case Value.INT:
+                out.writeInt(v.getInt());
+                break;
+            case Value.LONG:
+                out.writeLong(v.getLong());
+                break;
+            case Value.FLOAT:
+                out.writeInt(Float.floatToRawIntBits(v.getFloat()));
+                break;
+            case Value.DOUBLE:
+                out.writeLong(Double.doubleToRawLongBits(v.getDouble()));
+                break;
+            case Value.STRING:
+                out.writeString(v.getString());
+                break;
+            default:
+                out.writeValue(v);
+            }
+        }
+    }
+}
@@ -33,17 +33,24 @@ public class ResultFetchRowsAck implements AckPacket {
     public final NetInputStream in;
     public final Result result;
     public final int count;
+    public final boolean columnar;
 
     public ResultFetchRowsAck(NetInputStream in) {
         this.in = in;
         this.result = null;
         this.count = 0;
+        this.columnar = false;
     }
 
     public ResultFetchRowsAck(Result result, int count) {
+        this(result, count, false);
+    }
+
+    public ResultFetchRowsAck(Result result, int count, boolean columnar) {
         this.in = null;
         this.result = result;
         this.count = count;
+        this.columnar = columnar;
     }
 
     @Override
@@ -53,7 +60,7 @@ public class ResultFetchRowsAck implements AckPacket {
 
     @Override
     public void encode(NetOutputStream out, int version) throws IOException {
-        writeRow(out, result, count);
+        writeRow(out, result, count, columnar);
     }
 
     public static final Decoder decoder = new Decoder();
@@ -65,6 +72,14 @@ public class ResultFetchRowsAck implements AckPacket {
         }
     }
 
+    public static void writeRow(NetOutputStream out, Result result, int count, boolean columnar)
+            throws IOException {
+        if (columnar)
+            ColumnarRows.write(out, result, count);
+        else
+            writeRow(out, result, count);
+    }
+
     public static void writeRow(NetOutputStream out, Result result, int count) throws IOException {
         try {
             int visibleColumnCount = result.getVisibleColumnCount();
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.server.protocol.session;
+
+import java.io.IOException;
+
+import org.lealone.net.NetInputStream;
+import org.lealone.net.NetOutputStream;
+import org.lealone.server.protocol.Packet;
+import org.lealone.server.protocol.PacketDecoder;
+import org.lealone.server.protocol.PacketType;
+
+// 取得sharding模式下表的所有leaf page所在的节点
+public class SessionGetShardingRoutes implements Packet {
+
+    public final String schemaName;
+    public final String tableName;
+
+    public SessionGetShardingRoutes(String schemaName, String tableName) {
+        this.schemaName = schemaName;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public PacketType getType() {
+        return PacketType.SESSION_GET_SHARDING_ROUTES;
+    }
+
+    @Override
+    public PacketType getAckType() {
+        return PacketType.SESSION_GET_SHARDING_ROUTES_ACK;
+    }
+
+    @Override
+    public void encode(NetOutputStream out, int version) throws IOException {
+        out.writeString(schemaName);
+        out.writeString(tableName);
+    }
+
+    public static final Decoder decoder = new Decoder();
+
+    private static class Decoder implements PacketDecoder<SessionGetShardingRoutes> {
+        @Override
+        public SessionGetShardingRoutes decode(NetInputStream in, int version) throws IOException {
+            return new SessionGetShardingRoutes(in.readString(), in.readString());
+        }
+    }
+}
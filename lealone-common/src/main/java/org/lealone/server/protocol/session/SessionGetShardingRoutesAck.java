@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.server.protocol.session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.lealone.db.value.Value;
+import org.lealone.net.NetInputStream;
+import org.lealone.net.NetOutputStream;
+import org.lealone.server.protocol.AckPacket;
+import org.lealone.server.protocol.PacketDecoder;
+import org.lealone.server.protocol.PacketType;
+import org.lealone.storage.PageKey;
+
+public class SessionGetShardingRoutesAck implements AckPacket {
+
+    public final Map<String, List<PageKey>> nodeToPageKeyMap;
+
+    public SessionGetShardingRoutesAck(Map<String, List<PageKey>> nodeToPageKeyMap) {
+        this.nodeToPageKeyMap = nodeToPageKeyMap;
+    }
+
+    @Override
+    public PacketType getType() {
+        return PacketType.SESSION_GET_SHARDING_ROUTES_ACK;
+    }
+
+    @Override
+    public void encode(NetOutputStream out, int version) throws IOException {
+        out.writeInt(nodeToPageKeyMap.size());
+        for (Entry<String, List<PageKey>> e : nodeToPageKeyMap.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeInt(e.getValue().size());
+            for (PageKey pk : e.getValue()) {
+                out.writeValue((Value) pk.key);
+                out.writeBoolean(pk.first);
+            }
+        }
+    }
+
+    public static final Decoder decoder = new Decoder();
+
+    private static class Decoder implements PacketDecoder<SessionGetShardingRoutesAck> {
+        @Override
+        public SessionGetShardingRoutesAck decode(NetInputStream in, int version) throws IOException {
+            int size = in.readInt();
+            HashMap<String, List<PageKey>> nodeToPageKeyMap = new HashMap<>(size);
+            for (int i = 0; i < size; i++) {
+                String hostId = in.readString();
+                int count = in.readInt();
+                ArrayList<PageKey> pageKeys = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    pageKeys.add(new PageKey(in.readValue(), in.readBoolean()));
+                }
+                nodeToPageKeyMap.put(hostId, pageKeys);
+            }
+            return new SessionGetShardingRoutesAck(nodeToPageKeyMap);
+        }
+    }
+}
@@ -58,7 +58,7 @@ public class SessionInit implements Packet {
     public void encode(NetOutputStream out, int version) throws IOException {
         out.setSSL(ci.isSSL());
         out.writeInt(Constants.TCP_PROTOCOL_VERSION_1); // minClientVersion
-        out.writeInt(Constants.TCP_PROTOCOL_VERSION_1); // maxClientVersion
+        out.writeInt(Constants.TCP_PROTOCOL_VERSION_MAX); // maxClientVersion
         out.writeString(ci.getDatabaseShortName());
         out.writeString(ci.getURL()); // 不带参数的URL
         out.writeString(ci.getUserName());
@@ -72,26 +72,32 @@ public class SessionInit implements Packet {
         }
     }
 
+    /**
+     * 协商客户端和服务器都支持的最高协议版本
+     *
+     * @param minClientVersion 客户端支持的最低版本
+     * @param maxClientVersion 客户端支持的最高版本
+     * @return 本次连接使用的协议版本
+     */
+    public static int getClientVersion(int minClientVersion, int maxClientVersion) {
+        if (minClientVersion < Constants.TCP_PROTOCOL_VERSION_MIN) {
+            throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2, "" + minClientVersion,
+                    "" + Constants.TCP_PROTOCOL_VERSION_MIN);
+        } else if (minClientVersion > Constants.TCP_PROTOCOL_VERSION_MAX) {
+            throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2, "" + minClientVersion,
+                    "" + Constants.TCP_PROTOCOL_VERSION_MAX);
+        }
+        return Math.max(minClientVersion, Math.min(maxClientVersion, Constants.TCP_PROTOCOL_VERSION_MAX));
+    }
+
     public static final PacketDecoder<SessionInit> decoder = new Decoder();
 
     private static class Decoder implements PacketDecoder<SessionInit> {
         @Override
         public SessionInit decode(NetInputStream in, int version) throws IOException {
             int minClientVersion = in.readInt();
-            if (minClientVersion < Constants.TCP_PROTOCOL_VERSION_MIN) {
-                throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2, "" + minClientVersion,
-                        "" + Constants.TCP_PROTOCOL_VERSION_MIN);
-            } else if (minClientVersion > Constants.TCP_PROTOCOL_VERSION_MAX) {
-                throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2, "" + minClientVersion,
-                        "" + Constants.TCP_PROTOCOL_VERSION_MAX);
-            }
-            int clientVersion;
             int maxClientVersion = in.readInt();
-            if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_MAX) {
-                clientVersion = Constants.TCP_PROTOCOL_VERSION_CURRENT;
-            } else {
-                clientVersion = minClientVersion;
-            }
+            int clientVersion = getClientVersion(minClientVersion, maxClientVersion);
             ConnectionInfo ci = createConnectionInfo(in);
             return new SessionInit(ci, clientVersion);
         }
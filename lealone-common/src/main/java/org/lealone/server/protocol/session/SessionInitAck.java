@@ -19,6 +19,7 @@ package org.lealone.server.protocol.session;
 
 import java.io.IOException;
 
+import org.lealone.db.Constants;
 import org.lealone.db.RunMode;
 import org.lealone.net.NetInputStream;
 import org.lealone.net.NetOutputStream;
@@ -33,13 +34,20 @@ public class SessionInitAck implements AckPacket {
     public final String targetNodes;
     public final RunMode runMode;
     public final boolean invalid;
+    public final String networkCompression; // 服务器端接受的压缩算法，null表示不压缩
 
     public SessionInitAck(int clientVersion, boolean autoCommit, String targetNodes, RunMode runMode, boolean invalid) {
+        this(clientVersion, autoCommit, targetNodes, runMode, invalid, null);
+    }
+
+    public SessionInitAck(int clientVersion, boolean autoCommit, String targetNodes, RunMode runMode, boolean invalid,
+            String networkCompression) {
         this.clientVersion = clientVersion;
         this.autoCommit = autoCommit;
         this.targetNodes = targetNodes;
         this.runMode = runMode;
         this.invalid = invalid;
+        this.networkCompression = networkCompression;
     }
 
     @Override
@@ -54,6 +62,9 @@ public class SessionInitAck implements AckPacket {
         out.writeString(targetNodes);
         out.writeString(runMode.toString());
         out.writeBoolean(invalid);
+        // 老的客户端不认识这个字段
+        if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_2)
+            out.writeString(networkCompression);
     }
 
     public static final Decoder decoder = new Decoder();
@@ -66,7 +77,10 @@ public class SessionInitAck implements AckPacket {
             String targetNodes = in.readString();
             RunMode runMode = RunMode.valueOf(in.readString());
             boolean invalid = in.readBoolean();
-            return new SessionInitAck(clientVersion, autoCommit, targetNodes, runMode, invalid);
+            String networkCompression = null;
+            if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_2)
+                networkCompression = in.readString();
+            return new SessionInitAck(clientVersion, autoCommit, targetNodes, runMode, invalid, networkCompression);
         }
     }
 }
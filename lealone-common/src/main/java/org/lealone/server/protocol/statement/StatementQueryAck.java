@@ -35,11 +35,17 @@ public class StatementQueryAck implements AckPacket {
     public final int columnCount;
     public final int fetchSize;
     public final NetInputStream in;
+    public final boolean columnar;
 
     public StatementQueryAck(Result result, int rowCount, int fetchSize) {
+        this(result, rowCount, fetchSize, false);
+    }
+
+    public StatementQueryAck(Result result, int rowCount, int fetchSize, boolean columnar) {
         this.result = result;
         this.rowCount = rowCount;
         this.fetchSize = fetchSize;
+        this.columnar = columnar;
         columnCount = result.getVisibleColumnCount();
         in = null;
     }
@@ -50,6 +56,7 @@ public class StatementQueryAck implements AckPacket {
         this.columnCount = columnCount;
         this.fetchSize = fetchSize;
         this.in = in;
+        columnar = false;
     }
 
     @Override
@@ -65,7 +72,7 @@ public class StatementQueryAck implements AckPacket {
         for (int i = 0; i < columnCount; i++) {
             PreparedStatementGetMetaDataAck.writeColumn(out, result, i);
         }
-        ResultFetchRowsAck.writeRow(out, result, fetchSize);
+        ResultFetchRowsAck.writeRow(out, result, fetchSize, columnar);
     }
 
     public static final Decoder decoder = new Decoder();
@@ -19,6 +19,7 @@ package org.lealone.sql;
 
 import java.util.List;
 
+import org.lealone.db.CommandParameter;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
 import org.lealone.db.result.Result;
@@ -81,12 +82,43 @@ public interface PreparedSQLStatement extends SQLStatement, ReplicaSQLCommand {
     Yieldable<Result> createYieldableQuery(int maxRows, boolean scrollable,
             AsyncHandler<AsyncResult<Result>> asyncHandler);
 
+    // 只向前滚动的查询可以边执行边把记录发给客户端，每批fetchSize条，不支持时返回null
+    default Yieldable<Result> createYieldableStreamingQuery(int maxRows, int fetchSize,
+            AsyncHandler<AsyncResult<Result>> asyncHandler) {
+        return null;
+    }
+
+    // 语句只访问主键等于某个值或在某个范围内的记录时，返回主键值对应的参数，否则返回null
+    default ShardingKey getShardingKey() {
+        return null;
+    }
+
+    // 以下两个方法用于数据库级的执行计划缓存
+
+    // 返回SQL中的常量换成的参数，按常量出现的顺序排列，没有换成参数的常量对应null，不能给其他session用时返回null
+    default List<? extends CommandParameter> getLiteralParameters() {
+        return null;
+    }
+
+    // 把语句交给另一个session执行，sql跟原来的SQL只有常量不同
+    default void rebind(Session session, String sql) {
+    }
+
     static interface Yieldable<T> {
         boolean run();
 
         T getResult();
 
         void setPageKeys(List<PageKey> pageKeys);
+
+        // 流式查询在等客户端取走已经发送的记录时返回true，此时不需要再调度它
+        default boolean isPaused() {
+            return false;
+        }
+
+        // session中有其他语句要执行了，暂停的流式查询不再等客户端，直接执行完
+        default void resume() {
+        }
     }
 
     default boolean yieldIfNeeded() {
@@ -17,6 +17,10 @@
  */
 package org.lealone.sql;
 
+import java.util.List;
+
+import org.lealone.db.value.Value;
+
 public interface SQLParser {
 
     void setRightsChecked(boolean rightsChecked);
@@ -27,4 +31,9 @@ public interface SQLParser {
 
     Object parseColumnForTable(String columnSql);
 
+    // 把SQL中的常量换成占位符，用来做执行计划缓存的key，常量按出现的顺序放到literals中，不支持时返回null
+    default String normalize(String sql, List<Value> literals) {
+        return null;
+    }
+
 }
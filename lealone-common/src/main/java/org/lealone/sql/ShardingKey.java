@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql;
+
+import java.io.IOException;
+
+import org.lealone.net.NetInputStream;
+import org.lealone.net.NetOutputStream;
+
+/**
+ * sharding模式下语句中主键值对应的参数，客户端根据参数值找到数据所在的节点，直接把语句发给那个节点。
+ *
+ * 单个主键值时startIndex和endIndex相同，主键范围时分别是下界和上界对应的参数下标。
+ */
+public class ShardingKey {
+
+    public final String schemaName;
+    public final String tableName;
+    public final int startIndex;
+    public final int endIndex;
+
+    public ShardingKey(String schemaName, String tableName, int startIndex, int endIndex) {
+        this.schemaName = schemaName;
+        this.tableName = tableName;
+        this.startIndex = startIndex;
+        this.endIndex = endIndex;
+    }
+
+    public String getFullTableName() {
+        return schemaName + "." + tableName;
+    }
+
+    public static void write(NetOutputStream out, ShardingKey key) throws IOException {
+        out.writeBoolean(key != null);
+        if (key != null) {
+            out.writeString(key.schemaName);
+            out.writeString(key.tableName);
+            out.writeInt(key.startIndex);
+            out.writeInt(key.endIndex);
+        }
+    }
+
+    public static ShardingKey read(NetInputStream in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+        return new ShardingKey(in.readString(), in.readString(), in.readInt(), in.readInt());
+    }
+}
@@ -19,10 +19,9 @@ package org.lealone.storage;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.lealone.common.concurrent.IdleStrategy;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
 import org.lealone.common.util.DateTimeUtils;
@@ -35,7 +34,7 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
     // LinkedBlockingQueue测出的性能不如ConcurrentLinkedQueue好
     private final ConcurrentLinkedQueue<PageOperation> tasks = new ConcurrentLinkedQueue<>();
     private final AtomicLong size = new AtomicLong();
-    private final Semaphore haveWork = new Semaphore(1);
+    private final IdleStrategy idleStrategy;
     private final String name;
     private final long loopInterval;
     private Thread thread;
@@ -50,6 +49,7 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
         this.name = name;
         // 默认100毫秒
         loopInterval = DateTimeUtils.getLoopInterval(config, "page_operation_handler_loop_interval", 100);
+        idleStrategy = IdleStrategy.create(config, "page_operation_handler", 100, 10);
     }
 
     @Override
@@ -102,7 +102,11 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
     }
 
     public void wakeUp() {
-        haveWork.release(1);
+        idleStrategy.wakeUp();
+    }
+
+    public IdleStrategy getIdleStrategy() {
+        return idleStrategy;
     }
 
     public long getShiftCount() {
@@ -114,8 +118,7 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
         while (!stopped) {
             runTasks();
             try {
-                haveWork.tryAcquire(loopInterval, TimeUnit.MILLISECONDS);
-                haveWork.drainPermits();
+                idleStrategy.idle(loopInterval);
             } catch (InterruptedException e) {
                 stopped = true;
                 // logger.warn(getName() + " is interrupted");
@@ -152,8 +155,7 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
         while (result == null || e == null) {
             runTasks();
             try {
-                haveWork.tryAcquire(loopInterval, TimeUnit.MILLISECONDS);
-                haveWork.drainPermits();
+                idleStrategy.idle(loopInterval);
             } catch (InterruptedException e) {
                 break;
             }
@@ -155,6 +155,11 @@ public interface StorageDataType {
         // do nothing
     }
 
+    // 用于可交换的增量更新，把newObj中的列加上对应的增量后再设置到oldObj中，deltas跟columnIndexes一一对应
+    default void addColumns(Object oldObj, Object newObj, int[] columnIndexes, Object[] deltas) {
+        setColumns(oldObj, newObj, columnIndexes);
+    }
+
     default int getColumnCount() {
         return 1;
     }
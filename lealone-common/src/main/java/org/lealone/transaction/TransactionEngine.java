@@ -28,6 +28,11 @@ public interface TransactionEngine extends PluggableEngine {
 
     Transaction beginTransaction(boolean autoCommit, RunMode runMode);
 
+    // 事务引擎可以为只读事务提供更轻量的实现，默认跟普通事务一样
+    default Transaction beginReadOnlyTransaction(boolean autoCommit, RunMode runMode) {
+        return beginTransaction(autoCommit, runMode);
+    }
+
     boolean validateTransaction(String localTransactionName);
 
     boolean supportsMVCC();
@@ -108,6 +108,13 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
 
     public int tryUpdate(K key, V newValue, int[] columnIndexes, Object oldTransactionalValue);
 
+    // 可交换的增量更新，deltas跟columnIndexes一一对应，
+    // 多个事务对同一列做增量更新时不会互相冲突，其他事务提交时会把增量重新合并到最新提交的值上
+    public default int tryUpdate(K key, V newValue, int[] columnIndexes, Object oldTransactionalValue,
+            Object[] deltas) {
+        return tryUpdate(key, newValue, columnIndexes, oldTransactionalValue);
+    }
+
     public default int tryRemove(K key) {
         Object oldTransactionalValue = getTransactionalValue(key);
         return tryRemove(key, oldTransactionalValue);
@@ -124,6 +131,10 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
 
     public boolean isLocked(Object oldTransactionalValue, int[] columnIndexes);
 
+    public default boolean isLocked(Object oldTransactionalValue, int[] columnIndexes, boolean commutative) {
+        return isLocked(oldTransactionalValue, columnIndexes);
+    }
+
     public Object[] getValueAndRef(K key, int[] columnIndexes);
 
     public Object getValue(Object oldTransactionalValue);
@@ -213,6 +213,7 @@ public class Database implements DataHandler, DbObject, IDatabase {
     private ConnectionInfo lastConnectionInfo;
 
     private final DbObjectVersionManager dbObjectVersionManager = new DbObjectVersionManager();
+    private final PlanCache planCache;
 
     private String[] hostIds;
     private HashSet<NetNode> nodes;
@@ -230,6 +231,7 @@ public class Database implements DataHandler, DbObject, IDatabase {
             this.parameters = new CaseInsensitiveMap<>();
         }
         persistent = dbSettings.persistent;
+        planCache = new PlanCache(this, dbSettings.planCacheSize);
         compareMode = CompareMode.getInstance(null, 0, false);
         if (dbSettings.mode != null) {
             mode = Mode.getInstance(dbSettings.mode);
@@ -643,6 +645,11 @@ public class Database implements DataHandler, DbObject, IDatabase {
         return modificationMetaId.get();
     }
 
+    // 所有session共用的执行计划缓存，PLAN_CACHE_SIZE设为0时不使用
+    public PlanCache getPlanCache() {
+        return dbSettings.planCacheSize > 0 ? planCache : null;
+    }
+
     public long getNextModificationMetaId() {
         // if the meta data has been modified, the data is modified as well
         // (because MetaTable returns modificationDataId)
@@ -242,6 +242,14 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean optimizeTwoEquals = get(DbSetting.OPTIMIZE_TWO_EQUALS, true);
 
+    /**
+     * Database setting <code>PLAN_CACHE_SIZE</code> (default: 256).<br />
+     * The size of the database-wide plan cache, in number of normalized SQL
+     * statements. Statements that differ only in literals share one entry,
+     * and all sessions of the database share the cache. Set to 0 to disable it.
+     */
+    public final int planCacheSize = get(DbSetting.PLAN_CACHE_SIZE, 256);
+
     /**
      * Database setting <code>QUERY_CACHE_SIZE</code> (default: 8).<br />
      * The size of the query cache, in number of cached statements. Each session
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+import org.lealone.common.util.SmallLRUCache;
+import org.lealone.db.value.Value;
+import org.lealone.sql.PreparedSQLStatement;
+
+/**
+ * 数据库级的执行计划缓存，所有session共用。
+ *
+ * key是规范化之后的SQL(常量都换成了占位符)，只有常量不同的SQL共用同一个缓存项。
+ * 缓存项中放的是session暂时不用的语句，取出来之后只属于一个session，所以执行时的状态不会被共享。
+ * 数据库的元数据有变化(比如执行了DDL)时整个缓存都失效。
+ */
+public class PlanCache {
+
+    // 每个缓存项最多放多少个空闲的语句
+    private static final int MAX_IDLE_STATEMENTS = 16;
+
+    private final Database database;
+    private final SmallLRUCache<String, Entry> entries;
+    private long modificationMetaId;
+
+    public PlanCache(Database database, int size) {
+        this.database = database;
+        entries = SmallLRUCache.newInstance(Math.max(size, 1));
+        modificationMetaId = database.getModificationMetaId();
+    }
+
+    /**
+     * 取出一个空闲的语句并换上literals中的常量，没有可用的语句时返回null
+     *
+     * @param key 规范化之后的SQL
+     * @param literals SQL中的常量
+     * @return 可以直接执行的语句
+     */
+    public synchronized PreparedSQLStatement poll(String key, List<Value> literals) {
+        checkModificationMetaId();
+        Entry e = entries.get(key);
+        if (e == null || !e.matches(literals)) {
+            return null;
+        }
+        PreparedSQLStatement ps = e.statements.poll();
+        if (ps != null) {
+            List<? extends CommandParameter> params = ps.getLiteralParameters();
+            for (int i = 0, size = params.size(); i < size; i++) {
+                CommandParameter p = params.get(i);
+                if (p != null) {
+                    p.setValue(literals.get(i));
+                }
+            }
+        }
+        return ps;
+    }
+
+    /**
+     * 把session不再使用的语句放回缓存，其他session或只有常量不同的SQL可以接着用
+     *
+     * @param key 规范化之后的SQL
+     * @param literals 语句当前的常量
+     * @param ps 已经关闭的语句
+     */
+    public synchronized void offer(String key, List<Value> literals, PreparedSQLStatement ps) {
+        List<? extends CommandParameter> params = ps.getLiteralParameters();
+        if (params == null || params.size() != literals.size()) {
+            return;
+        }
+        checkModificationMetaId();
+        Entry e = entries.get(key);
+        if (e == null) {
+            e = new Entry(literals, params);
+            entries.put(key, e);
+        } else if (!e.matches(literals) || !e.isSameShape(params)) {
+            return;
+        }
+        if (e.statements.size() < MAX_IDLE_STATEMENTS && !e.statements.contains(ps)) {
+            e.statements.add(ps);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private void checkModificationMetaId() {
+        long id = database.getModificationMetaId();
+        if (id != modificationMetaId) {
+            entries.clear();
+            modificationMetaId = id;
+        }
+    }
+
+    private static class Entry {
+
+        // 第一个语句的常量，没有换成参数的常量必须完全一样才能共用执行计划
+        private final Value[] literals;
+        private final boolean[] parameterized;
+        private final ArrayDeque<PreparedSQLStatement> statements = new ArrayDeque<>();
+
+        Entry(List<Value> literals, List<? extends CommandParameter> params) {
+            int size = literals.size();
+            this.literals = literals.toArray(new Value[size]);
+            parameterized = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                parameterized[i] = params.get(i) != null;
+            }
+        }
+
+        boolean matches(List<Value> values) {
+            if (values.size() != literals.length) {
+                return false;
+            }
+            for (int i = 0; i < literals.length; i++) {
+                if (!parameterized[i] && !literals[i].equals(values.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isSameShape(List<? extends CommandParameter> params) {
+            for (int i = 0; i < parameterized.length; i++) {
+                if (parameterized[i] != (params.get(i) != null)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
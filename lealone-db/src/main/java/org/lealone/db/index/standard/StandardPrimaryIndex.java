@@ -202,7 +202,8 @@ public class StandardPrimaryIndex extends StandardIndex {
             columnIndexes[i] = updateColumns.get(i).getColumnId();
         }
         TransactionMap<Value, VersionedValue> map = getMap(session);
-        if (map.isLocked(oldRow.getRawValue(), columnIndexes))
+        Value[] deltas = newRow.getDeltas();
+        if (map.isLocked(oldRow.getRawValue(), columnIndexes, deltas != null))
             return map.addWaitingTransaction(ValueLong.get(oldRow.getKey()), oldRow.getRawValue(), globalListener);
 
         if (table.containsLargeObject()) {
@@ -225,7 +226,11 @@ public class StandardPrimaryIndex extends StandardIndex {
         }
         VersionedValue newValue = new VersionedValue(newRow.getVersion(), ValueArray.get(newRow.getValueList()));
         Value key = ValueLong.get(newRow.getKey());
-        int ret = map.tryUpdate(key, newValue, columnIndexes, oldRow.getRawValue());
+        int ret;
+        if (deltas != null)
+            ret = map.tryUpdate(key, newValue, columnIndexes, oldRow.getRawValue(), deltas);
+        else
+            ret = map.tryUpdate(key, newValue, columnIndexes, oldRow.getRawValue());
         session.setLastRow(newRow);
         session.setLastIndex(this);
         return ret;
@@ -470,7 +475,7 @@ public class StandardPrimaryIndex extends StandardIndex {
         } else if (mainIndexColumn < 0) {
             max = ValueLong.get(last.getKey());
         } else {
-            Value value = first == null ? null : first.getValue(mainIndexColumn);
+            Value value = last.getValue(mainIndexColumn);
             ValueLong v;
             if (value != null) {
                 if (value instanceof ValueLong)
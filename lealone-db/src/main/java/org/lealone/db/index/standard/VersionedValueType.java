@@ -23,6 +23,7 @@ import org.lealone.common.util.DataUtils;
 import org.lealone.db.DataBuffer;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueArray;
+import org.lealone.db.value.ValueNull;
 import org.lealone.storage.type.StorageDataType;
 
 public class VersionedValueType implements StorageDataType {
@@ -138,6 +139,20 @@ public class VersionedValueType implements StorageDataType {
         }
     }
 
+    @Override
+    public void addColumns(Object oldObj, Object newObj, int[] columnIndexes, Object[] deltas) {
+        VersionedValue oldValue = (VersionedValue) oldObj;
+        VersionedValue newValue = (VersionedValue) newObj;
+        Value[] oldColumns = oldValue.value.getList();
+        Value[] newColumns = newValue.value.getList();
+        for (int i = 0; i < columnIndexes.length; i++) {
+            int columnIndex = columnIndexes[i];
+            Value v = newColumns[columnIndex];
+            // NULL加上任何增量都还是NULL
+            oldColumns[columnIndex] = v == ValueNull.INSTANCE ? v : v.add((Value) deltas[i]);
+        }
+    }
+
     @Override
     public int getColumnCount() {
         return columnCount;
@@ -9,6 +9,7 @@ package org.lealone.db.result;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.Utils;
@@ -212,6 +213,19 @@ public class LocalResult implements Result, ResultTarget {
         return false;
     }
 
+    // 记录都在内存中时直接把引用批量加到list中，不需要一条条调用next()
+    @Override
+    public int nextRows(List<Value[]> list, int count) {
+        int n = Math.min(count, rowCount - rowId - 1);
+        if (external != null || n <= 0) {
+            return Result.super.nextRows(list, count);
+        }
+        list.addAll(rows.subList(rowId + 1, rowId + 1 + n));
+        rowId += n;
+        currentRow = rows.get(rowId);
+        return n;
+    }
+
     @Override
     public int getRowId() {
         return rowId;
@@ -29,6 +29,7 @@ public class Row implements SearchRow {
     private boolean deleted;
     private Table table;
     private Object rawValue;
+    private Value[] deltas; // 可交换的增量更新，跟被更新的列一一对应
 
     public Row(Value[] data, int memory) {
         this.data = data;
@@ -179,4 +180,12 @@ public class Row implements SearchRow {
     public void setRawValue(Object rawValue) {
         this.rawValue = rawValue;
     }
+
+    public Value[] getDeltas() {
+        return deltas;
+    }
+
+    public void setDeltas(Value[] deltas) {
+        this.deltas = deltas;
+    }
 }
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db.result;
+
+import java.util.ArrayDeque;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.value.Value;
+
+/**
+ * 边执行查询边发送给客户端的结果集，只能向前滚动。
+ *
+ * 查询把记录加到一个有界的缓冲区中，第一批记录准备好后就发给客户端，
+ * 缓冲区满了之后查询暂停，等客户端取走记录后再继续执行，所以每个查询占用的内存是有上限的。
+ * 所有方法都在session所在的调度线程中调用。
+ */
+public class StreamingResult implements Result, ResultTarget {
+
+    // 提供字段的元数据，查询不能再暂停时，剩下的记录也放在这里，记录多了会写到临时文件
+    private final LocalResult overflow;
+    private final int fetchSize;
+    private final int capacity;
+    private final ArrayDeque<Value[]> rows = new ArrayDeque<>();
+
+    private Value[] currentRow;
+    private int rowId = -1;
+    private boolean sent; // 第一批记录是否已经发给客户端了
+    private boolean end;
+    private boolean closed;
+    private boolean unbounded;
+    private RuntimeException error;
+
+    // 客户端要取的记录还没有准备好时，等准备好了再发
+    private int pendingCount;
+    private Runnable pendingFetch;
+
+    public StreamingResult(LocalResult overflow, int fetchSize) {
+        this.overflow = overflow;
+        this.fetchSize = fetchSize;
+        // 多缓存一批，客户端取走一批时下一批已经准备好了
+        capacity = fetchSize * 2;
+    }
+
+    // 以下方法由执行查询的一方调用
+
+    /**
+     * 返回true时查询应该让出执行权，把已经准备好的记录发给客户端
+     */
+    @Override
+    public boolean addRow(Value[] values) {
+        if (unbounded) {
+            overflow.addRow(values);
+            return false;
+        }
+        rows.add(values);
+        if (!sent)
+            return rows.size() >= fetchSize;
+        if (pendingFetch != null)
+            return rows.size() >= pendingCount;
+        return rows.size() >= capacity;
+    }
+
+    public boolean isFirstBatchReady() {
+        return rows.size() >= fetchSize;
+    }
+
+    public boolean isSent() {
+        return sent;
+    }
+
+    public void setSent() {
+        sent = true;
+    }
+
+    public void setEnd() {
+        if (end)
+            return;
+        end = true;
+        if (unbounded)
+            overflow.done();
+    }
+
+    public void setError(RuntimeException error) {
+        this.error = error;
+        setEnd();
+    }
+
+    /**
+     * 缓冲区满了并且客户端还没有来取记录时返回true，此时查询不需要再执行
+     */
+    public boolean isPaused() {
+        return sent && !end && !closed && !unbounded && pendingFetch == null && rows.size() >= capacity;
+    }
+
+    /**
+     * session中有其他语句要执行时，查询不再等客户端，剩下的记录都放到overflow中
+     */
+    public void setUnbounded() {
+        unbounded = true;
+    }
+
+    /**
+     * 把记录发给等待中的客户端
+     */
+    public void flush() {
+        if (pendingFetch != null && isReady(pendingCount)) {
+            Runnable r = pendingFetch;
+            pendingFetch = null;
+            r.run();
+        }
+    }
+
+    // 以下方法由发送记录的一方调用
+
+    public void fetch(int count, Runnable sender) {
+        if (isReady(count)) {
+            sender.run();
+        } else {
+            pendingCount = count;
+            pendingFetch = sender;
+        }
+    }
+
+    private boolean isReady(int count) {
+        return end || closed || rows.size() >= count;
+    }
+
+    @Override
+    public void reset() {
+        throw DbException.getUnsupportedException("reset streaming result");
+    }
+
+    @Override
+    public Value[] currentRow() {
+        return currentRow;
+    }
+
+    @Override
+    public boolean next() {
+        Value[] row = rows.poll();
+        if (row == null && unbounded && end && overflow.next())
+            row = overflow.currentRow();
+        currentRow = row;
+        if (row == null) {
+            if (error != null) {
+                RuntimeException e = error;
+                error = null;
+                throw e;
+            }
+            return false;
+        }
+        rowId++;
+        return true;
+    }
+
+    @Override
+    public int getRowId() {
+        return rowId;
+    }
+
+    // 还没有发送第一批记录查询就结束了，此时记录数是确定的
+    @Override
+    public int getRowCount() {
+        return end && !sent && error == null ? rows.size() : -1;
+    }
+
+    @Override
+    public int getVisibleColumnCount() {
+        return overflow.getVisibleColumnCount();
+    }
+
+    @Override
+    public boolean needToClose() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        rows.clear();
+        pendingFetch = null;
+        overflow.close();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public String getAlias(int i) {
+        return overflow.getAlias(i);
+    }
+
+    @Override
+    public String getSchemaName(int i) {
+        return overflow.getSchemaName(i);
+    }
+
+    @Override
+    public String getTableName(int i) {
+        return overflow.getTableName(i);
+    }
+
+    @Override
+    public String getColumnName(int i) {
+        return overflow.getColumnName(i);
+    }
+
+    @Override
+    public int getColumnType(int i) {
+        return overflow.getColumnType(i);
+    }
+
+    @Override
+    public long getColumnPrecision(int i) {
+        return overflow.getColumnPrecision(i);
+    }
+
+    @Override
+    public int getColumnScale(int i) {
+        return overflow.getColumnScale(i);
+    }
+
+    @Override
+    public int getDisplaySize(int i) {
+        return overflow.getDisplaySize(i);
+    }
+
+    @Override
+    public boolean isAutoIncrement(int i) {
+        return overflow.isAutoIncrement(i);
+    }
+
+    @Override
+    public int getNullable(int i) {
+        return overflow.getNullable(i);
+    }
+
+    @Override
+    public void setFetchSize(int fetchSize) {
+        overflow.setFetchSize(fetchSize);
+    }
+
+    @Override
+    public int getFetchSize() {
+        return overflow.getFetchSize();
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingResult[rows=" + rows.size() + ", rowId=" + rowId + ", end=" + end + "]";
+    }
+}
@@ -25,6 +25,7 @@ import org.lealone.db.Constants;
 import org.lealone.db.DataHandler;
 import org.lealone.db.Database;
 import org.lealone.db.LealoneDatabase;
+import org.lealone.db.PlanCache;
 import org.lealone.db.Procedure;
 import org.lealone.db.ServerStorageCommand;
 import org.lealone.db.SysProperties;
@@ -495,10 +496,32 @@ public class ServerSession extends SessionBase {
             }
         }
         SQLParser parser = database.createParser(this);
-        ps = parser.parse(sql).prepare();
+        ps = null;
+        PlanCache planCache = queryCache != null ? database.getPlanCache() : null;
+        if (planCache != null) {
+            // 先看看其他session或只有常量不同的SQL是否有可以直接用的执行计划
+            ArrayList<Value> literals = new ArrayList<>();
+            String normalizedSQL = parser.normalize(sql, literals);
+            if (normalizedSQL != null) {
+                ps = planCache.poll(getPlanCacheKey(normalizedSQL), literals);
+                if (ps != null) {
+                    ps.rebind(this, sql);
+                    ps.reuse();
+                }
+            }
+        }
+        if (ps == null)
+            ps = parser.parse(sql).prepare();
         if (queryCache != null) {
             if (ps.isCacheable()) {
-                queryCache.put(sql, ps);
+                if (queryCache.size() >= queryCacheSize && !queryCache.containsKey(sql)) {
+                    Map.Entry<String, PreparedSQLStatement> eldest = queryCache.entrySet().iterator().next();
+                    queryCache.remove(eldest.getKey());
+                    releaseCachedStatement(eldest.getKey(), eldest.getValue());
+                }
+                PreparedSQLStatement old = queryCache.put(sql, ps);
+                if (old != null && old != ps)
+                    releaseCachedStatement(sql, old);
             }
         }
         ps.setLocal(isLocal());
@@ -507,6 +530,38 @@ public class ServerSession extends SessionBase {
         return ps;
     }
 
+    private String getPlanCacheKey(String normalizedSQL) {
+        // 解析SQL时会检查权限和按schema查找表，所以key中要包含这些信息
+        StringBuilder buff = new StringBuilder();
+        buff.append(user.getName()).append('\0').append(currentSchemaName).append('\0');
+        if (schemaSearchPath != null) {
+            for (String s : schemaSearchPath)
+                buff.append(s).append(',');
+        }
+        return buff.append('\0').append(normalizedSQL).toString();
+    }
+
+    // 把已经执行完的语句放回数据库的执行计划缓存
+    private void releaseCachedStatement(String sql, PreparedSQLStatement ps) {
+        PlanCache planCache = database.getPlanCache();
+        if (planCache == null || !ps.canReuse() || ps.getLiteralParameters() == null
+                || modificationMetaID != database.getModificationMetaId())
+            return;
+        ArrayList<Value> literals = new ArrayList<>();
+        String normalizedSQL = database.createParser(this).normalize(sql, literals);
+        if (normalizedSQL != null)
+            planCache.offer(getPlanCacheKey(normalizedSQL), literals, ps);
+    }
+
+    private void releaseQueryCache() {
+        if (queryCache != null && !queryCache.isEmpty()) {
+            for (Map.Entry<String, PreparedSQLStatement> e : queryCache.entrySet()) {
+                releaseCachedStatement(e.getKey(), e.getValue());
+            }
+            queryCache.clear();
+        }
+    }
+
     @Override
     public Database getDatabase() {
         return database;
@@ -711,6 +766,7 @@ public class ServerSession extends SessionBase {
         if (!closed) {
             try {
                 database.checkPowerOff();
+                releaseQueryCache();
                 cleanTempTables(true);
                 database.removeSession(this);
             } finally {
@@ -936,6 +992,7 @@ public class ServerSession extends SessionBase {
      *
      * @return the time or 0 if not set
      */
+    @Override
     public long getCancel() {
         return cancelAt;
     }
@@ -957,6 +1014,7 @@ public class ServerSession extends SessionBase {
     }
 
     public void setCurrentSchema(Schema schema) {
+        releaseQueryCache();
         modificationId++;
         this.currentSchemaName = schema.getName();
     }
@@ -1078,6 +1136,7 @@ public class ServerSession extends SessionBase {
     }
 
     public void setSchemaSearchPath(String[] schemas) {
+        releaseQueryCache();
         modificationId++;
         this.schemaSearchPath = schemas;
     }
@@ -1300,7 +1359,12 @@ public class ServerSession extends SessionBase {
             return transaction;
 
         boolean isShardingMode = isShardingMode();
-        Transaction transaction = database.getTransactionEngine().beginTransaction(autoCommit, getRunMode());
+        Transaction transaction;
+        // 自动提交模式下的查询语句使用只读事务，如果执行过程中有写操作，事务引擎会自动升级为普通事务
+        if (autoCommit && p != null && p.isQuery() && replicationName == null)
+            transaction = database.getTransactionEngine().beginReadOnlyTransaction(autoCommit, getRunMode());
+        else
+            transaction = database.getTransactionEngine().beginTransaction(autoCommit, getRunMode());
         transaction.setSession(this);
         transaction.setGlobalReplicationName(replicationName);
 
@@ -1620,14 +1684,18 @@ public class ServerSession extends SessionBase {
     }
 
     @Override
-    public <R, P extends AckPacket> Future<R> send(Packet packet, String hostAndPort,
-            AckPacketHandler<R, P> ackPacketHandler) {
+    public Future<Session> createSessionAsync(String hostAndPort) {
         String dbName = getDatabase().getShortName();
         String url = createURL(dbName, hostAndPort);
+        // 不参与当前事务，所以不用当成当前session的嵌套session
+        return SessionPool.getSessionAsync(this, url);
+    }
 
+    @Override
+    public <R, P extends AckPacket> Future<R> send(Packet packet, String hostAndPort,
+            AckPacketHandler<R, P> ackPacketHandler) {
         AsyncCallback<R> ac = new AsyncCallback<>();
-        // 不参与当前事务，所以不用当成当前session的嵌套session
-        SessionPool.getSessionAsync(this, url).onComplete(ar -> {
+        createSessionAsync(hostAndPort).onComplete(ar -> {
             if (ar.isSucceeded()) {
                 Session s = ar.getResult();
                 s.send(packet, hostAndPort, ackPacketHandler).onComplete(ar2 -> {
@@ -463,6 +463,36 @@ public class StandardTable extends Table {
         return containsLargeObject;
     }
 
+    // 通过PARAMETERS(commutativeColumns='c1,c2')指定哪些数值列可以做可交换的增量更新，
+    // 被索引或约束引用的列不支持，因为它们需要基于最新的值来检查
+    @Override
+    public boolean isCommutativeColumn(Column column) {
+        String commutativeColumns = parameters.get("commutativeColumns");
+        if (commutativeColumns == null || !DataType.supportsAdd(column.getType()))
+            return false;
+        boolean found = false;
+        for (String name : StringUtils.arraySplit(commutativeColumns, ',', true)) {
+            if (name.equalsIgnoreCase(column.getName())) {
+                found = true;
+                break;
+            }
+        }
+        if (!found)
+            return false;
+        for (Index index : indexes) {
+            if (index.getColumnIndex(column) >= 0)
+                return false;
+        }
+        ArrayList<Constraint> constraints = getConstraints();
+        if (constraints != null) {
+            for (Constraint constraint : constraints) {
+                if (constraint.getReferencedColumns(this).contains(column))
+                    return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean isDeterministic() {
         return true;
@@ -882,6 +882,10 @@ public abstract class Table extends SchemaObjectBase implements DbObjectLock {
         return (constraints != null && !constraints.isEmpty()) || (triggers != null && !triggers.isEmpty());
     }
 
+    public boolean hasTriggers() {
+        return triggers != null && !triggers.isEmpty();
+    }
+
     /**
      * Fire all triggers that need to be called before a row is updated.
      *
@@ -1127,6 +1131,16 @@ public abstract class Table extends SchemaObjectBase implements DbObjectLock {
         return false;
     }
 
+    /**
+     * Check if the column can be updated by commutative deltas (col = col + x).
+     *
+     * @param column the column
+     * @return true if concurrent increments of the column do not conflict
+     */
+    public boolean isCommutativeColumn(Column column) {
+        return false;
+    }
+
     public Row getRow(ServerSession session, long key) {
         return null;
     }
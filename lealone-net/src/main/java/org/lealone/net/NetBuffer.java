@@ -19,7 +19,7 @@ package org.lealone.net;
 
 public interface NetBuffer {
 
-    NetBuffer appendBuffer(NetBuffer buff);
+    NetBuffer appendBuffer(NetBuffer buff, int start, int end);
 
     int length();
 
@@ -29,6 +29,8 @@ public interface NetBuffer {
 
     short getUnsignedByte(int pos);
 
+    void getBytes(int pos, byte[] dst, int off, int len);
+
     NetBuffer appendByte(byte b);
 
     NetBuffer appendBytes(byte[] bytes, int offset, int len);
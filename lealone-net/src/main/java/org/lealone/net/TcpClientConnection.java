@@ -58,14 +58,21 @@ public class TcpClientConnection extends TransferConnection {
         callbackMap.put(packetId, ac);
     }
 
+    public void removeAsyncCallback(int packetId) {
+        callbackMap.remove(packetId);
+    }
+
     @Override
     public void close() {
-        // 如果还有回调未处理需要设置异常，避免等待回调结果的线程一直死等
+        // 如果还有回调未处理需要设置异常，避免等待回调结果的线程一直死等，
+        // 同时从callbackMap中删除，每个回调只结束一次，session中未完成的请求数才不会出错
         if (!callbackMap.isEmpty()) {
             DbException e = DbException.get(ErrorCode.CONNECTION_BROKEN_1,
                     "unexpected status " + Session.STATUS_CLOSED);
-            for (AsyncCallback<?> callback : callbackMap.values()) {
-                callback.setDbException(e, true);
+            for (Integer packetId : callbackMap.keySet()) {
+                AsyncCallback<?> callback = callbackMap.remove(packetId);
+                if (callback != null)
+                    callback.setDbException(e, true);
             }
         }
         super.close();
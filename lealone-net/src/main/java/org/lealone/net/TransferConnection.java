@@ -22,6 +22,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.sql.SQLException;
 
+import org.lealone.common.compress.CompressTool;
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.exceptions.JdbcSQLException;
 import org.lealone.common.logging.Logger;
@@ -34,7 +35,9 @@ public abstract class TransferConnection extends AsyncConnection {
 
     private static final Logger logger = LoggerFactory.getLogger(TransferConnection.class);
 
-    private NetBuffer lastBuffer;
+    private NetBuffer lastBuffer; // 还没有读完整的包
+    private int lastBufferLength;
+    private int lastPacketLength; // 包括4个字节的包头，包头还没读完整时是0
 
     public TransferConnection(WritableChannel writableChannel, boolean isServer) {
         super(writableChannel, isServer);
@@ -112,50 +115,37 @@ public abstract class TransferConnection extends AsyncConnection {
         }
     }
 
+    // buffer只在调用期间有效，事件循环会重用它来读下一批数据，
+    // 而包是在调度器线程中异步解析的，所以每个完整的包都要拷贝出来。
+    // 跨多次读的包会先按包的长度分配好空间，之后读到的数据直接追加，不用每次都重新分配和拷贝。
     @Override
     public void handle(NetBuffer buffer) {
-        if (lastBuffer != null) {
-            buffer = lastBuffer.appendBuffer(buffer);
-            lastBuffer = null;
-        }
-
-        int length = buffer.length();
-        if (length < 4) {
-            lastBuffer = buffer;
-            return;
-        }
-
         int pos = 0;
+        int end = buffer.length();
         try {
-            while (true) {
-                // 必须生成新的Transfer实例，不同协议包对应不同Transfer实例，
-                // 否则如果有多个CommandHandler线程时会用同一个Transfer实例写数据，这会产生并发问题。
-                TransferInputStream in;
-                if (pos == 0)
-                    in = new TransferInputStream(buffer);
-                else
-                    in = new TransferInputStream(buffer.slice(pos, pos + length));
-                int packetLength = in.readInt();
-                if (length - 4 == packetLength) {
-                    handlePacket(in);
-                    break;
-                } else if (length - 4 > packetLength) {
-                    handlePacket(in);
-                    pos = pos + packetLength + 4;
-                    length = length - (packetLength + 4);
-                    // 有可能剩下的不够4个字节了
-                    if (length < 4) {
-                        lastBuffer = buffer.getBuffer(pos, pos + length);
-                        break;
-                    } else {
-                        continue;
-                    }
-                } else {
-                    lastBuffer = buffer.getBuffer(pos, pos + length);
+            if (lastBuffer != null) {
+                pos = appendToLastBuffer(buffer, pos, end);
+                if (lastBufferLength < 4 || lastBufferLength < lastPacketLength)
+                    return;
+                NetBuffer packet = lastBuffer.flip();
+                lastBuffer = null;
+                handlePacket(packet);
+            }
+            while (end - pos >= 4) {
+                int packetEnd = pos + 4 + getInt(buffer, pos);
+                if (packetEnd > end)
                     break;
-                }
+                handlePacket(buffer.getBuffer(pos, packetEnd));
+                pos = packetEnd;
+            }
+            if (pos < end) {
+                lastBuffer = writableChannel.getBufferFactory().createBuffer(end - pos);
+                lastBufferLength = 0;
+                lastPacketLength = 0;
+                appendToLastBuffer(buffer, pos, end);
             }
         } catch (Throwable e) {
+            lastBuffer = null;
             if (isServer)
                 logger.error("Failed to handle packet", e);
             else
@@ -163,7 +153,50 @@ public abstract class TransferConnection extends AsyncConnection {
         }
     }
 
-    private void handlePacket(TransferInputStream in) throws IOException {
+    private int appendToLastBuffer(NetBuffer buffer, int pos, int end) {
+        if (lastBufferLength < 4) {
+            // 先把包头凑齐
+            int len = Math.min(4 - lastBufferLength, end - pos);
+            lastBuffer.appendBuffer(buffer, pos, pos + len);
+            lastBufferLength += len;
+            pos += len;
+            if (lastBufferLength < 4)
+                return pos;
+            lastPacketLength = 4 + getInt(lastBuffer, 0);
+            NetBuffer header = lastBuffer;
+            lastBuffer = writableChannel.getBufferFactory().createBuffer(lastPacketLength);
+            lastBuffer.appendBuffer(header, 0, 4);
+            header.recycle();
+        }
+        int len = Math.min(lastPacketLength - lastBufferLength, end - pos);
+        lastBuffer.appendBuffer(buffer, pos, pos + len);
+        lastBufferLength += len;
+        return pos + len;
+    }
+
+    // 解压后的包跟没有压缩的包格式一样，包类型中的压缩标记会被清除
+    private NetBuffer expand(NetBuffer packet) {
+        byte[] compressed = new byte[packet.length() - 5];
+        packet.getBytes(5, compressed, 0, compressed.length);
+        byte[] bytes = CompressTool.getInstance().expand(compressed);
+        NetBuffer newPacket = writableChannel.getBufferFactory().createBuffer(5 + bytes.length);
+        newPacket.appendInt(1 + bytes.length);
+        newPacket.appendByte((byte) (packet.getUnsignedByte(4) & ~TransferOutputStream.COMPRESSED));
+        newPacket.appendBytes(bytes, 0, bytes.length);
+        packet.recycle();
+        return newPacket.flip();
+    }
+
+    private static int getInt(NetBuffer buffer, int pos) {
+        return (buffer.getUnsignedByte(pos) << 24) + (buffer.getUnsignedByte(pos + 1) << 16)
+                + (buffer.getUnsignedByte(pos + 2) << 8) + buffer.getUnsignedByte(pos + 3);
+    }
+
+    private void handlePacket(NetBuffer packet) throws IOException {
+        if ((packet.getUnsignedByte(4) & TransferOutputStream.COMPRESSED) != 0)
+            packet = expand(packet);
+        TransferInputStream in = new TransferInputStream(packet);
+        in.readInt(); // 包的长度
         boolean isRequest = in.readByte() == TransferOutputStream.REQUEST;
         int packetId = in.readInt();
         if (isRequest) {
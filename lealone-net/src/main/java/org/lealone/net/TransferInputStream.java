@@ -101,6 +101,7 @@ public class TransferInputStream implements NetInputStream {
      *
      * @return the value
      */
+    @Override
     public byte readByte() throws IOException {
         return in.readByte();
     }
@@ -15,6 +15,8 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 
 import org.lealone.common.exceptions.DbException;
+import org.lealone.common.compress.CompressTool;
+import org.lealone.common.compress.Compressor;
 import org.lealone.common.security.SHA256;
 import org.lealone.common.util.IOUtils;
 import org.lealone.common.util.MathUtils;
@@ -49,6 +51,10 @@ public class TransferOutputStream implements NetOutputStream {
 
     public static final byte REQUEST = 1;
     public static final byte RESPONSE = 2;
+    // 包类型字节中的压缩标记，包类型之后的内容是CompressTool格式的压缩数据
+    public static final byte COMPRESSED = 0x40;
+    // 小包压缩的收益不大，只压缩超过这个大小的包
+    private static final int COMPRESSION_THRESHOLD = 8 * 1024;
 
     private final Session session;
     private final DataOutputStream out;
@@ -120,9 +126,12 @@ public class TransferOutputStream implements NetOutputStream {
      * Write pending changes.
      */
     public void flush() throws IOException {
-        if (session != null) // 一些场景允许为null
+        if (session != null) { // 一些场景允许为null
             session.checkClosed();
-        resettableOutputStream.flush();
+            resettableOutputStream.flush(session.getNetworkCompression());
+        } else {
+            resettableOutputStream.flush(null);
+        }
     }
 
     /**
@@ -143,7 +152,8 @@ public class TransferOutputStream implements NetOutputStream {
      * @param x the value
      * @return itself
      */
-    private TransferOutputStream writeByte(byte x) throws IOException {
+    @Override
+    public TransferOutputStream writeByte(byte x) throws IOException {
         out.writeByte(x);
         return this;
     }
@@ -456,11 +466,38 @@ public class TransferOutputStream implements NetOutputStream {
 
         @Override
         public void flush() throws IOException {
+            flush(null);
+        }
+
+        void flush(String compression) throws IOException {
+            if (compression != null && buffer.length() - 5 >= COMPRESSION_THRESHOLD) {
+                NetBuffer compressed = compress(compression);
+                if (compressed != null) {
+                    buffer.recycle();
+                    reset();
+                    writableChannel.write(compressed);
+                    return;
+                }
+            }
             writePacketLength();
             buffer.flip();
             writableChannel.write(buffer);
         }
 
+        // 4个字节的包长度和1个字节的包类型不压缩，压缩后没有变小时返回null
+        private NetBuffer compress(String compression) {
+            byte[] bytes = new byte[buffer.length() - 5];
+            buffer.getBytes(5, bytes, 0, bytes.length);
+            byte[] compressed = CompressTool.getInstance().compress(bytes, compression);
+            if (compressed[0] == Compressor.NO)
+                return null;
+            NetBuffer newBuffer = writableChannel.getBufferFactory().createBuffer(5 + compressed.length);
+            newBuffer.appendInt(1 + compressed.length);
+            newBuffer.appendByte((byte) (buffer.getUnsignedByte(4) | COMPRESSED));
+            newBuffer.appendBytes(compressed, 0, compressed.length);
+            return newBuffer.flip();
+        }
+
         @Override
         protected void reset() {
             super.reset();
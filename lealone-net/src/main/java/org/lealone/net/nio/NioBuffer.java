@@ -39,21 +39,12 @@ public class NioBuffer implements NetBuffer {
     }
 
     @Override
-    public NioBuffer appendBuffer(NetBuffer buff) {
+    public NioBuffer appendBuffer(NetBuffer buff, int start, int end) {
         if (buff instanceof NioBuffer) {
-            DataBuffer newDataBuffer = ((NioBuffer) buff).dataBuffer;
-            if (dataBuffer.limit() == 0) {
-                dataBuffer = newDataBuffer;
-            } else {
-                DataBuffer tmp = DataBuffer
-                        .create(dataBuffer.limit() + (newDataBuffer.limit() - newDataBuffer.position()));
-                tmp.put(dataBuffer.getBuffer());
-                tmp.put(newDataBuffer.getBuffer());
-                tmp.getBuffer().flip();
-                dataBuffer = tmp;
-                // dataBuffer.position(dataBuffer.limit()).put(newDataBuffer.getBuffer());
-                // dataBuffer.getBuffer().flip();
-            }
+            ByteBuffer src = ((NioBuffer) buff).dataBuffer.getBuffer().duplicate();
+            src.limit(end);
+            src.position(start);
+            dataBuffer.put(src);
         }
         return this;
     }
@@ -84,6 +75,14 @@ public class NioBuffer implements NetBuffer {
         return dataBuffer.getUnsignedByte(pos);
     }
 
+    @Override
+    public void getBytes(int pos, byte[] dst, int off, int len) {
+        ByteBuffer src = dataBuffer.getBuffer().duplicate();
+        src.limit(pos + len);
+        src.position(pos);
+        src.get(dst, off, len);
+    }
+
     @Override
     public NioBuffer appendByte(byte b) {
         dataBuffer.put(b);
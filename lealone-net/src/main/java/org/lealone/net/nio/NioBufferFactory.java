@@ -33,7 +33,11 @@ public class NioBufferFactory implements NetBufferFactory {
 
     @Override
     public NioBuffer createBuffer(int initialSizeHint) {
-        return new NioBuffer(DataBuffer.create());
+        DataBuffer dataBuffer = DataBuffer.create();
+        // 池中的缓冲区不够大时一次扩容到位，避免写入过程中多次扩容和拷贝
+        if (initialSizeHint > dataBuffer.capacity())
+            dataBuffer.checkCapacity(initialSizeHint);
+        return new NioBuffer(dataBuffer);
     }
 
 }
@@ -42,7 +42,16 @@ public interface NioEventLoop {
     }
 
     default void register(SocketChannel channel, int ops, Object att) throws ClosedChannelException {
-        getDefaultNioEventLoopImpl().register(channel, ops, att);
+        register(channel, ops, att, this);
+    }
+
+    // 注册是由事件循环线程异步完成的，注册失败时交给owner处理
+    default void register(SocketChannel channel, int ops, Object att, NioEventLoop owner) {
+        getDefaultNioEventLoopImpl().register(channel, ops, att, owner);
+    }
+
+    default void handleRegisterException(SocketChannel channel, Object att, Exception e) {
+        closeChannel(channel);
     }
 
     default void wakeup() {
@@ -65,8 +74,8 @@ public interface NioEventLoop {
         getDefaultNioEventLoopImpl().read(key, nioEventLoop);
     }
 
-    default void write(SelectionKey key) {
-        getDefaultNioEventLoopImpl().write(key);
+    default void write(SelectionKey key, NioEventLoop nioEventLoop) {
+        getDefaultNioEventLoopImpl().write(key, nioEventLoop);
     }
 
     default void closeChannel(SocketChannel channel) {
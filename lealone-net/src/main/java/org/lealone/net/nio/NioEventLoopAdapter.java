@@ -20,14 +20,14 @@ package org.lealone.net.nio;
 import java.io.IOException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
-import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -42,9 +42,55 @@ public class NioEventLoopAdapter implements NioEventLoop {
 
     private static final Logger logger = LoggerFactory.getLogger(NioEventLoopAdapter.class);
 
-    private final ConcurrentHashMap<SocketChannel, ConcurrentLinkedQueue<NioBuffer>> channels = new ConcurrentHashMap<>();
+    // 一次聚集写最多合并的缓冲区个数
+    private static final int MAX_GATHERING_BUFFERS = 64;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // 每个通道待写的缓冲区，同一时间只有拿到writing标记的线程才能写通道，
+    // 可能是事件循环线程，也可能是直接写的业务线程
+    private static class WriteQueue {
+        final SocketChannel channel;
+        final ConcurrentLinkedDeque<NioBuffer> buffers = new ConcurrentLinkedDeque<>();
+        final AtomicBoolean writing = new AtomicBoolean(false);
+        // 是否已经在needWriteQueues中，避免同一个通道被重复加入
+        final AtomicBoolean needWrite = new AtomicBoolean(false);
+        volatile SelectionKey key; // 注册到selector后才有，关闭通道时也会用到
+
+        WriteQueue(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private static class Registration {
+        final SocketChannel channel;
+        final int ops;
+        final Object att;
+        final NioEventLoop owner;
+
+        Registration(SocketChannel channel, int ops, Object att, NioEventLoop owner) {
+            this.channel = channel;
+            this.ops = ops;
+            this.att = att;
+            this.owner = owner;
+        }
+    }
+
+    private final ConcurrentHashMap<SocketChannel, WriteQueue> channels = new ConcurrentHashMap<>();
+    // 有数据要交给事件循环线程写的通道，select前只需要处理这些通道，不用遍历所有通道和所有key
+    private final ConcurrentLinkedQueue<WriteQueue> needWriteQueues = new ConcurrentLinkedQueue<>();
+    // 其他线程要注册到selector的通道，由事件循环线程在select之前注册
+    private final ConcurrentLinkedQueue<Registration> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final ArrayList<WriteQueue> unregisteredQueues = new ArrayList<>(); // 只在事件循环线程中使用
+    private final ByteBuffer[] gatheringBuffers = new ByteBuffer[MAX_GATHERING_BUFFERS]; // 只在事件循环线程中使用
+    // 每个事件循环只用一个直接内存缓冲区读所有通道的数据，
+    // conn.handle返回后数据就已经被拷贝走了，所以可以一直重用
+    private final NioBuffer readBuffer = new NioBuffer(
+            DataBuffer.create(ByteBuffer.allocateDirect(READ_BUFFER_SIZE)));
 
     private final AtomicBoolean selecting = new AtomicBoolean(false);
+    // 一轮循环只需要调用一次selector.wakeup，
+    // 在select之前调用的wakeup也会让这一轮的select马上返回，不会错过唤醒
+    private final AtomicBoolean wakenUp = new AtomicBoolean(false);
     private Selector selector;
     private final long loopInterval;
 
@@ -71,6 +117,8 @@ public class NioEventLoopAdapter implements NioEventLoop {
 
     @Override
     public void select(long timeout) throws IOException {
+        wakenUp.set(false);
+        registerPendingChannels();
         tryRegisterWriteOperation(selector);
         if (selecting.compareAndSet(false, true)) {
             selector.select(timeout);
@@ -79,56 +127,121 @@ public class NioEventLoopAdapter implements NioEventLoop {
     }
 
     @Override
-    public void register(SocketChannel channel, int ops, Object att) throws ClosedChannelException {
+    public void register(SocketChannel channel, int ops, Object att, NioEventLoop owner) {
         // 当nio-event-loop线程执行selector.select被阻塞时，代码内部依然会占用publicKeys锁，
         // 而另一个线程执行channel.register时，内部也会去要publicKeys锁，从而导致也被阻塞，
-        // 所以下面这段代码的用处是:
-        // 只要发现nio-event-loop线程正在进行select，那么就唤醒它，并释放publicKeys锁。
-        while (true) {
-            if (selecting.compareAndSet(false, true)) {
-                channel.register(selector, SelectionKey.OP_CONNECT, att);
-                selecting.set(false);
-                selector.wakeup();
-                break;
-            } else {
-                selector.wakeup();
+        // 所以这里不直接注册，而是交给nio-event-loop线程在下一轮select之前注册。
+        // 不能在这里循环唤醒再抢着注册，nio-event-loop线程被频繁唤醒后马上又进入select，可能一直抢不到。
+        pendingRegistrations.add(new Registration(channel, ops, att, owner));
+        wakeup();
+    }
+
+    private void registerPendingChannels() {
+        Registration r = pendingRegistrations.poll();
+        while (r != null) {
+            try {
+                r.channel.register(selector, r.ops, r.att);
+            } catch (Exception e) {
+                // 通道在注册之前可能已经关闭了，要让owner知道，比如让等待连接的回调失败
+                r.owner.handleRegisterException(r.channel, r.att, e);
             }
+            r = pendingRegistrations.poll();
         }
     }
 
     @Override
     public void wakeup() {
-        if (selecting.compareAndSet(true, false)) {
+        if (wakenUp.compareAndSet(false, true)) {
             selector.wakeup();
         }
     }
 
     @Override
     public void addSocketChannel(SocketChannel channel) {
-        channels.putIfAbsent(channel, new ConcurrentLinkedQueue<>());
+        channels.putIfAbsent(channel, new WriteQueue(channel));
     }
 
     @Override
     public void addNioBuffer(SocketChannel channel, NioBuffer nioBuffer) {
-        ConcurrentLinkedQueue<NioBuffer> queue = channels.get(channel);
-        if (queue != null) {
-            queue.add(nioBuffer);
-            wakeup();
+        WriteQueue queue = channels.get(channel);
+        if (queue == null)
+            return;
+        // 没有排队的数据时直接在当前线程写，省去一次线程切换和selector唤醒，
+        // 写不完时剩下的才交给事件循环线程
+        if (queue.buffers.isEmpty() && queue.writing.compareAndSet(false, true)) {
+            try {
+                if (!queue.buffers.isEmpty()) {
+                    // 拿到writing标记前其他线程刚好加入了数据，只能排在它们后面
+                    queue.buffers.addLast(nioBuffer);
+                } else if (writeDirectly(channel, nioBuffer)) {
+                    nioBuffer.recycle();
+                } else {
+                    // 写的期间其他线程加入的数据都在后面，所以剩下的要放到队头
+                    queue.buffers.addFirst(nioBuffer);
+                }
+            } finally {
+                queue.writing.set(false);
+            }
+            // 事件循环线程发现通道正被直接写时会清除OP_WRITE，所以剩下的数据要由这里重新注册
+            if (queue.buffers.isEmpty())
+                return;
+        } else {
+            queue.buffers.addLast(nioBuffer);
+        }
+        if (queue.needWrite.compareAndSet(false, true))
+            needWriteQueues.add(queue);
+        wakeup();
+    }
+
+    private static boolean writeDirectly(SocketChannel channel, NioBuffer nioBuffer) {
+        ByteBuffer buffer = nioBuffer.getByteBuffer();
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) <= 0)
+                    return false;
+            }
+            return true;
+        } catch (IOException e) {
+            // 出错时交给事件循环线程去写，它会关闭通道
+            return false;
         }
     }
 
     @Override
     public void tryRegisterWriteOperation(Selector selector) {
-        for (Entry<SocketChannel, ConcurrentLinkedQueue<NioBuffer>> entry : channels.entrySet()) {
-            if (!entry.getValue().isEmpty()) {
-                for (SelectionKey key : selector.keys()) {
-                    if (key.channel() == entry.getKey() && key.isValid()) {
-                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-                        break;
-                    }
+        WriteQueue queue = needWriteQueues.poll();
+        while (queue != null) {
+            // 先清除标记，之后再加入的数据会让通道重新进入needWriteQueues
+            queue.needWrite.set(false);
+            if (!queue.buffers.isEmpty()) {
+                SelectionKey key = getSelectionKey(queue, selector);
+                if (key == null) {
+                    // 通道还没有注册到selector，下一轮再试
+                    if (channels.containsKey(queue.channel))
+                        unregisteredQueues.add(queue);
+                } else if (key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
                 }
             }
+            queue = needWriteQueues.poll();
+        }
+        if (!unregisteredQueues.isEmpty()) {
+            for (WriteQueue q : unregisteredQueues) {
+                if (q.needWrite.compareAndSet(false, true))
+                    needWriteQueues.add(q);
+            }
+            unregisteredQueues.clear();
+        }
+    }
+
+    private static SelectionKey getSelectionKey(WriteQueue queue, Selector selector) {
+        SelectionKey key = queue.key;
+        if (key == null) {
+            // keyFor只查找这个通道自己注册过的key，不用遍历selector的所有key
+            key = queue.channel.keyFor(selector);
+            queue.key = key;
         }
+        return key;
     }
 
     private long totalReadBytes;
@@ -142,9 +255,9 @@ public class NioEventLoopAdapter implements NioEventLoop {
         SocketChannel channel = (SocketChannel) key.channel();
         try {
             while (true) {
-                DataBuffer dataBuffer = DataBuffer.create();
-                ByteBuffer buffer = dataBuffer.getBuffer();
-                int capacity = dataBuffer.capacity();
+                ByteBuffer buffer = readBuffer.getByteBuffer();
+                buffer.clear();
+                int capacity = buffer.capacity();
                 int readBytes = channel.read(buffer);
                 if (readBytes > 0) {
                     attachment.endOfStreamCount = 0;
@@ -165,8 +278,7 @@ public class NioEventLoopAdapter implements NioEventLoop {
                     totalReadBytes += readBytes;
                     logger.debug(("total read bytes: " + totalReadBytes));
                 }
-                NioBuffer nioBuffer = new NioBuffer(dataBuffer);
-                conn.handle(nioBuffer);
+                conn.handle(readBuffer);
                 // 说明没读满，可以直接退出循环了
                 if (readBytes < capacity)
                     break;
@@ -177,40 +289,69 @@ public class NioEventLoopAdapter implements NioEventLoop {
     }
 
     @Override
-    public void write(SelectionKey key) {
+    public void write(SelectionKey key, NioEventLoop nioEventLoop) {
         SocketChannel channel = (SocketChannel) key.channel();
+        WriteQueue queue = channels.get(channel);
+        if (queue == null)
+            return;
+        queue.key = key;
+        // 其他线程正在直接写，它写完后如果还有数据会重新注册OP_WRITE，
+        // 这里要先清除，否则通道一直可写，select会马上返回，事件循环线程空转
+        if (!queue.writing.compareAndSet(false, true)) {
+            if (key.isValid())
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            return;
+        }
+        ByteBuffer[] buffers = gatheringBuffers;
         try {
-            Queue<NioBuffer> queue = channels.get(channel);
-            for (NioBuffer nioBuffer : queue) {
-                ByteBuffer buffer = nioBuffer.getByteBuffer();
-                int remaining = buffer.remaining();
-                // 一定要用while循环来写，否则会丢数据！
-                while (remaining > 0) {
-                    int writtenBytes = channel.write(buffer);
-                    if (writtenBytes <= 0) {
-                        if (key.isValid()) {
-                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-                        }
-                        return;
-                    }
-                    remaining -= writtenBytes;
-                    if (isDebugEnabled) {
-                        totalWrittenBytes += writtenBytes;
-                        logger.debug(("total written bytes: " + totalWrittenBytes));
+            while (true) {
+                // 把排队的多个缓冲区合并成一次聚集写
+                int count = 0;
+                long remaining = 0;
+                for (NioBuffer nioBuffer : queue.buffers) {
+                    ByteBuffer buffer = nioBuffer.getByteBuffer();
+                    buffers[count++] = buffer;
+                    remaining += buffer.remaining();
+                    if (count == MAX_GATHERING_BUFFERS)
+                        break;
+                }
+                if (count == 0)
+                    break;
+                long writtenBytes = channel.write(buffers, 0, count);
+                if (isDebugEnabled && writtenBytes > 0) {
+                    totalWrittenBytes += writtenBytes;
+                    logger.debug(("total written bytes: " + totalWrittenBytes));
+                }
+                // 只有拿到writing标记的线程才会从队头删除，所以队头跟buffers的顺序是一致的
+                for (int i = 0; i < count; i++) {
+                    if (buffers[i].hasRemaining())
+                        break;
+                    queue.buffers.pollFirst().recycle();
+                }
+                Arrays.fill(buffers, 0, count, null);
+                // 一定要等全部写完，否则会丢数据！写不完就等下一次可写事件
+                if (writtenBytes < remaining) {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
                     }
+                    return;
                 }
-                queue.remove(nioBuffer);
-                nioBuffer.recycle();
             }
 
             // 还是要检测key是否是有效的，否则会抛CancelledKeyException
-            if (queue.isEmpty() && key.isValid()) {
+            if (key.isValid()) {
                 int ops = key.interestOps();
                 ops &= ~SelectionKey.OP_WRITE;
                 key.interestOps(ops);
             }
         } catch (IOException e) {
-            closeChannel(channel);
+            Arrays.fill(buffers, null);
+            // 跟读出错时一样交给nioEventLoop处理，它会删除连接并关闭通道
+            Object att = key.attachment();
+            AsyncConnection conn = att instanceof Attachment ? ((Attachment) att).conn : null;
+            nioEventLoop.handleException(conn, channel, e);
+        } finally {
+            queue.writing.set(false);
         }
     }
 
@@ -219,13 +360,13 @@ public class NioEventLoopAdapter implements NioEventLoop {
         if (channel == null) {
             return;
         }
-        for (SelectionKey key : selector.keys()) {
-            if (key.channel() == channel && key.isValid()) {
-                key.cancel();
-                break;
-            }
-        }
-        channels.remove(channel);
+        WriteQueue queue = channels.remove(channel);
+        SelectionKey key = queue != null ? queue.key : null;
+        Selector selector = this.selector;
+        if (key == null && selector != null)
+            key = channel.keyFor(selector);
+        if (key != null)
+            key.cancel();
         Socket socket = channel.socket();
         if (socket != null) {
             try {
@@ -76,7 +76,7 @@ public class NioNetClient extends NetClientBase implements NioEventLoop {
                             if ((readyOps & SelectionKey.OP_READ) != 0) {
                                 read(key, this);
                             } else if ((readyOps & SelectionKey.OP_WRITE) != 0) {
-                                write(key);
+                                write(key, this);
                             } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
                                 Object att = key.attachment();
                                 connectionEstablished(key, att);
@@ -196,4 +196,13 @@ public class NioNetClient extends NetClientBase implements NioEventLoop {
     public void handleException(AsyncConnection conn, SocketChannel channel, Exception e) {
         closeChannel(channel);
     }
+
+    @Override
+    public void handleRegisterException(SocketChannel channel, Object att, Exception e) {
+        closeChannel(channel);
+        ClientAttachment attachment = (ClientAttachment) att;
+        if (attachment.ac != null) {
+            attachment.ac.setAsyncResult(e);
+        }
+    }
 }
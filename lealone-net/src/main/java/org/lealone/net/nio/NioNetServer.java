@@ -34,7 +34,10 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
 
     private static final Logger logger = LoggerFactory.getLogger(NioNetServer.class);
     private ServerSocketChannel serverChannel;
-    private NioEventLoopAdapter nioEventLoopAdapter;
+    // 第一个事件循环还负责accept，新连接按轮循的方式分给所有事件循环，
+    // 之后这个连接的读写都由同一个事件循环处理
+    private EventLoop[] eventLoops;
+    private int eventLoopIndex; // 只在accept线程中使用
 
     @Override
     public synchronized void start() {
@@ -42,20 +45,31 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
             return;
         logger.info("Starting nio net server");
         try {
-            nioEventLoopAdapter = new NioEventLoopAdapter(config, "server_nio_event_loop_interval", 1000); // 默认1秒
+            int eventLoopCount = getEventLoopCount();
+            eventLoops = new EventLoop[eventLoopCount];
+            for (int i = 0; i < eventLoopCount; i++) {
+                eventLoops[i] = new EventLoop(
+                        new NioEventLoopAdapter(config, "server_nio_event_loop_interval", 1000)); // 默认1秒
+            }
             serverChannel = ServerSocketChannel.open();
             serverChannel.socket().bind(new InetSocketAddress(getHost(), getPort()));
             serverChannel.configureBlocking(false);
-            serverChannel.register(nioEventLoopAdapter.getSelector(), SelectionKey.OP_ACCEPT);
+            serverChannel.register(eventLoops[0].getSelector(), SelectionKey.OP_ACCEPT);
             super.start();
             String name = "ServerNioEventLoopService-" + getPort();
+            for (int i = 1; i < eventLoopCount; i++) {
+                EventLoop eventLoop = eventLoops[i];
+                ConcurrentUtils.submitTask(name + "-" + i, () -> {
+                    NioNetServer.this.run(eventLoop);
+                });
+            }
             if (runInMainThread()) {
                 Thread t = Thread.currentThread();
                 if (t.getName().equals("main"))
                     t.setName(name);
             } else {
                 ConcurrentUtils.submitTask(name, () -> {
-                    NioNetServer.this.run();
+                    NioNetServer.this.run(eventLoops[0]);
                 });
             }
         } catch (Exception e) {
@@ -63,28 +77,39 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
         }
     }
 
+    // 默认跟调度器的个数一样
+    private int getEventLoopCount() {
+        String count = config.get("server_nio_event_loop_count");
+        if (count == null)
+            count = config.get("scheduler_count");
+        if (count != null)
+            return Math.max(1, Integer.parseInt(count));
+        else
+            return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
     @Override
     public Runnable getRunnable() {
         return () -> {
-            NioNetServer.this.run();
+            NioNetServer.this.run(eventLoops[0]);
         };
     }
 
-    private void run() {
+    private void run(EventLoop eventLoop) {
         for (;;) {
             try {
-                nioEventLoopAdapter.select();
+                eventLoop.select();
                 if (isStopped())
                     break;
-                Set<SelectionKey> keys = nioEventLoopAdapter.getSelector().selectedKeys();
+                Set<SelectionKey> keys = eventLoop.getSelector().selectedKeys();
                 try {
                     for (SelectionKey key : keys) {
                         if (key.isValid()) {
                             int readyOps = key.readyOps();
                             if ((readyOps & SelectionKey.OP_READ) != 0) {
-                                read(key, this);
+                                eventLoop.read(key, eventLoop);
                             } else if ((readyOps & SelectionKey.OP_WRITE) != 0) {
-                                write(key);
+                                eventLoop.write(key, eventLoop);
                             } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
                                 accept();
                             } else {
@@ -100,6 +125,8 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
                 if (isStopped())
                     break;
             } catch (Throwable e) {
+                if (isStopped())
+                    break;
                 logger.warn(Thread.currentThread().getName() + " run exception", e);
             }
         }
@@ -110,24 +137,58 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
         int endOfStreamCount;
     }
 
+    private class EventLoop implements NioEventLoop {
+
+        private final NioEventLoopAdapter nioEventLoopAdapter;
+
+        EventLoop(NioEventLoopAdapter nioEventLoopAdapter) {
+            this.nioEventLoopAdapter = nioEventLoopAdapter;
+        }
+
+        @Override
+        public NioEventLoop getDefaultNioEventLoopImpl() {
+            return nioEventLoopAdapter;
+        }
+
+        @Override
+        public void handleRegisterException(SocketChannel channel, Object att, Exception e) {
+            handleException(((Attachment) att).conn, channel, e);
+            logger.warn(getName() + " failed to register channel", e);
+        }
+
+        @Override
+        public void handleException(AsyncConnection conn, SocketChannel channel, Exception e) {
+            if (conn != null) {
+                removeConnection(conn);
+            }
+            closeChannel(channel);
+        }
+    }
+
     private void accept() {
         SocketChannel channel = null;
         AsyncConnection conn = null;
+        EventLoop eventLoop = null;
         try {
             channel = serverChannel.accept();
             channel.configureBlocking(false);
-            nioEventLoopAdapter.addSocketChannel(channel);
-            NioWritableChannel writableChannel = new NioWritableChannel(channel, this);
+            eventLoop = eventLoops[eventLoopIndex++ % eventLoops.length];
+            eventLoop.addSocketChannel(channel);
+            NioWritableChannel writableChannel = new NioWritableChannel(channel, eventLoop);
             conn = createConnection(writableChannel, true);
 
             Attachment attachment = new Attachment();
             attachment.conn = conn;
-            channel.register(nioEventLoopAdapter.getSelector(), SelectionKey.OP_READ, attachment);
+            // 由目标事件循环在下一轮select之前注册，避免accept线程跟它争用selector的锁
+            eventLoop.register(channel, SelectionKey.OP_READ, attachment, eventLoop);
         } catch (Throwable e) {
             if (conn != null) {
                 removeConnection(conn);
             }
-            closeChannel(channel);
+            if (eventLoop != null)
+                eventLoop.closeChannel(channel);
+            else
+                closeChannel(channel);
             logger.warn(getName() + " failed to accept", e);
         }
     }
@@ -138,7 +199,8 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
             return;
         logger.info("Stopping nio net server");
         super.stop();
-        nioEventLoopAdapter.close();
+        for (EventLoop eventLoop : eventLoops)
+            eventLoop.nioEventLoopAdapter.close();
         if (serverChannel != null) {
             try {
                 serverChannel.close();
@@ -150,7 +212,7 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
 
     @Override
     public NioEventLoop getDefaultNioEventLoopImpl() {
-        return nioEventLoopAdapter;
+        return eventLoops[0].nioEventLoopAdapter;
     }
 
     @Override
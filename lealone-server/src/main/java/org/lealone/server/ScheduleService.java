@@ -75,4 +75,17 @@ public class ScheduleService {
     static Scheduler getSchedulerForSession() {
         return schedulers[indexForSession.getAndIncrement() % schedulers.length];
     }
+
+    // 返回最近一个统计周期中最空闲的调度器
+    static Scheduler getIdlestScheduler() {
+        Scheduler[] schedulers = ScheduleService.schedulers;
+        if (schedulers == null || schedulers.length <= 1)
+            return null;
+        Scheduler idlest = schedulers[0];
+        for (int i = 1; i < schedulers.length; i++) {
+            if (schedulers[i].getBusyPercent() < idlest.getBusyPercent())
+                idlest = schedulers[i];
+        }
+        return idlest;
+    }
 }
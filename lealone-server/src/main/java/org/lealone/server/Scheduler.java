@@ -17,22 +17,32 @@
  */
 package org.lealone.server;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.lealone.common.concurrent.IdleStrategy;
 import org.lealone.common.concurrent.ScheduledExecutors;
+import org.lealone.common.exceptions.DbException;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
 import org.lealone.common.util.DateTimeUtils;
+import org.lealone.common.util.MapUtils;
+import org.lealone.db.api.ErrorCode;
 import org.lealone.db.async.AsyncPeriodicTask;
 import org.lealone.db.async.AsyncTask;
 import org.lealone.db.async.AsyncTaskHandler;
 import org.lealone.db.session.Session;
+import org.lealone.db.session.SessionStatus;
+import org.lealone.server.protocol.PacketType;
 import org.lealone.sql.PreparedSQLStatement;
 import org.lealone.sql.SQLStatementExecutor;
 import org.lealone.storage.PageOperation;
@@ -49,6 +59,7 @@ public class Scheduler extends Thread
         private final SessionInfo si;
         private final PreparedSQLStatement stmt;
         private final PreparedSQLStatement.Yieldable<?> yieldable;
+        private boolean queued; // 是否已经在就绪队列或等待列表中，只在scheduler线程中访问
 
         YieldableCommand(int packetId, SessionInfo si, PreparedSQLStatement stmt,
                 PreparedSQLStatement.Yieldable<?> yieldable) {
@@ -63,14 +74,15 @@ public class Scheduler extends Thread
             // 如时返回false，说明当前语句执行完成了，切换到下一条；
             // 如果返回true，说明因为某些原因导致主动让出CPU，需要等待获得重新执行的机会。
             if (!yieldable.run()) {
-                si.yieldableCommand = null;
+                si.removeCurrentCommand();
             }
         }
     }
 
     public static class SessionInfo {
-        // taskQueue中的命令统一由scheduler调度执行
-        private final Scheduler scheduler;
+        // taskQueue中的命令统一由scheduler调度执行，
+        // session空闲时可能被迁移到负载更低的调度器，所以不是final的
+        private volatile Scheduler scheduler;
         private final ConcurrentLinkedQueue<AsyncTask> taskQueue;
         private final TcpServerConnection conn;
 
@@ -79,7 +91,30 @@ public class Scheduler extends Thread
         Session session; // 处理完第一个InitPacket任务后才会赋值
 
         private YieldableCommand yieldableCommand;
-        private long lastActiveTime;
+        private volatile long lastActiveTime;
+        private volatile boolean removed;
+        // 是否已经在调度器的就绪队列中，避免有多个任务时重复加入
+        private final AtomicBoolean ready = new AtomicBoolean();
+
+        // 当前统计周期和上一个统计周期在调度线程中执行的时间
+        private long activeNanos;
+        private long lastActiveNanos;
+
+        // 以下定时任务由scheduler的时间轮触发，不再需要每次调度时扫描所有session
+        private final TimingWheel.Timeout sessionTimeoutTimer = new TimingWheel.Timeout() {
+            @Override
+            protected void expire(long currentTime) {
+                checkSessionTimeout(currentTime);
+            }
+        };
+        // 语句超时由session的cancelAt统一处理，正在执行的语句在checkCanceled时结束，
+        // 处于等待状态的语句不会调用checkCanceled，所以等待时的定时任务也要检查语句是否超时
+        private final TimingWheel.Timeout lockWaitTimer = new TimingWheel.Timeout() {
+            @Override
+            protected void expire(long currentTime) {
+                checkWaitTimeout(currentTime);
+            }
+        };
 
         SessionInfo(TcpServerConnection conn, Session session, int sessionId, int sessionTimeout) {
             scheduler = ScheduleService.getSchedulerForSession();
@@ -90,6 +125,41 @@ public class Scheduler extends Thread
             this.sessionTimeout = sessionTimeout;
             updateLastActiveTime();
             scheduler.addSessionInfo(this);
+            // 当前线程是网络事件循环线程，所以要异步加入
+            if (sessionTimeout > 0)
+                scheduleSessionTimeoutTimer(scheduler, sessionTimeout);
+        }
+
+        // 时间轮只能在所属的scheduler线程中修改，所以统一通过任务加入和取消，
+        // 任务执行时session可能已经被删除或迁移走了
+        private void scheduleSessionTimeoutTimer(Scheduler scheduler, long delay) {
+            scheduler.handle(new AsyncTask() {
+                @Override
+                public void run() {
+                    if (!removed && SessionInfo.this.scheduler == scheduler)
+                        scheduler.timingWheel.schedule(sessionTimeoutTimer, delay);
+                }
+
+                @Override
+                public int getPriority() {
+                    return MAX_PRIORITY;
+                }
+            });
+        }
+
+        private void cancelTimers(Scheduler scheduler) {
+            scheduler.handle(new AsyncTask() {
+                @Override
+                public void run() {
+                    scheduler.timingWheel.cancel(sessionTimeoutTimer);
+                    scheduler.timingWheel.cancel(lockWaitTimer);
+                }
+
+                @Override
+                public int getPriority() {
+                    return MAX_PRIORITY;
+                }
+            });
         }
 
         void updateLastActiveTime() {
@@ -99,44 +169,123 @@ public class Scheduler extends Thread
         void submitTask(AsyncTask task) {
             updateLastActiveTime();
             taskQueue.add(task);
+            markReady();
+        }
+
+        // 先加入任务队列再读scheduler，如果此时正好在迁移，
+        // 旧的调度器从就绪队列取出时会转给新的调度器
+        private void markReady() {
+            Scheduler scheduler = this.scheduler;
+            if (ready.compareAndSet(false, true))
+                scheduler.readySessions.add(this);
             scheduler.wakeUp();
         }
 
         public void submitYieldableCommand(int packetId, PreparedSQLStatement stmt,
                 PreparedSQLStatement.Yieldable<?> yieldable) {
             yieldableCommand = new YieldableCommand(packetId, this, stmt, yieldable);
+            scheduler.addYieldableCommand(yieldableCommand);
         }
 
         void remove() {
+            // 先设置removed再读scheduler，如果正在迁移，新的调度器加入定时任务时会看到removed
+            removed = true;
+            Scheduler scheduler = this.scheduler;
             scheduler.removeSessionInfo(this);
+            // 不能等定时任务到期，否则时间轮会一直引用已经关闭的session
+            cancelTimers(scheduler);
+        }
+
+        // 没有正在执行的命令、没有排队的任务、也没有未结束的事务时才能迁移到其他调度器
+        private boolean isIdle() {
+            return !removed && yieldableCommand == null && taskQueue.isEmpty() && session != null
+                    && session.getStatus() == SessionStatus.TRANSACTION_NOT_START
+                    && session.getReplicationName() == null;
+        }
+
+        // 已经在就绪队列或等待列表中的命令不会马上删除，取出时发现已经不是当前命令了再忽略
+        private void removeCurrentCommand() {
+            yieldableCommand = null;
+            scheduler.timingWheel.cancel(lockWaitTimer);
+            // 执行命令期间到达的任务要等命令结束后才能执行
+            if (!taskQueue.isEmpty())
+                markReady();
         }
 
-        void checkSessionTimeout(long currentTime) {
-            if (sessionTimeout <= 0)
+        // 当前命令执行一次后，如果进入等待状态就开始计算锁超时
+        private void updateLockWaitTimer() {
+            if (yieldableCommand != null && session.getStatus() == SessionStatus.WAITING) {
+                if (!lockWaitTimer.isScheduled())
+                    scheduler.timingWheel.schedule(lockWaitTimer, getWaitDelay(System.currentTimeMillis()));
+            } else {
+                scheduler.timingWheel.cancel(lockWaitTimer);
+            }
+        }
+
+        private void checkSessionTimeout(long currentTime) {
+            if (removed)
                 return;
-            if (lastActiveTime + sessionTimeout < currentTime) {
+            long timeout = lastActiveTime + sessionTimeout - currentTime;
+            if (timeout < 0) {
                 conn.closeSession(this);
                 logger.warn("Client session timeout, session id: " + sessionId + ", host: "
                         + conn.getWritableChannel().getHost() + ", port: " + conn.getWritableChannel().getPort());
+            } else {
+                // 期间有新的请求，按最后活跃时间重新计算
+                scheduler.timingWheel.schedule(sessionTimeoutTimer, timeout);
             }
         }
 
-        void checkTransactionTimeout() {
+        // 锁超时和语句超时哪个先到就等多久
+        private long getWaitDelay(long currentTime) {
+            long delay = session.getLockTimeout();
+            long cancelAt = session.getCancel();
+            if (cancelAt > 0)
+                delay = Math.min(delay, cancelAt - currentTime);
+            return delay;
+        }
+
+        private void checkWaitTimeout(long currentTime) {
+            if (removed || yieldableCommand == null || session.getStatus() != SessionStatus.WAITING)
+                return;
             Transaction t = session.getTransaction();
+            long cancelAt = session.getCancel();
+            if (cancelAt > 0 && currentTime >= cancelAt) {
+                cancelWaitingCommand(t, DbException.get(ErrorCode.STATEMENT_WAS_CANCELED));
+                return;
+            }
             if (t.getStatus() == Transaction.STATUS_WAITING) {
                 try {
                     t.checkTimeout();
                 } catch (Throwable e) {
-                    t.rollback();
-                    conn.sendError(session, yieldableCommand.packetId, e);
-                    yieldableCommand = null; // 移除当前命令
+                    cancelWaitingCommand(t, e);
+                    return;
                 }
             }
+            // 还没有超时(比如又开始等待另一个锁了)，继续等待
+            scheduler.timingWheel.schedule(lockWaitTimer, getWaitDelay(currentTime));
+        }
+
+        private void cancelWaitingCommand(Transaction t, Throwable e) {
+            t.rollback();
+            conn.sendError(session, yieldableCommand.packetId, e);
+            removeCurrentCommand();
         }
     }
 
     private final ConcurrentLinkedQueue<PageOperation> pageOperationQueue = new ConcurrentLinkedQueue<>();
-    private final CopyOnWriteArrayList<SessionInfo> sessions = new CopyOnWriteArrayList<>();
+    private final Set<SessionInfo> sessions = ConcurrentHashMap.newKeySet();
+    // 有任务要执行的session，由网络线程加入，调度时不再扫描所有session
+    private final ConcurrentLinkedQueue<SessionInfo> readySessions = new ConcurrentLinkedQueue<>();
+
+    // 可以执行的命令按优先级放到不同的队列，下标就是优先级；
+    // 因为session状态不能马上执行的命令放到等待列表，每一轮调度时重新检查。
+    // 只在scheduler线程中访问
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private final ArrayDeque<YieldableCommand>[] readyCommands = new ArrayDeque[PreparedSQLStatement.MAX_PRIORITY
+            + 1];
+    private final ArrayList<YieldableCommand> waitingCommands = new ArrayList<>();
+    private int readyCommandCount;
 
     private final ConcurrentLinkedQueue<AsyncTask> minPriorityQueue = new ConcurrentLinkedQueue<>();
     private final ConcurrentLinkedQueue<AsyncTask> normPriorityQueue = new ConcurrentLinkedQueue<>();
@@ -145,16 +294,45 @@ public class Scheduler extends Thread
     // 这个只增不删所以用CopyOnWriteArrayList
     private final CopyOnWriteArrayList<AsyncTask> periodicQueue = new CopyOnWriteArrayList<>();
 
-    private final Semaphore haveWork = new Semaphore(1);
+    private final IdleStrategy idleStrategy;
     private final long loopInterval;
+    private final TimingWheel timingWheel;
     private boolean stop;
     private YieldableCommand nextBestCommand;
 
+    // 负载统计，每个统计周期结束时更新，其他调度器会读取这些字段来决定是否迁移session
+    private final long balanceInterval;
+    private final int balanceThreshold;
+    private long windowStartTime = System.nanoTime();
+    private long idleNanos;
+    private volatile long busyNanos;
+    private volatile int busyPercent;
+    private volatile int runnableCommandCount;
+    private volatile int queuedTaskCount;
+    private final TimingWheel.Timeout balanceTimer = new TimingWheel.Timeout() {
+        @Override
+        protected void expire(long currentTime) {
+            updateLoad();
+            balance();
+            timingWheel.schedule(this, balanceInterval);
+        }
+    };
+
     public Scheduler(int id, Map<String, String> config) {
         super(ScheduleService.class.getSimpleName() + "-" + id);
         setDaemon(true);
         // 默认100毫秒
         loopInterval = DateTimeUtils.getLoopInterval(config, "scheduler_loop_interval", 100);
+        idleStrategy = IdleStrategy.create(config, "scheduler", 100, 10);
+        // 默认10毫秒一格，512格
+        long tickDuration = DateTimeUtils.getLoopInterval(config, "scheduler_timer_tick_duration", 10);
+        timingWheel = new TimingWheel(tickDuration, 512);
+        for (int i = 0; i < readyCommands.length; i++)
+            readyCommands[i] = new ArrayDeque<>();
+        // 默认1秒统计一次负载，小于等于0时不迁移session
+        balanceInterval = DateTimeUtils.getLoopInterval(config, "scheduler_balance_interval", 1000);
+        // 繁忙百分比相差超过这个值时才迁移session
+        balanceThreshold = MapUtils.getInt(config, "scheduler_balance_threshold", 20);
     }
 
     private void addSessionInfo(SessionInfo si) {
@@ -167,6 +345,8 @@ public class Scheduler extends Thread
 
     @Override
     public void run() {
+        if (balanceInterval > 0)
+            timingWheel.schedule(balanceTimer, balanceInterval);
         while (!stop) {
             runQueueTasks(maxPriorityQueue);
             runQueueTasks(normPriorityQueue);
@@ -179,23 +359,56 @@ public class Scheduler extends Thread
     }
 
     private void runSessionTasks() {
-        if (sessions.isEmpty())
+        SessionInfo si = readySessions.poll();
+        while (si != null) {
+            runSessionTasks(si);
+            si = readySessions.poll();
+        }
+    }
+
+    private void runSessionTasks(SessionInfo si) {
+        // 先清除标记，执行期间新加入的任务会把session重新放入就绪队列
+        si.ready.set(false);
+        if (si.removed)
             return;
-        for (SessionInfo si : sessions) {
-            // 在同一session中，只有前面一条SQL执行完后才可以执行下一条
-            // 如果是复制模式，那就可以执行下一个任务(比如异步提交)
-            if (si.yieldableCommand == null || (si.session != null && si.session.getReplicationName() != null)) {
-                AsyncTask task = si.taskQueue.poll();
-                while (task != null) {
-                    runTask(task);
-                    if (si.yieldableCommand != null)
-                        break;
-                    task = si.taskQueue.poll();
+        // 已经迁移到其他调度器了
+        if (si.scheduler != this) {
+            si.markReady();
+            return;
+        }
+        // 在同一session中，只有前面一条SQL执行完后才可以执行下一条
+        // 如果是复制模式，那就可以执行下一个任务(比如异步提交)
+        // 流式查询暂停时可以执行取结果集的任务
+        if (si.yieldableCommand == null || (si.session != null && si.session.getReplicationName() != null)
+                || si.yieldableCommand.yieldable.isPaused()) {
+            AsyncTask task = si.taskQueue.peek();
+            while (task != null) {
+                YieldableCommand c = si.yieldableCommand;
+                if (c != null && c.yieldable.isPaused() && !canRunWhilePaused(task)) {
+                    // 其他任务要等流式查询执行完，让它不再等客户端取记录
+                    c.yieldable.resume();
+                    break;
                 }
+                si.taskQueue.poll();
+                long start = System.nanoTime();
+                runTask(task);
+                si.activeNanos += System.nanoTime() - start;
+                c = si.yieldableCommand;
+                if (c != null && !c.yieldable.isPaused())
+                    break;
+                task = si.taskQueue.peek();
             }
         }
     }
 
+    private static boolean canRunWhilePaused(AsyncTask task) {
+        if (!(task instanceof PacketDeliveryTask))
+            return false;
+        int type = ((PacketDeliveryTask) task).packetType;
+        return type == PacketType.RESULT_FETCH_ROWS.value || type == PacketType.RESULT_CHANGE_ID.value
+                || type == PacketType.RESULT_CLOSE.value || type == PacketType.SESSION_CLOSE.value;
+    }
+
     private void runTask(AsyncTask task) {
         try {
             task.run();
@@ -229,9 +442,82 @@ public class Scheduler extends Thread
         wakeUp();
     }
 
+    // 负载是最近一个统计周期结束时待处理的工作数，也就是可运行的命令数加上排队的任务数，
+    // 跟DefaultPageOperationHandler.getLoad的单位一致，繁忙百分比只用于迁移session
     @Override
     public long getLoad() {
-        return sessions.size();
+        return runnableCommandCount + queuedTaskCount;
+    }
+
+    int getBusyPercent() {
+        return busyPercent;
+    }
+
+    private void updateLoad() {
+        long now = System.nanoTime();
+        long window = now - windowStartTime;
+        if (window <= 0)
+            return;
+        long busy = Math.max(window - idleNanos, 0);
+        busyNanos = busy;
+        busyPercent = (int) (busy * 100 / window);
+        windowStartTime = now;
+        idleNanos = 0;
+
+        int queued = pageOperationQueue.size();
+        for (SessionInfo si : sessions) {
+            si.lastActiveNanos = si.activeNanos;
+            si.activeNanos = 0;
+            queued += si.taskQueue.size();
+        }
+        runnableCommandCount = readyCommandCount;
+        queuedTaskCount = queued;
+    }
+
+    // 把最近活跃但当前空闲的session迁移到最空闲的调度器，
+    // 迁移的活跃时间最多是两个调度器繁忙时间之差的一半，避免来回迁移
+    private void balance() {
+        Scheduler target = ScheduleService.getIdlestScheduler();
+        if (target == null || target == this || busyPercent - target.busyPercent < balanceThreshold)
+            return;
+        long expected = (busyNanos - target.busyNanos) / 2;
+        ArrayList<SessionInfo> candidates = new ArrayList<>();
+        for (SessionInfo si : sessions) {
+            if (si.lastActiveNanos > 0 && si.lastActiveNanos <= expected && si.isIdle())
+                candidates.add(si);
+        }
+        if (candidates.isEmpty())
+            return;
+        candidates.sort((a, b) -> Long.compare(b.lastActiveNanos, a.lastActiveNanos));
+        long moved = 0;
+        for (SessionInfo si : candidates) {
+            if (moved + si.lastActiveNanos > expected)
+                continue;
+            moved += si.lastActiveNanos;
+            migrate(si, target);
+        }
+    }
+
+    // 只在当前调度线程中调用，session的任务队列是跟着SessionInfo走的，
+    // 迁移期间网络线程加入的任务会由新的调度器执行
+    private void migrate(SessionInfo si, Scheduler target) {
+        sessions.remove(si);
+        timingWheel.cancel(si.sessionTimeoutTimer);
+        timingWheel.cancel(si.lockWaitTimer);
+        si.activeNanos = 0;
+        si.lastActiveNanos = 0;
+        si.scheduler = target;
+        target.addSessionInfo(si);
+        if (si.sessionTimeout > 0) {
+            long delay = si.lastActiveTime + si.sessionTimeout - System.currentTimeMillis();
+            si.scheduleSessionTimeoutTimer(target, delay);
+        }
+        // 迁移期间被关闭了
+        if (si.removed)
+            target.removeSessionInfo(si);
+        else if (!si.taskQueue.isEmpty())
+            si.markReady();
+        target.wakeUp();
     }
 
     @Override
@@ -282,6 +568,7 @@ public class Scheduler extends Thread
         int priority = PreparedSQLStatement.MIN_PRIORITY - 1; // 最小优先级减一，保证能取到最小的
         YieldableCommand last = null;
         while (true) {
+            timingWheel.advance(System.currentTimeMillis());
             YieldableCommand c;
             if (nextBestCommand != null) {
                 c = nextBestCommand;
@@ -290,7 +577,6 @@ public class Scheduler extends Thread
                 c = getNextBestCommand(priority, true);
             }
             if (c == null) {
-                checkSessionTimeout();
                 handlePeriodicTasks();
                 runPageOperationTasks();
                 runSessionTasks();
@@ -298,19 +584,19 @@ public class Scheduler extends Thread
                 runQueueTasks(normPriorityQueue);
                 c = getNextBestCommand(priority, true);
                 if (c == null) {
-                    try {
-                        haveWork.tryAcquire(loopInterval, TimeUnit.MILLISECONDS);
-                        haveWork.drainPermits();
-                    } catch (InterruptedException e) {
-                        handleInterruptedException(e);
-                    }
+                    waitForWork();
                     break;
                 }
             }
             try {
+                long start = System.nanoTime();
                 c.execute();
-                // 说明没有新的命令了，一直在轮循
-                if (last == c) {
+                c.si.activeNanos += System.nanoTime() - start;
+                c.si.updateLockWaitTimer();
+                // 说明没有新的命令了，一直在轮循；
+                // 命令没有执行完时也要处理新到的任务，多个命令轮流执行时last总是不等于c，
+                // 比如几个等待行锁的命令会让持有锁的session一直提交不了
+                if (last == c || c.si.yieldableCommand == c) {
                     runPageOperationTasks();
                     runSessionTasks();
                     runQueueTasks(maxPriorityQueue);
@@ -320,6 +606,13 @@ public class Scheduler extends Thread
             } catch (Throwable e) {
                 c.si.conn.sendError(c.si.session, c.packetId, e);
             }
+            // 还没有执行完，重新放回队列
+            if (c.si.yieldableCommand == c) {
+                addYieldableCommand(c);
+                // 流式查询执行期间到达的取结果集任务当时不能执行，暂停后要让session重新进入就绪队列
+                if (c.yieldable.isPaused() && !c.si.taskQueue.isEmpty())
+                    c.si.markReady();
+            }
         }
     }
 
@@ -336,47 +629,107 @@ public class Scheduler extends Thread
         return false;
     }
 
-    private YieldableCommand getNextBestCommand(int priority, boolean checkTimeout) {
-        if (sessions.isEmpty())
-            return null;
-        YieldableCommand best = null;
-        for (SessionInfo si : sessions) {
-            YieldableCommand c = si.yieldableCommand;
-            if (c == null)
-                continue;
+    private static int getPriorityIndex(YieldableCommand c) {
+        int priority = c.stmt.getPriority();
+        if (priority > PreparedSQLStatement.MAX_PRIORITY)
+            return PreparedSQLStatement.MAX_PRIORITY;
+        if (priority < PreparedSQLStatement.MIN_PRIORITY)
+            return PreparedSQLStatement.MIN_PRIORITY;
+        return priority;
+    }
 
-            // session处于以下状态时不会被当成候选的对象
-            switch (si.session.getStatus()) {
-            case WAITING:
-                if (checkTimeout) {
-                    si.checkTransactionTimeout();
-                }
-            case TRANSACTION_COMMITTING:
-            case EXCLUSIVE_MODE:
-            case REPLICA_STATEMENT_COMPLETED:
-                continue;
+    // session处于以下状态时不会被当成候选的对象
+    private static boolean isRunnable(YieldableCommand c) {
+        if (c.yieldable.isPaused())
+            return false;
+        switch (c.si.session.getStatus()) {
+        case WAITING:
+        case TRANSACTION_COMMITTING:
+        case EXCLUSIVE_MODE:
+        case REPLICA_STATEMENT_COMPLETED:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    private static boolean isCurrentCommand(YieldableCommand c) {
+        return c.si.yieldableCommand == c && !c.si.removed;
+    }
+
+    private void addYieldableCommand(YieldableCommand c) {
+        if (c.queued)
+            return;
+        c.queued = true;
+        if (isRunnable(c)) {
+            readyCommands[getPriorityIndex(c)].add(c);
+            readyCommandCount++;
+        } else {
+            waitingCommands.add(c);
+        }
+    }
+
+    // session的状态可能在其他线程中改变，所以每一轮调度时都要检查一下等待中的命令，
+    // 开销只跟等待中的命令个数有关，跟session个数无关
+    private void checkWaitingCommands() {
+        int size = waitingCommands.size();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            YieldableCommand c = waitingCommands.get(i);
+            if (!isCurrentCommand(c)) {
+                c.queued = false;
+            } else if (isRunnable(c)) {
+                readyCommands[getPriorityIndex(c)].add(c);
+                readyCommandCount++;
+            } else {
+                waitingCommands.set(j++, c);
             }
+        }
+        if (j < size)
+            waitingCommands.subList(j, size).clear();
+    }
 
-            if (c.stmt.getPriority() > priority) {
-                best = c;
-                priority = c.stmt.getPriority();
+    private YieldableCommand getNextBestCommand(int priority, boolean checkWaitingCommands) {
+        if (checkWaitingCommands && !waitingCommands.isEmpty())
+            checkWaitingCommands();
+        if (readyCommandCount == 0)
+            return null;
+        int min = Math.max(priority + 1, PreparedSQLStatement.MIN_PRIORITY);
+        for (int i = PreparedSQLStatement.MAX_PRIORITY; i >= min; i--) {
+            ArrayDeque<YieldableCommand> queue = readyCommands[i];
+            YieldableCommand c = queue.poll();
+            while (c != null) {
+                readyCommandCount--;
+                c.queued = false;
+                if (isCurrentCommand(c)) {
+                    if (isRunnable(c))
+                        return c;
+                    c.queued = true;
+                    waitingCommands.add(c);
+                }
+                c = queue.poll();
             }
         }
-        return best;
+        return null;
     }
 
     @Override
     public void wakeUp() {
-        haveWork.release(1);
+        idleStrategy.wakeUp();
     }
 
-    private void checkSessionTimeout() {
-        if (sessions.isEmpty())
-            return;
-        long currentTime = System.currentTimeMillis();
-        for (SessionInfo si : sessions) {
-            si.checkSessionTimeout(currentTime);
+    public IdleStrategy getIdleStrategy() {
+        return idleStrategy;
+    }
+
+    private void waitForWork() {
+        long start = System.nanoTime();
+        try {
+            idleStrategy.idle(loopInterval);
+        } catch (InterruptedException e) {
+            handleInterruptedException(e);
         }
+        idleNanos += System.nanoTime() - start;
     }
 
     private void handlePeriodicTasks() {
@@ -435,12 +788,7 @@ public class Scheduler extends Thread
             runPageOperationTasks();
             if (counter.get() < 1)
                 break;
-            try {
-                haveWork.tryAcquire(loopInterval, TimeUnit.MILLISECONDS);
-                haveWork.drainPermits();
-            } catch (InterruptedException e) {
-                handleInterruptedException(e);
-            }
+            waitForWork();
         }
         if (e != null)
             throw e;
@@ -21,11 +21,17 @@ import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
+import org.lealone.common.compress.CompressTool;
+import org.lealone.common.compress.Compressor;
+import org.lealone.common.exceptions.DbException;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
 import org.lealone.common.util.ExpiringMap;
 import org.lealone.common.util.Pair;
+import org.lealone.common.util.StringUtils;
 import org.lealone.db.ConnectionInfo;
+import org.lealone.db.ConnectionSetting;
+import org.lealone.db.Constants;
 import org.lealone.db.SysProperties;
 import org.lealone.db.session.Session;
 import org.lealone.net.TransferConnection;
@@ -117,10 +123,13 @@ public class TcpServerConnection extends TransferConnection {
 
             TransferOutputStream out = createTransferOutputStream(session);
             out.writeResponseHeader(packetId, Session.STATUS_OK);
+            String networkCompression = getNetworkCompression(ci, packet.clientVersion);
             SessionInitAck ack = new SessionInitAck(packet.clientVersion, session.isAutoCommit(),
-                    session.getTargetNodes(), session.getRunMode(), session.isInvalid());
+                    session.getTargetNodes(), session.getRunMode(), session.isInvalid(), networkCompression);
             ack.encode(out, packet.clientVersion);
             out.flush();
+            // SessionInitAck不压缩，之后的响应包才按协商好的算法压缩
+            session.setNetworkCompression(networkCompression);
         } catch (Throwable e) {
             si.remove();
             logger.error("Failed to create session, packetId: " + packetId + ", sessionId: " + sessionId, e);
@@ -128,6 +137,22 @@ public class TcpServerConnection extends TransferConnection {
         }
     }
 
+    // 客户端要求的压缩算法服务器端不支持时就不压缩，而不是让连接失败
+    private static String getNetworkCompression(ConnectionInfo ci, int clientVersion) {
+        if (clientVersion < Constants.TCP_PROTOCOL_VERSION_2)
+            return null;
+        String algorithm = ci.getProperty(ConnectionSetting.NETWORK_COMPRESSION);
+        if (algorithm == null)
+            return null;
+        try {
+            if (CompressTool.getCompressAlgorithm(algorithm) == Compressor.NO)
+                return null;
+        } catch (DbException e) {
+            return null;
+        }
+        return StringUtils.toUpperEnglish(algorithm);
+    }
+
     private Session createSession(ConnectionInfo ci, int sessionId, SessionInfo si) {
         Session session = ci.createSession();
         // 在复制模式和sharding模式下，客户端可以从任何一个节点接入，
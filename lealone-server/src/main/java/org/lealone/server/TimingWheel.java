@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.server;
+
+import java.util.ArrayList;
+
+import org.lealone.common.logging.Logger;
+import org.lealone.common.logging.LoggerFactory;
+
+// 哈希时间轮，加入、取消和触发一个定时任务都是O(1)的。
+// 时间轮只由所属的Scheduler线程推进，schedule和cancel也只能在这个线程中调用，
+// 其他线程要把加入和取消操作封装成任务交给这个Scheduler执行。
+public class TimingWheel {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    public static abstract class Timeout {
+        private long remainingRounds;
+        private Timeout prev;
+        private Timeout next;
+        private Bucket bucket;
+        private boolean expiring;
+
+        public boolean isScheduled() {
+            return bucket != null || expiring;
+        }
+
+        // 到期时在Scheduler线程中执行
+        protected abstract void expire(long currentTime);
+    }
+
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null)
+                t.prev.next = t.next;
+            else
+                head = t.next;
+            if (t.next != null)
+                t.next.prev = t.prev;
+            else
+                tail = t.prev;
+            t.prev = t.next = null;
+            t.bucket = null;
+        }
+    }
+
+    private final ArrayList<Timeout> expiredTimeouts = new ArrayList<>();
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickDuration;
+    private final long startTime;
+    private long tick;
+
+    public TimingWheel(long tickDuration, int ticksPerWheel) {
+        if (tickDuration <= 0)
+            tickDuration = 1;
+        // 取2的n次方，这样可以用位运算计算桶的下标
+        int n = 1;
+        while (n < ticksPerWheel)
+            n <<= 1;
+        wheel = new Bucket[n];
+        for (int i = 0; i < n; i++)
+            wheel[i] = new Bucket();
+        mask = n - 1;
+        this.tickDuration = tickDuration;
+        startTime = System.currentTimeMillis();
+    }
+
+    // 在delay毫秒后触发，如果已经加入时间轮了就重新计算触发时间
+    public void schedule(Timeout t, long delay) {
+        cancel(t);
+        long deadline = System.currentTimeMillis() - startTime + Math.max(delay, 0);
+        long ticks = deadline / tickDuration;
+        t.remainingRounds = (ticks - tick) / wheel.length;
+        // 已经过期的放到当前的桶，下一次推进时马上触发
+        wheel[(int) (Math.max(ticks, tick) & mask)].add(t);
+    }
+
+    public void cancel(Timeout t) {
+        if (t.bucket != null)
+            t.bucket.remove(t);
+        t.expiring = false;
+    }
+
+    // 推进时间轮，触发所有到期的定时任务
+    public void advance(long currentTime) {
+        long currentTick = (currentTime - startTime) / tickDuration;
+        while (tick <= currentTick) {
+            // 先递增tick，触发时重新加入的定时任务就不会放到正在处理的桶中
+            Bucket bucket = wheel[(int) (tick & mask)];
+            tick++;
+            expireTimeouts(bucket, currentTime);
+        }
+    }
+
+    private void expireTimeouts(Bucket bucket, long currentTime) {
+        // 先把到期的定时任务摘下来再触发，触发时可能会重新加入或取消其他定时任务
+        Timeout t = bucket.head;
+        while (t != null) {
+            Timeout next = t.next;
+            if (t.remainingRounds <= 0) {
+                bucket.remove(t);
+                t.expiring = true;
+                expiredTimeouts.add(t);
+            } else {
+                t.remainingRounds--;
+            }
+            t = next;
+        }
+        if (expiredTimeouts.isEmpty())
+            return;
+        for (int i = 0, size = expiredTimeouts.size(); i < size; i++) {
+            t = expiredTimeouts.get(i);
+            if (!t.expiring) // 已经被取消或重新加入了
+                continue;
+            t.expiring = false;
+            try {
+                t.expire(currentTime);
+            } catch (Throwable e) {
+                logger.warn("Failed to expire timeout: " + t, e);
+            }
+        }
+        expiredTimeouts.clear();
+    }
+}
@@ -50,6 +50,8 @@ class BatchStatementPacketHandlers extends PacketHandlers {
                     results[i] = command.executeUpdate().get();
                 } catch (Exception e) {
                     results[i] = Statement.EXECUTE_FAILED;
+                } finally {
+                    command.close();
                 }
             }
             return new BatchStatementUpdateAck(size, results);
@@ -150,8 +150,11 @@ class DistributedTransactionPacketHandlers extends PacketHandlers {
     private static class Validate implements PacketHandler<DTransactionValidate> {
         @Override
         public Packet handle(ServerSession session, DTransactionValidate packet) {
-            boolean isValid = session.validateTransaction(packet.localTransactionName);
-            return new DTransactionValidateAck(isValid);
+            String[] names = packet.localTransactionNames;
+            boolean[] results = new boolean[names.length];
+            for (int i = 0; i < names.length; i++)
+                results[i] = session.validateTransaction(names[i]);
+            return new DTransactionValidateAck(results);
         }
     }
 }
@@ -20,7 +20,13 @@ package org.lealone.server.handler;
 import java.util.List;
 
 import org.lealone.db.CommandParameter;
+import org.lealone.db.ConnectionInfo;
+import org.lealone.db.ConnectionSetting;
+import org.lealone.db.async.AsyncHandler;
+import org.lealone.db.async.AsyncResult;
 import org.lealone.db.result.Result;
+import org.lealone.db.result.StreamingResult;
+import org.lealone.db.session.ServerSession;
 import org.lealone.server.PacketDeliveryTask;
 import org.lealone.server.protocol.Packet;
 import org.lealone.server.protocol.PacketType;
@@ -63,11 +69,26 @@ public class PacketHandlers {
         StoragePacketHandlers.register();
     }
 
+    // 客户端通过COLUMNAR_RESULT连接参数要求按列编码结果集
+    static boolean isColumnarResult(ServerSession session) {
+        ConnectionInfo ci = session.getConnectionInfo();
+        return ci != null && ci.getProperty(ConnectionSetting.COLUMNAR_RESULT, false);
+    }
+
+    // 客户端通过STREAMING_RESULT连接参数要求边执行查询边发送记录
+    static boolean isStreamingResult(ServerSession session) {
+        ConnectionInfo ci = session.getConnectionInfo();
+        return ci != null && ci.getProperty(ConnectionSetting.STREAMING_RESULT, false);
+    }
+
     private static abstract class UpdateBase<P extends Packet> implements PacketHandler<P> {
 
         protected void createYieldableUpdate(PacketDeliveryTask task, PreparedSQLStatement stmt,
-                List<PageKey> pageKeys) {
+                List<PageKey> pageKeys, boolean closeAfterUpdate) {
             PreparedSQLStatement.Yieldable<?> yieldable = stmt.createYieldableUpdate(ar -> {
+                // 执行完就可以给同一个session或其他session的相同SQL复用了
+                if (closeAfterUpdate)
+                    stmt.close();
                 if (ar.isSucceeded()) {
                     int updateCount = ar.getResult();
                     task.conn.sendResponse(task, createAckPacket(task, updateCount));
@@ -91,7 +112,7 @@ public class PacketHandlers {
             PreparedSQLStatement stmt = task.session.prepareStatement(packet.sql, -1);
             // 非Prepared语句执行一次就结束，所以可以用packetId当唯一标识，一般用来执行客户端发起的取消操作
             stmt.setId(task.packetId);
-            createYieldableUpdate(task, stmt, packet.pageKeys);
+            createYieldableUpdate(task, stmt, packet.pageKeys, true);
             return null;
         }
     }
@@ -105,24 +126,32 @@ public class PacketHandlers {
                 CommandParameter p = params.get(i);
                 p.setValue(packet.parameters[i]);
             }
-            createYieldableUpdate(task, stmt, packet.pageKeys);
+            createYieldableUpdate(task, stmt, packet.pageKeys, false);
             return null;
         }
     }
 
     private static abstract class QueryBase<P extends QueryPacket> implements PacketHandler<P> {
 
-        protected void createYieldableQuery(PacketDeliveryTask task, PreparedSQLStatement stmt, QueryPacket packet) {
-
-            PreparedSQLStatement.Yieldable<?> yieldable = stmt.createYieldableQuery(packet.maxRows, packet.scrollable,
-                    ar -> {
-                        if (ar.isSucceeded()) {
-                            Result result = ar.getResult();
-                            sendResult(task, packet, result);
-                        } else {
-                            task.conn.sendError(task.session, task.packetId, ar.getCause());
-                        }
-                    });
+        protected void createYieldableQuery(PacketDeliveryTask task, PreparedSQLStatement stmt, QueryPacket packet,
+                boolean closeAfterQuery) {
+            AsyncHandler<AsyncResult<Result>> asyncHandler = ar -> {
+                // 边执行边发送的查询此时还没有结束，不能关闭
+                if (closeAfterQuery && !(ar.isSucceeded() && ar.getResult() instanceof StreamingResult))
+                    stmt.close();
+                if (ar.isSucceeded()) {
+                    Result result = ar.getResult();
+                    sendResult(task, packet, result);
+                } else {
+                    task.conn.sendError(task.session, task.packetId, ar.getCause());
+                }
+            };
+            PreparedSQLStatement.Yieldable<?> yieldable = null;
+            // 只向前滚动的结果集可以在第一批记录准备好后就发给客户端
+            if (!packet.scrollable && isStreamingResult(task.session))
+                yieldable = stmt.createYieldableStreamingQuery(packet.maxRows, packet.fetchSize, asyncHandler);
+            if (yieldable == null)
+                yieldable = stmt.createYieldableQuery(packet.maxRows, packet.scrollable, asyncHandler);
             yieldable.setPageKeys(packet.pageKeys);
             task.si.submitYieldableCommand(task.packetId, stmt, yieldable);
         }
@@ -141,7 +170,7 @@ public class PacketHandlers {
         }
 
         protected Packet createAckPacket(PacketDeliveryTask task, Result result, int rowCount, int fetch) {
-            return new StatementQueryAck(result, rowCount, fetch);
+            return new StatementQueryAck(result, rowCount, fetch, isColumnarResult(task.session));
         }
     }
 
@@ -151,7 +180,7 @@ public class PacketHandlers {
             // 客户端的非Prepared语句不需要缓存
             PreparedSQLStatement stmt = task.session.prepareStatement(packet.sql, packet.fetchSize);
             stmt.setId(task.packetId);
-            createYieldableQuery(task, stmt, packet);
+            createYieldableQuery(task, stmt, packet, true);
             return null;
         }
     }
@@ -165,7 +194,7 @@ public class PacketHandlers {
                 CommandParameter p = params.get(i);
                 p.setValue(packet.parameters[i]);
             }
-            createYieldableQuery(task, stmt, packet);
+            createYieldableQuery(task, stmt, packet, false);
             return null;
         }
     }
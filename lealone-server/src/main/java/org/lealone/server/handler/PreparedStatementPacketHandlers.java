@@ -36,6 +36,7 @@ import org.lealone.server.protocol.ps.PreparedStatementPrepareReadParamsAck;
 import org.lealone.server.protocol.ps.PreparedStatementQuery;
 import org.lealone.server.protocol.ps.PreparedStatementUpdate;
 import org.lealone.sql.PreparedSQLStatement;
+import org.lealone.sql.ShardingKey;
 
 class PreparedStatementPacketHandlers extends PacketHandlers {
 
@@ -55,7 +56,7 @@ class PreparedStatementPacketHandlers extends PacketHandlers {
             command.setId(packet.commandId);
             conn.addCache(packet.commandId, command);
             boolean isQuery = command.isQuery();
-            return new PreparedStatementPrepareAck(isQuery);
+            return new PreparedStatementPrepareAck(isQuery, getShardingKey(session, command));
         }
     }
 
@@ -68,10 +69,15 @@ class PreparedStatementPacketHandlers extends PacketHandlers {
             conn.addCache(packet.commandId, command);
             boolean isQuery = command.isQuery();
             List<? extends CommandParameter> params = command.getParameters();
-            return new PreparedStatementPrepareReadParamsAck(isQuery, params);
+            return new PreparedStatementPrepareReadParamsAck(isQuery, params, getShardingKey(session, command));
         }
     }
 
+    // 只在sharding模式下才需要告诉客户端数据所在的节点
+    private static ShardingKey getShardingKey(ServerSession session, PreparedSQLStatement command) {
+        return session.isShardingMode() ? command.getShardingKey() : null;
+    }
+
     private static class Query extends PreparedQueryPacketHandler<PreparedStatementQuery> {
         @Override
         public Packet handle(PacketDeliveryTask task, PreparedStatementQuery packet) {
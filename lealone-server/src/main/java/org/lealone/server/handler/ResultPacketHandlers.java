@@ -18,7 +18,9 @@
 package org.lealone.server.handler;
 
 import org.lealone.db.result.Result;
+import org.lealone.db.result.StreamingResult;
 import org.lealone.db.session.ServerSession;
+import org.lealone.server.PacketDeliveryTask;
 import org.lealone.server.TcpServerConnection;
 import org.lealone.server.protocol.Packet;
 import org.lealone.server.protocol.PacketType;
@@ -39,9 +41,16 @@ class ResultPacketHandlers extends PacketHandlers {
 
     private static class FetchRows implements PacketHandler<ResultFetchRows> {
         @Override
-        public Packet handle(TcpServerConnection conn, ServerSession session, ResultFetchRows packet) {
-            Result result = (Result) conn.getCache(packet.resultId);
-            return new ResultFetchRowsAck(result, packet.count);
+        public Packet handle(PacketDeliveryTask task, ResultFetchRows packet) {
+            Result result = (Result) task.conn.getCache(packet.resultId);
+            boolean columnar = isColumnarResult(task.session);
+            if (result instanceof StreamingResult) {
+                // 查询还没有产生足够的记录时，等准备好了再发给客户端
+                ((StreamingResult) result).fetch(packet.count, () -> task.conn.sendResponse(task,
+                        new ResultFetchRowsAck(result, packet.count, columnar)));
+                return null;
+            }
+            return new ResultFetchRowsAck(result, packet.count, columnar);
         }
     }
 
@@ -17,15 +17,25 @@
  */
 package org.lealone.server.handler;
 
+import java.util.List;
+import java.util.Map;
+
+import org.lealone.db.schema.Schema;
 import org.lealone.db.session.ServerSession;
+import org.lealone.db.table.Table;
 import org.lealone.server.PacketDeliveryTask;
 import org.lealone.server.TcpServerConnection;
 import org.lealone.server.protocol.Packet;
 import org.lealone.server.protocol.PacketType;
 import org.lealone.server.protocol.session.SessionCancelStatement;
 import org.lealone.server.protocol.session.SessionClose;
+import org.lealone.server.protocol.session.SessionGetShardingRoutes;
+import org.lealone.server.protocol.session.SessionGetShardingRoutesAck;
+import org.lealone.server.protocol.session.SessionPing;
+import org.lealone.server.protocol.session.SessionPingAck;
 import org.lealone.server.protocol.session.SessionSetAutoCommit;
 import org.lealone.sql.PreparedSQLStatement;
+import org.lealone.storage.PageKey;
 
 class SessionPacketHandlers extends PacketHandlers {
 
@@ -33,6 +43,8 @@ class SessionPacketHandlers extends PacketHandlers {
         register(PacketType.SESSION_CANCEL_STATEMENT, new CancelStatement());
         register(PacketType.SESSION_SET_AUTO_COMMIT, new SetAutoCommit());
         register(PacketType.SESSION_CLOSE, new Close());
+        register(PacketType.SESSION_PING, new Ping());
+        register(PacketType.SESSION_GET_SHARDING_ROUTES, new GetShardingRoutes());
     }
 
     private static class CancelStatement implements PacketHandler<SessionCancelStatement> {
@@ -64,4 +76,22 @@ class SessionPacketHandlers extends PacketHandlers {
             return null;
         }
     }
+
+    private static class Ping implements PacketHandler<SessionPing> {
+        @Override
+        public Packet handle(TcpServerConnection conn, ServerSession session, SessionPing packet) {
+            return new SessionPingAck();
+        }
+    }
+
+    private static class GetShardingRoutes implements PacketHandler<SessionGetShardingRoutes> {
+        @Override
+        public Packet handle(TcpServerConnection conn, ServerSession session, SessionGetShardingRoutes packet) {
+            Schema schema = session.getDatabase().getSchema(session, packet.schemaName);
+            Table table = schema.getTableOrView(session, packet.tableName);
+            Map<String, List<PageKey>> nodeToPageKeyMap = table.getScanIndex(session).getNodeToPageKeyMap(session,
+                    null, null);
+            return new SessionGetShardingRoutesAck(nodeToPageKeyMap);
+        }
+    }
 }
@@ -10,7 +10,9 @@ import java.math.BigInteger;
 import java.nio.charset.Charset;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.exceptions.UnsupportedSchemaException;
@@ -49,6 +51,7 @@ import org.lealone.db.table.CreateTableData;
 import org.lealone.db.table.DummyTable;
 import org.lealone.db.table.RangeTable;
 import org.lealone.db.table.Table;
+import org.lealone.db.table.TableType;
 import org.lealone.db.table.TableView;
 import org.lealone.db.value.CompareMode;
 import org.lealone.db.value.DataType;
@@ -135,6 +138,7 @@ import org.lealone.sql.expression.Expression;
 import org.lealone.sql.expression.ExpressionColumn;
 import org.lealone.sql.expression.ExpressionList;
 import org.lealone.sql.expression.Operation;
+import org.lealone.sql.expression.LiteralParameter;
 import org.lealone.sql.expression.Parameter;
 import org.lealone.sql.expression.Rownum;
 import org.lealone.sql.expression.SelectOrderBy;
@@ -215,6 +219,15 @@ public class Parser implements SQLParser {
     private ArrayList<Parameter> parameters;
     private ArrayList<Parameter> indexedParameterList;
 
+    // 以下字段用于执行计划缓存，见normalize
+    private String literalSQL;
+    private int[] literalEnds; // 每个常量在sqlCommand中的结束位置
+    private ArrayList<Parameter> literalParameters;
+    private boolean parameterizeLiterals;
+    private boolean literalsSharable;
+    private ValueExpression lastLiteral;
+    private int lastLiteralEnd;
+
     public Parser(ServerSession session) {
         this.database = session.getDatabase();
         this.session = session;
@@ -261,6 +274,9 @@ public class Parser implements SQLParser {
      */
     @Override
     public StatementBase parse(String sql) {
+        if (sql != literalSQL) {
+            literalEnds = null;
+        }
         StatementBase s = null;
         try {
             try {
@@ -286,12 +302,84 @@ public class Parser implements SQLParser {
             } else if (currentTokenType != END) {
                 throw getSyntaxError();
             }
+            if (literalParameters != null && literalsSharable && !recompileAlways && (s instanceof Select
+                    || s instanceof Insert || s instanceof Update || s instanceof Delete)) {
+                s.setLiteralParameterList(literalParameters);
+            }
         } catch (DbException e) {
             throw e.addSQL(originalSQL);
         }
         return s;
     }
 
+    /**
+     * 把SQL中的常量都换成占位符，只有常量不同的SQL规范化之后是一样的，可以用来做执行计划缓存的key。
+     * 常量按出现的顺序放到literals中，不能规范化时返回null。
+     *
+     * 之后用同一个Parser解析这条SQL时，DML语句中作为比较运算的右边和INSERT VALUES中的单个常量
+     * 会变成LiteralParameter，这样的语句执行前换上新SQL中的常量就能直接执行。
+     */
+    @Override
+    public String normalize(String sql, List<Value> literals) {
+        if (sql == null || sql.indexOf('\0') >= 0) {
+            return null;
+        }
+        try {
+            initialize(sql);
+            StringBuilder buff = new StringBuilder(sql.length());
+            int[] ends = new int[8];
+            int count = 0;
+            read();
+            while (currentTokenType != END) {
+                if (currentTokenType == VALUE) {
+                    // 常量的类型不同时优化的结果可能不同，所以类型也放到key中
+                    buff.append('\0').append(currentValue.getType()).append('\0');
+                    if (count == ends.length) {
+                        ends = Arrays.copyOf(ends, count * 2);
+                    }
+                    ends[count++] = parseIndex;
+                    literals.add(currentValue);
+                } else {
+                    buff.append(sqlCommand, lastParseIndex, parseIndex);
+                }
+                read();
+            }
+            literalSQL = sql;
+            literalEnds = Arrays.copyOf(ends, count);
+            return buff.toString();
+        } catch (DbException e) {
+            literals.clear();
+            return null;
+        }
+    }
+
+    // 单独出现的常量换成LiteralParameter，同一个常量被多次读取时(比如回溯)用的是同一个参数
+    private Expression parameterizeLiteral(Expression e) {
+        if (!parameterizeLiterals || e == null || e != lastLiteral) {
+            return e;
+        }
+        lastLiteral = null;
+        int index = Arrays.binarySearch(literalEnds, lastLiteralEnd);
+        if (index < 0) {
+            return e;
+        }
+        Parameter p = literalParameters.get(index);
+        if (p == null) {
+            p = new LiteralParameter(index, e.getValue(session));
+            literalParameters.set(index, p);
+        }
+        return p;
+    }
+
+    private void checkSharable(Table table) {
+        // 视图、函数表这类表跟创建它们的session有关，执行计划不能给其他session用，
+        // 本地临时表也是标准表，但只属于创建它的session
+        if (table.getTableType() != TableType.STANDARD_TABLE
+                || (table.isTemporary() && !table.isGlobalTemporary())) {
+            literalsSharable = false;
+        }
+    }
+
     private StatementBase parse(String sql, boolean withExpectedList) {
         initialize(sql);
         if (withExpectedList) {
@@ -305,6 +393,17 @@ public class Parser implements SQLParser {
         createView = null;
         recompileAlways = false;
         indexedParameterList = null;
+        parameterizeLiterals = false;
+        lastLiteral = null;
+        if (literalEnds != null) {
+            literalParameters = new ArrayList<>(literalEnds.length);
+            for (int i = 0; i < literalEnds.length; i++) {
+                literalParameters.add(null);
+            }
+            literalsSharable = true;
+        } else {
+            literalParameters = null;
+        }
         read();
         return parseStatement();
     }
@@ -313,6 +412,9 @@ public class Parser implements SQLParser {
         int start = lastParseIndex;
         StatementBase s = null;
         String token = currentToken;
+        // 只有DML语句中的常量才会换成参数
+        parameterizeLiterals = literalEnds != null && (equalsToken("SELECT", token) || equalsToken("INSERT", token)
+                || equalsToken("UPDATE", token) || equalsToken("DELETE", token));
         if (token.isEmpty()) {
             s = new NoOperation(session);
         } else {
@@ -742,7 +844,7 @@ public class Parser implements SQLParser {
                 if (readIf("DEFAULT")) {
                     expression = ValueExpression.getDefault();
                 } else {
-                    expression = readExpression();
+                    expression = parameterizeLiteral(readExpression());
                 }
                 command.setAssignment(column, expression);
             } while (readIf(","));
@@ -776,6 +878,7 @@ public class Parser implements SQLParser {
                 alias = readAliasIdentifier();
             }
         }
+        checkSharable(table);
         return new TableFilter(session, table, alias, rightsChecked, currentSelect);
     }
 
@@ -1047,7 +1150,7 @@ public class Parser implements SQLParser {
                         if (readIf("DEFAULT")) {
                             values.add(null);
                         } else {
-                            values.add(readExpression());
+                            values.add(parameterizeLiteral(readExpression()));
                         }
                     } while (readIfMore());
                 }
@@ -1067,7 +1170,7 @@ public class Parser implements SQLParser {
                 if (readIf("DEFAULT")) {
                     expression = ValueExpression.getDefault();
                 } else {
-                    expression = readExpression();
+                    expression = parameterizeLiteral(readExpression());
                 }
                 values.add(expression);
             } while (readIf(","));
@@ -1727,6 +1830,7 @@ public class Parser implements SQLParser {
             }
         }
         alias = readFromAlias(alias);
+        checkSharable(table);
         return new TableFilter(session, table, alias, rightsChecked, currentSelect);
     }
 
@@ -2022,9 +2126,9 @@ public class Parser implements SQLParser {
                     read(")");
                 }
             } else if (readIf("BETWEEN")) {
-                Expression low = readConcat();
+                Expression low = parameterizeLiteral(readConcat());
                 read("AND");
-                Expression high = readConcat();
+                Expression high = parameterizeLiteral(readConcat());
                 Expression condLow = new Comparison(session, Comparison.SMALLER_EQUAL, low, r);
                 Expression condHigh = new Comparison(session, Comparison.BIGGER_EQUAL, high, r);
                 r = new ConditionAndOr(ConditionAndOr.AND, condLow, condHigh);
@@ -2045,7 +2149,7 @@ public class Parser implements SQLParser {
                     r = new ConditionInSelect(database, r, query, false, compareType);
                     read(")");
                 } else {
-                    Expression right = readConcat();
+                    Expression right = parameterizeLiteral(readConcat());
                     if (SysProperties.OLD_STYLE_OUTER_JOIN && readIf("(") && readIf("+") && readIf(")")) {
                         // support for a subset of old-fashioned Oracle outer
                         // join with (+)
@@ -2734,6 +2838,10 @@ public class Parser implements SQLParser {
             break;
         case VALUE:
             r = ValueExpression.get(currentValue);
+            if (parameterizeLiterals && currentValue != ValueNull.INSTANCE) {
+                lastLiteral = (ValueExpression) r;
+                lastLiteralEnd = parseIndex;
+            }
             read();
             break;
         default:
@@ -24,13 +24,21 @@ import org.lealone.db.api.ErrorCode;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
 import org.lealone.db.async.Future;
+import org.lealone.db.index.Index;
+import org.lealone.db.index.standard.StandardDelegateIndex;
+import org.lealone.db.index.standard.StandardPrimaryIndex;
 import org.lealone.db.result.Result;
 import org.lealone.db.session.ServerSession;
+import org.lealone.db.session.Session;
 import org.lealone.db.session.SessionStatus;
+import org.lealone.db.table.Table;
 import org.lealone.db.value.Value;
 import org.lealone.server.protocol.replication.ReplicationUpdateAck;
 import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.LiteralParameter;
 import org.lealone.sql.expression.Parameter;
+import org.lealone.sql.expression.condition.Comparison;
+import org.lealone.sql.optimizer.IndexCondition;
 import org.lealone.sql.optimizer.TableFilter;
 import org.lealone.sql.router.SQLRouter;
 import org.lealone.storage.PageKey;
@@ -71,6 +79,11 @@ public abstract class StatementBase implements PreparedSQLStatement, ParsedSQLSt
      */
     protected boolean prepareAlways;
 
+    /**
+     * SQL中的常量换成的参数，只有能放到执行计划缓存中的语句才有。
+     */
+    protected ArrayList<Parameter> literalParameters;
+
     private long modificationMetaId;
     private int objectId;
     private int currentRowNumber;
@@ -190,6 +203,21 @@ public abstract class StatementBase implements PreparedSQLStatement, ParsedSQLSt
         return parameters;
     }
 
+    public void setLiteralParameterList(ArrayList<Parameter> literalParameters) {
+        this.literalParameters = literalParameters;
+    }
+
+    @Override
+    public ArrayList<Parameter> getLiteralParameters() {
+        return literalParameters;
+    }
+
+    @Override
+    public void rebind(Session session, String sql) {
+        setSession((ServerSession) session);
+        this.sql = sql;
+    }
+
     /**
      * Check if all parameters have been set.
      *
@@ -620,6 +648,50 @@ public abstract class StatementBase implements PreparedSQLStatement, ParsedSQLSt
         return null;
     }
 
+    @Override
+    public ShardingKey getShardingKey() {
+        TableFilter tf = getTableFilter();
+        if (tf == null || tf.getJoin() != null || !(tf.getIndex() instanceof StandardDelegateIndex))
+            return null;
+        Table table = tf.getTable();
+        int mainIndexColumn = getMainIndexColumn(table);
+        if (mainIndexColumn < 0)
+            return null;
+        int start = -1;
+        int end = -1;
+        for (IndexCondition c : tf.getIndexConditions()) {
+            if (c.getColumn() == null || c.getColumn().getColumnId() != mainIndexColumn
+                    || !(c.getExpression() instanceof Parameter)
+                    || c.getExpression() instanceof LiteralParameter)
+                continue;
+            int index = ((Parameter) c.getExpression()).getIndex();
+            switch (c.getCompareType()) {
+            case Comparison.EQUAL:
+                start = end = index;
+                break;
+            case Comparison.BIGGER_EQUAL:
+            case Comparison.BIGGER:
+                start = index;
+                break;
+            case Comparison.SMALLER_EQUAL:
+            case Comparison.SMALLER:
+                end = index;
+                break;
+            }
+        }
+        if (start < 0 || end < 0)
+            return null;
+        return new ShardingKey(table.getSchema().getName(), table.getName(), start, end);
+    }
+
+    // 主键只有一个整数字段时，主键值就是StandardPrimaryIndex中的key，返回这个字段的下标，否则返回-1
+    protected int getMainIndexColumn(Table table) {
+        Index index = table.getScanIndex(session);
+        if (index instanceof StandardPrimaryIndex)
+            return ((StandardPrimaryIndex) index).getMainIndexColumn();
+        return -1;
+    }
+
     public String getPlanSQL(boolean isDistributed) {
         return getSQL();
     }
@@ -24,7 +24,9 @@ import org.lealone.db.table.Table;
 import org.lealone.db.value.Value;
 import org.lealone.sql.PreparedSQLStatement;
 import org.lealone.sql.SQLStatement;
+import org.lealone.sql.ShardingKey;
 import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.LiteralParameter;
 import org.lealone.sql.expression.Parameter;
 
 /**
@@ -57,6 +59,27 @@ public class Insert extends ManipulationStatement {
         return true;
     }
 
+    @Override
+    public ShardingKey getShardingKey() {
+        // 只有插入一行记录并且主键值是参数时才能确定数据所在的节点
+        if (query != null || list.size() != 1)
+            return null;
+        int mainIndexColumn = getMainIndexColumn(table);
+        if (mainIndexColumn < 0)
+            return null;
+        Expression[] expr = list.get(0);
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].getColumnId() == mainIndexColumn) {
+                if (expr[i] instanceof Parameter && !(expr[i] instanceof LiteralParameter)) {
+                    int index = ((Parameter) expr[i]).getIndex();
+                    return new ShardingKey(table.getSchema().getName(), table.getName(), index, index);
+                }
+                break;
+            }
+        }
+        return null;
+    }
+
     public void setTable(Table table) {
         this.table = table;
     }
@@ -84,6 +107,13 @@ public class Insert extends ManipulationStatement {
             query.setLocal(local);
     }
 
+    @Override
+    public void setSession(ServerSession currentSession) {
+        super.setSession(currentSession);
+        if (query != null)
+            query.setSession(currentSession);
+    }
+
     @Override
     public PreparedSQLStatement prepare() {
         if (columns == null) {
@@ -33,6 +33,7 @@ import org.lealone.db.result.Result;
 import org.lealone.db.result.ResultTarget;
 import org.lealone.db.result.SearchRow;
 import org.lealone.db.result.SortOrder;
+import org.lealone.db.result.StreamingResult;
 import org.lealone.db.session.ServerSession;
 import org.lealone.db.table.Column;
 import org.lealone.db.table.Table;
@@ -106,6 +107,22 @@ public class Select extends Query {
         return !isForUpdate;
     }
 
+    @Override
+    public void setSession(ServerSession currentSession) {
+        // 缓存的结果是按原来的session的事务读到的，换了session就不能再用了
+        if (session != currentSession)
+            resultCache.clear();
+        super.setSession(currentSession);
+    }
+
+    @Override
+    public void close() {
+        // 关闭后语句可能会留在查询缓存和执行计划缓存中，不能让hash表一直占用内存
+        if (topTableFilter != null)
+            topTableFilter.releaseHashJoins();
+        super.close();
+    }
+
     public void setExpressions(ArrayList<Expression> expressions) {
         this.expressions = expressions;
     }
@@ -1338,6 +1355,24 @@ public class Select extends Query {
             return new YieldableSelect(this, maxRows, scrollable, asyncHandler, target);
     }
 
+    @Override
+    public YieldableBase<Result> createYieldableStreamingQuery(int maxRows, int fetchSize,
+            AsyncHandler<AsyncResult<Result>> asyncHandler) {
+        if (maxRows != 0 || fetchSize <= 0 || !isStreamable())
+            return null;
+        StreamingResult result = new StreamingResult(createLocalResult(null), fetchSize);
+        return new YieldableStreamingSelect(this, result, asyncHandler);
+    }
+
+    // 只有不需要先收集所有记录(排序、去重、分组、limit等)的查询才能边执行边发送记录
+    private boolean isStreamable() {
+        if (!isLocal() && getSession().isShardingMode())
+            return false;
+        return !isQuickAggregateQuery && !isGroupQuery && !distinct && (sort == null || sortUsingIndex)
+                && !randomAccessResult && limitExpr == null && offsetExpr == null && !isForUpdate
+                && session.getDatabase().getSettings().optimizeInsertFromSelect;
+    }
+
     private class YieldableSelect extends YieldableQueryBase {
 
         private final Select statement;
@@ -1390,6 +1425,81 @@ public class Select extends Query {
         }
     }
 
+    private class YieldableStreamingSelect extends YieldableQueryBase {
+
+        private final Select statement;
+        private final StreamingResult streamingResult;
+
+        public YieldableStreamingSelect(Select statement, StreamingResult streamingResult,
+                AsyncHandler<AsyncResult<Result>> asyncHandler) {
+            super(statement, 0, false, asyncHandler);
+            this.statement = statement;
+            this.streamingResult = streamingResult;
+        }
+
+        @Override
+        protected boolean startInternal() {
+            fireBeforeSelectTriggers();
+            // 不使用ResultCache，记录发给客户端后就不在服务器端保留了
+            queryWithoutCache(0, streamingResult, true);
+            return false;
+        }
+
+        @Override
+        protected void stopInternal() {
+            statement.queryOperator.stop();
+        }
+
+        @Override
+        protected boolean executeInternal() {
+            // 客户端关闭结果集后就不用再执行了
+            if (!streamingResult.isClosed())
+                statement.queryOperator.run();
+            if (streamingResult.isClosed() || statement.queryOperator.loopEnd) {
+                streamingResult.setEnd();
+                setResult(streamingResult, streamingResult.getRowCount());
+                if (streamingResult.isSent()) {
+                    streamingResult.flush();
+                    // 已经给客户端发过查询结果了，语句结束时不需要再回调
+                    asyncResult = null;
+                }
+                return false;
+            }
+            if (!streamingResult.isSent()) {
+                if (streamingResult.isFirstBatchReady()) {
+                    streamingResult.setSent();
+                    asyncHandler.handle(new AsyncResult<>(streamingResult));
+                }
+            } else {
+                streamingResult.flush();
+            }
+            return true;
+        }
+
+        @Override
+        protected void handleException(DbException e) {
+            if (!streamingResult.isSent()) {
+                super.handleException(e);
+                return;
+            }
+            // 已经给客户端发过一部分记录了，异常在客户端下次取记录时返回
+            callStop = false;
+            streamingResult.setError(e.addSQL(statement.getSQL()));
+            streamingResult.flush();
+            stop();
+        }
+
+        @Override
+        public boolean isPaused() {
+            return streamingResult.isPaused();
+        }
+
+        @Override
+        public void resume() {
+            streamingResult.setUnbounded();
+        }
+    }
+
     private class ResultCache {
         private boolean noCache, useCache;
         private int lastLimit;
@@ -1403,6 +1513,14 @@ public class Select extends Query {
             if (list == null) {
                 list = new ArrayList<>();
             }
+            // 常量换成的参数的值也会变
+            if (literalParameters != null) {
+                list = new ArrayList<>(list);
+                for (Parameter p : literalParameters) {
+                    if (p != null)
+                        list.add(p);
+                }
+            }
             int size = list.size();
             Value[] params = new Value[size];
             for (int i = 0; i < size; i++) {
@@ -1418,6 +1536,12 @@ public class Select extends Query {
             }
         }
 
+        // 结果集可能还在被之前的session读取，所以只丢掉引用，不关闭
+        private void clear() {
+            lastResult = null;
+            lastParameters = null;
+        }
+
         private LocalResult getResult(int limit, ResultTarget target, boolean async) {
             if (noCache || !session.getDatabase().getOptimizeReuseResults()) {
                 useCache = false;
@@ -1516,6 +1640,8 @@ public class Select extends Query {
         }
 
         void stop() {
+            // 查询可能没有读完内表就结束了，hash表不能一直留到下次执行
+            topTableFilter.releaseHashJoins();
             if (offsetExpr != null) {
                 localResult.setOffset(offsetExpr.getValue(session).getInt());
             }
@@ -1550,9 +1676,10 @@ public class Select extends Query {
                         Expression expr = expressions.get(i);
                         row[i] = expr.getValue(session);
                     }
-                    result.addRow(row);
+                    // 结果集的缓冲区满了时也要让出执行权
+                    boolean yield = result.addRow(row);
                     rowNumber++;
-                    if (async && yieldIfNeeded)
+                    if (async && (yieldIfNeeded || yield))
                         return;
                     if ((sort == null || sortUsingIndex) && limitRows > 0 && result.getRowCount() >= limitRows) {
                         break;
@@ -24,9 +24,12 @@ import org.lealone.db.session.ServerSession;
 import org.lealone.db.table.Column;
 import org.lealone.db.table.Table;
 import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
 import org.lealone.sql.PreparedSQLStatement;
 import org.lealone.sql.SQLStatement;
 import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.ExpressionColumn;
+import org.lealone.sql.expression.Operation;
 import org.lealone.sql.expression.Parameter;
 import org.lealone.sql.expression.ValueExpression;
 import org.lealone.sql.optimizer.PlanItem;
@@ -50,6 +53,8 @@ public class Update extends ManipulationStatement {
 
     private final ArrayList<Column> columns = Utils.newSmallArrayList();
     private final HashMap<Column, Expression> expressionMap = new HashMap<>();
+    // 所有被更新的列都是col = col + x或col = col - x的形式，并且表允许这些列做可交换的增量更新
+    private boolean commutative;
 
     public Update(ServerSession session) {
         super(session);
@@ -110,12 +115,17 @@ public class Update extends ManipulationStatement {
             condition.createIndexConditions(session, tableFilter);
             condition.getColumns(columnSet);
         }
+        // where条件中用到的列要基于读到的值判断，所以不能做增量更新
+        commutative = size > 0;
         for (int i = 0; i < size; i++) {
             Column c = columns.get(i);
             Expression e = expressionMap.get(c);
             e.mapColumns(tableFilter, 0);
-            expressionMap.put(c, e.optimize(session));
+            e = e.optimize(session);
+            expressionMap.put(c, e);
 
+            if (commutative && (columnSet.contains(c) || !isIncrement(c, e)))
+                commutative = false;
             columnSet.add(c);
             e.getColumns(columnSet); // 例如f1=f2*2;
         }
@@ -127,6 +137,32 @@ public class Update extends ManipulationStatement {
         return this;
     }
 
+    // 判断是否是col = col + x、col = x + col或col = col - x的形式，并且x不依赖当前行的任何列
+    private boolean isIncrement(Column c, Expression e) {
+        if (!(e instanceof Operation) || !tableFilter.getTable().isCommutativeColumn(c))
+            return false;
+        Operation op = (Operation) e;
+        int opType = op.getOperationType();
+        if (opType != Operation.PLUS && opType != Operation.MINUS)
+            return false;
+        Expression left = op.getExpression(true);
+        Expression right = op.getExpression(false);
+        Expression delta;
+        if (isColumn(left, c))
+            delta = right;
+        else if (opType == Operation.PLUS && isColumn(right, c))
+            delta = left;
+        else
+            return false;
+        HashSet<Column> deltaColumns = new HashSet<>();
+        delta.getColumns(deltaColumns);
+        return deltaColumns.isEmpty();
+    }
+
+    private static boolean isColumn(Expression e, Column c) {
+        return e instanceof ExpressionColumn && ((ExpressionColumn) e).getColumn() == c;
+    }
+
     @Override
     public int update() {
         // 以同步的方式运行
@@ -243,6 +279,9 @@ public class Update extends ManipulationStatement {
                         newRow.setValue(i, newValue);
                     }
                     table.validateConvertUpdateSequence(session, newRow);
+                    // 触发器要基于最新的值，所以不能做增量更新
+                    if (statement.commutative && !table.hasTriggers())
+                        newRow.setDeltas(getDeltas(oldRow, newRow));
                     boolean done = false;
                     if (table.fireRow()) {
                         done = table.fireBeforeRow(session, oldRow, newRow);
@@ -279,5 +318,20 @@ public class Update extends ManipulationStatement {
             loopEnd = true;
             return false;
         }
+
+        // 增量就是新值减去读到的值，有NULL时不能做增量更新
+        private Value[] getDeltas(Row oldRow, Row newRow) {
+            int size = statement.columns.size();
+            Value[] deltas = new Value[size];
+            for (int i = 0; i < size; i++) {
+                int columnId = statement.columns.get(i).getColumnId();
+                Value oldValue = oldRow.getValue(columnId);
+                Value newValue = newRow.getValue(columnId);
+                if (oldValue == ValueNull.INSTANCE || newValue == ValueNull.INSTANCE)
+                    return null;
+                deltas[i] = newValue.subtract(oldValue);
+            }
+            return deltas;
+        }
     }
 }
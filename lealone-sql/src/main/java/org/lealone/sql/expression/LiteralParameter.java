@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression;
+
+import org.lealone.db.value.Value;
+
+/**
+ * 执行计划缓存把SQL中的常量换成的参数，值在解析时就设置好了，客户端看不到这种参数。
+ * 只有常量不同的SQL可以共用同一个执行计划，执行前换成新SQL中的常量即可。
+ */
+public class LiteralParameter extends Parameter {
+
+    public LiteralParameter(int index, Value value) {
+        super(index);
+        setValue(value);
+    }
+
+    @Override
+    public String getSQL(boolean isDistributed) {
+        return getValue().getSQL();
+    }
+}
@@ -324,6 +324,14 @@ public class Operation extends Expression {
         return this;
     }
 
+    public int getOperationType() {
+        return opType;
+    }
+
+    public Expression getExpression(boolean getLeft) {
+        return getLeft ? left : right;
+    }
+
     private void swap() {
         Expression temp = left;
         left = right;
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.lealone.db.index.Cursor;
+import org.lealone.db.result.Row;
+import org.lealone.db.result.SearchRow;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.table.Column;
+import org.lealone.db.value.CompareMode;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueArray;
+import org.lealone.db.value.ValueNull;
+import org.lealone.sql.dml.Select;
+import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.ExpressionColumn;
+import org.lealone.sql.expression.condition.Comparison;
+import org.lealone.storage.IterationParameters;
+
+/**
+ * 内表的等值连接字段上没有可用的索引时，用hash表代替嵌套循环中对内表的全表扫描。
+ *
+ * 第一次查找时扫描一遍内表，按连接字段的值把记录放到hash表中，之后外表的每条记录只需查一次hash表。
+ * 连接条件仍然会由TableFilter再检查一次，所以外连接和只要找到一条记录的查询都不用特殊处理。
+ * 内表的记录数超过MAX_MEMORY_ROWS时放弃hash表，这次查询退回到原来的嵌套循环。
+ */
+class HashJoin {
+
+    private final TableFilter tableFilter;
+    private final IndexCondition[] conditions;
+
+    private HashMap<Value, ArrayList<Row>> rows;
+    private boolean overflow;
+    private ArrayList<Row> currentRows;
+    private int currentIndex;
+
+    HashJoin(TableFilter tableFilter, ArrayList<IndexCondition> conditions) {
+        this.tableFilter = tableFilter;
+        this.conditions = conditions.toArray(new IndexCondition[conditions.size()]);
+    }
+
+    /**
+     * 检查等值条件能否用于hash join，只支持同一个查询中另一个表的字段，
+     * 并且两边的类型必须一样，用equals比较的结果和SQL的比较结果一致
+     */
+    static boolean canUse(TableFilter filter, IndexCondition condition) {
+        if (condition.getCompareType() != Comparison.EQUAL) {
+            return false;
+        }
+        Column column = condition.getColumn();
+        if (column.getColumnId() < 0) {
+            return false;
+        }
+        Expression e = condition.getExpression();
+        if (!(e instanceof ExpressionColumn)) {
+            return false;
+        }
+        TableFilter f = ((ExpressionColumn) e).getTableFilter();
+        if (f == null || f == filter || f.getSelect() != filter.getSelect() || e.getType() != column.getType()) {
+            return false;
+        }
+        switch (column.getType()) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.UUID:
+            return true;
+        case Value.STRING:
+            // 使用了collation时不同的字符串也可能相等
+            String name = filter.getSession().getDatabase().getCompareMode().getName();
+            return name == null || CompareMode.OFF.equals(name);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * 每次执行查询前调用，也用来释放hash表占用的内存
+     */
+    void reset() {
+        rows = null;
+        overflow = false;
+        currentRows = null;
+    }
+
+    /**
+     * 按外表当前记录的值查找内表的记录
+     *
+     * @return false表示内表太大没有建hash表，需要按原来的方式查找
+     */
+    boolean find(ServerSession session) {
+        if (overflow) {
+            return false;
+        }
+        if (rows == null && !build(session)) {
+            return false;
+        }
+        Value key = getKey(session);
+        currentRows = key == null ? null : rows.get(key);
+        currentIndex = 0;
+        return true;
+    }
+
+    Row next() {
+        if (currentRows == null || currentIndex >= currentRows.size()) {
+            return null;
+        }
+        return currentRows.get(currentIndex++);
+    }
+
+    private boolean build(ServerSession session) {
+        int maxMemoryRows = session.getDatabase().getMaxMemoryRows();
+        Select select = tableFilter.getSelect();
+        int[] columnIndexes;
+        if (select != null) {
+            columnIndexes = tableFilter.createColumnIndexes(select.getReferencedColumns());
+        } else {
+            columnIndexes = tableFilter.getColumnIndexes();
+        }
+        IterationParameters<SearchRow> parameters = IterationParameters.create(null, null,
+                tableFilter.getPageKeys(), columnIndexes);
+        Cursor cursor = tableFilter.getTable().getScanIndex(session).find(session, parameters);
+        HashMap<Value, ArrayList<Row>> map = new HashMap<>();
+        int count = 0;
+        while (cursor.next()) {
+            if (++count > maxMemoryRows) {
+                overflow = true;
+                return false;
+            }
+            if ((count & 4095) == 0) {
+                session.checkCanceled();
+            }
+            Row row = cursor.get(columnIndexes);
+            Value key = getKey(row);
+            if (key != null) {
+                ArrayList<Row> list = map.get(key);
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    map.put(key, list);
+                }
+                list.add(row);
+            }
+        }
+        rows = map;
+        return true;
+    }
+
+    // 任何一个字段是NULL时等值条件都不成立，返回null
+    private Value getKey(Row row) {
+        if (conditions.length == 1) {
+            Value v = row.getValue(conditions[0].getColumn().getColumnId());
+            return v == null || v == ValueNull.INSTANCE ? null : v;
+        }
+        Value[] values = new Value[conditions.length];
+        for (int i = 0; i < conditions.length; i++) {
+            Value v = row.getValue(conditions[i].getColumn().getColumnId());
+            if (v == null || v == ValueNull.INSTANCE) {
+                return null;
+            }
+            values[i] = v;
+        }
+        return ValueArray.get(values);
+    }
+
+    private Value getKey(ServerSession session) {
+        if (conditions.length == 1) {
+            Value v = conditions[0].getCurrentValue(session);
+            return v == ValueNull.INSTANCE ? null : v;
+        }
+        Value[] values = new Value[conditions.length];
+        for (int i = 0; i < conditions.length; i++) {
+            Value v = conditions[i].getCurrentValue(session);
+            if (v == ValueNull.INSTANCE) {
+                return null;
+            }
+            values[i] = v;
+        }
+        return ValueArray.get(values);
+    }
+
+    String getPlanSQL() {
+        StringBuilder buff = new StringBuilder("hash join ");
+        for (int i = 0; i < conditions.length; i++) {
+            if (i > 0) {
+                buff.append(" AND ");
+            }
+            buff.append(conditions[i].getSQL());
+        }
+        return buff.toString();
+    }
+}
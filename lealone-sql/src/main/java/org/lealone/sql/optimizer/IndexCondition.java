@@ -281,6 +281,10 @@ public class IndexCondition {
         return compareType;
     }
 
+    public Expression getExpression() {
+        return expression;
+    }
+
     /**
      * Get the referenced column.
      *
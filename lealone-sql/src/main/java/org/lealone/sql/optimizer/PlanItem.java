@@ -6,6 +6,8 @@
  */
 package org.lealone.sql.optimizer;
 
+import java.util.ArrayList;
+
 import org.lealone.db.index.Index;
 
 /**
@@ -23,6 +25,10 @@ public class PlanItem {
     private PlanItem joinPlan;
     private PlanItem nestedJoinPlan;
 
+    // 用hash join时的等值连接条件，以及建hash表的代价(只算一次，不随外表的记录数增加)
+    private ArrayList<IndexCondition> hashJoinConditions;
+    private double hashJoinBuildCost;
+
     void setIndex(Index index) {
         this.index = index;
     }
@@ -47,6 +53,19 @@ public class PlanItem {
         this.nestedJoinPlan = nestedJoinPlan;
     }
 
+    ArrayList<IndexCondition> getHashJoinConditions() {
+        return hashJoinConditions;
+    }
+
+    void setHashJoin(ArrayList<IndexCondition> conditions, double buildCost) {
+        this.hashJoinConditions = conditions;
+        this.hashJoinBuildCost = buildCost;
+    }
+
+    double getHashJoinBuildCost() {
+        return hashJoinBuildCost;
+    }
+
     public double getCost() {
         return cost;
     }
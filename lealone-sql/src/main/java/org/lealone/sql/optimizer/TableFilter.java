@@ -27,6 +27,7 @@ import org.lealone.db.session.ServerSession;
 import org.lealone.db.session.Session;
 import org.lealone.db.table.Column;
 import org.lealone.db.table.Table;
+import org.lealone.db.table.TableType;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueLong;
 import org.lealone.db.value.ValueNull;
@@ -112,6 +113,9 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
 
     private int[] columnIndexes;
 
+    private HashJoin hashJoin;
+    private boolean useHashJoin; // 当前这次查找是否用的是hash表
+
     /**
      * Create a new table filter object.
      *
@@ -196,6 +200,9 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             // x (x.a=10); y (x.b=y.b) - see issue 113
             item.cost -= item.cost * indexConditions.size() / 100 / level;
         }
+        if (nestedJoin == null) {
+            item = getHashJoinPlanItem(s, item);
+        }
         if (nestedJoin != null) {
             setEvaluatable(nestedJoin);
             item.setNestedJoinPlan(nestedJoin.getBestPlanItem(s, level));
@@ -213,6 +220,41 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
         return item;
     }
 
+    // 只能全表扫描的内表如果有等值连接条件，看看用hash join是否更快
+    private PlanItem getHashJoinPlanItem(ServerSession s, PlanItem item) {
+        if (!item.getIndex().getIndexType().isScan() || table.getTableType() != TableType.STANDARD_TABLE) {
+            return item;
+        }
+        ArrayList<IndexCondition> conditions = null;
+        int selectivity = 0;
+        for (IndexCondition condition : indexConditions) {
+            if (condition.isEvaluatable() && HashJoin.canUse(this, condition)) {
+                if (conditions == null) {
+                    conditions = new ArrayList<>();
+                }
+                conditions.add(condition);
+                selectivity = Math.max(selectivity, condition.getColumn().getSelectivity());
+            }
+        }
+        if (conditions == null) {
+            return item;
+        }
+        long rowCount = table.getRowCountApproximation();
+        if (rowCount > s.getDatabase().getMaxMemoryRows()) {
+            return item;
+        }
+        // 每次查hash表的代价只跟每个值平均有多少条记录有关
+        double cost = 1 + 100.0 / selectivity;
+        if (cost >= item.cost) {
+            return item;
+        }
+        PlanItem hashItem = new PlanItem();
+        hashItem.setIndex(item.getIndex());
+        hashItem.cost = cost;
+        hashItem.setHashJoin(conditions, item.cost + rowCount);
+        return hashItem;
+    }
+
     private void setEvaluatable(TableFilter join) {
         if (session.getDatabase().getSettings().nestedJoins) {
             setEvaluatable(true);
@@ -244,6 +286,8 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             return;
         }
         setIndex(item.getIndex());
+        ArrayList<IndexCondition> conditions = item.getHashJoinConditions();
+        hashJoin = conditions == null ? null : new HashJoin(this, conditions);
         if (nestedJoin != null) {
             if (item.getNestedJoinPlan() != null) {
                 nestedJoin.setPlanItem(item.getNestedJoinPlan());
@@ -303,6 +347,9 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
     public void startQuery(ServerSession s) {
         this.session = s;
         scanCount = 0;
+        if (hashJoin != null) {
+            hashJoin.reset();
+        }
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -334,8 +381,11 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
         if (state == AFTER_LAST) {
             return false;
         } else if (state == BEFORE_FIRST) {
-            cursor.find(session, indexConditions);
-            if (!cursor.isAlwaysFalse()) {
+            useHashJoin = hashJoin != null && hashJoin.find(session);
+            if (!useHashJoin) {
+                cursor.find(session, indexConditions);
+            }
+            if (!isAlwaysFalse()) {
                 if (nestedJoin != null) {
                     nestedJoin.reset();
                 }
@@ -355,7 +405,7 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             if (state == NULL_ROW) {
                 break;
             }
-            if (cursor.isAlwaysFalse()) {
+            if (isAlwaysFalse()) {
                 state = AFTER_LAST;
             } else if (nestedJoin != null) {
                 if (state == BEFORE_FIRST) {
@@ -365,7 +415,16 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
                 if ((++scanCount & 4095) == 0) {
                     checkTimeout();
                 }
-                if (cursor.next()) {
+                if (useHashJoin) {
+                    Row row = hashJoin.next();
+                    if (row != null) {
+                        currentSearchRow = row;
+                        current = row;
+                        state = FOUND;
+                    } else {
+                        state = AFTER_LAST;
+                    }
+                } else if (cursor.next()) {
                     currentSearchRow = cursor.getSearchRow();
                     current = null;
                     state = FOUND;
@@ -414,9 +473,32 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             }
         }
         state = AFTER_LAST;
+        if (select != null && select.getTopTableFilter() == this) {
+            // 整个查询结束了，释放hash表占用的内存
+            releaseHashJoins();
+        }
         return false;
     }
 
+    /**
+     * 释放当前表和所有连接的表的hash表占用的内存，
+     * 查询没有读完就结束时(比如有LIMIT、EXISTS子查询、客户端关闭了结果集)也要调用
+     */
+    public void releaseHashJoins() {
+        visit(new TableFilterVisitor() {
+            @Override
+            public void accept(TableFilter f) {
+                if (f.hashJoin != null) {
+                    f.hashJoin.reset();
+                }
+            }
+        });
+    }
+
+    private boolean isAlwaysFalse() {
+        return !useHashJoin && cursor.isAlwaysFalse();
+    }
+
     /**
      * Set the state of this and all nested tables to the NULL row.
      */
@@ -494,6 +576,10 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
         indexConditions.add(condition);
     }
 
+    public ArrayList<IndexCondition> getIndexConditions() {
+        return indexConditions;
+    }
+
     /**
      * Add a filter condition.
      *
@@ -688,7 +774,9 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             buff.append('\n');
             StatementBuilder planBuff = new StatementBuilder();
             planBuff.append(index.getPlanSQL());
-            if (indexConditions.size() > 0) {
+            if (hashJoin != null) {
+                planBuff.append(": ").append(hashJoin.getPlanSQL());
+            } else if (indexConditions.size() > 0) {
                 planBuff.append(": ");
                 for (IndexCondition condition : indexConditions) {
                     planBuff.appendExceptFirst("\n    AND ");
@@ -25,6 +25,8 @@ import org.lealone.test.TestBase;
 import org.lealone.transaction.Transaction;
 import org.lealone.transaction.TransactionEngine;
 import org.lealone.transaction.TransactionMap;
+import org.lealone.transaction.aote.AMTransaction;
+import org.lealone.transaction.aote.AMTransactionEngine;
 import org.lealone.transaction.aote.TransactionalValue;
 
 public class AMTransactionTest extends TestBase {
@@ -70,4 +72,48 @@ public class AMTransactionTest extends TestBase {
             te.close();
         }
     }
+
+    @Test
+    public void testReadOnlyTransaction() {
+        AMTransactionEngine te = new AMTransactionEngine();
+        te.init(AMTransactionEngineTest.getDefaultConfig());
+        Storage storage = AMTransactionEngineTest.getStorage();
+        String mapName = AMTransactionTest.class.getSimpleName() + "_readOnly";
+        try {
+            Transaction t = te.beginTransaction(false);
+            TransactionMap<String, String> map = t.openMap(mapName, storage);
+            map.clear();
+            map.put("1", "a");
+            t.commit();
+
+            // 写事务还没提交时，只读事务看不到它的修改
+            Transaction t1 = te.beginTransaction(false);
+            map = t1.openMap(mapName, storage);
+            map.put("2", "b");
+
+            AMTransaction t2 = (AMTransaction) te.beginReadOnlyTransaction(true, null);
+            assertTrue(t2.isReadOnly());
+            assertNull(t2.getUndoLog());
+            assertEquals(0, t2.getSavepointId());
+            TransactionMap<String, String> map2 = t2.openMap(mapName, storage);
+            assertEquals("a", map2.get("1"));
+            assertNull(map2.get("2"));
+            t1.commit();
+            assertEquals("b", map2.get("2"));
+            t2.commit();
+            assertTrue(t2.isCommitted());
+
+            // 只读事务有写操作时升级为普通事务
+            AMTransaction t3 = (AMTransaction) te.beginReadOnlyTransaction(true, null);
+            map = t3.openMap(mapName, storage);
+            map.put("3", "c");
+            assertFalse(t3.isReadOnly());
+            assertNotNull(t3.getUndoLog());
+            t3.commit();
+            TransactionalValue tv = (TransactionalValue) map.getTransactionalValue("3");
+            assertTrue(tv.isCommitted());
+        } finally {
+            te.close();
+        }
+    }
 }
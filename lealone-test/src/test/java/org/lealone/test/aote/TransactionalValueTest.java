@@ -32,6 +32,7 @@ import org.lealone.test.TestBase;
 import org.lealone.transaction.Transaction;
 import org.lealone.transaction.TransactionEngine;
 import org.lealone.transaction.TransactionMap;
+import org.lealone.transaction.aote.AMTransactionEngine;
 import org.lealone.transaction.aote.TransactionalValue;
 
 public class TransactionalValueTest extends TestBase {
@@ -48,6 +49,7 @@ public class TransactionalValueTest extends TestBase {
             testExclusiveRollback();
             testUncommittedCommit();
             testRemove();
+            testPrune();
         } finally {
             te.close();
         }
@@ -214,4 +216,43 @@ public class TransactionalValueTest extends TestBase {
         System.out.println(v);
         t1.commit();
     }
+
+    void testPrune() {
+        Transaction t = te.beginTransaction(false);
+        TransactionMap<String, String> map = t.openMap("testPrune", storage);
+        map.clear();
+        map.put("1", "a1");
+        t.commit();
+
+        Transaction rr = te.beginTransaction(false);
+        rr.setIsolationLevel(Transaction.IL_REPEATABLE_READ);
+        TransactionMap<String, String> rrMap = rr.openMap("testPrune", storage);
+
+        for (int i = 2; i <= 4; i++) {
+            t = te.beginTransaction(false);
+            map = t.openMap("testPrune", storage);
+            map.put("1", "a" + i);
+            t.commit();
+        }
+        TransactionalValue tv = (TransactionalValue) map.getTransactionalValue("1");
+        assertEquals("a4", tv.getValue());
+
+        // 还有REPEATABLE_READ事务能读到旧版本，所以不能剪
+        int length = TransactionalValue.prune(tv, rr.getTransactionId());
+        assertTrue(length > 1);
+        assertEquals("a1", rrMap.get("1"));
+        assertNotNull(tv.getOldValue());
+        AMTransactionEngine engine = (AMTransactionEngine) te;
+        assertTrue(engine.containsRepeatableReadTransactions(rr.getTransactionId() + 1));
+        rr.commit();
+        assertFalse(engine.containsRepeatableReadTransactions(Long.MAX_VALUE));
+
+        // 剪的时候替换head，原来的版本链不变，正在沿着它读的事务不受影响
+        TransactionalValue oldHead = tv.getRefValue();
+        TransactionalValue.prune(tv, Long.MAX_VALUE);
+        assertNull(tv.getOldValue());
+        assertNotNull(oldHead.getOldValue());
+        assertEquals("a4", tv.getValue());
+        assertEquals(1, TransactionalValue.prune(tv, Long.MAX_VALUE));
+    }
 }
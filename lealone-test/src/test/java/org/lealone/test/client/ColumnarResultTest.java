@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import org.junit.Test;
+import org.lealone.db.ConnectionSetting;
+import org.lealone.server.protocol.PacketType;
+import org.lealone.server.protocol.result.ColumnarRows;
+
+public class ColumnarResultTest extends WireTestBase {
+
+    public ColumnarResultTest() {
+        addConnectionParameter(ConnectionSetting.COLUMNAR_RESULT.name(), "true");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS ColumnarResultTest");
+        executeUpdate("CREATE TABLE IF NOT EXISTS ColumnarResultTest "
+                + "(f1 int primary key, f2 bigint, f3 double, f4 varchar, f5 boolean, f6 decimal)");
+        // f6不是基本类型，每个值都带上类型
+
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO ColumnarResultTest VALUES(?, ?, ?, ?, ?, ?)");
+        int rowCount = 25;
+        for (int i = 0; i < rowCount; i++) {
+            ps.setInt(1, i);
+            // 偶数行的f2、f4是null
+            if (i % 2 == 0) {
+                ps.setNull(2, java.sql.Types.BIGINT);
+                ps.setNull(4, java.sql.Types.VARCHAR);
+            } else {
+                ps.setLong(2, i * 10000000000L);
+                ps.setString(4, "str" + i);
+            }
+            ps.setDouble(3, i + 0.5);
+            ps.setBoolean(5, i % 3 == 0);
+            ps.setBigDecimal(6, new java.math.BigDecimal(i + ".25"));
+            ps.executeUpdate();
+        }
+        ps.close();
+
+        String sql = "SELECT f1, f2, f3, f4, f5, f6 FROM ColumnarResultTest ORDER BY f1";
+        // 行数已知的结果集，每次取少量记录
+        stmt.setFetchSize(4);
+        clearPackets();
+        check(sql, rowCount);
+        assertEquals((rowCount - 1) / 4, getColumnarAcks().size());
+        // LIMIT查询用延迟计算行数的结果集
+        clearPackets();
+        check(sql + " LIMIT 17", 17);
+        assertFalse(getColumnarAcks().isEmpty());
+
+        // 空结果集
+        rs = stmt.executeQuery("SELECT f1 FROM ColumnarResultTest WHERE f1 < 0");
+        assertFalse(rs.next());
+        rs.close();
+    }
+
+    // 后面取的每一批记录都按列编码，而不是每行前面一个boolean
+    private List<Packet> getColumnarAcks() {
+        List<Packet> acks = getPackets(false, PacketType.RESULT_FETCH_ROWS);
+        for (Packet p : acks)
+            assertEquals(ColumnarRows.MARKER, p.body[0]);
+        return acks;
+    }
+
+    private void check(String sql, int rowCount) throws Exception {
+        rs = stmt.executeQuery(sql);
+        int count = 0;
+        while (rs.next()) {
+            int i = count;
+            assertEquals(i, rs.getInt(1));
+            if (i % 2 == 0) {
+                rs.getLong(2);
+                assertTrue(rs.wasNull());
+                assertNull(rs.getString(4));
+            } else {
+                assertEquals(i * 10000000000L, rs.getLong(2));
+                assertEquals("str" + i, rs.getString(4));
+            }
+            assertEquals(i + 0.5, rs.getDouble(3), 0.0);
+            assertEquals(i % 3 == 0, rs.getBoolean(5));
+            assertEquals(new java.math.BigDecimal(i + ".25"), rs.getBigDecimal(6));
+            count++;
+        }
+        rs.close();
+        assertEquals(rowCount, count);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.lealone.client.jdbc.JdbcStatement;
+import org.lealone.db.async.Flow;
+import org.lealone.db.value.Value;
+import org.lealone.test.UnitTestBase;
+
+public class EmbeddedResultTest extends UnitTestBase {
+
+    @Test
+    public void run() throws Exception {
+        setEmbedded(true);
+        Connection conn = getConnection();
+        JdbcStatement stmt = (JdbcStatement) conn.createStatement();
+        stmt.executeUpdate("DROP TABLE IF EXISTS EmbeddedResultTest");
+        stmt.executeUpdate("CREATE TABLE IF NOT EXISTS EmbeddedResultTest "
+                + "(f1 int primary key, f2 tinyint, f3 smallint, f4 bigint)");
+        for (int i = 0; i < 50; i++) {
+            stmt.executeUpdate("INSERT INTO EmbeddedResultTest VALUES(" + i + ", " + i + ", " + i * 10 + ", "
+                    + (i == 49 ? Long.MAX_VALUE : i * 100) + ")");
+        }
+
+        // 整数类型直接读取基本类型
+        ResultSet rs = stmt.executeQuery("SELECT f2, f3, f4 FROM EmbeddedResultTest WHERE f1 = 3");
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        assertEquals(3L, rs.getLong(1));
+        assertEquals(30, rs.getInt(2));
+        assertEquals(30L, rs.getLong(2));
+        assertEquals(300, rs.getInt(3));
+        rs.close();
+
+        // 超出int的范围时还是要抛异常
+        rs = stmt.executeQuery("SELECT f4 FROM EmbeddedResultTest WHERE f1 = 49");
+        assertTrue(rs.next());
+        assertEquals(Long.MAX_VALUE, rs.getLong(1));
+        try {
+            rs.getInt(1);
+            fail();
+        } catch (SQLException e) {
+        }
+        rs.close();
+
+        // 记录按引用一批批返回，排序用的隐藏字段不会返回给调用者
+        stmt.setFetchSize(8);
+        List<Value[]> rows = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        stmt.executeQueryPublisher("SELECT f2 FROM EmbeddedResultTest ORDER BY f3 + 1 DESC")
+                .subscribe(new Flow.Subscriber<List<Value[]>>() {
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        subscription.request(Long.MAX_VALUE);
+                    }
+
+                    @Override
+                    public void onNext(List<Value[]> batch) {
+                        assertTrue(batch.size() <= 8);
+                        rows.addAll(batch);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        latch.countDown();
+                    }
+                });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(50, rows.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(1, rows.get(i).length);
+            assertEquals(49 - i, rows.get(i)[0].getInt());
+        }
+
+        stmt.close();
+        conn.close();
+    }
+}
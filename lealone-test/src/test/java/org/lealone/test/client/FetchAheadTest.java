@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.Test;
+import org.lealone.db.ConnectionSetting;
+import org.lealone.server.protocol.PacketType;
+
+public class FetchAheadTest extends WireTestBase {
+
+    public FetchAheadTest() {
+        addConnectionParameter(ConnectionSetting.RESULT_FETCH_AHEAD.name(), "2");
+    }
+
+    @Test
+    public void run() throws Exception {
+        int rowCount = 103;
+        createTable("FetchAheadTest", rowCount);
+        String sql = "SELECT f1, f2 FROM FetchAheadTest ORDER BY f1";
+        stmt.setFetchSize(10);
+
+        // 收到第一批记录时就预取后面两批，不用等游标走到第一批的末尾
+        clearPackets();
+        ResultSet rs1 = stmt.executeQuery(sql);
+        assertTrue(rs1.next());
+        List<Packet> fetches = waitForPackets(true, PacketType.RESULT_FETCH_ROWS, 2);
+        assertEquals(2, fetches.size());
+        for (Packet p : fetches)
+            assertEquals(10, getFetchCount(p));
+        for (int i = 1; i < 10; i++)
+            assertTrue(rs1.next());
+        assertEquals(2, getPackets(true, PacketType.RESULT_FETCH_ROWS).size());
+        // 用掉一批预取的记录后马上补上一批
+        assertTrue(rs1.next());
+        assertEquals(10, rs1.getInt(1));
+        assertEquals(3, waitForPackets(true, PacketType.RESULT_FETCH_ROWS, 3).size());
+        int count = 11;
+        while (rs1.next()) {
+            assertEquals(count, rs1.getInt(1));
+            count++;
+        }
+        rs1.close();
+        assertEquals(rowCount, count);
+        // 行数已知时不会预取超过结果集末尾的记录，最后一批只取剩下的3行
+        fetches = getPackets(true, PacketType.RESULT_FETCH_ROWS);
+        assertEquals(10, fetches.size());
+        assertEquals(3, getFetchCount(fetches.get(9)));
+
+        // LIMIT查询用延迟计算行数的结果集，最后一批正好取完和没取完两种情况
+        checkRows(sql + " LIMIT 50", 50, true);
+        checkRows(sql + " LIMIT 57", 57, true);
+
+        // 还有预取的请求没有返回时就关闭结果集，后面的查询不受影响
+        for (String s : new String[] { sql, sql + " LIMIT 80" }) {
+            rs1 = stmt.executeQuery(s);
+            for (int i = 0; i < 15; i++)
+                assertTrue(rs1.next());
+            assertEquals(14, rs1.getInt(1));
+            rs1.close();
+            checkRows(sql, rowCount, true);
+        }
+
+        // 可滚动的结果集回到开头时，已经预取的记录也要丢弃，重新从第一行开始取
+        Statement scrollable = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        scrollable.setFetchSize(10);
+        rs1 = scrollable.executeQuery(sql);
+        for (int i = 0; i < 15; i++)
+            assertTrue(rs1.next());
+        rs1.beforeFirst();
+        count = 0;
+        while (rs1.next()) {
+            assertEquals(count, rs1.getInt(1));
+            count++;
+        }
+        rs1.close();
+        scrollable.close();
+        assertEquals(rowCount, count);
+        checkRows(sql, rowCount, true);
+    }
+
+    // ResultFetchRows请求包的内容: sessionId | resultId | count
+    private static int getFetchCount(Packet p) {
+        return p.readInt(8);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Test;
+import org.lealone.client.jdbc.JdbcConnection;
+import org.lealone.client.jdbc.JdbcDataSource;
+import org.lealone.client.jdbc.JdbcStatement;
+import org.lealone.db.ConnectionSetting;
+import org.lealone.db.async.Future;
+import org.lealone.db.session.Session;
+import org.lealone.sql.SQLCommand;
+import org.lealone.test.sql.SqlTestBase;
+
+public class JdbcDataSourcePoolTest extends SqlTestBase {
+
+    public JdbcDataSourcePoolTest() {
+        addConnectionParameter(ConnectionSetting.PREPARED_STATEMENT_CACHE_SIZE.name(), "10");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS JdbcDataSourcePoolTest");
+        executeUpdate("CREATE TABLE IF NOT EXISTS JdbcDataSourcePoolTest (f1 int primary key, f2 int)");
+
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL(getURL());
+        ds.setUser(user);
+        ds.setPassword(password);
+        ds.setMaxConnections(2);
+        ds.setMinConnections(1);
+        ds.setLoginTimeout(1);
+        try {
+            testReuse(ds);
+            testMaxConnections(ds);
+            testRollback(ds);
+            testDeadSession(ds);
+            testSessionState(ds);
+            testTimedOutRequest(ds);
+            testIdleTimeout(ds);
+        } finally {
+            ds.close();
+        }
+    }
+
+    private static Session getSession(Connection conn) {
+        return ((JdbcConnection) conn).getSession();
+    }
+
+    private void testReuse(JdbcDataSource ds) throws Exception {
+        Connection conn = ds.getConnection();
+        Session session = getSession(conn);
+        String sql = "SELECT f2 FROM JdbcDataSourcePoolTest WHERE f1 = ?";
+        SQLCommand command = session.prepareSQLCommand(sql, 10);
+        command.close();
+        Statement stmt = conn.createStatement();
+        conn.close();
+
+        // 关闭后不能再用了
+        try {
+            stmt.executeQuery("SELECT 1");
+            fail();
+        } catch (Exception e) {
+        }
+        try {
+            conn.createStatement();
+            fail();
+        } catch (Exception e) {
+        }
+
+        // 每次借出的是一个新的JdbcConnection，但session和session中缓存的PreparedStatement还在
+        Connection conn2 = ds.getConnection();
+        assertTrue(conn != conn2);
+        assertTrue(session == getSession(conn2));
+        assertTrue(command == session.prepareSQLCommand(sql, 10));
+        session.ping();
+        conn2.close();
+    }
+
+    private void testMaxConnections(JdbcDataSource ds) throws Exception {
+        Connection conn1 = ds.getConnection();
+        Connection conn2 = ds.getConnection();
+        assertTrue(getSession(conn1) != getSession(conn2));
+        try {
+            ds.getConnection();
+            fail();
+        } catch (SQLException e) {
+        }
+        conn1.close();
+        Connection conn3 = ds.getConnection();
+        conn2.close();
+        conn3.close();
+    }
+
+    private void testRollback(JdbcDataSource ds) throws Exception {
+        Connection conn = ds.getConnection();
+        conn.setAutoCommit(false);
+        conn.createStatement().executeUpdate("INSERT INTO JdbcDataSourcePoolTest VALUES(1, 1)");
+        conn.close();
+
+        // 未提交的事务在归还时回滚，并且恢复成自动提交
+        conn = ds.getConnection();
+        assertTrue(conn.getAutoCommit());
+        ResultSet rs = conn.createStatement().executeQuery("SELECT count(*) FROM JdbcDataSourcePoolTest");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        conn.close();
+    }
+
+    private void testDeadSession(JdbcDataSource ds) throws Exception {
+        // session已经关闭的连接归还时也要释放许可，否则之后再也借不到连接
+        for (int i = 0; i < 3; i++) {
+            Connection conn = ds.getConnection();
+            getSession(conn).close();
+            conn.close();
+        }
+        Connection[] conns = new Connection[2];
+        for (int i = 0; i < conns.length; i++) {
+            conns[i] = ds.getConnection();
+            assertFalse(getSession(conns[i]).isClosed());
+        }
+        for (Connection conn : conns) {
+            conn.close();
+        }
+    }
+
+    private void testSessionState(JdbcDataSource ds) throws Exception {
+        // 改变了隔离级别的session不能给下一个借用者
+        Connection conn = ds.getConnection();
+        Session session = getSession(conn);
+        conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+        conn.close();
+        assertTrue(session.isClosed());
+
+        conn = ds.getConnection();
+        session = getSession(conn);
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate("SET QUERY_TIMEOUT 1000");
+        stmt.close();
+        conn.close();
+        assertTrue(session.isClosed());
+
+        // 普通的查询不影响重用
+        conn = ds.getConnection();
+        session = getSession(conn);
+        conn.createStatement().executeQuery("SELECT count(*) FROM JdbcDataSourcePoolTest").close();
+        conn.close();
+        conn = ds.getConnection();
+        assertTrue(session == getSession(conn));
+        conn.close();
+    }
+
+    private void testTimedOutRequest(JdbcDataSource ds) throws Exception {
+        executeUpdate("INSERT INTO JdbcDataSourcePoolTest VALUES(100, 1)");
+        Connection locker = getConnection();
+        locker.setAutoCommit(false);
+        locker.createStatement().executeUpdate("UPDATE JdbcDataSourcePoolTest SET f2 = 2 WHERE f1 = 100");
+
+        // 等待超时时服务器还在执行这条语句，session不能再给下一个借用者
+        Connection conn = ds.getConnection();
+        Session session = getSession(conn);
+        JdbcStatement stmt = (JdbcStatement) conn.createStatement();
+        Future<Integer> update = stmt.executeUpdateAsync("UPDATE JdbcDataSourcePoolTest SET f2 = 3 WHERE f1 = 100");
+        try {
+            update.get(100);
+            fail();
+        } catch (Exception e) {
+        }
+        conn.close();
+        assertTrue(session.isClosed());
+
+        locker.commit();
+        locker.close();
+        conn = ds.getConnection();
+        assertTrue(session != getSession(conn));
+        conn.createStatement().executeUpdate("DELETE FROM JdbcDataSourcePoolTest WHERE f1 = 100");
+        conn.close();
+    }
+
+    private void testIdleTimeout(JdbcDataSource ds) throws Exception {
+        ds.setIdleTimeout(1);
+        Connection conn1 = ds.getConnection();
+        Connection conn2 = ds.getConnection();
+        Session session1 = getSession(conn1);
+        Session session2 = getSession(conn2);
+        conn1.close();
+        conn2.close();
+        Thread.sleep(1500);
+
+        // 后进先出，session2先借出，空闲太久的session1被关闭，但至少保留minConnections个
+        Connection conn3 = ds.getConnection();
+        assertTrue(session2 == getSession(conn3));
+        assertTrue(session1.isClosed());
+        conn3.close();
+        assertFalse(session2.isClosed());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.lealone.client.jdbc.JdbcConnection;
+import org.lealone.db.ConnectionSetting;
+import org.lealone.server.protocol.PacketType;
+
+public class NetworkCompressionTest extends WireTestBase {
+
+    public NetworkCompressionTest() {
+        addConnectionParameter(ConnectionSetting.NETWORK_COMPRESSION.name(), "LZF");
+    }
+
+    @Test
+    public void run() throws Exception {
+        assertEquals("LZF", ((JdbcConnection) conn).getSession().getNetworkCompression());
+
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            buff.append("abcdefghij");
+        valuePrefix = buff.toString();
+
+        // 请求包超过压缩阈值
+        int rowCount = 100;
+        clearPackets();
+        createTable("NetworkCompressionTest", rowCount);
+        assertCompressed(getPackets(true, PacketType.PREPARED_STATEMENT_UPDATE), rowCount);
+
+        // 响应包也超过压缩阈值
+        clearPackets();
+        stmt.setFetchSize(rowCount);
+        checkRows("SELECT f1, f2 FROM NetworkCompressionTest ORDER BY f1", rowCount, true);
+        assertCompressed(getPackets(false, PacketType.STATEMENT_QUERY), 1);
+
+        // 小包不压缩
+        clearPackets();
+        sql = "SELECT count(*) FROM NetworkCompressionTest";
+        assertEquals(rowCount, getIntValue(1, true));
+        List<Packet> packets = getPackets(true, PacketType.STATEMENT_QUERY);
+        packets.addAll(getPackets(false, PacketType.STATEMENT_QUERY));
+        assertEquals(2, packets.size());
+        for (Packet p : packets)
+            assertFalse(p.compressed);
+    }
+
+    // 网络上传输的是压缩后的包，并且比压缩前小得多
+    private static void assertCompressed(List<Packet> packets, int count) {
+        assertEquals(count, packets.size());
+        for (Packet p : packets) {
+            assertTrue(p.compressed);
+            assertTrue(p.length * 4 < p.getUncompressedLength());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.lealone.client.jdbc.JdbcConnection;
+import org.lealone.client.jdbc.JdbcPreparedStatement;
+import org.lealone.client.jdbc.JdbcStatement;
+import org.lealone.db.async.Future;
+import org.lealone.test.sql.SqlTestBase;
+
+// 同一个连接上不等前一条语句的响应就发下一条，服务器端按顺序执行，响应也按顺序返回
+public class PipelineTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS PipelineTest");
+        executeUpdate("CREATE TABLE IF NOT EXISTS PipelineTest (f1 int primary key, f2 int)");
+
+        JdbcConnection jc = (JdbcConnection) conn;
+        JdbcPreparedStatement ps = (JdbcPreparedStatement) conn
+                .prepareStatement("INSERT INTO PipelineTest(f1, f2) VALUES(?, ?)");
+        List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        int count = 500;
+        List<Future<Integer>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ps.setInt(1, i);
+            ps.setInt(2, i * 10);
+            int index = i;
+            // 前面的语句出错不影响后面的语句
+            if (i == 100)
+                ps.setInt(1, 0);
+            futures.add(ps.executeUpdateAsync().onSuccess(r -> completed.add(index)));
+        }
+        for (int i = 0; i < count; i++) {
+            if (i == 100) {
+                try {
+                    futures.get(i).get();
+                    fail();
+                } catch (Exception e) {
+                }
+            } else {
+                assertEquals(1, futures.get(i).get().intValue());
+            }
+        }
+        ps.close();
+        assertEquals(count - 1, completed.size());
+        for (int i = 1; i < completed.size(); i++)
+            assertTrue(completed.get(i - 1) < completed.get(i));
+        assertEquals(0, jc.getSession().getPendingRequestCount());
+
+        // 更新和查询交替发出，查询能看到前面的更新
+        JdbcStatement js = (JdbcStatement) stmt;
+        List<Future<Integer>> updates = new ArrayList<>();
+        List<Future<ResultSet>> queries = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            updates.add(js.executeUpdateAsync("UPDATE PipelineTest SET f2 = " + i + " WHERE f2 < 500"));
+            queries.add(js.executeQueryAsync("SELECT sum(f2) FROM PipelineTest WHERE f2 < 500"));
+        }
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(50, updates.get(i - 1).get().intValue());
+            ResultSet rs = queries.get(i - 1).get();
+            assertTrue(rs.next());
+            assertEquals(i * 50, rs.getInt(1));
+            rs.close();
+        }
+        assertEquals(0, jc.getSession().getPendingRequestCount());
+
+        // 等待超时时服务器还在执行，依然算未完成的请求，响应到达时才减
+        Connection conn2 = getConnection();
+        conn2.setAutoCommit(false);
+        Statement stmt2 = conn2.createStatement();
+        stmt2.executeUpdate("UPDATE PipelineTest SET f2 = 0 WHERE f1 = 1");
+        CountDownLatch latch = new CountDownLatch(1);
+        Future<Integer> update = js.executeUpdateAsync("UPDATE PipelineTest SET f2 = 1 WHERE f1 = 1");
+        update.onComplete(ar -> latch.countDown());
+        assertEquals(1, jc.getSession().getPendingRequestCount());
+        try {
+            update.get(100);
+            fail();
+        } catch (Exception e) {
+        }
+        assertEquals(1, jc.getSession().getPendingRequestCount());
+        conn2.commit();
+        conn2.close();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(0, jc.getSession().getPendingRequestCount());
+    }
+}
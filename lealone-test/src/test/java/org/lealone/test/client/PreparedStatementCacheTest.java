@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.junit.Test;
+import org.lealone.client.jdbc.JdbcConnection;
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.ConnectionSetting;
+import org.lealone.db.api.ErrorCode;
+import org.lealone.db.session.Session;
+import org.lealone.sql.SQLCommand;
+import org.lealone.test.sql.SqlTestBase;
+
+public class PreparedStatementCacheTest extends SqlTestBase {
+
+    public PreparedStatementCacheTest() {
+        addConnectionParameter(ConnectionSetting.PREPARED_STATEMENT_CACHE_SIZE.name(), "2");
+        addConnectionParameter(ConnectionSetting.DEFERRED_PREPARE.name(), "true");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS PreparedStatementCacheTest");
+        executeUpdate("CREATE TABLE IF NOT EXISTS PreparedStatementCacheTest (f1 int primary key, f2 varchar)");
+
+        testCache();
+        testDeferredPrepare();
+    }
+
+    private void testCache() throws Exception {
+        Session session = ((JdbcConnection) conn).getSession();
+        String sql1 = "SELECT f2 FROM PreparedStatementCacheTest WHERE f1 = ?";
+        String sql2 = "SELECT f1 FROM PreparedStatementCacheTest WHERE f2 = ?";
+        String sql3 = "SELECT count(*) FROM PreparedStatementCacheTest WHERE f1 > ?";
+
+        SQLCommand c1 = session.prepareSQLCommand(sql1, 10);
+        // 还没有关闭时不能重用
+        SQLCommand c2 = session.prepareSQLCommand(sql1, 10);
+        assertTrue(c1 != c2);
+        c1.close();
+        c2.close();
+        assertTrue(c1 == session.prepareSQLCommand(sql1, 10));
+        c1.close();
+
+        // 缓存满了之后淘汰最近最少使用的
+        session.prepareSQLCommand(sql2, 10).close();
+        session.prepareSQLCommand(sql3, 10).close();
+        assertTrue(c1 != session.prepareSQLCommand(sql1, 10));
+
+        // 重用的PreparedStatement不保留上一次设置的参数值
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO PreparedStatementCacheTest VALUES(?, ?)");
+        ps.setInt(1, 1);
+        ps.setString(2, "a");
+        assertEquals(1, ps.executeUpdate());
+        ps.close();
+        ps = conn.prepareStatement("INSERT INTO PreparedStatementCacheTest VALUES(?, ?)");
+        try {
+            ps.executeUpdate();
+            fail();
+        } catch (Exception e) {
+            assertEquals(ErrorCode.PARAMETER_NOT_SET_1, getErrorCode(e));
+        }
+        ps.setInt(1, 2);
+        ps.setString(2, "b");
+        assertEquals(1, ps.executeUpdate());
+        ps.close();
+
+        ps = conn.prepareStatement(sql1);
+        for (int i = 1; i <= 2; i++) {
+            ps.setInt(1, i);
+            rs = ps.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(i == 1 ? "a" : "b", rs.getString(1));
+            rs.close();
+        }
+        ps.close();
+    }
+
+    private void testDeferredPrepare() throws Exception {
+        // 语法错误在执行时才抛出
+        PreparedStatement ps = conn.prepareStatement("SELECT * FROM PreparedStatementCacheTest WHERE f1 = ? AND");
+        ps.setInt(1, 1);
+        try {
+            ps.executeQuery();
+            fail();
+        } catch (Exception e) {
+            assertEquals(ErrorCode.SYNTAX_ERROR_2, getErrorCode(e));
+        }
+        ps.close();
+
+        // 字符串和注释中的?不是参数
+        ps = conn.prepareStatement("SELECT f1, '?' FROM PreparedStatementCacheTest /* ? */ WHERE f2 = ? -- ?\n"
+                + "AND f1 > ?");
+        ps.setString(1, "b");
+        ps.setInt(2, 0);
+        rs = ps.executeQuery();
+        assertTrue(rs.next());
+        assertEquals(2, rs.getInt(1));
+        assertEquals("?", rs.getString(2));
+        assertFalse(rs.next());
+        rs.close();
+        ParameterMetaData meta = ps.getParameterMetaData();
+        assertEquals(2, meta.getParameterCount());
+        ps.close();
+
+        // 没有执行过就取参数元数据
+        ps = conn.prepareStatement("UPDATE PreparedStatementCacheTest SET f2 = ? WHERE f1 = ?");
+        meta = ps.getParameterMetaData();
+        assertEquals(Types.VARCHAR, meta.getParameterType(1));
+        assertEquals(Types.INTEGER, meta.getParameterType(2));
+        ps.close();
+
+        // execute()要知道是不是查询语句，批量更新也要先等prepare的响应
+        ps = conn.prepareStatement("UPDATE PreparedStatementCacheTest SET f2 = ? WHERE f1 = ?");
+        ps.setString(1, "c");
+        ps.setInt(2, 1);
+        assertFalse(ps.execute());
+        assertEquals(1, ps.getUpdateCount());
+        ps.close();
+        ps = conn.prepareStatement("INSERT INTO PreparedStatementCacheTest VALUES(?, ?)");
+        for (int i = 3; i < 6; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "s" + i);
+            ps.addBatch();
+        }
+        assertEquals(3, ps.executeBatch().length);
+        ps.close();
+        rs = stmt.executeQuery("SELECT count(*) FROM PreparedStatementCacheTest");
+        assertTrue(rs.next());
+        assertEquals(5, rs.getInt(1));
+        rs.close();
+    }
+
+    private static int getErrorCode(Exception e) {
+        if (e instanceof SQLException)
+            return ((SQLException) e).getErrorCode();
+        return ((DbException) e).getErrorCode();
+    }
+}
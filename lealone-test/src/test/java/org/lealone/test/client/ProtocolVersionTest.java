@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import org.junit.Test;
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.Constants;
+import org.lealone.server.protocol.session.SessionInit;
+import org.lealone.test.TestBase;
+
+public class ProtocolVersionTest extends TestBase {
+    @Test
+    public void run() {
+        int v1 = Constants.TCP_PROTOCOL_VERSION_1;
+        int v2 = Constants.TCP_PROTOCOL_VERSION_2;
+        int max = Constants.TCP_PROTOCOL_VERSION_MAX;
+
+        // 只支持到版本2的客户端用版本2，不能退回到版本1
+        assertEquals(v2, SessionInit.getClientVersion(v1, v2));
+        assertEquals(v1, SessionInit.getClientVersion(v1, v1));
+        assertEquals(max, SessionInit.getClientVersion(v1, max));
+        // 客户端比服务器新时用服务器支持的最高版本
+        assertEquals(max, SessionInit.getClientVersion(v1, max + 1));
+        assertEquals(v2, SessionInit.getClientVersion(v2, v2));
+
+        try {
+            SessionInit.getClientVersion(max + 1, max + 2);
+            fail();
+        } catch (DbException e) {
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.lealone.client.jdbc.JdbcPreparedStatement;
+import org.lealone.client.jdbc.JdbcStatement;
+import org.lealone.db.async.Flow;
+import org.lealone.db.value.Value;
+import org.lealone.test.sql.SqlTestBase;
+
+public class ResultPublisherTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS ResultPublisherTest");
+        executeUpdate("CREATE TABLE IF NOT EXISTS ResultPublisherTest (f1 int primary key, f2 int)");
+        for (int i = 0; i < 100; i++) {
+            executeUpdate("INSERT INTO ResultPublisherTest VALUES(" + i + ", " + i * 10 + ")");
+        }
+
+        JdbcStatement s = (JdbcStatement) conn.createStatement();
+        s.setFetchSize(7);
+        BatchSubscriber subscriber = new BatchSubscriber(Long.MAX_VALUE);
+        s.executeQueryPublisher("SELECT f1, f2 FROM ResultPublisherTest").subscribe(subscriber);
+        subscriber.await();
+        assertEquals(100, subscriber.rowCount.get());
+        assertEquals(15, subscriber.batchCount.get()); // 每批最多7条
+
+        // 只要两批，然后取消
+        subscriber = new BatchSubscriber(2);
+        s.executeQueryPublisher("SELECT f1, f2 FROM ResultPublisherTest").subscribe(subscriber);
+        subscriber.await();
+        assertEquals(2, subscriber.batchCount.get());
+        assertEquals(14, subscriber.rowCount.get());
+        s.close();
+
+        JdbcPreparedStatement ps = (JdbcPreparedStatement) conn
+                .prepareStatement("SELECT f1, f2 FROM ResultPublisherTest WHERE f1 >= ?");
+        ps.setFetchSize(10);
+        ps.setInt(1, 50);
+        subscriber = new BatchSubscriber(Long.MAX_VALUE);
+        ps.executeQueryPublisher().subscribe(subscriber);
+        subscriber.await();
+        assertEquals(50, subscriber.rowCount.get());
+        ps.close();
+
+        // 出错时通知订阅者
+        s = (JdbcStatement) conn.createStatement();
+        subscriber = new BatchSubscriber(Long.MAX_VALUE);
+        s.executeQueryPublisher("SELECT f3 FROM ResultPublisherTest").subscribe(subscriber);
+        subscriber.await();
+        assertNotNull(subscriber.error.get());
+        s.close();
+    }
+
+    // 每次只请求一批，处理完再请求下一批，最多maxBatches批
+    private static class BatchSubscriber implements Flow.Subscriber<List<Value[]>> {
+
+        final long maxBatches;
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger batchCount = new AtomicInteger();
+        final AtomicInteger rowCount = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Flow.Subscription subscription;
+
+        BatchSubscriber(long maxBatches) {
+            this.maxBatches = maxBatches;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<Value[]> rows) {
+            for (Value[] row : rows) {
+                assertEquals(row[0].getInt() * 10, row[1].getInt());
+            }
+            rowCount.addAndGet(rows.size());
+            if (batchCount.incrementAndGet() >= maxBatches) {
+                subscription.cancel();
+                latch.countDown();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+            latch.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.Test;
+import org.lealone.db.LealoneDatabase;
+import org.lealone.test.sql.SqlTestBase;
+
+public class ShardingRoutingTest extends SqlTestBase {
+
+    public ShardingRoutingTest() {
+        super(LealoneDatabase.NAME); // 连到LealoneDatabase才能执行CREATE DATABASE
+    }
+
+    @Test
+    public void run() throws Exception {
+        String dbName = "ShardingRoutingTestDB";
+        sql = "CREATE DATABASE IF NOT EXISTS " + dbName + " RUN MODE sharding";
+        sql += " PARAMETERS (replication_strategy: 'SimpleStrategy', replication_factor: 1,";
+        sql += " node_assignment_strategy: 'RandomNodeAssignmentStrategy', assignment_factor: 1,";
+        // 只有一个节点时会退化成CLIENT_SERVER模式，所以把127.0.0.1:9210列两次；
+        // 客户端连的是localhost:9210，数据都放在127.0.0.1:9210，这样所有按主键的查询都要路由到另一个节点session
+        sql += " hostIds: '127.0.0.1:9210,127.0.0.1:9210')";
+        stmt.executeUpdate(sql);
+
+        RoutingTest test = new RoutingTest(dbName);
+        assertTrue(test.runTest());
+    }
+
+    private class RoutingTest extends SqlTestBase {
+
+        RoutingTest(String dbName) {
+            super(dbName);
+        }
+
+        @Override
+        protected void test() throws Exception {
+            executeUpdate("DROP TABLE IF EXISTS ShardingRoutingTest");
+            executeUpdate("CREATE TABLE IF NOT EXISTS ShardingRoutingTest (f1 int primary key, f2 int)");
+
+            PreparedStatement ps = conn.prepareStatement("INSERT INTO ShardingRoutingTest(f1, f2) VALUES(?, ?)");
+            for (int i = 1; i <= 100; i++) {
+                ps.setInt(1, i);
+                ps.setInt(2, i * 10);
+                assertEquals(1, ps.executeUpdate());
+            }
+            ps.close();
+
+            ResultSet rs = stmt.executeQuery("SELECT SESSION_ID()");
+            assertTrue(rs.next());
+            int sessionId = rs.getInt(1);
+            rs.close();
+
+            // 路由表和节点session都是异步建立的，所以多跑几轮，直到查询确实落到了节点session上
+            boolean routed = false;
+            for (int round = 0; round < 50 && !routed; round++) {
+                // 关闭ResultSet时会把PreparedStatement的命令也关掉，所以每次都重新prepare
+                for (int i = 1; i <= 100; i++) {
+                    ps = conn.prepareStatement("SELECT f2, SESSION_ID() FROM ShardingRoutingTest WHERE f1 = ?");
+                    ps.setInt(1, i);
+                    rs = ps.executeQuery();
+                    assertTrue(rs.next());
+                    assertEquals(i * 10, rs.getInt(1));
+                    if (rs.getInt(2) != sessionId)
+                        routed = true;
+                    rs.close();
+                    ps.close();
+                }
+                if (!routed)
+                    Thread.sleep(100);
+            }
+            assertTrue(routed);
+        }
+    }
+}
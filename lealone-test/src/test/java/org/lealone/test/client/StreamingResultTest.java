@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.Test;
+import org.lealone.db.ConnectionSetting;
+import org.lealone.db.result.LocalResult;
+import org.lealone.db.result.StreamingResult;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueInt;
+import org.lealone.server.protocol.PacketType;
+
+public class StreamingResultTest extends WireTestBase {
+
+    public StreamingResultTest() {
+        addConnectionParameter(ConnectionSetting.STREAMING_RESULT.name(), "true");
+    }
+
+    @Test
+    public void run() throws Exception {
+        int rowCount = 1000;
+        createTable("StreamingResultTest", rowCount);
+        String sql = "SELECT f1, f2 FROM StreamingResultTest";
+        stmt.setFetchSize(10);
+
+        // 第一批记录准备好时查询还没有结束，服务器端还不知道总行数
+        assertEquals(-1, getQueryRowCount(stmt, sql));
+        checkRows(sql, rowCount, true);
+        // 结果集比一批记录还少，发送第一批记录前查询已经结束了
+        assertEquals(5, getQueryRowCount(stmt, sql + " WHERE f1 < 5"));
+        checkRows(sql + " WHERE f1 < 5", 5, true);
+        // 需要排序的查询不能边执行边发送
+        assertEquals(rowCount, getQueryRowCount(stmt, sql + " ORDER BY f2"));
+        checkRows(sql + " ORDER BY f2", rowCount, false);
+        // 可滚动的结果集也不能边执行边发送
+        Statement scrollable = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        scrollable.setFetchSize(10);
+        assertEquals(rowCount, getQueryRowCount(scrollable, sql));
+        ResultSet rs2 = scrollable.executeQuery(sql);
+        assertTrue(rs2.last());
+        assertEquals(rowCount - 1, rs2.getInt(1));
+        assertTrue(rs2.first());
+        assertEquals(0, rs2.getInt(1));
+        rs2.close();
+        scrollable.close();
+
+        // 只取走一部分记录就关闭结果集
+        ResultSet rs1 = stmt.executeQuery(sql);
+        assertTrue(rs1.next());
+        rs1.close();
+
+        // 结果集还没有取完时执行其他语句，查询不再等客户端，剩下的记录留在服务器端
+        rs1 = stmt.executeQuery(sql);
+        assertTrue(rs1.next());
+        Statement stmt2 = conn.createStatement();
+        rs2 = stmt2.executeQuery("SELECT count(*) FROM StreamingResultTest");
+        assertTrue(rs2.next());
+        assertEquals(rowCount, rs2.getInt(1));
+        rs2.close();
+        stmt2.close();
+        int count = 1;
+        while (rs1.next())
+            count++;
+        rs1.close();
+        assertEquals(rowCount, count);
+    }
+
+    // 返回服务器端在查询的响应包中给出的总行数，-1表示发送第一批记录时查询还没有结束
+    private int getQueryRowCount(Statement stmt, String sql) throws Exception {
+        clearPackets();
+        ResultSet rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        rs.close();
+        List<Packet> acks = getPackets(false, PacketType.STATEMENT_QUERY);
+        assertEquals(1, acks.size());
+        return acks.get(0).readInt(0);
+    }
+
+    @Test
+    public void bufferIsBounded() {
+        int fetchSize = 10;
+        StreamingResult result = new StreamingResult(new LocalResult(), fetchSize);
+        int rowId = 0;
+        // 第一批记录准备好了查询就要让出执行权，把第一批记录发给客户端
+        for (int i = 1; i < fetchSize; i++)
+            assertFalse(result.addRow(row(rowId++)));
+        assertTrue(result.addRow(row(rowId++)));
+        assertTrue(result.isFirstBatchReady());
+        assertFalse(result.isPaused());
+        result.setSent();
+
+        // 客户端没有来取记录时最多再缓存一批，然后查询暂停
+        for (int i = 1; i < fetchSize; i++)
+            assertFalse(result.addRow(row(rowId++)));
+        assertTrue(result.addRow(row(rowId++)));
+        assertTrue(result.isPaused());
+
+        // 客户端取走一批之后查询可以继续执行
+        int[] next = { 0 };
+        result.fetch(fetchSize, () -> next[0] = read(result, next[0], fetchSize));
+        assertEquals(fetchSize, next[0]);
+        assertFalse(result.isPaused());
+        result.fetch(fetchSize, () -> next[0] = read(result, next[0], fetchSize));
+        assertEquals(fetchSize * 2, next[0]);
+
+        // 要取的记录还没有准备好时等凑够一批再发
+        result.fetch(fetchSize, () -> next[0] = read(result, next[0], fetchSize));
+        assertEquals(fetchSize * 2, next[0]);
+        assertFalse(result.isPaused());
+        for (int i = 1; i < fetchSize; i++)
+            assertFalse(result.addRow(row(rowId++)));
+        assertTrue(result.addRow(row(rowId++)));
+        result.flush();
+        assertEquals(fetchSize * 3, next[0]);
+
+        // 已经发送过记录了，总行数不能确定
+        result.setEnd();
+        assertEquals(-1, result.getRowCount());
+        assertFalse(result.next());
+        result.close();
+    }
+
+    private static Value[] row(int i) {
+        return new Value[] { ValueInt.get(i) };
+    }
+
+    private static int read(StreamingResult result, int rowId, int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(result.next());
+            assertEquals(rowId++, result.currentRow()[0].getInt());
+        }
+        return rowId;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.lealone.common.compress.CompressTool;
+import org.lealone.net.TransferOutputStream;
+import org.lealone.server.protocol.PacketType;
+import org.lealone.test.sql.SqlTestBase;
+
+/**
+ * 客户端不直接连服务器，而是连到测试中的一个转发端口，转发时记录经过的每个协议包，
+ * 这样测试可以检查网络上实际传输的内容，而不只是检查最后查到的记录。
+ */
+public abstract class WireTestBase extends SqlTestBase {
+
+    // 转发的一个协议包
+    public static class Packet {
+
+        public final boolean request;
+        public final boolean compressed;
+        public final int length; // 网络上实际传输的字节数，包括4个字节的包长度
+        public final int packetId;
+        public final int packetType; // 响应包用对应的请求包的类型
+        // 解压后包头之后的内容，请求包从sessionId开始，响应包从ack开始
+        public final byte[] body;
+
+        Packet(boolean request, boolean compressed, int length, int packetId, int packetType, byte[] body) {
+            this.request = request;
+            this.compressed = compressed;
+            this.length = length;
+            this.packetId = packetId;
+            this.packetType = packetType;
+            this.body = body;
+        }
+
+        public int readInt(int pos) {
+            return WireTestBase.readInt(body, pos);
+        }
+
+        // 没有压缩时网络上要传输的字节数
+        public int getUncompressedLength() {
+            return 4 + 1 + 4 + 4 + body.length;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final CopyOnWriteArrayList<Packet> packets = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<Integer, Integer> requestTypes = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    protected String valuePrefix = "str";
+
+    protected WireTestBase() {
+        try {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName(getHost()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        int serverPort = getPort();
+        setPort(serverSocket.getLocalPort());
+        Thread t = new Thread(() -> accept(serverPort), getClass().getSimpleName() + "-Forwarder");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    @After
+    public void tearDownAfter() {
+        super.tearDownAfter();
+        close(serverSocket);
+        for (Socket s : sockets)
+            close(s);
+    }
+
+    private void accept(int serverPort) {
+        try {
+            while (true) {
+                Socket client = serverSocket.accept();
+                Socket server = new Socket(getHost(), serverPort);
+                sockets.add(client);
+                sockets.add(server);
+                forward(client, server, true);
+                forward(server, client, false);
+            }
+        } catch (IOException e) {
+            // 测试结束时关闭了serverSocket
+        }
+    }
+
+    private void forward(Socket from, Socket to, boolean request) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(from.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(to.getOutputStream()));
+        Thread t = new Thread(() -> {
+            try {
+                while (true) {
+                    int len = in.readInt();
+                    byte[] bytes = new byte[len];
+                    in.readFully(bytes);
+                    // 先记录再转发，对方收到这个包时测试就能看到它
+                    record(request, bytes);
+                    out.writeInt(len);
+                    out.write(bytes);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close(from);
+                close(to);
+            }
+        }, getClass().getSimpleName() + (request ? "-Request" : "-Response"));
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void record(boolean request, byte[] bytes) {
+        int length = 4 + bytes.length;
+        boolean compressed = (bytes[0] & TransferOutputStream.COMPRESSED) != 0;
+        if (compressed) {
+            byte[] expanded = CompressTool.getInstance().expand(Arrays.copyOfRange(bytes, 1, bytes.length));
+            bytes = new byte[1 + expanded.length];
+            System.arraycopy(expanded, 0, bytes, 1, expanded.length);
+        }
+        int packetId = readInt(bytes, 1);
+        int packetType;
+        if (request) {
+            packetType = readInt(bytes, 5);
+            requestTypes.put(packetId, packetType);
+        } else {
+            Integer type = requestTypes.get(packetId);
+            packetType = type == null ? -1 : type;
+        }
+        byte[] body = Arrays.copyOfRange(bytes, 9, bytes.length);
+        packets.add(new Packet(request, compressed, length, packetId, packetType, body));
+    }
+
+    private static int readInt(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xFF) << 24) + ((bytes[pos + 1] & 0xFF) << 16) + ((bytes[pos + 2] & 0xFF) << 8)
+                + (bytes[pos + 3] & 0xFF);
+    }
+
+    private static void close(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+        }
+    }
+
+    protected void clearPackets() {
+        packets.clear();
+    }
+
+    /**
+     * 返回指定类型的请求包，或者是对这种请求的响应包
+     */
+    protected List<Packet> getPackets(boolean request, PacketType type) {
+        ArrayList<Packet> list = new ArrayList<>();
+        for (Packet p : packets) {
+            if (p.request == request && p.packetType == type.value)
+                list.add(p);
+        }
+        return list;
+    }
+
+    /**
+     * 异步发送的请求不一定已经到了，最多等几秒
+     */
+    protected List<Packet> waitForPackets(boolean request, PacketType type, int count) throws Exception {
+        List<Packet> list = getPackets(request, type);
+        for (int i = 0; i < 100 && list.size() < count; i++) {
+            Thread.sleep(50);
+            list = getPackets(request, type);
+        }
+        return list;
+    }
+
+    protected void createTable(String tableName, int rowCount) throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS " + tableName);
+        executeUpdate("CREATE TABLE IF NOT EXISTS " + tableName + " (f1 int primary key, f2 varchar)");
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO " + tableName + "(f1, f2) VALUES(?, ?)");
+        for (int i = 0; i < rowCount; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, valuePrefix + i);
+            ps.executeUpdate();
+        }
+        ps.close();
+    }
+
+    /**
+     * 检查查询结果正好是createTable插入的前rowCount条记录，ordered为true时还要求按f1排序
+     */
+    protected void checkRows(String sql, int rowCount, boolean ordered) throws Exception {
+        ResultSet rs = stmt.executeQuery(sql);
+        BitSet seen = new BitSet();
+        int count = 0;
+        while (rs.next()) {
+            int f1 = rs.getInt(1);
+            if (ordered)
+                assertEquals(count, f1);
+            assertFalse(seen.get(f1));
+            seen.set(f1);
+            assertEquals(valuePrefix + f1, rs.getString(2));
+            count++;
+        }
+        rs.close();
+        assertEquals(rowCount, count);
+        assertEquals(rowCount, seen.nextClearBit(0));
+    }
+}
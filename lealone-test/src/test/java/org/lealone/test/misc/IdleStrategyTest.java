@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.misc;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.lealone.common.concurrent.IdleStrategy;
+import org.lealone.test.TestBase;
+
+public class IdleStrategyTest extends TestBase {
+
+    @Test
+    public void run() throws Exception {
+        IdleStrategy idleStrategy = new IdleStrategy(10, 1);
+
+        // 线程没有挂起时不需要unpark，并且下一次idle马上返回
+        idleStrategy.wakeUp();
+        assertEquals(0, idleStrategy.getWakeUpCount());
+        long start = System.currentTimeMillis();
+        idleStrategy.idle(10000);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(0, idleStrategy.getParkCount());
+
+        // 超时返回
+        idleStrategy.idle(10);
+        assertEquals(1, idleStrategy.getParkCount());
+
+        // 挂起的线程被唤醒
+        CountDownLatch latch = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                idleStrategy.idle(60000);
+            } catch (InterruptedException e) {
+            }
+            latch.countDown();
+        });
+        t.start();
+        while (t.getState() != Thread.State.TIMED_WAITING)
+            Thread.sleep(1);
+        idleStrategy.wakeUp();
+        latch.await();
+        assertEquals(1, idleStrategy.getWakeUpCount());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.misc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.lealone.db.DataBuffer;
+import org.lealone.net.NetBufferFactory;
+import org.lealone.net.TransferConnection;
+import org.lealone.net.TransferInputStream;
+import org.lealone.net.TransferOutputStream;
+import org.lealone.net.WritableChannel;
+import org.lealone.net.nio.NioBuffer;
+import org.lealone.net.nio.NioBufferFactory;
+import org.lealone.test.TestBase;
+
+// 测试一个包被拆成多次读，以及一次读到多个包时都能正确分包
+public class PacketFramingTest extends TestBase {
+
+    @Test
+    public void run() throws Exception {
+        ByteBuffer data = ByteBuffer.allocate(4096);
+        int[] sizes = { 0, 1, 3, 100, 2000 };
+        for (int i = 0; i < sizes.length; i++)
+            putPacket(data, i, sizes[i]);
+        data.flip();
+        int total = data.limit();
+
+        // 每次读的字节数从1到total，覆盖包头和包体被拆开的各种情况
+        for (int chunk = 1; chunk <= total; chunk++) {
+            MyConnection conn = new MyConnection();
+            // 读缓冲区会被重用，这里也重用同一个，确保包已经被拷贝走
+            ByteBuffer readBuffer = ByteBuffer.allocateDirect(chunk);
+            NioBuffer nioBuffer = new NioBuffer(DataBuffer.create(readBuffer));
+            for (int pos = 0; pos < total; pos += chunk) {
+                readBuffer.clear();
+                ByteBuffer src = data.duplicate();
+                src.position(pos);
+                src.limit(Math.min(pos + chunk, total));
+                readBuffer.put(src);
+                readBuffer.flip();
+                conn.handle(nioBuffer);
+                readBuffer.clear();
+                while (readBuffer.hasRemaining())
+                    readBuffer.put((byte) -1);
+            }
+            assertEquals(sizes.length, conn.packets.size());
+            for (int i = 0; i < sizes.length; i++) {
+                byte[] bytes = conn.packets.get(i);
+                assertEquals(sizes[i], bytes.length);
+                for (int j = 0; j < bytes.length; j++)
+                    assertEquals((byte) (i + j), bytes[j]);
+            }
+        }
+    }
+
+    private static void putPacket(ByteBuffer data, int packetId, int size) {
+        data.putInt(1 + 4 + 4 + size);
+        data.put(TransferOutputStream.REQUEST);
+        data.putInt(packetId);
+        data.putInt(size); // 用packetType字段存包体的长度
+        for (int j = 0; j < size; j++)
+            data.put((byte) (packetId + j));
+    }
+
+    private static class MyConnection extends TransferConnection {
+
+        final ArrayList<byte[]> packets = new ArrayList<>();
+
+        MyConnection() {
+            super(new MyWritableChannel(), true);
+        }
+
+        @Override
+        protected void handleRequest(TransferInputStream in, int packetId, int packetType) throws IOException {
+            assertEquals(packets.size(), packetId);
+            byte[] bytes = new byte[packetType];
+            in.getDataInputStream().readFully(bytes);
+            packets.add(bytes);
+        }
+    }
+
+    private static class MyWritableChannel implements WritableChannel {
+
+        @Override
+        public void write(Object data) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getHost() {
+            return null;
+        }
+
+        @Override
+        public int getPort() {
+            return 0;
+        }
+
+        @Override
+        public NetBufferFactory getBufferFactory() {
+            return NioBufferFactory.getInstance();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.net;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.lealone.db.DataBuffer;
+import org.lealone.net.AsyncConnection;
+import org.lealone.net.nio.NioBuffer;
+import org.lealone.net.nio.NioEventLoop;
+import org.lealone.net.nio.NioEventLoopAdapter;
+import org.lealone.test.TestBase;
+
+public class NioEventLoopAdapterTest extends TestBase {
+
+    private static final int BIG_SIZE = 2 * 1024 * 1024; // 远大于发送缓冲区
+    private static final int SMALL_SIZE = 100;
+    private static final int SMALL_COUNT = 200;
+
+    private final AtomicReference<Exception> exception = new AtomicReference<>();
+    private volatile boolean stop;
+
+    @Test
+    public void run() throws Exception {
+        NioEventLoopAdapter adapter = new NioEventLoopAdapter(null, "loop_interval", 10);
+        NioEventLoop eventLoop = new NioEventLoop() {
+            @Override
+            public NioEventLoop getDefaultNioEventLoopImpl() {
+                return adapter;
+            }
+
+            @Override
+            public void handleException(AsyncConnection conn, SocketChannel channel, Exception e) {
+                exception.set(e);
+                adapter.closeChannel(channel);
+            }
+        };
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel channel = SocketChannel.open();
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, 8 * 1024);
+        channel.connect(serverChannel.getLocalAddress());
+        Socket socket = serverChannel.accept().socket();
+        channel.configureBlocking(false);
+        adapter.addSocketChannel(channel);
+        SelectionKey key = channel.register(adapter.getSelector(), 0);
+
+        Thread loop = new Thread(() -> {
+            try {
+                while (!stop) {
+                    adapter.select(10);
+                    for (SelectionKey k : adapter.getSelector().selectedKeys()) {
+                        if (k.isValid() && k.isWritable())
+                            adapter.write(k, eventLoop);
+                    }
+                    adapter.getSelector().selectedKeys().clear();
+                }
+            } catch (Exception e) {
+                exception.set(e);
+            }
+        });
+        loop.start();
+
+        // 对端还没开始读，直接写只能写出一部分，剩下的交给事件循环线程
+        adapter.addNioBuffer(channel, createBuffer(BIG_SIZE, (byte) 1));
+        // 第二个线程在事件循环线程写大缓冲区的同时不断加入新数据
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < SMALL_COUNT; i++) {
+                adapter.addNioBuffer(channel, createBuffer(SMALL_SIZE, (byte) (i + 2)));
+            }
+        });
+        writer.start();
+
+        // 所有数据都要按顺序完整地写出
+        InputStream in = new DataInputStream(socket.getInputStream());
+        byte[] bytes = new byte[BIG_SIZE];
+        readFully(in, bytes);
+        for (int i = 0; i < BIG_SIZE; i++)
+            assertEquals(1, bytes[i]);
+        bytes = new byte[SMALL_SIZE];
+        for (int i = 0; i < SMALL_COUNT; i++) {
+            readFully(in, bytes);
+            for (int j = 0; j < SMALL_SIZE; j++)
+                assertEquals((byte) (i + 2), bytes[j]);
+        }
+        writer.join();
+
+        // 写完后不能再关注OP_WRITE，否则select会一直马上返回
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((key.interestOps() & SelectionKey.OP_WRITE) != 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, key.interestOps() & SelectionKey.OP_WRITE);
+        assertNull(exception.get());
+
+        // 对端关闭后写失败要交给handleException处理
+        socket.close();
+        deadline = System.currentTimeMillis() + 5000;
+        while (channel.isOpen() && System.currentTimeMillis() < deadline) {
+            adapter.addNioBuffer(channel, createBuffer(BIG_SIZE, (byte) 1));
+            Thread.sleep(10);
+        }
+        assertFalse(channel.isOpen());
+        assertNotNull(exception.get());
+
+        stop = true;
+        loop.join();
+        serverChannel.close();
+        adapter.close();
+    }
+
+    private static NioBuffer createBuffer(int size, byte value) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++)
+            bytes[i] = value;
+        return new NioBuffer(DataBuffer.create(ByteBuffer.wrap(bytes)));
+    }
+
+    private static void readFully(InputStream in, byte[] bytes) throws Exception {
+        int off = 0;
+        while (off < bytes.length) {
+            int n = in.read(bytes, off, bytes.length - off);
+            assertTrue(n > 0);
+            off += n;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.net;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.lealone.db.DataBuffer;
+import org.lealone.net.AsyncConnection;
+import org.lealone.net.AsyncConnectionManager;
+import org.lealone.net.NetBuffer;
+import org.lealone.net.WritableChannel;
+import org.lealone.net.nio.NioBuffer;
+import org.lealone.net.nio.NioNetServer;
+import org.lealone.test.TestBase;
+
+public class NioNetServerTest extends TestBase {
+
+    private static final int EVENT_LOOP_COUNT = 3;
+    private static final int CONNECTION_COUNT = EVENT_LOOP_COUNT * 2;
+
+    // 把收到的数据原样写回，同时记下每个连接是在哪些线程中读的
+    private static class EchoConnection extends AsyncConnection {
+
+        final Set<String> readThreads = ConcurrentHashMap.newKeySet();
+
+        EchoConnection(WritableChannel writableChannel) {
+            super(writableChannel, true);
+        }
+
+        @Override
+        public void handle(NetBuffer buffer) {
+            readThreads.add(Thread.currentThread().getName());
+            byte[] bytes = new byte[buffer.length()];
+            buffer.getBytes(0, bytes, 0, bytes.length);
+            writableChannel.write(new NioBuffer(DataBuffer.create(ByteBuffer.wrap(bytes))));
+        }
+    }
+
+    @Test
+    public void run() throws Exception {
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        List<EchoConnection> conns = new CopyOnWriteArrayList<>();
+        NioNetServer server = new NioNetServer();
+        Map<String, String> config = new HashMap<>();
+        config.put("host", "127.0.0.1");
+        config.put("port", String.valueOf(port));
+        config.put("server_nio_event_loop_count", String.valueOf(EVENT_LOOP_COUNT));
+        config.put("server_nio_event_loop_interval", "10");
+        server.init(config);
+        server.setConnectionManager(new AsyncConnectionManager() {
+            @Override
+            public AsyncConnection createConnection(WritableChannel writableChannel, boolean isServer) {
+                EchoConnection conn = new EchoConnection(writableChannel);
+                conns.add(conn);
+                return conn;
+            }
+
+            @Override
+            public void removeConnection(AsyncConnection conn) {
+            }
+        });
+        server.start();
+
+        // 连接按顺序建立，保证跟accept的顺序一致
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < CONNECTION_COUNT; i++) {
+            Socket socket = new Socket("127.0.0.1", port);
+            socket.setSoTimeout(5000);
+            sockets.add(socket);
+            echo(socket, i, 1);
+        }
+        // 所有连接同时收发，每个连接的数据只能由它所属的事件循环读写
+        for (int round = 2; round <= 10; round++) {
+            for (int i = 0; i < CONNECTION_COUNT; i++)
+                sockets.get(i).getOutputStream().write(createBytes(i, round));
+            for (int i = 0; i < CONNECTION_COUNT; i++)
+                checkBytes(sockets.get(i), i, round);
+        }
+
+        // 新连接轮流分给各个事件循环，第一个事件循环同时负责accept
+        assertEquals(CONNECTION_COUNT, conns.size());
+        String name = "ServerNioEventLoopService-" + port;
+        for (int i = 0; i < CONNECTION_COUNT; i++) {
+            Set<String> readThreads = conns.get(i).readThreads;
+            int index = i % EVENT_LOOP_COUNT;
+            assertEquals(1, readThreads.size());
+            assertEquals(index == 0 ? name : name + "-" + index, readThreads.iterator().next());
+        }
+
+        for (Socket socket : sockets)
+            socket.close();
+        server.stop();
+
+        // 停止后所有事件循环线程都要退出
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getEventLoopThreadCount(name) > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, getEventLoopThreadCount(name));
+        try {
+            new Socket("127.0.0.1", port).close();
+            fail();
+        } catch (Exception e) {
+        }
+    }
+
+    private static int getEventLoopThreadCount(String name) {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.isAlive() && t.getName().startsWith(name))
+                count++;
+        }
+        return count;
+    }
+
+    private static void echo(Socket socket, int index, int round) throws Exception {
+        OutputStream out = socket.getOutputStream();
+        out.write(createBytes(index, round));
+        out.flush();
+        checkBytes(socket, index, round);
+    }
+
+    private static byte[] createBytes(int index, int round) {
+        byte[] bytes = new byte[100 * round];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (index * 16 + round);
+        return bytes;
+    }
+
+    private static void checkBytes(Socket socket, int index, int round) throws Exception {
+        byte[] bytes = new byte[100 * round];
+        new DataInputStream(socket.getInputStream()).readFully(bytes);
+        for (int i = 0; i < bytes.length; i++)
+            assertEquals((byte) (index * 16 + round), bytes[i]);
+    }
+}
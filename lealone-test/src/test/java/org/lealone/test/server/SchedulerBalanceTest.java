@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// 调度器比最空闲的调度器忙很多时，最近活跃但当前空闲的session会被迁移过去，
+// 有未提交事务的session和一直在执行命令的session不会被迁移
+public class SchedulerBalanceTest extends SqlTestBase {
+
+    // 在执行语句的调度线程中调用，返回的线程名就是session当前所在的调度器
+    public static String getSchedulerName() {
+        return Thread.currentThread().getName();
+    }
+
+    static String getSchedulerName(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT SCHEDULER_NAME()")) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("CREATE ALIAS IF NOT EXISTS SCHEDULER_NAME FOR \"" + getClass().getName()
+                + ".getSchedulerName\"");
+        executeUpdate("DROP TABLE IF EXISTS SchedulerBalanceTest");
+        executeUpdate("CREATE TABLE IF NOT EXISTS SchedulerBalanceTest (f1 int primary key, f2 int)");
+        for (int i = 1; i <= 500; i++)
+            executeUpdate("INSERT INTO SchedulerBalanceTest(f1, f2) VALUES(" + i + ", " + i + ")");
+
+        // session是轮流分配给调度器的，找出跟busy在同一个调度器上的另外两个session
+        Connection busy = getConnection();
+        String busyScheduler = getSchedulerName(busy);
+        List<Connection> others = new ArrayList<>();
+        Connection idle = null;
+        Connection inTransaction = null;
+        for (int i = 0; i < 64 && inTransaction == null; i++) {
+            Connection c = getConnection();
+            if (!busyScheduler.equals(getSchedulerName(c)))
+                others.add(c);
+            else if (idle == null)
+                idle = c;
+            else
+                inTransaction = c;
+        }
+        for (Connection c : others)
+            c.close();
+        // 只有一个调度器时不会迁移
+        if (others.isEmpty() || inTransaction == null) {
+            busy.close();
+            if (idle != null)
+                idle.close();
+            if (inTransaction != null)
+                inTransaction.close();
+            return;
+        }
+
+        inTransaction.setAutoCommit(false);
+        try (Statement stmt = inTransaction.createStatement()) {
+            stmt.executeUpdate("UPDATE SchedulerBalanceTest SET f2 = 0 WHERE f1 = 1");
+        }
+
+        // busy一直执行耗时的查询，让它所在的调度器保持繁忙
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicBoolean busyMigrated = new AtomicBoolean(false);
+        Thread t = new Thread(() -> {
+            try (Statement stmt = busy.createStatement()) {
+                while (!stop.get()) {
+                    ResultSet rs = stmt.executeQuery("SELECT count(*) FROM SchedulerBalanceTest a, "
+                            + "SchedulerBalanceTest b WHERE a.f2 + b.f2 > 0");
+                    rs.close();
+                    if (!busyScheduler.equals(getSchedulerName(busy)))
+                        busyMigrated.set(true);
+                }
+            } catch (SQLException e) {
+                busyMigrated.set(true);
+            }
+        });
+        t.start();
+
+        // 另外两个session不停地执行很快的语句，每个统计周期都是最近活跃的
+        String idleScheduler = busyScheduler;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            idleScheduler = getSchedulerName(idle);
+            assertEquals(busyScheduler, getSchedulerName(inTransaction));
+            if (!busyScheduler.equals(idleScheduler))
+                break;
+            Thread.sleep(50);
+        }
+        stop.set(true);
+        t.join();
+
+        assertNotEquals(busyScheduler, idleScheduler);
+        assertEquals(busyScheduler, getSchedulerName(inTransaction));
+        assertFalse(busyMigrated.get());
+
+        // 迁移后的session和没有迁移的session都能正常执行语句
+        try (Statement stmt = idle.createStatement()) {
+            assertEquals(1, stmt.executeUpdate("UPDATE SchedulerBalanceTest SET f2 = 2 WHERE f1 = 2"));
+        }
+        inTransaction.commit();
+        sql = "SELECT f2 FROM SchedulerBalanceTest WHERE f1 = 1";
+        assertEquals(0, getIntValue(1, true));
+        sql = "SELECT f2 FROM SchedulerBalanceTest WHERE f1 = 2";
+        assertEquals(2, getIntValue(1, true));
+
+        busy.close();
+        idle.close();
+        inTransaction.close();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.server;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.lealone.client.jdbc.JdbcStatement;
+import org.lealone.db.async.Future;
+import org.lealone.test.sql.SqlTestBase;
+
+// 调度器按优先级从就绪队列中取命令，因为session状态不能执行的命令放到等待列表，
+// session可以执行后重新放入就绪队列
+public class SchedulerQueueTest extends SqlTestBase {
+
+    private static final int ROW_COUNT = 20000;
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("CREATE ALIAS IF NOT EXISTS SCHEDULER_NAME FOR \"" + SchedulerBalanceTest.class.getName()
+                + ".getSchedulerName\"");
+        createQueueTable("SchedulerQueueTest");
+        testPriority();
+        testWaitingCommand();
+        testRowLockWaiters();
+    }
+
+    private void createQueueTable(String tableName) throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS " + tableName);
+        executeUpdate("CREATE TABLE IF NOT EXISTS " + tableName + " (f1 int primary key, f2 int)");
+        executeUpdate("INSERT INTO " + tableName + "(f1, f2) SELECT x, x FROM system_range(1, " + ROW_COUNT + ")");
+    }
+
+    // 同时就绪的命令中优先级高的先执行，很快就能执行完的低优先级查询虽然先发出也要等更新执行完
+    private void testPriority() throws Exception {
+        List<Connection> conns = getConnectionsOnSameScheduler(3);
+        JdbcStatement first = (JdbcStatement) conns.get(0).createStatement();
+        JdbcStatement low = (JdbcStatement) conns.get(1).createStatement();
+        JdbcStatement high = (JdbcStatement) conns.get(2).createStatement();
+
+        List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(3);
+        // 调度器执行第一条耗时的查询期间，后面两条语句只能在队列中等着
+        first.executeQueryAsync("SELECT count(*) FROM SchedulerQueueTest a, SchedulerQueueTest b "
+                + "WHERE a.f1 <= 200 AND a.f2 + b.f2 > 0").onComplete(ar -> {
+                    completed.add("first");
+                    latch.countDown();
+                });
+        Thread.sleep(100);
+        low.executeQueryAsync("SELECT f2 FROM SchedulerQueueTest WHERE f1 = 1").onComplete(ar -> {
+            completed.add("low");
+            latch.countDown();
+        });
+        high.executeUpdateAsync("UPDATE SchedulerQueueTest SET f2 = f2 + 1").onComplete(ar -> {
+            completed.add("high");
+            latch.countDown();
+        });
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertTrue(completed.toString(), completed.indexOf("high") < completed.indexOf("low"));
+        closeAll(conns);
+    }
+
+    // 等待DDL锁的命令在等待列表中，锁释放后要重新执行
+    private void testWaitingCommand() throws Exception {
+        List<Connection> conns = getConnectionsOnSameScheduler(2);
+        Connection locker = conns.get(0);
+        JdbcStatement waiter = (JdbcStatement) conns.get(1).createStatement();
+        executeUpdate("DROP SEQUENCE IF EXISTS SchedulerQueueTestSeq1");
+        executeUpdate("DROP SEQUENCE IF EXISTS SchedulerQueueTestSeq2");
+
+        locker.setAutoCommit(false);
+        Statement lockerStmt = locker.createStatement();
+        lockerStmt.executeUpdate("CREATE SEQUENCE SchedulerQueueTestSeq1");
+
+        CountDownLatch latch = new CountDownLatch(1);
+        Future<Integer> future = waiter.executeUpdateAsync("CREATE SEQUENCE SchedulerQueueTestSeq2");
+        future.onComplete(ar -> latch.countDown());
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        locker.commit();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        future.get();
+
+        sql = "SELECT count(*) FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME LIKE 'SCHEDULERQUEUETESTSEQ%'";
+        assertEquals(2, getIntValue(1, true));
+        closeAll(conns);
+    }
+
+    // 多个等待行锁的命令轮流执行时，持有锁的session也要能回滚
+    private void testRowLockWaiters() throws Exception {
+        List<Connection> conns = getConnectionsOnSameScheduler(3);
+        Connection locker = conns.get(0);
+        JdbcStatement waiter1 = (JdbcStatement) conns.get(1).createStatement();
+        JdbcStatement waiter2 = (JdbcStatement) conns.get(2).createStatement();
+
+        locker.setAutoCommit(false);
+        Statement lockerStmt = locker.createStatement();
+        lockerStmt.executeUpdate("UPDATE SchedulerQueueTest SET f2 = 0 WHERE f1 = 1");
+        lockerStmt.executeUpdate("UPDATE SchedulerQueueTest SET f2 = 0 WHERE f1 = 2");
+
+        CountDownLatch latch = new CountDownLatch(2);
+        Future<Integer> future1 = waiter1.executeUpdateAsync("UPDATE SchedulerQueueTest SET f2 = -1 WHERE f1 = 1");
+        Future<Integer> future2 = waiter2.executeUpdateAsync("UPDATE SchedulerQueueTest SET f2 = -2 WHERE f1 = 2");
+        future1.onComplete(ar -> latch.countDown());
+        future2.onComplete(ar -> latch.countDown());
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        locker.rollback();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, future1.get().intValue());
+        assertEquals(1, future2.get().intValue());
+
+        sql = "SELECT f2 FROM SchedulerQueueTest WHERE f1 = 1";
+        assertEquals(-1, getIntValue(1, true));
+        sql = "SELECT f2 FROM SchedulerQueueTest WHERE f1 = 2";
+        assertEquals(-2, getIntValue(1, true));
+        closeAll(conns);
+    }
+
+    // session是轮流分配给调度器的，只有同一个调度器上的命令才会按优先级排队
+    private List<Connection> getConnectionsOnSameScheduler(int count) throws Exception {
+        List<Connection> conns = new ArrayList<>(count);
+        List<Connection> others = new ArrayList<>();
+        String scheduler = null;
+        for (int i = 0; i < 64 && conns.size() < count; i++) {
+            Connection c = getConnection();
+            String name = SchedulerBalanceTest.getSchedulerName(c);
+            if (scheduler == null)
+                scheduler = name;
+            if (scheduler.equals(name))
+                conns.add(c);
+            else
+                others.add(c);
+        }
+        closeAll(others);
+        assertEquals(count, conns.size());
+        return conns;
+    }
+
+    private static void closeAll(List<Connection> conns) throws Exception {
+        for (Connection c : conns)
+            c.close();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.server;
+
+import org.junit.Test;
+import org.lealone.server.TimingWheel;
+import org.lealone.test.TestBase;
+
+public class TimingWheelTest extends TestBase {
+
+    private static class CountingTimeout extends TimingWheel.Timeout {
+        int count;
+
+        @Override
+        protected void expire(long currentTime) {
+            count++;
+        }
+    }
+
+    @Test
+    public void run() {
+        TimingWheel wheel = new TimingWheel(10, 8);
+        long now = System.currentTimeMillis();
+
+        CountingTimeout t1 = new CountingTimeout();
+        CountingTimeout t2 = new CountingTimeout();
+        CountingTimeout t3 = new CountingTimeout();
+        wheel.schedule(t1, 50);
+        wheel.schedule(t2, 500); // 超过一圈
+        wheel.schedule(t3, 50);
+        wheel.cancel(t3);
+        assertTrue(t1.isScheduled());
+        assertFalse(t3.isScheduled());
+
+        wheel.advance(now);
+        assertEquals(0, t1.count);
+
+        wheel.advance(now + 100);
+        assertEquals(1, t1.count);
+        assertEquals(0, t2.count);
+        assertEquals(0, t3.count);
+        assertFalse(t1.isScheduled());
+
+        wheel.advance(now + 600);
+        assertEquals(1, t1.count);
+        assertEquals(1, t2.count);
+
+        // 已经过期的定时任务在下一次推进时马上触发
+        CountingTimeout t4 = new CountingTimeout();
+        wheel.schedule(t4, -10);
+        assertTrue(t4.isScheduled());
+        wheel.advance(now + 700);
+        assertEquals(1, t4.count);
+    }
+}
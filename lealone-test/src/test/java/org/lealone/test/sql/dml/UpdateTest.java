@@ -32,6 +32,7 @@ public class UpdateTest extends SqlTestBase {
         testUpdate();
         testUpdatePrimaryKey();
         testUpdateIndex();
+        testCommutativeUpdate();
         // testColumnLock();
     }
 
@@ -64,6 +65,45 @@ public class UpdateTest extends SqlTestBase {
         }
     }
 
+    void testCommutativeUpdate() {
+        executeUpdate("DROP TABLE IF EXISTS testCommutativeUpdate");
+        executeUpdate("CREATE TABLE testCommutativeUpdate (pk int PRIMARY KEY, hits int, f1 int)"
+                + " PARAMETERS(commutativeColumns='hits')");
+        executeUpdate("INSERT INTO testCommutativeUpdate(pk, hits, f1) VALUES(1, 0, 0)");
+        try {
+            Connection conn2 = getConnection();
+            Connection conn3 = getConnection();
+            conn2.setAutoCommit(false);
+            conn3.setAutoCommit(false);
+            Statement stmt2 = conn2.createStatement();
+            Statement stmt3 = conn3.createStatement();
+
+            // 两个事务对同一列做增量更新时不会互相等待，提交时增量会合并
+            stmt2.executeUpdate("UPDATE testCommutativeUpdate SET hits = hits + 1 WHERE pk = 1");
+            stmt3.executeUpdate("UPDATE testCommutativeUpdate SET hits = hits + 10 WHERE pk = 1");
+            stmt3.executeUpdate("UPDATE testCommutativeUpdate SET hits = 2 + hits WHERE pk = 1");
+            conn2.commit();
+            conn3.commit();
+            sql = "SELECT hits FROM testCommutativeUpdate WHERE pk = 1";
+            assertEquals(13, getIntValue(1, true));
+
+            // 回滚的增量不会影响其他事务
+            stmt2.executeUpdate("UPDATE testCommutativeUpdate SET hits = hits - 3 WHERE pk = 1");
+            stmt3.executeUpdate("UPDATE testCommutativeUpdate SET hits = hits + 5 WHERE pk = 1");
+            conn3.commit();
+            conn2.rollback();
+            assertEquals(18, getIntValue(1, true));
+
+            stmt2.close();
+            stmt3.close();
+            conn2.close();
+            conn3.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
     void testInsert() {
         executeUpdate("INSERT INTO UpdateTest(pk, f1, f2, f3) VALUES('01', 'a1', 'b', 51)");
         executeUpdate("INSERT INTO UpdateTest(pk, f1, f2, f3) VALUES('02', 'a1', 'b', 61)");
@@ -35,6 +35,27 @@ public class MainIndexColumnTest extends SqlTestBase {
 
         sql = "select * from MainIndexColumnTest";
         printResultSet();
+
+        testRangeScan();
+    }
+
+    // 主键列就是主索引列时，范围查询的上界要从last取
+    private void testRangeScan() {
+        try {
+            assertCount(2, "id < 25");
+            assertCount(2, "id <= 20");
+            assertCount(2, "id between 10 and 20");
+            assertCount(2, "id between 15 and 30");
+            assertCount(1, "id > 10 and id < 30");
+            assertCount(0, "id between 11 and 19");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void assertCount(int expected, String where) throws Exception {
+        sql = "select count(*) from MainIndexColumnTest where " + where;
+        assertEquals(where, expected, getIntValue(1, true));
     }
 
 }
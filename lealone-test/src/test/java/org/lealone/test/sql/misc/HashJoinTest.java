@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+public class HashJoinTest extends SqlTestBase {
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest1");
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest2");
+        // 连接字段上都没有索引
+        executeUpdate("CREATE TABLE IF NOT EXISTS HashJoinTest1(pk int PRIMARY KEY, f1 int, f2 varchar)");
+        executeUpdate("CREATE TABLE IF NOT EXISTS HashJoinTest2(pk int PRIMARY KEY, f1 int, f2 varchar)");
+
+        for (int i = 1; i <= 100; i++) {
+            executeUpdate("INSERT INTO HashJoinTest1 VALUES(" + i + ", " + (i % 10) + ", 'a" + (i % 5) + "')");
+        }
+        for (int i = 1; i <= 20; i++) {
+            executeUpdate("INSERT INTO HashJoinTest2 VALUES(" + i + ", " + i + ", 'a" + (i % 5) + "')");
+        }
+        executeUpdate("INSERT INTO HashJoinTest1 VALUES(101, NULL, NULL)");
+        executeUpdate("INSERT INTO HashJoinTest2 VALUES(21, NULL, NULL)");
+
+        sql = "EXPLAIN SELECT count(*) FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.f1 = t2.f1";
+        assertTrue(getStringValue(1, true).contains("hash join"));
+
+        // f1是1到9的各有10条记录，NULL不匹配
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.f1 = t2.f1";
+        assertEquals(90, getIntValue(1, true));
+        sql = "SELECT count(*) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t1.f1 = t2.f1 AND t2.pk > 5";
+        assertEquals(40, getIntValue(1, true));
+
+        // 多个等值连接字段
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.f1 = t2.f1 AND t1.f2 = t2.f2";
+        assertEquals(90, getIntValue(1, true));
+
+        // 外连接，没有匹配的记录也要返回
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 LEFT JOIN HashJoinTest2 t2 ON t1.f1 = t2.f1";
+        assertEquals(101, getIntValue(1, true));
+        sql = "SELECT count(*) FROM HashJoinTest2 t2 LEFT JOIN HashJoinTest1 t1 ON t1.f1 = t2.f1";
+        assertEquals(102, getIntValue(1, true));
+        sql = "SELECT count(*) FROM HashJoinTest2 t2 LEFT JOIN HashJoinTest1 t1 ON t1.f1 = t2.f1 WHERE t1.pk IS NULL";
+        assertEquals(12, getIntValue(1, true));
+
+        // 半连接
+        sql = "SELECT count(*) FROM HashJoinTest2 t2 WHERE t2.f1 IN(SELECT f1 FROM HashJoinTest1)";
+        assertEquals(9, getIntValue(1, true));
+
+        // 没有读完内表就结束的查询，下次执行时结果也要正确
+        sql = "SELECT t1.pk FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.f1 = t2.f1 ORDER BY t1.pk LIMIT 1";
+        assertEquals(1, getIntValue(1, true));
+        sql = "SELECT count(*) FROM HashJoinTest2 t2 WHERE EXISTS(SELECT * FROM HashJoinTest1 t1"
+                + " JOIN HashJoinTest2 t3 ON t1.f1 = t3.f1 WHERE t3.pk = t2.pk)";
+        assertEquals(9, getIntValue(1, true));
+        sql = "SELECT (SELECT t1.pk FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.f1 = t2.f1"
+                + " ORDER BY t1.pk LIMIT 1) FROM HashJoinTest2 WHERE pk = 1";
+        assertEquals(1, getIntValue(1, true));
+
+        // 第二次执行时重新建hash表
+        executeUpdate("DELETE FROM HashJoinTest1 WHERE f1 = 1");
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.f1 = t2.f1";
+        assertEquals(80, getIntValue(1, true));
+        sql = "SELECT t1.pk FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.f1 = t2.f1 ORDER BY t1.pk LIMIT 1";
+        assertEquals(2, getIntValue(1, true));
+    }
+}
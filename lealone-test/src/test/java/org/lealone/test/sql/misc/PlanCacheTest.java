@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+public class PlanCacheTest extends SqlTestBase {
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("drop table IF EXISTS PlanCacheTest");
+        stmt.executeUpdate("create table IF NOT EXISTS PlanCacheTest(f1 int primary key, f2 varchar, f3 int)");
+
+        // 只有常量不同的INSERT共用执行计划
+        for (int i = 1; i <= 20; i++) {
+            stmt.executeUpdate("insert into PlanCacheTest(f1, f2, f3) values(" + i + ", 'str" + i + "', " + i % 3 + ")");
+        }
+        sql = "select count(*) from PlanCacheTest";
+        assertEquals(20, getIntValue(1, true));
+
+        for (int i = 1; i <= 20; i++) {
+            sql = "select f2 from PlanCacheTest where f1 = " + i;
+            assertEquals("str" + i, getStringValue(1, true));
+        }
+        for (int i = 0; i < 3; i++) {
+            sql = "select count(*) from PlanCacheTest where f3 = " + i + " and f1 between 1 and 10";
+            assertEquals(i == 0 ? 3 : (i == 1 ? 4 : 3), getIntValue(1, true));
+        }
+
+        // 不是单独出现的常量不能换成参数，ORDER BY 1和ORDER BY 2是不同的执行计划
+        sql = "select f1, f2 from PlanCacheTest where f1 < 3 order by 1 desc";
+        assertEquals(2, getIntValue(1, true));
+        sql = "select f2, f1 from PlanCacheTest where f1 < 3 order by 2 desc";
+        assertEquals("str2", getStringValue(1, true));
+
+        for (int i = 1; i <= 20; i++) {
+            stmt.executeUpdate("update PlanCacheTest set f3 = " + (i * 10) + " where f1 = " + i);
+        }
+        sql = "select sum(f3) from PlanCacheTest";
+        assertEquals(2100, getIntValue(1, true));
+
+        // 其他session执行相同的SQL
+        Connection conn2 = getConnection();
+        Statement stmt2 = conn2.createStatement();
+        for (int i = 1; i <= 20; i++) {
+            ResultSet rs2 = stmt2.executeQuery("select f3 from PlanCacheTest where f1 = " + i);
+            assertTrue(rs2.next());
+            assertEquals(i * 10, rs2.getInt(1));
+            rs2.close();
+        }
+        stmt2.close();
+        conn2.close();
+
+        // DDL之后执行计划失效
+        stmt.executeUpdate("alter table PlanCacheTest add column f4 int default 100");
+        sql = "select f4 from PlanCacheTest where f1 = 1";
+        assertEquals(100, getIntValue(1, true));
+        sql = "select * from PlanCacheTest where f1 = 2";
+        executeQuery();
+        assertEquals(4, rs.getMetaData().getColumnCount());
+        closeResultSet();
+
+        stmt.executeUpdate("delete from PlanCacheTest where f1 > 10");
+        sql = "select count(*) from PlanCacheTest";
+        assertEquals(10, getIntValue(1, true));
+    }
+
+    // 本地临时表只属于创建它的session，读它的执行计划不能放到数据库的执行计划缓存中给其他session用
+    @Test
+    public void testLocalTemporaryTable() throws Exception {
+        stmt.executeUpdate("create local temporary table PlanCacheTempTest(f1 int primary key, f2 varchar)");
+        for (int i = 1; i <= 20; i++) {
+            stmt.executeUpdate("insert into PlanCacheTempTest(f1, f2) values(" + i + ", 'a" + i + "')");
+        }
+        // 超过session的查询缓存大小，被淘汰的执行计划会放回数据库的执行计划缓存
+        for (int i = 1; i <= 20; i++) {
+            sql = "select f2 from PlanCacheTempTest where f1 = " + i;
+            assertEquals("a" + i, getStringValue(1, true));
+        }
+
+        Connection conn2 = getConnection();
+        Statement stmt2 = conn2.createStatement();
+        try {
+            stmt2.executeQuery("select f2 from PlanCacheTempTest where f1 = 1");
+            fail();
+        } catch (Exception e) {
+            // 其他session看不到这个临时表
+        }
+        stmt2.executeUpdate("create local temporary table PlanCacheTempTest(f1 int primary key, f2 varchar)");
+        stmt2.executeUpdate("insert into PlanCacheTempTest(f1, f2) values(1, 'b1')");
+        ResultSet rs2 = stmt2.executeQuery("select f2 from PlanCacheTempTest where f1 = 1");
+        assertTrue(rs2.next());
+        assertEquals("b1", rs2.getString(1));
+        rs2.close();
+        stmt2.close();
+        conn2.close();
+
+        stmt.executeUpdate("drop table PlanCacheTempTest");
+    }
+}